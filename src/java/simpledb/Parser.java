@@ -567,7 +567,7 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "stats" };
 
     public static void main(String[] argv) throws IOException {
 
@@ -585,6 +585,17 @@ public class Parser {
     static final int SLEEP_TIME = 1000;
 
     protected void shutdown() {
+        Database.stopMonitoring();
+        Database.saveBufferPoolSnapshot();
+        if (Database.getBufferPool().needsRecovery()) {
+            Database.getLogFile().shutdown(); // 检查点写回已提交但还没写回的页面
+        }
+        try {
+            Database.getCatalog().sync();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        Database.getCatalog().close();
         System.out.println("Bye");
     }
 
@@ -593,6 +604,11 @@ public class Parser {
     protected void start(String[] argv) throws IOException {
         // first add tables to database
         Database.getCatalog().loadSchema(argv[0]);
+        if (Database.getBufferPool().needsRecovery()) {
+            Database.getLogFile().recover(); // 已提交的页面可能只在日志中，未提交的页面可能已被写回
+        }
+        Database.warmUpBufferPool(); // 后台预热，不等它完成
+        Database.startMonitoring();
         TableStats.computeStatistics();
 
         String queryFile = null;
@@ -668,12 +684,17 @@ public class Parser {
                         break;
                     }
 
-                    long startTime = System.currentTimeMillis();
-                    processNextStatement(new ByteArrayInputStream(
-                            statementBytes));
-                    long time = System.currentTimeMillis() - startTime;
-                    System.out.printf("----------------\n%.2f seconds\n\n",
-                            ((double) time / 1000.0));
+                    if (cmd.equalsIgnoreCase("stats;")) {
+                        // BufferPool的命中率、I/O和置换统计
+                        System.out.println(Database.getBufferPool().getStats().report());
+                    } else {
+                        long startTime = System.currentTimeMillis();
+                        processNextStatement(new ByteArrayInputStream(
+                                statementBytes));
+                        long time = System.currentTimeMillis() - startTime;
+                        System.out.printf("----------------\n%.2f seconds\n\n",
+                                ((double) time / 1000.0));
+                    }
 
                     // Grab the remainder of the line
                     line = line.substring(split + 1);
@@ -684,6 +705,9 @@ public class Parser {
                     buffer.append("\n");
                 }
             }
+            if (!quit) {
+                shutdown(); // 输入结束（Ctrl-D）与quit一样要保存快照、写检查点
+            }
         }
     }
 }
@@ -57,6 +57,20 @@ public class SimpleDb {
                     throw new RuntimeException(e);
                 }
                 break;
+            case "compress":
+                // compress <plain.dat> <compressed.dat> [level]
+                try {
+                    if (args.length < 3 || args.length > 4) {
+                        System.err.println("Unexpected number of arguments to compress ");
+                        return;
+                    }
+                    int level = args.length == 4 ? Integer.parseInt(args[3]) : java.util.zip.Deflater.DEFAULT_COMPRESSION;
+                    CompressedPageStore.compress(new File(args[1]), new File(args[2]),
+                            BufferPool.getPageSize(), level);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                break;
             case "print":
                 File tableFile = new File(args[1]);
                 int columns = Integer.parseInt(args[2]);
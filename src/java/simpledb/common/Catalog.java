@@ -1,8 +1,11 @@
 package simpledb.common;
 
 import simpledb.common.Type;
+import simpledb.storage.BufferPool;
+import simpledb.storage.ColumnFile;
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
+import simpledb.storage.SlottedHeapFile;
 import simpledb.storage.TupleDesc;
 
 import java.io.*;
@@ -123,6 +126,18 @@ public class Catalog {
         return table.file;
     }
 
+    /**
+     * Returns the size of the pages of the specified table, in bytes, or the
+     * default page size ({@link BufferPool#getPageSize()}) if there is no
+     * such table.
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     */
+    public int getPageSize(int tableid) {
+        Table table = tables.get(tableid);
+        return table == null ? BufferPool.getPageSize() : table.file.getPageSize();
+    }
+
     public String getPrimaryKey(int tableid) {
         // some code goes here
         return tables.get(tableid).pkeyField;
@@ -141,11 +156,43 @@ public class Catalog {
     /** Delete all tables from the catalog */
     public void clear() {
         // some code goes here
+        close();
         tables.clear();
     }
+
+    /** Write the metadata of all tables in the catalog to disk */
+    public void sync() throws IOException {
+        for (Table table : tables.values()) {
+            table.file.sync();
+        }
+    }
+
+    /** Release the open file handles of all tables in the catalog */
+    public void close() {
+        for (Table table : tables.values()) {
+            table.file.close();
+        }
+    }
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line has the format
+     * <pre>name (field type [pk], field type, ...) [options]</pre>
+     * where options is a whitespace separated list of table options:
+     * <ul>
+     * <li> mmap -- read pages through a memory mapping of the table file
+     * <li> compressed -- keep the pages of the table file deflate compressed
+     *      (see CompressedPageStore; convert a table file with
+     *      <code>SimpleDb compress</code>)
+     * <li> slotted -- store the table in a SlottedHeapFile, with variable-length
+     *      records
+     * <li> columnar -- store the table by column in a ColumnFile, so that
+     *      scans only read the fields a query references
+     * <li> pagesize=N -- use pages of N bytes for this table instead of the
+     *      default {@link BufferPool#getPageSize()}
+     * </ul>
+     * At most one of mmap, compressed, slotted and columnar may be given;
+     * pagesize may be combined with any of them.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -186,7 +233,49 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                // optional table options after the schema, e.g. "name (f int) mmap"
+                HeapFile.StorageMode mode = HeapFile.StorageMode.PLAIN;
+                boolean slotted = false;
+                boolean columnar = false;
+                int pageSize = BufferPool.getPageSize();
+                String options = line.substring(line.indexOf(")") + 1).trim();
+                for (String option : options.split("\\s+")) {
+                    if (option.isEmpty())
+                        continue;
+                    if (option.toLowerCase().startsWith("pagesize=")) {
+                        try {
+                            pageSize = Integer.parseInt(option.substring("pagesize=".length()));
+                        } catch (NumberFormatException e) {
+                            System.out.println("Invalid page size " + option);
+                            System.exit(0);
+                        }
+                        continue;
+                    }
+                    if (mode != HeapFile.StorageMode.PLAIN || slotted || columnar) {
+                        System.out.println("Only one storage option allowed, got " + options);
+                        System.exit(0);
+                    }
+                    if (option.equalsIgnoreCase("mmap"))
+                        mode = HeapFile.StorageMode.MMAP;
+                    else if (option.equalsIgnoreCase("compressed"))
+                        mode = HeapFile.StorageMode.COMPRESSED;
+                    else if (option.equalsIgnoreCase("slotted"))
+                        slotted = true;
+                    else if (option.equalsIgnoreCase("columnar"))
+                        columnar = true;
+                    else {
+                        System.out.println("Unknown table option " + option);
+                        System.exit(0);
+                    }
+                }
+                File tableFile = new File(baseFolder+"/"+name + ".dat");
+                DbFile tabHf;
+                if (slotted)
+                    tabHf = new SlottedHeapFile(tableFile, t, pageSize);
+                else if (columnar)
+                    tabHf = new ColumnFile(tableFile, t, pageSize);
+                else
+                    tabHf = new HeapFile(tableFile, t, mode, pageSize);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
@@ -2,8 +2,14 @@ package simpledb.common;
 
 import simpledb.storage.BufferPool;
 import simpledb.storage.LogFile;
+import simpledb.storage.cache.CachePolicy;
+import simpledb.storage.stats.BufferPoolMonitor;
 
 import java.io.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -24,6 +30,11 @@ public class Database {
     private final static String LOGFILENAME = "log";
     private final LogFile _logfile;
 
+    /** Seconds between two snapshots of the buffer pool when {@link BufferPool#WARMUP_PROPERTY} is set */
+    private static final long SNAPSHOT_PERIOD_SECONDS = 60;
+    // 定期保存当前的BufferPool，而不是各个BufferPool各自保存，以免被替换掉的旧BufferPool覆盖快照；受Database.class保护
+    private static ScheduledExecutorService snapshotter;
+
     private Database() {
         _catalog = new Catalog();
         _bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
@@ -38,6 +49,73 @@ public class Database {
         // startControllerThread();
     }
 
+    /**
+     * Register the buffer pool MBean with the platform MBean server and, if
+     * {@link BufferPool#WARMUP_PROPERTY} is set, start saving a snapshot of
+     * the buffer pool periodically.  Called by the parser at startup; the
+     * rest of the system, tests included, runs without either.
+     */
+    public static synchronized void startMonitoring() {
+        // JMX中看到的总是当前的BufferPool，替换了BufferPool也一样
+        BufferPoolMonitor.register(() -> getBufferPool().getStats());
+        if (snapshotter != null || System.getProperty(BufferPool.WARMUP_PROPERTY) == null) {
+            return;
+        }
+        snapshotter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "BufferPool-snapshot");
+            t.setDaemon(true);
+            return t;
+        });
+        snapshotter.scheduleWithFixedDelay(Database::saveBufferPoolSnapshot,
+                SNAPSHOT_PERIOD_SECONDS, SNAPSHOT_PERIOD_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Undo {@link #startMonitoring}: unregister the MBean and stop the
+     * periodic snapshots.  Does nothing if monitoring is not running.
+     */
+    public static synchronized void stopMonitoring() {
+        BufferPoolMonitor.unregister();
+        if (snapshotter != null) {
+            snapshotter.shutdownNow();
+            snapshotter = null;
+        }
+    }
+
+    /**
+     * Save the pages of the buffer pool to the file named by
+     * {@link BufferPool#WARMUP_PROPERTY}, if it is set.  Called periodically
+     * and once when the parser shuts down.
+     */
+    public static synchronized void saveBufferPoolSnapshot() {
+        String file = System.getProperty(BufferPool.WARMUP_PROPERTY);
+        if (file == null) {
+            return;
+        }
+        try {
+            getBufferPool().saveSnapshot(new File(file));
+        } catch (IOException e) {
+            e.printStackTrace(); // 快照只是提示，失败不影响数据库本身
+        }
+    }
+
+    /**
+     * Start reading the pages saved by {@link #saveBufferPoolSnapshot} back
+     * into the buffer pool, in the background.  Call once the catalog is
+     * loaded.
+     *
+     * @return a future completed with the number of pages read, 0 if
+     *         {@link BufferPool#WARMUP_PROPERTY} is not set or there is no
+     *         snapshot yet
+     */
+    public static CompletableFuture<Integer> warmUpBufferPool() {
+        String file = System.getProperty(BufferPool.WARMUP_PROPERTY);
+        if (file == null || !new File(file).exists()) {
+            return CompletableFuture.completedFuture(0);
+        }
+        return getBufferPool().warmUp(new File(file));
+    }
+
     /** Return the log file of the static Database instance */
     public static LogFile getLogFile() {
         return _instance.get()._logfile;
@@ -58,11 +136,32 @@ public class Database {
      * return it
      */
     public static BufferPool resetBufferPool(int pages) {
+        return resetBufferPool(new BufferPool(pages));
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool,
+     * kept off-heap or not, and return it
+     */
+    public static BufferPool resetBufferPool(int pages, boolean offHeap) {
+        return resetBufferPool(new BufferPool(pages, offHeap));
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool
+     * with the given replacement policy and return it
+     */
+    public static BufferPool resetBufferPool(int pages, CachePolicy policy) {
+        return resetBufferPool(new BufferPool(pages, policy));
+    }
+
+    private static BufferPool resetBufferPool(BufferPool bufferPool) {
+        stopMonitoring();
         java.lang.reflect.Field bufferPoolF=null;
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            bufferPoolF.set(_instance.get(), bufferPool);
         } catch (NoSuchFieldException | IllegalAccessException | IllegalArgumentException | SecurityException e) {
             e.printStackTrace();
         }
@@ -72,7 +171,9 @@ public class Database {
 
     // reset the database, used for unit tests only.
     public static void reset() {
-        _instance.set(new Database());
+        stopMonitoring();
+        Database old = _instance.getAndSet(new Database());
+        old._catalog.close();
     }
 
 }
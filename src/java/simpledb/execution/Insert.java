@@ -89,8 +89,13 @@ public class Insert extends Operator {
         if(count != 0) return null; // 本方法只许调用一次，除非rewind
 
         while(child.hasNext()){
+            Tuple t = child.next();
+            for(int i=0; i<t.getTupleDesc().numFields(); i++){
+                if(t.getField(i) == null) // 投影扫描没有读取的字段
+                    throw new DbException("field " + i + " of the tuple to insert is not set");
+            }
             try {
-                Database.getBufferPool().insertTuple(tid, tableId, child.next());
+                Database.getBufferPool().insertTuple(tid, tableId, t);
                 count ++;
             } catch (IOException e) {
                 e.printStackTrace();
@@ -21,6 +21,7 @@ public class SeqScan implements OpIterator {
     private int tableId;
     private TransactionId tid;
     private String tableAlias;
+    private int[] columns; // 计划中用到的字段，null表示全部
     private DbFileIterator dbFileIterator;
 
     /**
@@ -46,6 +47,23 @@ public class SeqScan implements OpIterator {
         this.tableAlias = (tableAlias==null || tableAlias.equals("")) ? "null" : tableAlias;
     }
 
+    /**
+     * Creates a sequential scan that only has to produce the given fields
+     * of each tuple.  The TupleDesc of the scan is unchanged, so that field
+     * indexes downstream stay the same; for tables stored by column (see
+     * {@link simpledb.storage.ColumnFile}) the other fields are not read and
+     * are null in the returned tuples.  Such tuples print the unread fields
+     * as "null" and cannot be inserted into a table.
+     *
+     * @param columns
+     *            the indexes of the fields the plan references, or null for
+     *            all of them.
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] columns) {
+        this(tid, tableid, tableAlias);
+        this.columns = columns;
+    }
+
     /**
      * @return
      *       return the table name of the table the operator scans. This should
@@ -81,6 +99,7 @@ public class SeqScan implements OpIterator {
         // some code goes here
         this.tableId = tableid;
         this.tableAlias = tableAlias;
+        this.columns = null;
     }
 
     public SeqScan(TransactionId tid, int tableId) {
@@ -91,7 +110,7 @@ public class SeqScan implements OpIterator {
         // some code goes here
         if(dbFileIterator == null){
             DbFile dbFile = Database.getCatalog().getDatabaseFile(tableId);
-            dbFileIterator = dbFile.iterator(tid);
+            dbFileIterator = columns == null ? dbFile.iterator(tid) : dbFile.iterator(tid, columns);
             dbFileIterator.open();
         }
     }
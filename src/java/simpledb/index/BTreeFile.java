@@ -1,6 +1,7 @@
 package simpledb.index;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 import simpledb.common.Database;
@@ -32,6 +33,8 @@ public class BTreeFile implements DbFile {
 	private final TupleDesc td;
 	private final int tableid ;
 	private final int keyField;
+	private final int pageSize;
+	private final DbFileChannel channel;
 
 
 	/**
@@ -43,10 +46,22 @@ public class BTreeFile implements DbFile {
 	 * @param td - the tuple descriptor of tuples in the file
 	 */
 	public BTreeFile(File f, int key, TupleDesc td) {
+		this(f, key, td, BufferPool.getPageSize());
+	}
+
+	/**
+	 * Constructs a B+ tree file whose internal, leaf and header pages have
+	 * the given size.  The root pointer page keeps its own fixed size.
+	 * 
+	 * @param pageSize - the size of the pages of this file, in bytes
+	 */
+	public BTreeFile(File f, int key, TupleDesc td, int pageSize) {
 		this.f = f;
 		this.tableid = f.getAbsoluteFile().hashCode();
 		this.keyField = key;
 		this.td = td;
+		this.pageSize = pageSize;
+		this.channel = new DbFileChannel(f);
 	}
 
 	/**
@@ -56,6 +71,18 @@ public class BTreeFile implements DbFile {
 		return f;
 	}
 
+	// see DbFile.java for javadocs
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	/**
+	 * Returns the channel used for page I/O on this BTreeFile.
+	 */
+	public DbFileChannel getChannel() {
+		return channel;
+	}
+
 	/**
 	 * Returns an ID uniquely identifying this BTreeFile. Implementation note:
 	 * you will need to generate this tableid somewhere and ensure that each
@@ -88,49 +115,42 @@ public class BTreeFile implements DbFile {
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
 
-        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
-            if (id.pgcateg() == BTreePageId.ROOT_PTR) {
-                byte[] pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
-                int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
-                if (retval == -1) {
-                    throw new IllegalArgumentException("Read past end of table");
-                }
-                if (retval < BTreeRootPtrPage.getPageSize()) {
-                    throw new IllegalArgumentException("Unable to read "
-                            + BTreeRootPtrPage.getPageSize() + " bytes from BTreeFile");
-                }
-                Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
-                return new BTreeRootPtrPage(id, pageBuf);
-            } else {
-                byte[] pageBuf = new byte[BufferPool.getPageSize()];
-                if (bis.skip(BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) !=
-                        BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException(
-                            "Unable to seek to correct place in BTreeFile");
-                }
-                int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-                if (retval == -1) {
-                    throw new IllegalArgumentException("Read past end of table");
-                }
-                if (retval < BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException("Unable to read "
-                            + BufferPool.getPageSize() + " bytes from BTreeFile");
-                }
-                Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
-                if (id.pgcateg() == BTreePageId.INTERNAL) {
-                    return new BTreeInternalPage(id, pageBuf, keyField);
-                } else if (id.pgcateg() == BTreePageId.LEAF) {
-                    return new BTreeLeafPage(id, pageBuf, keyField);
-                } else { // id.pgcateg() == BTreePageId.HEADER
-                    return new BTreeHeaderPage(id, pageBuf);
-                }
-            }
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-        // Close the file on success or error
-        // Ignore failures closing the file
-    }
+		try {
+			if (id.pgcateg() == BTreePageId.ROOT_PTR) {
+				byte[] pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
+				int retval = channel.read(0, ByteBuffer.wrap(pageBuf));
+				if (retval == 0) {
+					throw new IllegalArgumentException("Read past end of table");
+				}
+				if (retval < BTreeRootPtrPage.getPageSize()) {
+					throw new IllegalArgumentException("Unable to read "
+							+ BTreeRootPtrPage.getPageSize() + " bytes from BTreeFile");
+				}
+				Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
+				return new BTreeRootPtrPage(id, pageBuf);
+			} else {
+				byte[] pageBuf = new byte[pageSize];
+				int retval = channel.read(pageOffset(id.getPageNumber()), ByteBuffer.wrap(pageBuf));
+				if (retval == 0) {
+					throw new IllegalArgumentException("Read past end of table");
+				}
+				if (retval < pageSize) {
+					throw new IllegalArgumentException("Unable to read "
+							+ pageSize + " bytes from BTreeFile");
+				}
+				Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
+				if (id.pgcateg() == BTreePageId.INTERNAL) {
+					return new BTreeInternalPage(id, pageBuf, keyField);
+				} else if (id.pgcateg() == BTreePageId.LEAF) {
+					return new BTreeLeafPage(id, pageBuf, keyField);
+				} else { // id.pgcateg() == BTreePageId.HEADER
+					return new BTreeHeaderPage(id, pageBuf);
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
 
 	/**
 	 * Write a page to disk.  This should not be called directly but should 
@@ -142,24 +162,38 @@ public class BTreeFile implements DbFile {
 		BTreePageId id = (BTreePageId) page.getId();
 		
 		byte[] data = page.getPageData();
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
 		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-			rf.write(data);
-			rf.close();
+			channel.write(0, ByteBuffer.wrap(data));
 		}
 		else {
-			rf.seek(BTreeRootPtrPage.getPageSize() + (long) (page.getId().getPageNumber() - 1) * BufferPool.getPageSize());
-			rf.write(data);
-			rf.close();
+			channel.write(pageOffset(id.getPageNumber()), ByteBuffer.wrap(data));
 		}
 	}
+
+	// see DbFile.java for javadocs
+	public void writePages(List<Page> pages) throws IOException {
+		channel.writePages(pages, p -> ((BTreePageId) p.getId()).pgcateg() == BTreePageId.ROOT_PTR
+				? 0 : pageOffset(p.getId().getPageNumber()));
+	}
+
+	/**
+	 * Returns the file offset of the given (non root pointer) page number
+	 */
+	private long pageOffset(int pageNo) {
+		return BTreeRootPtrPage.getPageSize() + (long) (pageNo - 1) * pageSize;
+	}
+
+	// see DbFile.java for javadocs
+	public void close() {
+		channel.close();
+	}
 	
 	/**
 	 * Returns the number of pages in this BTreeFile.
 	 */
 	public int numPages() {
 		// we only ever write full pages
-		return (int) ((f.length() - BTreeRootPtrPage.getPageSize())/ BufferPool.getPageSize());
+		return (int) ((f.length() - BTreeRootPtrPage.getPageSize())/ pageSize);
 	}
 
 	/**
@@ -1015,13 +1049,10 @@ public class BTreeFile implements DbFile {
 		synchronized(this) {
 			if(f.length() == 0) {
 				// create the root pointer page and the root page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
-				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-				bw.write(emptyRootPtrData);
-				bw.write(emptyLeafData);
-				bw.close();
+				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData(pageSize);
+				channel.write(0, ByteBuffer.wrap(emptyRootPtrData));
+				channel.write(emptyRootPtrData.length, ByteBuffer.wrap(emptyLeafData));
 			}
 		}
 
@@ -1068,7 +1099,7 @@ public class BTreeFile implements DbFile {
 				headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_WRITE);
 				int emptySlot = headerPage.getEmptySlot();
 				headerPage.markSlotUsed(emptySlot, true);
-				emptyPageNo = headerPageCount * BTreeHeaderPage.getNumSlots() + emptySlot;
+				emptyPageNo = headerPageCount * BTreeHeaderPage.getNumSlots(pageSize) + emptySlot;
 			}
 		}
 
@@ -1077,11 +1108,8 @@ public class BTreeFile implements DbFile {
 		if(headerId == null) {		
 			synchronized(this) {
 				// create the new page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
-				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-				bw.write(emptyData);
-				bw.close();
+				byte[] emptyData = BTreeInternalPage.createEmptyPageData(pageSize);
+				channel.write(f.length(), ByteBuffer.wrap(emptyData));
 				emptyPageNo = numPages();
 			}
 		}
@@ -1111,14 +1139,17 @@ public class BTreeFile implements DbFile {
 		int emptyPageNo = getEmptyPageNo(tid, dirtypages);
 		BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 		
-		// write empty page to disk
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (long) (emptyPageNo - 1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
-		rf.close();
-		
-		// make sure the page is not in the buffer pool	or in the local cache		
-		Database.getBufferPool().discardPage(newPageId);
+		// 写盘和丢弃期间不能换出旧页面，否则写回它尚未落盘的已提交版本会覆盖刚写入的空页面
+		synchronized (Database.getBufferPool()) {
+			// write empty page to disk
+			channel.write(pageOffset(emptyPageNo), ByteBuffer.wrap(BTreePage.createEmptyPageData(pageSize)));
+
+			// make sure the page is not in the buffer pool	or in the local cache
+			// 页号可能换了类别复用，旧类别的页面若还留在缓存中（例如提交后尚未写回）会在之后覆盖新页面
+			for (int categ : new int[]{BTreePageId.LEAF, BTreePageId.INTERNAL, BTreePageId.HEADER}) {
+				Database.getBufferPool().discardPage(new BTreePageId(tableid, emptyPageNo, categ));
+			}
+		}
 		dirtypages.remove(newPageId);
 		
 		return getPage(tid, dirtypages, newPageId, Permissions.READ_WRITE);
@@ -1180,7 +1211,7 @@ public class BTreeFile implements DbFile {
 
 		// iterate through all the existing header pages to find the one containing the slot
 		// corresponding to emptyPageNo
-		while(headerId != null && (headerPageCount + 1) * BTreeHeaderPage.getNumSlots() < emptyPageNo) {
+		while(headerId != null && (headerPageCount + 1) * BTreeHeaderPage.getNumSlots(pageSize) < emptyPageNo) {
 			BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
 			prevId = headerId;
 			headerId = headerPage.getNextPageId();
@@ -1190,7 +1221,7 @@ public class BTreeFile implements DbFile {
 		// at this point headerId should either be null or set with 
 		// the headerPage containing the slot corresponding to emptyPageNo.
 		// Add header pages until we have one with a slot corresponding to emptyPageNo
-		while((headerPageCount + 1) * BTreeHeaderPage.getNumSlots() < emptyPageNo) {
+		while((headerPageCount + 1) * BTreeHeaderPage.getNumSlots(pageSize) < emptyPageNo) {
 			BTreeHeaderPage prevPage = (BTreeHeaderPage) getPage(tid, dirtypages, prevId, Permissions.READ_WRITE);
 			
 			BTreeHeaderPage headerPage = (BTreeHeaderPage) getEmptyPage(tid, dirtypages, BTreePageId.HEADER);
@@ -1206,7 +1237,7 @@ public class BTreeFile implements DbFile {
 		// now headerId should be set with the headerPage containing the slot corresponding to 
 		// emptyPageNo
 		BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_WRITE);
-		int emptySlot = emptyPageNo - headerPageCount * BTreeHeaderPage.getNumSlots();
+		int emptySlot = emptyPageNo - headerPageCount * BTreeHeaderPage.getNumSlots(pageSize);
 		headerPage.markSlotUsed(emptySlot, false);
 	}
 
@@ -1244,7 +1275,8 @@ public class BTreeFile implements DbFile {
 class BTreeFileIterator extends AbstractDbFileIterator {
 
 	Iterator<Tuple> it = null;
-	BTreeLeafPage curp = null;
+	BTreeLeafPage curp = null; // 处于固定状态
+	ScanRing ring = null; // 大文件沿叶子页扫描时使用的私有页面环
 
 	final TransactionId tid;
 	final BTreeFile f;
@@ -1266,8 +1298,25 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
 				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
 		BTreePageId root = rootPtr.getRootId();
-		curp = f.findLeafPage(tid, root, null);
+		curp = pin(f.findLeafPage(tid, root, null).getId(), null);
 		it = curp.iterator();
+		ring = ScanRing.forScan(Database.getBufferPool(), f.numPages());
+	}
+
+	/**
+	 * Release the pin on the current leaf page and pin the given one
+	 */
+	private BTreeLeafPage pin(BTreePageId pid, ScanRing ring)
+			throws TransactionAbortedException, DbException {
+		unpin(); // 先释放当前页：缓冲池很小时下一页可能正需要它的位置
+		curp = null;
+		return (BTreeLeafPage) Database.getBufferPool().pinPage(tid, pid, Permissions.READ_ONLY, ring);
+	}
+
+	private void unpin() {
+		if (curp != null) {
+			Database.getBufferPool().unpinPage(tid, curp.getId());
+		}
 	}
 
 	/**
@@ -1284,11 +1333,11 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 		while (it == null && curp != null) {
 			BTreePageId nextp = curp.getRightSiblingId();
 			if(nextp == null) {
+				unpin();
 				curp = null;
 			}
 			else {
-				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-						nextp, Permissions.READ_ONLY);
+				curp = pin(nextp, ring);
 				it = curp.iterator();
 				if (!it.hasNext())
 					it = null;
@@ -1313,8 +1362,10 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 	 */
 	public void close() {
 		super.close();
+		unpin();
 		it = null;
 		curp = null;
+		ring = null;
 	}
 }
 
@@ -1325,7 +1376,8 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 class BTreeSearchIterator extends AbstractDbFileIterator {
 
 	Iterator<Tuple> it = null;
-	BTreeLeafPage curp = null;
+	BTreeLeafPage curp = null; // 处于固定状态
+	ScanRing ring = null; // 范围扫描大文件时使用的私有页面环，等值查询不用
 
 	final TransactionId tid;
 	final BTreeFile f;
@@ -1351,14 +1403,35 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
 				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
 		BTreePageId root = rootPtr.getRootId();
+		BTreeLeafPage leaf;
 		if(ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN 
 				|| ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
-			curp = f.findLeafPage(tid, root, ipred.getField());
+			leaf = f.findLeafPage(tid, root, ipred.getField());
 		}
 		else {
-			curp = f.findLeafPage(tid, root, null);
+			leaf = f.findLeafPage(tid, root, null);
 		}
+		curp = pin(leaf.getId(), null);
 		it = curp.iterator();
+		if(ipred.getOp() != Op.EQUALS) {
+			ring = ScanRing.forScan(Database.getBufferPool(), f.numPages());
+		}
+	}
+
+	/**
+	 * Release the pin on the current leaf page and pin the given one
+	 */
+	private BTreeLeafPage pin(BTreePageId pid, ScanRing ring)
+			throws TransactionAbortedException, DbException {
+		unpin(); // 先释放当前页：缓冲池很小时下一页可能正需要它的位置
+		curp = null;
+		return (BTreeLeafPage) Database.getBufferPool().pinPage(tid, pid, Permissions.READ_ONLY, ring);
+	}
+
+	private void unpin() {
+		if (curp != null) {
+			Database.getBufferPool().unpinPage(tid, curp.getId());
+		}
 	}
 
 	/**
@@ -1396,8 +1469,7 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 				return null;
 			}
 			else {
-				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-						nextp, Permissions.READ_ONLY);
+				curp = pin(nextp, ring);
 				it = curp.iterator();
 			}
 		}
@@ -1418,6 +1490,9 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	 */
 	public void close() {
 		super.close();
+		unpin();
 		it = null;
+		curp = null;
+		ring = null;
 	}
 }
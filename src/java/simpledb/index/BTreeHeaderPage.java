@@ -1,8 +1,11 @@
 package simpledb.index;
 
+import simpledb.common.Catalog;
+import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Type;
+import simpledb.storage.BeforeImage;
 import simpledb.storage.BufferPool;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
@@ -29,24 +32,25 @@ public class BTreeHeaderPage implements Page {
 	final BTreePageId pid;
 	final byte[] header;
 	final int numSlots;
+	final int pageSize;
 
 	private int nextPage; // next header page or 0
 	private int prevPage; // previous header page or 0
 
-	byte[] oldData;
-	private final Byte oldDataLock= (byte) 0;
+	final BeforeImage beforeImage;
 
 	/**
 	 * Create a BTreeHeaderPage from a set of bytes of data read from disk.
 	 * The format of a BTreeHeaderPage is two pointers to the next and previous
 	 * header pages, followed by a set of bytes indicating which pages in the file
 	 * are used or available
-	 * @see BufferPool#getPageSize()
+	 * @see Catalog#getPageSize
 	 * 
 	 */
 	public BTreeHeaderPage(BTreePageId id, byte[] data) throws IOException {
 		this.pid = id;
-		this.numSlots = getNumSlots();
+		this.pageSize = Database.getCatalog().getPageSize(id.getTableId());
+		this.numSlots = getNumSlots(pageSize);
 		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
 		// Read the next and prev pointers
@@ -65,13 +69,13 @@ public class BTreeHeaderPage implements Page {
 		}
 
 		// allocate and read the header slots of this page
-		header = new byte[getHeaderSize()];
+		header = new byte[getHeaderSize(pageSize)];
 		for (int i=0; i<header.length; i++)
 			header[i] = dis.readByte();
 
 		dis.close();
 
-		setBeforeImage();
+		beforeImage = new BeforeImage(data); // 从磁盘读入的数据就是before image，不必重新序列化
 	}
 
 	/**
@@ -79,34 +83,37 @@ public class BTreeHeaderPage implements Page {
 	 */
 	public void init() {
         Arrays.fill(header, (byte) 0xFF);
+		beforeImage.modified();
 	}
 
 	/**
 	 * Computes the number of bytes in the header while saving room for pointers
 	 */
-	private static int getHeaderSize() {        
+	private static int getHeaderSize(int pageSize) {        
 		// pointerBytes: nextPage and prevPage pointers
 		int pointerBytes = 2 * INDEX_SIZE; 
-		return BufferPool.getPageSize() - pointerBytes;
+		return pageSize - pointerBytes;
 	}
 
 	/**
 	 * Computes the number of slots in the header
 	 */
 	public static int getNumSlots() {        
-		return getHeaderSize() * 8;
+		return getNumSlots(BufferPool.getPageSize());
+	}
+
+	/**
+	 * Computes the number of slots in the header of a page of the given size
+	 */
+	public static int getNumSlots(int pageSize) {
+		return getHeaderSize(pageSize) * 8;
 	}
 
 	/** Return a view of this page before it was modified
         -- used by recovery */
 	public BTreeHeaderPage getBeforeImage(){
 		try {
-			byte[] oldDataRef = null;
-			synchronized(oldDataLock)
-			{
-				oldDataRef = oldData;
-			}
-			return new BTreeHeaderPage(pid,oldDataRef);
+			return new BTreeHeaderPage(pid,beforeImage.get());
 		} catch (IOException e) {
 			e.printStackTrace();
 			//should never happen -- we parsed it OK before!
@@ -116,10 +123,7 @@ public class BTreeHeaderPage implements Page {
 	}
 
 	public void setBeforeImage() {
-		synchronized(oldDataLock)
-		{
-			oldData = getPageData().clone();
-		}
+		beforeImage.update(this::getPageData);
 	}
 
 	/**
@@ -141,7 +145,7 @@ public class BTreeHeaderPage implements Page {
 	 * @return A byte array correspond to the bytes of this page.
 	 */
 	public byte[] getPageData() {
-		int len = BufferPool.getPageSize();
+		int len = pageSize;
 		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
 		DataOutputStream dos = new DataOutputStream(baos);
 
@@ -188,8 +192,18 @@ public class BTreeHeaderPage implements Page {
 	 * @return The returned ByteArray.
 	 */
 	public static byte[] createEmptyPageData() {
-		int len = BufferPool.getPageSize();
-		return new byte[len]; //all 0
+		return createEmptyPageData(BufferPool.getPageSize());
+	}
+
+	/**
+	 * Static method to generate a byte array corresponding to an empty
+	 * BTreeHeaderPage of the given page size.
+	 *
+	 * @param pageSize - the page size of the file the page belongs to
+	 * @return The returned ByteArray.
+	 */
+	public static byte[] createEmptyPageData(int pageSize) {
+		return new byte[pageSize]; //all 0
 	}
 
 	/**
@@ -232,6 +246,7 @@ public class BTreeHeaderPage implements Page {
 			}
 			prevPage = id.getPageNumber();
 		}
+		beforeImage.modified();
 	}
 
 	/**
@@ -252,6 +267,7 @@ public class BTreeHeaderPage implements Page {
 			}
 			nextPage = id.getPageNumber();
 		}
+		beforeImage.modified();
 	}
 
 	/**
@@ -260,7 +276,10 @@ public class BTreeHeaderPage implements Page {
 	 */
 	public void markDirty(boolean dirty, TransactionId tid) {
 		this.dirty = dirty;
-		if (dirty) this.dirtier = tid;
+		if (dirty) {
+			this.dirtier = tid;
+			beforeImage.modified();
+		}
 	}
 
 	/**
@@ -294,6 +313,7 @@ public class BTreeHeaderPage implements Page {
 			header[headerbyte] |= 1 << headerbit;
 		else
 			header[headerbyte] &= (0xFF ^ (1 << headerbit));
+		beforeImage.modified();
 	}
 
 	/**
@@ -4,6 +4,7 @@ import simpledb.common.Catalog;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Type;
+import simpledb.storage.BeforeImage;
 import simpledb.storage.BufferPool;
 import simpledb.storage.Page;
 import simpledb.storage.TupleDesc;
@@ -28,8 +29,8 @@ public abstract class BTreePage implements Page {
 	protected final int keyField;
 
 	protected int parent; // parent is always internal node or 0 for root node
-	protected byte[] oldData;
-	protected final Byte oldDataLock= (byte) 0;
+	protected final int pageSize;
+	protected final BeforeImage beforeImage = new BeforeImage(null); // 由子类的构造函数设为读入的数据
 
 	/**
 	 * Create a BTreeInternalPage from a set of bytes of data read from disk.
@@ -39,7 +40,7 @@ public abstract class BTreePage implements Page {
 	 * has m+1 pointers to children), and the category of all child pages (either 
 	 * leaf or internal).
 	 *  Specifically, the number of entries is equal to: <p>
-	 *          floor((BufferPool.getPageSize()*8 - extra bytes*8) / (entry size * 8 + 1))
+	 *          floor((page size*8 - extra bytes*8) / (entry size * 8 + 1))
 	 * <p> where entry size is the size of entries in this index node
 	 * (key + child pointer), which can be determined via the key field and 
 	 * {@link Catalog#getTupleDesc}.
@@ -49,7 +50,7 @@ public abstract class BTreePage implements Page {
 	 * <p>
 	 * @see Database#getCatalog
 	 * @see Catalog#getTupleDesc
-	 * @see BufferPool#getPageSize()
+	 * @see Catalog#getPageSize
 	 * 
 	 * @param id - the id of this page
 	 * @param key - the field which the index is keyed on
@@ -58,6 +59,7 @@ public abstract class BTreePage implements Page {
 		this.pid = id;
 		this.keyField = key;
 		this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+		this.pageSize = Database.getCatalog().getPageSize(id.getTableId());
 	}
 
 	/**
@@ -77,8 +79,18 @@ public abstract class BTreePage implements Page {
 	 * @return The returned ByteArray.
 	 */
 	public static byte[] createEmptyPageData() {
-		int len = BufferPool.getPageSize();
-		return new byte[len]; //all 0
+		return createEmptyPageData(BufferPool.getPageSize());
+	}
+
+	/**
+	 * Static method to generate a byte array corresponding to an empty
+	 * BTreePage of the given page size.
+	 *
+	 * @param pageSize - the page size of the file the page belongs to
+	 * @return The returned ByteArray.
+	 */
+	public static byte[] createEmptyPageData(int pageSize) {
+		return new byte[pageSize]; //all 0
 	}
 
 	/**
@@ -113,6 +125,11 @@ public abstract class BTreePage implements Page {
 		else {
 			parent = id.getPageNumber();
 		}
+		beforeImage.modified();
+	}
+
+	public void setBeforeImage() {
+		beforeImage.update(this::getPageData);
 	}
 
 	/**
@@ -121,7 +138,10 @@ public abstract class BTreePage implements Page {
 	 */
 	public void markDirty(boolean dirty, TransactionId tid) {
 		this.dirty = dirty;
-		if (dirty) this.dirtier = tid;
+		if (dirty) {
+			this.dirtier = tid;
+			beforeImage.modified();
+		}
 	}
 
 	/**
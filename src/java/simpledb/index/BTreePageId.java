@@ -1,6 +1,7 @@
 package simpledb.index;
 
 import simpledb.storage.BufferPool;
+import simpledb.storage.PageCategory;
 import simpledb.storage.PageId;
 
 import java.util.Objects;
@@ -68,6 +69,20 @@ public class BTreePageId implements PageId {
 		return pgcateg;
 	}
 
+	/** @return the kind of B+ tree page this id names, for the BufferPool's statistics */
+	public PageCategory getCategory() {
+		switch (pgcateg) {
+			case ROOT_PTR:
+				return PageCategory.BTREE_ROOT_PTR;
+			case INTERNAL:
+				return PageCategory.BTREE_INTERNAL;
+			case LEAF:
+				return PageCategory.BTREE_LEAF;
+			default:
+				return PageCategory.BTREE_HEADER;
+		}
+	}
+
 	/**
 	 * @return a hash code for this page, represented by the combination of
 	 *   the table number, page number, and pgcateg (needed if a PageId is used as a
@@ -1,6 +1,7 @@
 package simpledb.index;
 
 import simpledb.common.DbException;
+import simpledb.storage.BeforeImage;
 import simpledb.storage.BufferPool;
 import simpledb.storage.Page;
 import simpledb.transaction.TransactionId;
@@ -26,7 +27,7 @@ public class BTreeRootPtrPage implements Page {
 	private int rootCategory;
 	private int header;
 
-	private byte[] oldData;
+	private final BeforeImage beforeImage;
 
 	/**
 	 * Constructor.
@@ -48,11 +49,11 @@ public class BTreeRootPtrPage implements Page {
 		// read in the header pointer
 		header = dis.readInt();
 		
-		setBeforeImage();
+		beforeImage = new BeforeImage(data);
 	}
 
 	public void setBeforeImage() {
-		oldData = getPageData().clone();
+		beforeImage.update(this::getPageData);
 	}
 
 	/**
@@ -130,7 +131,10 @@ public class BTreeRootPtrPage implements Page {
 
 	public void markDirty(boolean dirty, TransactionId tid){
 		this.dirty = dirty;
-		if (dirty) this.dirtier = tid;
+		if (dirty) {
+			this.dirtier = tid;
+			beforeImage.modified();
+		}
 	}
 
 	public TransactionId isDirty() {
@@ -144,7 +148,7 @@ public class BTreeRootPtrPage implements Page {
         -- used by recovery */
 	public BTreeRootPtrPage getBeforeImage(){
 		try {
-			return new BTreeRootPtrPage(pid,oldData);
+			return new BTreeRootPtrPage(pid,beforeImage.get());
 		} catch (IOException e) {
 			e.printStackTrace();
 			//should never happen -- we parsed it OK before!
@@ -183,6 +187,7 @@ public class BTreeRootPtrPage implements Page {
 			root = id.getPageNumber();
 			rootCategory = id.pgcateg();
 		}
+		beforeImage.modified();
 	}
 
 	/**
@@ -214,6 +219,7 @@ public class BTreeRootPtrPage implements Page {
 			}
 			header = id.getPageNumber();
 		}
+		beforeImage.modified();
 	}
 
 	/**
@@ -531,11 +531,11 @@ public class BTreeUtility {
 				}
 			} catch (Exception e) {
 				e.printStackTrace();
+                Database.getBufferPool().transactionComplete(tid, false);
+				// 先回滚再报告错误：看到错误的测试可能马上用新的事务重新运行这个对象，回滚就会读到新的tid
 				synchronized(elock) {
 					error = e;
 				}
-
-                Database.getBufferPool().transactionComplete(tid, false);
             }
 		}
 
@@ -614,11 +614,11 @@ public class BTreeUtility {
 
 			} catch (Exception e) {
 				e.printStackTrace();
+                Database.getBufferPool().transactionComplete(tid, false);
+				// 先回滚再报告错误：看到错误的测试可能马上用新的事务重新运行这个对象，回滚就会读到新的tid
 				synchronized(elock) {
 					error = e;
 				}
-
-                Database.getBufferPool().transactionComplete(tid, false);
             }
 		}
 
@@ -682,11 +682,11 @@ public class BTreeUtility {
 				if(!(e instanceof TransactionAbortedException)) {
 					e.printStackTrace();
 				}
+                Database.getBufferPool().transactionComplete(tid, false);
+				// 先回滚再报告错误：看到错误的测试可能马上用新的事务重新运行这个对象，回滚就会读到新的tid
 				synchronized(elock) {
 					error = e;
 				}
-
-                Database.getBufferPool().transactionComplete(tid, false);
             }
 		}
 		
@@ -777,16 +777,16 @@ public class BTreeUtility {
 				if(!(e instanceof TransactionAbortedException)) {
 					e.printStackTrace();
 				}
-				synchronized(elock) {
-					error = e;
-				}
-
 				try {
 					insertedTuples.put(tuple);
 					Database.getBufferPool().transactionComplete(tid, false);
 				} catch (InterruptedException e2) {
 					e2.printStackTrace();
 				}
+				// 同上，先回滚再报告错误
+				synchronized(elock) {
+					error = e;
+				}
             }
 		}
 		
@@ -255,6 +255,8 @@ public class JoinOptimizer {
         // some code goes here
         //Replace the following
         // 主要用已经提供的工具 - 根据伪代码
+        if (joins.isEmpty()) // 单表查询没有连接，PlanCache里也不会有空集合的计划
+            return joins;
         Set<LogicalJoinNode> joinSet = new HashSet<>(joins);
         PlanCache planCache = new PlanCache();
         int size = joinSet.size();
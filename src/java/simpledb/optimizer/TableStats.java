@@ -70,7 +70,7 @@ public class TableStats {
      */
     static final int NUM_HIST_BINS = 100;
 
-    private HeapFile heapFile;
+    private DbFile heapFile;
     private int ioCostPerPage;
     private Map<Integer, Object> histograms;
     private int ntups = 0; // 该表中元组数量
@@ -95,7 +95,7 @@ public class TableStats {
         // in a single scan of the table.
         // some code goes here
         this.ioCostPerPage = ioCostPerPage;
-        this.heapFile = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
+        this.heapFile = Database.getCatalog().getDatabaseFile(tableid);
         this.histograms = new HashMap<>();
         SeqScan seqScan = new SeqScan(new TransactionId(), tableid);
         // 扫描两遍Table
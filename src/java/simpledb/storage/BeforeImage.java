@@ -0,0 +1,54 @@
+package simpledb.storage;
+
+import java.util.function.Supplier;
+
+/**
+ * The before image of a page: the bytes of the page as the last committed
+ * transaction left it.  The page reports every change to its contents with
+ * {@link #modified()}, and {@link #update} takes a new image only if the
+ * page changed since the last one, so that the pages a transaction only
+ * read cost nothing at commit.
+ *
+ * @Threadsafe
+ */
+public class BeforeImage {
+
+    private byte[] data; // protected by this
+    // 自上次取得before image以来页面内容是否被修改过，不论是否已被标记为脏页
+    private volatile boolean modified = false;
+
+    /**
+     * @param data the bytes of the page as read from disk, which must not be
+     *   modified afterwards, or null if the page has no image yet
+     */
+    public BeforeImage(byte[] data) {
+        this.data = data;
+    }
+
+    /** @return the bytes of the before image, or null if there is none */
+    public synchronized byte[] get() {
+        return data;
+    }
+
+    /** Replace the before image with the given bytes, which must not be modified afterwards */
+    public synchronized void set(byte[] data) {
+        this.data = data;
+    }
+
+    /** Record that the contents of the page have changed */
+    public void modified() {
+        modified = true;
+    }
+
+    /**
+     * Take the current contents of the page as its before image, unless the
+     * page has not changed since the last image was taken.
+     *
+     * @param pageData returns the current contents of the page
+     */
+    public synchronized void update(Supplier<byte[]> pageData) {
+        if (!modified) return; // 内容与before image相同
+        modified = false;
+        data = pageData.get();
+    }
+}
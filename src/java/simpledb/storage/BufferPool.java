@@ -4,14 +4,22 @@ import simpledb.common.Catalog;
 import simpledb.common.Database;
 import simpledb.common.Permissions;
 import simpledb.common.DbException;
-import simpledb.storage.cache.LRUBasedCache;
+import simpledb.storage.cache.CachePolicy;
+import simpledb.storage.cache.FrameArena;
 import simpledb.storage.cache.PageCache;
+import simpledb.storage.cache.PageTrace;
+import simpledb.storage.cache.WarmupSnapshot;
+import simpledb.storage.stats.BufferPoolStats;
 import simpledb.transaction.LockManager;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -21,8 +29,24 @@ import java.util.*;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * Concurrency: the monitor of the BufferPool serializes eviction,
+ * write-back, flushing, discarding and resizing, and guards
+ * {@code shrinking}, so a page is never written back and evicted at the
+ * same time.  The {@code unwritten} (NO-FORCE) and {@code stolenFrom}
+ * (STEAL) sets are concurrent sets, but they are only changed under that
+ * monitor.  Page lookups do not take it: the page cache has its own
+ * locking, and the {@code prefetching} map and {@code pageEpochs}
+ * counters are lock-free.  The pins of a transaction are guarded by the
+ * monitor of its map in {@code pins}, and {@code pinLock}, taken before
+ * that map and after the pool's monitor, makes pinning atomic with respect
+ * to {@link #discardPage}.  The settings {@code numPages}, {@code noForce}
+ * and {@code steal} are volatile and read without locking; change
+ * noForce and steal only while no transaction is running.  Background
+ * reads (read-ahead and warm-up) run on {@code ioExecutor}, and
+ * getPageAsync waits for page locks on {@code lockExecutor}.
  * 
- * @Threadsafe, all fields are final
+ * @Threadsafe
  */
 public class BufferPool {
     /** Bytes per page, including header. */
@@ -35,21 +59,344 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
-    private int numPages; // 页面缓存上限
+    /**
+     * System property that makes {@link #BufferPool(int)} keep pages in an
+     * off-heap arena, e.g. -Dsimpledb.storage.BufferPool.offHeap=true
+     */
+    public static final String OFF_HEAP_PROPERTY = "simpledb.storage.BufferPool.offHeap";
+
+    /**
+     * System property naming the replacement policy (see
+     * {@link CachePolicy#forName}) of pools created without one, e.g.
+     * -Dsimpledb.storage.BufferPool.cache=2q; striped by default
+     */
+    public static final String CACHE_PROPERTY = "simpledb.storage.BufferPool.cache";
+
+    /**
+     * System property naming a file every page request is appended to (see
+     * {@link PageTrace}), for replaying against the cache policies
+     */
+    public static final String TRACE_PROPERTY = "simpledb.storage.BufferPool.trace";
+
+    /**
+     * System property naming the file the resident pages are saved to (see
+     * {@link #saveSnapshot}) and read back from on startup (see
+     * {@link #warmUp}), e.g. -Dsimpledb.storage.BufferPool.warmup=pool.warm
+     */
+    public static final String WARMUP_PROPERTY = "simpledb.storage.BufferPool.warmup";
+
+    /**
+     * System property that makes pools commit without writing the pages of
+     * the transaction (see {@link #setNoForce}), e.g.
+     * -Dsimpledb.storage.BufferPool.noForce=true
+     */
+    public static final String NO_FORCE_PROPERTY = "simpledb.storage.BufferPool.noForce";
+
+    /**
+     * System property that lets pools evict the dirty pages of uncommitted
+     * transactions (see {@link #setSteal}), e.g.
+     * -Dsimpledb.storage.BufferPool.steal=true
+     */
+    public static final String STEAL_PROPERTY = "simpledb.storage.BufferPool.steal";
+
+    private volatile int numPages; // 页面缓存上限，缩小时是目标值
+    private final CachePolicy cachePolicy;
     private final PageCache pageCache; // 自定义的页面缓存结构
+    private final PageTrace trace; // 未配置TRACE_PROPERTY时为null
+    private final BufferPoolStats stats;
+    private final FrameArena arena; // 堆外页面帧，堆内模式下为null
 
     private final LockManager lockManager; // 锁管理器
 
+    private volatile boolean noForce = Boolean.getBoolean(NO_FORCE_PROPERTY);
+    /** Pages whose committed version is in the pool and in the log but not yet on disk */
+    private final Set<PageId> unwritten = ConcurrentHashMap.newKeySet();
+    private volatile boolean steal = Boolean.getBoolean(STEAL_PROPERTY);
+    /** Transactions some of whose uncommitted pages were written to disk, and not yet rolled back */
+    private final Set<TransactionId> stolenFrom = ConcurrentHashMap.newKeySet();
+
+    /** Number of threads doing background page reads (read-ahead) */
+    private static final int IO_THREADS = 2;
+    /** Frames of an off-heap pool beyond numPages, for pages being read before they enter the pool */
+    private static final int READ_FRAMES = 8;
+    /** Pages the background shrinker evicts each time it takes the pool's lock */
+    private static final int SHRINK_STEP = 16;
+    /** Milliseconds the shrinker waits when every page over the budget is dirty or pinned */
+    private static final long SHRINK_WAIT_MILLIS = 10;
+    /** Dirty pages written back at once when a page must be evicted and all clean ones are held */
+    private static final int STEAL_BATCH = 16;
+    /** Pages the warm-up loader has in flight at once */
+    private static final int WARMUP_BATCH = 32;
+    private CompletableFuture<Void> shrinking; // 正在进行的缩小，没有时为null，受this保护
+    private final ThreadPoolExecutor ioExecutor;
+    /** Threads waiting for page locks on behalf of getPageAsync */
+    private final ExecutorService lockExecutor;
+
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Per page stripe counters bumped whenever a page is written to disk or
+     * discarded, so that a background read racing with such an event can
+     * tell its copy of the page may be stale.
+     */
+    private static final int EPOCH_STRIPES = 1024;
+    private final AtomicLongArray pageEpochs = new AtomicLongArray(EPOCH_STRIPES);
+
+    /** Prefetches that have been requested but have not finished yet */
+    private final ConcurrentHashMap<PageId, Prefetch> prefetching = new ConcurrentHashMap<>();
+
+    /** Pins each transaction holds, page -> number of times pinned, released at the latest when it completes */
+    private final ConcurrentHashMap<TransactionId, Map<PageId, Integer>> pins = new ConcurrentHashMap<>();
+
+    /** Makes pinning a page and recording the pin atomic with respect to {@link #discardPage} */
+    private final Object pinLock = new Object();
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages of the default
+     * page size.  Tables with other page sizes are accounted for by bytes:
+     * the pool holds up to numPages * {@link #getPageSize()} bytes of pages.
+     * The pool is kept off-heap if the {@link #OFF_HEAP_PROPERTY} system
+     * property is true, and uses the replacement policy named by the
+     * {@link #CACHE_PROPERTY} system property.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, Boolean.getBoolean(OFF_HEAP_PROPERTY));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages of the default
+     * page size, replacing them according to policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the page replacement policy
+     */
+    public BufferPool(int numPages, CachePolicy policy) {
+        this(numPages, Boolean.getBoolean(OFF_HEAP_PROPERTY), policy);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages of the default
+     * page size.
+     * <p>
+     * An off-heap pool preallocates a {@link FrameArena} of numPages (plus a
+     * few for reads in progress) frames of the default page size (counted against -XX:MaxDirectMemorySize),
+     * and pages that support it are moved into a frame as they are read (see
+     * {@link FramedPage#attach}) and are views over it.  A page leaving the pool is detached from its frame
+     * (see {@link FramedPage#detach()}) before the frame is reused, so
+     * callers still holding the page are not affected.  Pages of other
+     * files, or of other sizes, stay on the heap.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param offHeap whether to keep pages in an off-heap arena
+     */
+    public BufferPool(int numPages, boolean offHeap) {
+        this(numPages, offHeap, CachePolicy.forName(System.getProperty(CACHE_PROPERTY, "striped")));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages of the default
+     * page size, kept off-heap or not as described above, replacing them
+     * according to policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param offHeap whether to keep pages in an off-heap arena
+     * @param policy the page replacement policy
+     */
+    public BufferPool(int numPages, boolean offHeap, CachePolicy policy) {
         // some code goes here
         this.numPages = numPages;
-        this.pageCache = new LRUBasedCache(numPages);
+        this.arena = offHeap ? new FrameArena(pageSize, numPages + READ_FRAMES) : null;
+        this.cachePolicy = policy;
+        this.pageCache = policy.create((long) numPages * pageSize,
+                pid -> Database.getCatalog().getPageSize(pid.getTableId()), this::releaseFrame);
+        this.trace = openTrace();
+        this.stats = new BufferPoolStats(pageCache);
         this.lockManager = new LockManager();
+        this.ioExecutor = new ThreadPoolExecutor(IO_THREADS, IO_THREADS, 1, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "BufferPool-io");
+                    t.setDaemon(true);
+                    return t;
+                });
+        this.ioExecutor.allowCoreThreadTimeOut(true); // 空闲时不保留线程
+        this.lockExecutor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "BufferPool-lock");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private static PageTrace openTrace() {
+        String file = System.getProperty(TRACE_PROPERTY);
+        if (file == null || file.isEmpty()) {
+            return null;
+        }
+        try {
+            return new PageTrace(new File(file));
+        } catch (IOException e) {
+            e.printStackTrace(); // 记录只是辅助手段，打不开时照常运行
+            return null;
+        }
+    }
+
+    /** @return the hit, miss, I/O and eviction counters of this buffer pool */
+    public BufferPoolStats getStats() {
+        return stats;
+    }
+
+    /** @return the page replacement policy of this buffer pool */
+    public CachePolicy getCachePolicy() {
+        return cachePolicy;
+    }
+
+    /**
+     * Sets whether a commit writes the pages of the transaction to disk
+     * (FORCE, the default) or only logs them (NO-FORCE).  In NO-FORCE mode
+     * {@link #transactionComplete(TransactionId, boolean)} appends an update
+     * record for each dirty page without forcing the log, so that the commit
+     * costs the one force of the COMMIT record written next; the pages stay
+     * in the pool and are written when they are evicted or at the next
+     * checkpoint.  After a crash, {@link LogFile#recover} redoes them.
+     */
+    public void setNoForce(boolean noForce) {
+        this.noForce = noForce;
+    }
+
+    public boolean isNoForce() {
+        return noForce;
+    }
+
+    /**
+     * Sets whether evicting a page while every page is dirty or pinned
+     * fails (NO STEAL, the default) or writes back the coldest uncommitted
+     * dirty pages of the transaction reading the page to make room (STEAL).
+     * A stolen page is written like any other, after its update record is
+     * forced, and stays in the pool clean; if its transaction aborts, the
+     * before images in the log are written back (see
+     * {@link LogFile#rollback}), and recovery undoes it like any other
+     * uncommitted update (see {@link #needsRecovery}).  A transaction may then dirty more pages than the
+     * pool holds.
+     */
+    public void setSteal(boolean steal) {
+        this.steal = steal;
+    }
+
+    public boolean isSteal() {
+        return steal;
+    }
+
+    /**
+     * @return whether the files may hold pages that only the log can set
+     *         right after a crash: committed pages not yet written under
+     *         NO-FORCE, or uncommitted pages written under STEAL.  If so,
+     *         {@link LogFile#recover} must run at startup and a checkpoint
+     *         at shutdown.
+     */
+    public boolean needsRecovery() {
+        return noForce || steal;
+    }
+
+    /** @return whether the committed version of the page is in the pool but not yet on disk */
+    public boolean isUnwritten(PageId pid) {
+        return unwritten.contains(pid);
+    }
+
+    /** @return the off-heap arena the pages are kept in, or null if the pages are on the heap */
+    public FrameArena getArena() {
+        return arena;
+    }
+
+    /**
+     * @return the maximum number of pages of the default size in this buffer
+     *         pool; while the pool is being shrunk, the number it is shrunk to
+     */
+    public int getNumPages() {
+        return numPages;
+    }
+
+    /**
+     * Change the number of pages this buffer pool holds, keeping the pages
+     * it caches.  Growing takes effect at once.  Shrinking is done by a
+     * background thread that lowers the budget step by step, evicting a few
+     * clean pages each time it takes the pool's lock, so that transactions
+     * are not held up and a miss never has to evict more than its share.
+     * Pages over the budget that are dirty or pinned are waited for.  An
+     * off-heap pool grows or shrinks its arena to match.
+     *
+     * @param numPages the new number of pages of the default size
+     * @return a future completed once the pool holds no more than numPages
+     *         pages, or is grown again
+     */
+    public synchronized CompletableFuture<Void> resize(int numPages) {
+        if(numPages < 1){
+            throw new IllegalArgumentException("A buffer pool needs at least one page: " + numPages);
+        }
+        this.numPages = numPages;
+        if(arena != null){
+            arena.setNumFrames(numPages + READ_FRAMES);
+        }
+        long budget = (long) numPages * pageSize;
+        if(budget >= pageCache.getCapacity()){
+            pageCache.setCapacity(budget);
+            if(shrinking != null){ // 缩小线程在下一步发现已达到目标后退出
+                shrinking.complete(null);
+                shrinking = null;
+            }
+            return CompletableFuture.completedFuture(null);
+        }
+        if(shrinking == null){
+            shrinking = new CompletableFuture<>();
+            Thread t = new Thread(this::shrink, "BufferPool-shrink");
+            t.setDaemon(true);
+            t.start();
+        }
+        return shrinking;
+    }
+
+    /** Body of the background thread lowering the capacity of the page cache to numPages */
+    private void shrink() {
+        while(true){
+            boolean stuck;
+            synchronized (this){
+                long budget = (long) numPages * pageSize;
+                long capacity = pageCache.getCapacity();
+                if(capacity <= budget){
+                    if(shrinking != null){
+                        shrinking.complete(null);
+                        shrinking = null;
+                    }
+                    return;
+                }
+                long used = pageCache.getUsed();
+                for(int i = 0; i < SHRINK_STEP && used > budget && pageCache.pidToBeEvicted() != null; i++){
+                    try {
+                        evictPage(); // 牺牲页都是干净页，不需要写回
+                    } catch (DbException e) {
+                        break;
+                    }
+                    used = pageCache.getUsed();
+                }
+                // 容量降到已用的空间为止，之后的缺页照常只换出自己需要的空间
+                long next = Math.min(capacity, Math.max(budget, used));
+                stuck = next == capacity;
+                pageCache.setCapacity(next);
+            }
+            try {
+                if(stuck){
+                    Thread.sleep(SHRINK_WAIT_MILLIS); // 超出的都是脏页或被固定的页面，等事务结束
+                }else{
+                    Thread.yield();
+                }
+            } catch (InterruptedException e) {
+                synchronized (this){
+                    if(shrinking != null){
+                        shrinking.completeExceptionally(e);
+                        shrinking = null;
+                    }
+                }
+                return;
+            }
+        }
     }
     
     public static int getPageSize() {
@@ -84,7 +431,110 @@ public class BufferPool {
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
         // some code goes here
+        return getPage(tid, pid, perm, null);
+    }
 
+    /**
+     * Retrieve the specified page as {@link #getPage(TransactionId, PageId, Permissions)}
+     * does, on behalf of a large sequential scan.  With a ring, a cached page
+     * is not promoted in the replacement policy, and a page read from disk
+     * takes the place of the oldest page the scan itself read, once the ring
+     * is full, rather than that of a page other transactions may be using.
+     *
+     * @param ring the ring of the scan, see {@link ScanRing#forScan}, or null
+     *             for an ordinary access
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, ScanRing ring)
+        throws TransactionAbortedException, DbException {
+        if(trace != null){
+            trace.record(pid);
+        }
+        acquireLock(tid, pid, perm);
+        return fetchPage(tid, pid, ring);
+    }
+
+    /**
+     * Retrieve the specified page as {@link #getPage(TransactionId, PageId, Permissions)}
+     * does, and pin it: the page is not evicted, whatever the replacement
+     * policy, until the transaction has unpinned it through {@link #unpinPage}
+     * as many times as it pinned it.  Pins still held when the transaction
+     * completes are released then.
+     * <p>
+     * Callers such as iterators pin the page they are reading tuples from,
+     * so that it is not evicted, and then read again or, off-heap, copied
+     * out of its frame, while they use it.  Every pinned page is held in the pool, so a
+     * caller should pin few pages and unpin them as soon as it can.
+     *
+     * @param ring the ring of the scan, see {@link ScanRing#forScan}, or null
+     * @return the page, pinned
+     */
+    public Page pinPage(TransactionId tid, PageId pid, Permissions perm, ScanRing ring)
+        throws TransactionAbortedException, DbException {
+        if(trace != null){
+            trace.record(pid);
+        }
+        acquireLock(tid, pid, perm);
+        Map<PageId, Integer> held = pins.computeIfAbsent(tid, t -> new HashMap<>());
+        Page page;
+        while((page = pin(held, pid)) == null){ // 读入与固定之间页面可能已被置换或丢弃，重新读入
+            fetchPage(tid, pid, ring);
+        }
+        return page;
+    }
+
+    // 固定页面并记下这次固定；与discardPage互斥，丢弃不会夹在两者之间
+    private Page pin(Map<PageId, Integer> held, PageId pid) {
+        synchronized (pinLock) {
+            synchronized (held) {
+                Page page = pageCache.pin(pid);
+                if(page != null){
+                    held.merge(pid, 1, Integer::sum);
+                }
+                return page;
+            }
+        }
+    }
+
+    /**
+     * Pin a page as {@link #pinPage(TransactionId, PageId, Permissions, ScanRing)}
+     * does, for an ordinary access.
+     */
+    public Page pinPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        return pinPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Release one pin the transaction holds on the page.  Does nothing if
+     * it holds none, e.g. because it has completed meanwhile.  The lock on
+     * the page is kept.
+     */
+    public void unpinPage(TransactionId tid, PageId pid) {
+        Map<PageId, Integer> held = pins.get(tid);
+        if(held == null){
+            return;
+        }
+        synchronized (held) {
+            Integer n = held.get(pid);
+            if(n == null){
+                return;
+            }
+            if(n > 1){
+                held.put(pid, n - 1);
+            }else{
+                held.remove(pid);
+            }
+            pageCache.unpin(pid);
+        }
+    }
+
+    /** Return true if some transaction has the specified page pinned */
+    public boolean isPinned(PageId pid) {
+        return pageCache.isPinned(pid);
+    }
+
+    private void acquireLock(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException {
         if(perm == Permissions.READ_ONLY){
             // 获取共享锁
             if(!holdsLock(tid, pid)) {
@@ -94,22 +544,355 @@ public class BufferPool {
             // 获取排他锁 - 存在锁升级情况，所以不判断holdsLock
             lockManager.acquireExclusiveLock(tid, pid);
         }
+    }
+
+    /** Return the page from the cache, reading it from disk on a miss; the caller holds its lock */
+    private Page fetchPage(PageId pid) throws DbException {
+        return fetchPage(null, pid, null);
+    }
 
-        Page page = pageCache.accessPage(pid);
+    // tid是由自己的线程读入页面的事务，STEAL时只写回它的脏页；为null时不写回脏页
+    private Page fetchPage(TransactionId tid, PageId pid, ScanRing ring) throws DbException {
+        boolean timed = stats.sampleHit(); // 命中只抽样计时
+        long start = timed ? System.nanoTime() : 0;
+        Page page = access(pid, ring);
+        if(page != null){
+            stats.hit(pid, timed ? System.nanoTime() - start : -1);
+            return page;
+        }
+        if(!timed){
+            start = System.nanoTime(); // 未命中总是计时，少算的一次查找相对读盘可以忽略
+        }
+        // 该页面正在被预读：尚未开始则由自己读取，已开始则等待其完成
+        Prefetch prefetch = prefetching.get(pid);
+        if(prefetch != null && !prefetch.claimed.compareAndSet(false, true) && !Thread.holdsLock(this)){
+            prefetch.done.join();
+            page = access(pid, ring);
+        }
         if(page == null) {
-            Catalog catalog = Database.getCatalog();
-            DbFile f = catalog.getDatabaseFile(pid.getTableId());
-            page = f.readPage(pid);
-            
-            if(pageCache.isFull()){ // 需要页面置换
-                evictPage();
+            page = readPage(pid);
+            if(ring != null){
+                recycle(ring.add(pid)); // 环满时先腾出扫描自己最早读入的页面
+            }
+
+            try {
+                while(!pageCache.hasRoomFor(pid)){ // 需要页面置换，大页面可能要换出多个页面
+                    evictPage(tid);
+                }
+            } catch (DbException e) {
+                releaseFrame(page);
+                throw e;
+            }
+            Page cached = pageCache.putPageIfAbsent(page); // 可能已被预读或其他事务读入
+            if(cached != null){
+                releaseFrame(page);
+                page = cached;
             }
-            pageCache.putPage(page);
         }
 
+        stats.miss(pid, System.nanoTime() - start); // 等待预读完成的也算未命中
         return page;
     }
 
+    // 扫描访问的页面不提升在置换策略中的位置
+    private Page access(PageId pid, ScanRing ring) {
+        return ring == null ? pageCache.accessPage(pid) : pageCache.getPage(pid);
+    }
+
+    /**
+     * Drop a page that fell out of a scan ring from the pool, unless it was
+     * dirtied, is pinned or has not been written since it was committed; it
+     * is then left to the replacement policy.
+     */
+    private synchronized void recycle(PageId pid) {
+        if(pid == null){
+            return;
+        }
+        Page page = pageCache.getPage(pid);
+        if(page != null && page.isDirty() == null && !pageCache.isPinned(pid) && !unwritten.contains(pid)){
+            pageCache.removePage(pid);
+            stats.evicted(pid);
+        }
+    }
+
+    /**
+     * Read a page from its file, and move it into a frame of the arena if
+     * the pool is off-heap and a frame of the right size is free.
+     */
+    private Page readPage(PageId pid) {
+        long start = System.nanoTime();
+        try {
+            return readPage(Database.getCatalog().getDatabaseFile(pid.getTableId()), pid);
+        } finally {
+            stats.read(pid, System.nanoTime() - start);
+        }
+    }
+
+    private Page readPage(DbFile f, PageId pid) {
+        Page page = f.readPage(pid);
+        if(arena != null && page instanceof FramedPage && f.getPageSize() == arena.getFrameSize()){
+            ByteBuffer frame = arena.allocate();
+            if(frame != null && !((FramedPage) page).attach(frame)){
+                arena.free(frame);
+            }
+        }
+        return page;
+    }
+
+    /** Give the frame of a page that is not (or no longer) in the pool back to the arena */
+    private void releaseFrame(Page page) {
+        if(arena != null && page instanceof FramedPage){
+            ByteBuffer frame = ((FramedPage) page).detach();
+            if(frame != null){
+                arena.free(frame);
+            }
+        }
+    }
+
+    /**
+     * Retrieve the specified page with the associated permissions without
+     * blocking the calling thread, so that a caller can keep several page
+     * reads in flight.
+     * <p>
+     * The lock is acquired through the LockManager as in {@link #getPage}.
+     * If it is granted at once and the page is cached, the returned future is
+     * already complete.  A lock that has to be waited for is waited for on a
+     * separate thread, and a page that is not cached is read by the I/O
+     * threads that also serve read-ahead.  A TransactionAbortedException
+     * (deadlock) or DbException completes the future exceptionally, wrapped
+     * in a CompletionException.
+     * <p>
+     * A transaction must wait for all of its futures before it completes,
+     * otherwise a lock granted afterwards would never be released.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @return a future completed with the page once it is locked and cached
+     */
+    public CompletableFuture<Page> getPageAsync(TransactionId tid, PageId pid, Permissions perm) {
+        if(trace != null){
+            trace.record(pid);
+        }
+        boolean locked = perm == Permissions.READ_ONLY
+                ? lockManager.tryAcquireSharedLock(tid, pid)
+                : lockManager.tryAcquireExclusiveLock(tid, pid);
+        CompletableFuture<Void> lock;
+        if(locked){
+            lock = CompletableFuture.completedFuture(null);
+        }else{
+            // 等锁可能很久，不能占用I/O线程（否则持有锁的事务自己的读请求也会排不上）
+            lock = CompletableFuture.runAsync(() -> {
+                try {
+                    acquireLock(tid, pid, perm);
+                } catch (TransactionAbortedException e) {
+                    throw new CompletionException(e);
+                }
+            }, lockExecutor);
+        }
+        return lock.thenCompose(v -> {
+            Page page = pageCache.accessPage(pid);
+            if(page != null){
+                return CompletableFuture.completedFuture(page);
+            }
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return fetchPage(pid);
+                } catch (DbException e) {
+                    throw new CompletionException(e);
+                }
+            }, ioExecutor);
+        });
+    }
+
+    /**
+     * Returns true if the specified page is currently in the buffer pool.
+     * Does not acquire any locks or affect the replacement policy.
+     */
+    public boolean isCached(PageId pid) {
+        return pageCache.getPage(pid) != null;
+    }
+
+    /**
+     * Asynchronously read the specified page into the buffer pool, if it is not
+     * already there.  No lock is acquired: the page is only cached, and a
+     * transaction that later wants it still goes through {@link #getPage}.
+     * <p>
+     * A prefetch never evicts a dirty page and never fails; if there is no room,
+     * or the page was written or discarded while it was being read, the page is
+     * simply dropped.
+     *
+     * @param pid the ID of the page to prefetch
+     * @return a Future that completes once the prefetch has finished
+     */
+    public Future<?> prefetchPage(PageId pid) {
+        return prefetchPage(pid, null);
+    }
+
+    /**
+     * Asynchronously read the specified page into the buffer pool as
+     * {@link #prefetchPage(PageId)} does, for a scan using ring: the page
+     * takes the place of the oldest page in the ring, once it is full.
+     */
+    public Future<?> prefetchPage(PageId pid, ScanRing ring) {
+        Prefetch prefetch = new Prefetch(pid, ring);
+        Prefetch existing = prefetching.putIfAbsent(pid, prefetch);
+        if (existing != null) {
+            return existing.done;
+        }
+        ioExecutor.execute(prefetch);
+        return prefetch.done;
+    }
+
+    /**
+     * A background read of one page.  Whoever claims it first -- the I/O thread,
+     * or a transaction missing on the page in getPage -- reads the page; the
+     * other side does nothing (or waits for it to finish).
+     */
+    private class Prefetch implements Runnable {
+        final PageId pid;
+        final ScanRing ring; // 为带环的扫描预读时不为null
+        final AtomicBoolean claimed = new AtomicBoolean(false);
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Prefetch(PageId pid, ScanRing ring) {
+            this.pid = pid;
+            this.ring = ring;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (claimed.compareAndSet(false, true)) {
+                    load();
+                }
+            } catch (Exception e) {
+                // read-ahead is only a hint; the reader will fetch the page itself
+            } finally {
+                prefetching.remove(pid, this);
+                done.complete(null);
+            }
+        }
+
+        private void load() throws DbException {
+            if (isCached(pid)) {
+                return;
+            }
+            long epoch = pageEpochs.get(epochStripe(pid));
+            Page page = readPage(pid);
+            if (page == null) {
+                return;
+            }
+            synchronized (BufferPool.this) {
+                if (isCached(pid) || epoch != pageEpochs.get(epochStripe(pid))) {
+                    releaseFrame(page);
+                    return;
+                }
+                if (ring != null) {
+                    recycle(ring.add(pid));
+                }
+                while (!pageCache.hasRoomFor(pid)) {
+                    if (pageCache.pidToBeEvicted() == null) {
+                        releaseFrame(page);
+                        return; // 不为预读驱逐脏页
+                    }
+                    evictPage();
+                }
+                pageCache.putPageIfAbsent(page);
+            }
+        }
+    }
+
+    /**
+     * Save the ids of the pages in the pool, hottest first as ranked by the
+     * replacement policy, so that {@link #warmUp} can read them back after
+     * a restart.
+     */
+    public void saveSnapshot(File file) throws IOException {
+        WarmupSnapshot.write(file, pageCache.hottestFirst());
+    }
+
+    /**
+     * Read the pages saved by {@link #saveSnapshot} back into the pool, in
+     * the background, hottest first.  Loading stops once the pool is full,
+     * so that it never evicts pages transactions have read meanwhile, and
+     * pages of tables no longer in the catalog or past the end of their
+     * file are skipped.  Pages are read through {@link #prefetchPage}, a
+     * batch at a time, so transactions can be served alongside.
+     *
+     * @return a future completed with the number of pages read once the
+     *         loader has finished
+     */
+    public CompletableFuture<Integer> warmUp(File file) {
+        CompletableFuture<Integer> done = new CompletableFuture<>();
+        Thread t = new Thread(() -> {
+            try {
+                done.complete(loadSnapshot(file));
+            } catch (Exception e) {
+                done.completeExceptionally(e);
+            }
+        }, "BufferPool-warmup");
+        t.setDaemon(true);
+        t.start();
+        return done;
+    }
+
+    private int loadSnapshot(File file) throws IOException, InterruptedException, ExecutionException {
+        Catalog catalog = Database.getCatalog();
+        List<Future<?>> batch = new ArrayList<>();
+        long pending = 0; // 在途页面的权重，算上它们不超过容量，预读就不会换出页面
+        int loaded = 0;
+        for(PageId pid : WarmupSnapshot.read(file)){
+            DbFile f;
+            try {
+                f = catalog.getDatabaseFile(pid.getTableId());
+            } catch (NoSuchElementException e) {
+                continue;
+            }
+            if(isCached(pid) || !exists(f, pid)){
+                continue;
+            }
+            if(pageCache.getUsed() + pending + f.getPageSize() > pageCache.getCapacity()){
+                waitFor(batch);
+                pending = 0;
+                if(!pageCache.hasRoomFor(pid)){
+                    break;
+                }
+            }
+            batch.add(prefetchPage(pid));
+            pending += f.getPageSize();
+            loaded++;
+            if(batch.size() == WARMUP_BATCH){
+                waitFor(batch);
+                pending = 0;
+            }
+        }
+        waitFor(batch);
+        return loaded;
+    }
+
+    private static void waitFor(List<Future<?>> batch) throws InterruptedException, ExecutionException {
+        for(Future<?> f : batch){
+            f.get();
+        }
+        batch.clear();
+    }
+
+    // 快照之后表可能被重建得更小，文件末尾之后的页面不读，以免读到全零的页面
+    private static boolean exists(DbFile f, PageId pid) {
+        if(pid instanceof HeapPageId){
+            return pid.getPageNumber() < f.numPages();
+        }
+        if(pid instanceof ColumnPageId){
+            return pid.getPageNumber() < ((ColumnFile) f).numPages(((ColumnPageId) pid).getColumn());
+        }
+        return true; // 其他文件读不到的页面由预读自己丢弃
+    }
+
+    private static int epochStripe(PageId pid) {
+        return (pid.hashCode() & 0x7fffffff) % EPOCH_STRIPES;
+    }
+
     /**
      * Releases the lock on a page.
      * Calling this is very risky, and may result in wrong behavior. Think hard
@@ -151,23 +934,105 @@ public class BufferPool {
      * @param commit a flag indicating whether we should commit or abort
      */
     public void transactionComplete(TransactionId tid, boolean commit) {
+        transactionComplete(tid, commit, false);
+    }
+
+    /**
+     * Commit or abort a given transaction; release all locks associated to
+     * the transaction.  If logCommit is set, a commit also appends the
+     * COMMIT record of the transaction and waits for it to be forced, after
+     * its pages are written or logged and before its locks are released:
+     * a transaction that takes over one of its pages and commits must not
+     * be undone by recovery along with it if the system crashes before the
+     * COMMIT record is on disk.
+     *
+     * @param tid the ID of the transaction requesting the unlock
+     * @param commit a flag indicating whether we should commit or abort
+     * @param logCommit whether to log the commit (see {@link LogFile#logCommit})
+     */
+    public void transactionComplete(TransactionId tid, boolean commit, boolean logCommit) {
         // some code goes here
         // not necessary for lab1|lab2
+        releasePins(tid);
         List<PageId> pages = lockManager.getLookupList(tid);
-        if(commit){ // 提交，所有相关页面写入磁盘
+        if(!commit && stolenFrom.contains(tid)){
+            try {
+                Database.getLogFile().rollback(tid); // 被写回磁盘的未提交页面只能从日志中撤销
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        stolenFrom.remove(tid);
+        if(commit){ // 提交，FORCE模式下所有相关页面写入磁盘，NO-FORCE模式下只写日志
             try {
-                flushPages(tid);
+                if(noForce){
+                    logPages(tid);
+                }else{
+                    flushPages(tid);
+                }
+                if(logCommit){
+                    Database.getLogFile().logCommit(tid); // COMMIT记录落盘后才能释放锁
+                }
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
-        }else{ // Abort，丢弃所有页面
+        }else{ // Abort，丢弃所有修改过的页面；只持有共享锁的页面没有被修改，其它事务可能正固定着它们
             for(PageId pid : pages){
-                discardPage(pid);
+                if(lockManager.holdsExclusiveLock(tid, pid)){
+                    abandonPage(pid);
+                }
             }
         }
         for(PageId pid : pages){
             lockManager.releaseLock(tid, pid); // 逐个释放锁
         }
+        if(trace != null){
+            trace.flush();
+        }
+    }
+
+    /**
+     * Drop the version of a page an aborting transaction, holding an
+     * exclusive lock on it, left in the pool.  A page whose committed
+     * version has not been written yet cannot be re-read from disk, so it
+     * goes back to that version, its before image, instead.  This happens
+     * whether or not the page is marked dirty: B+ tree splits and merges
+     * change pages in place and only mark them dirty once the operation
+     * returns, so an abort in between leaves changed pages marked clean.
+     */
+    private synchronized void abandonPage(PageId pid) {
+        if(!unwritten.contains(pid)){
+            discardPage(pid);
+            return;
+        }
+        Page page = pageCache.getPage(pid);
+        if(page != null){
+            pageCache.putPage(page.getBeforeImage());
+            pageCache.dirtyChanged(pid);
+            pageEpochs.incrementAndGet(epochStripe(pid));
+        }
+    }
+
+    /** Called by {@link LogFile#rollback} once the pages of the transaction on disk are undone */
+    void rolledBack(TransactionId tid) {
+        stolenFrom.remove(tid);
+    }
+
+    // 释放事务还没有释放的固定，例如未关闭的迭代器留下的
+    private void releasePins(TransactionId tid) {
+        Map<PageId, Integer> held = pins.get(tid);
+        if(held == null){
+            return;
+        }
+        synchronized (held) { // 先清空再移除，期间丢弃页面的discardPage仍能看到这些记录
+            for(Map.Entry<PageId, Integer> e : held.entrySet()){
+                for(int i = 0; i < e.getValue(); i++){
+                    pageCache.unpin(e.getKey());
+                }
+            }
+            held.clear();
+        }
+        pins.remove(tid, held);
     }
 
     /**
@@ -227,20 +1092,23 @@ public class BufferPool {
     }
 
     /**
-     * Flush all dirty pages to disk.
+     * Flush all dirty pages to disk, and the committed pages that have not
+     * been written yet (see {@link #setNoForce}).
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
      */
     public synchronized void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
+        List<Page> dirty = new ArrayList<>();
         Iterator<Page> iterator = pageCache.iterator();
         while(iterator.hasNext()){
             Page page = iterator.next();
-            if(page.isDirty() != null) {
-                flushPage(page.getId());
+            if(page.isDirty() != null || unwritten.contains(page.getId())) {
+                dirty.add(page);
             }
         }
+        writeBack(dirty);
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -250,15 +1118,31 @@ public class BufferPool {
         
         Also used by B+ tree files to ensure that deleted pages
         are removed from the cache so they can be reused safely
+
+        Pins on the page go with it: a transaction that later unpins it
+        must not release a pin on the version read in again afterwards.
     */
     public synchronized void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
-        pageCache.removePage(pid);
+        synchronized (pinLock) {
+            for(Map<PageId, Integer> held : pins.values()){
+                synchronized (held) {
+                    held.remove(pid);
+                }
+            }
+            pageCache.removePage(pid);
+        }
+        unwritten.remove(pid);
+        pageEpochs.incrementAndGet(epochStripe(pid));
     }
 
     /**
-     * Flushes a certain page to disk
+     * Flushes a certain page to disk before it is evicted.  The page was
+     * chosen as a victim because it was clean, so only its committed
+     * version has to be written, and only if it has not been written yet.
+     * A transaction may dirty it meanwhile; its changes are neither written
+     * nor marked clean, and the page is then not evicted.
      * @param pid an ID indicating the page to flush
      */
     private synchronized void flushPage(PageId pid) throws IOException {
@@ -266,16 +1150,14 @@ public class BufferPool {
         // not necessary for lab1
         DbFile f = Database.getCatalog().getDatabaseFile(pid.getTableId());
         Page page = pageCache.getPage(pid);
-        if(page == null) return;
+        if(page == null || !unwritten.contains(pid)) return;
 
-        TransactionId dirtier = page.isDirty();
-        if(dirtier != null){
-            Database.getLogFile().logWrite(dirtier, page.getBeforeImage(), page);
-            Database.getLogFile().force();
-            f.writePage(page);
-        }
-
-        page.markDirty(false, null);
+        Database.getLogFile().force(); // 未写回页面的更新记录在提交时已追加，同样要先于页面落盘
+        long start = System.nanoTime();
+        f.writePage(page.getBeforeImage()); // 提交时已设为before image；不受此后原地修改或变脏的影响
+        stats.write(pid, System.nanoTime() - start);
+        unwritten.remove(pid);
+        pageEpochs.incrementAndGet(epochStripe(pid));
     }
 
     /** Write all pages of the specified transaction to disk.
@@ -283,32 +1165,173 @@ public class BufferPool {
     public synchronized void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
-        for(PageId pid : lockManager.getLookupList(tid)){
-            flushPage(pid);
+        List<PageId> pids = lockManager.getLookupList(tid);
+        List<Page> dirty = new ArrayList<>();
+        for(PageId pid : pids){
+            Page page = pageCache.getPage(pid);
+            if(page != null && page.isDirty() != null)
+                dirty.add(page);
+        }
+        writeBack(dirty);
+        for(PageId pid : pids){
             Page page = pageCache.getPage(pid);
             if(page != null)
                 page.setBeforeImage(); // 用当前的内容当做下一次的before
         }
     }
 
+    /**
+     * Log the pages of a transaction committing in NO-FORCE mode: an update
+     * record is appended for each dirty page, without forcing the log, and
+     * the page stays in the pool, clean but unwritten, until it is evicted
+     * or checkpointed.
+     */
+    private synchronized void logPages(TransactionId tid) throws IOException {
+        LogFile log = Database.getLogFile();
+        for(PageId pid : lockManager.getLookupList(tid)){
+            Page page = pageCache.getPage(pid);
+            if(page == null) continue;
+            TransactionId dirtier = page.isDirty();
+            if(dirtier != null){
+                log.logWrite(dirtier, page.getBeforeImage(), page);
+                unwritten.add(pid); // 先登记再标记为干净页，置换时才不会把它当作已在磁盘上
+                page.markDirty(false, null);
+                pageCache.dirtyChanged(pid);
+            }
+            page.setBeforeImage(); // 用当前的内容当做下一次的before
+        }
+    }
+
+    /**
+     * Writes a batch of dirty or unwritten pages to disk.  The update records
+     * of the dirty pages are logged and the log is forced once for the whole
+     * batch (those of the unwritten pages were logged when they were
+     * committed); the pages are then
+     * sorted by (table, page number) and handed to each DbFile in one
+     * batch, so that they are written in file order.
+     */
+    private synchronized void writeBack(List<Page> pages) throws IOException {
+        if(pages.isEmpty()) return;
+
+        long flushStart = System.nanoTime();
+        LogFile log = Database.getLogFile();
+        for(Page page : pages){
+            if(page.isDirty() != null){
+                log.logWrite(page.isDirty(), page.getBeforeImage(), page);
+            }
+        }
+        log.force();
+
+        List<Page> images = new ArrayList<>(pages.size());
+        for(Page page : pages){
+            images.add(committedVersion(page));
+        }
+        images.sort(Comparator.comparingInt((Page p) -> p.getId().getTableId())
+                .thenComparingInt(p -> p.getId().getPageNumber()));
+        int from = 0;
+        while(from < images.size()){
+            int tableId = images.get(from).getId().getTableId();
+            int to = from + 1;
+            while(to < images.size() && images.get(to).getId().getTableId() == tableId){
+                to++;
+            }
+            long start = System.nanoTime();
+            Database.getCatalog().getDatabaseFile(tableId).writePages(images.subList(from, to));
+            long each = (System.nanoTime() - start) / (to - from); // 整批写入的时间平摊到各页
+            for(Page page : images.subList(from, to)){
+                stats.write(page.getId(), each);
+            }
+            from = to;
+        }
+
+        for(Page page : pages){
+            page.markDirty(false, null);
+            pageCache.dirtyChanged(page.getId()); // 回到可置换的干净页中
+            unwritten.remove(page.getId());
+            pageEpochs.incrementAndGet(epochStripe(page.getId()));
+        }
+        stats.flushed(System.nanoTime() - flushStart);
+    }
+
+    /**
+     * The contents of a page to write back.  A clean page that is not
+     * written yet is written as its before image, the version its last
+     * transaction committed: a transaction holding an exclusive lock on it
+     * may be changing it in place, as B+ tree splits and merges do before
+     * they mark their pages dirty, and those changes must not reach the
+     * disk before the page is dirtied and logged.
+     */
+    private Page committedVersion(Page page) {
+        if(page.isDirty() == null && unwritten.contains(page.getId())){
+            return page.getBeforeImage();
+        }
+        return page;
+    }
+
     /**
      * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Flushes the page to disk to ensure dirty pages are updated on disk; a
+     * page that cannot be written stays in the pool.
      */
     private synchronized  void evictPage() throws DbException {
+        evictPage(null);
+    }
+
+    /**
+     * Discards a page from the buffer pool as {@link #evictPage()} does; in
+     * STEAL mode, if every clean page is pinned, dirty pages of tid are
+     * written back first to make room.
+     *
+     * @param tid the transaction the page is being read for, by its own
+     *            thread, or null
+     */
+    private synchronized  void evictPage(TransactionId tid) throws DbException {
         // some code goes here
         // not necessary for lab1
-        PageId pageToEvict = pageCache.pidToBeEvicted();
-        if(pageToEvict == null){
-            throw new DbException("All pages in the buffer pool are dirty.");
+        PageId pageToEvict;
+        do { // 写回期间其它线程可能固定或修改了牺牲页，此时重新选择；不能换出另一个可能尚未写回的页面
+            pageToEvict = pageCache.pidToBeEvicted();
+            if(pageToEvict == null && steal && tid != null){
+                stealPages(tid);
+                pageToEvict = pageCache.pidToBeEvicted();
+            }
+            if(pageToEvict == null){
+                throw new DbException("All pages in the buffer pool are dirty or pinned.");
+            }
+            try {
+                flushPage(pageToEvict);
+            } catch (IOException e) {
+                throw new DbException("could not write back page " + pageToEvict + ": " + e.getMessage());
+            }
+        } while(!pageCache.evictPage(pageToEvict));
+        stats.evicted(pageToEvict);
+    }
+
+    /**
+     * Write back up to {@link #STEAL_BATCH} unpinned pages dirtied by tid,
+     * coldest first, so that they can be evicted; their update records are
+     * forced once for the batch.  Only the pages of the transaction whose
+     * thread is asking are written: pages of other transactions may be in
+     * the middle of being modified by their own threads, and nothing stops
+     * them while their images are taken.
+     */
+    private synchronized void stealPages(TransactionId tid) throws DbException {
+        List<Page> victims = new ArrayList<>();
+        List<PageId> pids = pageCache.hottestFirst();
+        for(int i = pids.size() - 1; i >= 0 && victims.size() < STEAL_BATCH; i--){
+            Page page = pageCache.getPage(pids.get(i));
+            if(page != null && tid.equals(page.isDirty()) && !pageCache.isPinned(page.getId())){
+                victims.add(page);
+            }
+        }
+        if(!victims.isEmpty()){
+            stolenFrom.add(tid);
         }
         try {
-            flushPage(pageToEvict);
+            writeBack(victims); // before image保持不变，回滚和恢复仍以事务开始前的内容为准
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new DbException("could not write back dirty pages: " + e.getMessage());
         }
-
-        pageCache.evictPage();
     }
 
     public PageCache getPageCache(){
@@ -0,0 +1,383 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * ColumnFile is a column oriented DbFile: every field of the table's
+ * TupleDesc is stored in its own chain of ColumnPages, kept in a file of its
+ * own (the table file name with ".col&lt;i&gt;" appended for field i).  A
+ * scan that only needs a few fields of a wide table reads only the pages of
+ * those columns (see {@link #iterator(TransactionId, int[])}).
+ * <p>
+ * Row r of the table is stored in slot r % n of page r / n of every column,
+ * where n is the number of values of the column's type that fit on a page
+ * (see {@link ColumnPage#getNumSlots(simpledb.common.Type, int)}).  New rows are
+ * placed using a free space map over the pages of the first column, whose
+ * header bits decide which rows exist.
+ * <p>
+ * A tuple's RecordId names the page and slot of the row in the column the
+ * tuple was read through (the first column for inserted tuples); the row
+ * number follows from either.
+ *
+ * @see ColumnPage
+ */
+public class ColumnFile implements DbFile {
+
+    private final File file;
+    private final TupleDesc td;
+    private final DbFileChannel[] channels; // 每列一个文件
+    private final int[] slotsPerPage;
+    private final HeapFreeSpaceMap freeSpaceMap; // 第0列每个页面的空闲slot数
+    private final int pageSize;
+
+    /**
+     * Constructs a column file for the table stored under the specified
+     * file name.
+     *
+     * @param f
+     *            the table file; column i is stored in f with ".col" + i
+     *            appended to its name.
+     */
+    public ColumnFile(File f, TupleDesc td) {
+        this(f, td, BufferPool.getPageSize());
+    }
+
+    /**
+     * Constructs a column file whose column pages have the given size.
+     *
+     * @param pageSize
+     *            the size of the pages of every column, in bytes
+     */
+    public ColumnFile(File f, TupleDesc td, int pageSize) {
+        this.file = f;
+        this.td = td;
+        this.pageSize = pageSize;
+        this.channels = new DbFileChannel[td.numFields()];
+        this.slotsPerPage = new int[td.numFields()];
+        for (int i = 0; i < channels.length; i++) {
+            channels[i] = new DbFileChannel(getColumnFile(i));
+            slotsPerPage[i] = ColumnPage.getNumSlots(td.getFieldType(i), pageSize);
+        }
+        this.freeSpaceMap = new HeapFreeSpaceMap(HeapFreeSpaceMap.sidecar(f), () -> numPages(0));
+    }
+
+    /**
+     * Returns the File this ColumnFile is named after.  The data itself
+     * lives in the column files, see {@link #getColumnFile(int)}.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    // see DbFile.java for javadocs
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Returns the File holding the pages of the given column.
+     */
+    public File getColumnFile(int column) {
+        return new File(file.getPath() + ".col" + column);
+    }
+
+    /**
+     * Returns the free space map of the first column, in slots per page.
+     */
+    public HeapFreeSpaceMap getFreeSpaceMap() {
+        return freeSpaceMap;
+    }
+
+    // see DbFile.java for javadocs
+    public int getId() {
+        return file.getAbsolutePath().hashCode();
+    }
+
+    // see DbFile.java for javadocs
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        ColumnPageId cpid = (ColumnPageId) pid;
+        byte[] data = new byte[pageSize];
+        try {
+            channels[cpid.getColumn()].read((long) cpid.getPageNumber() * pageSize, ByteBuffer.wrap(data)); // 超出文件末尾的部分保持为0
+            ColumnPage page = new ColumnPage(cpid, data);
+            if (cpid.getColumn() == 0) {
+                freeSpaceMap.noteRead(cpid.getPageNumber(), page.getNumEmptySlots());
+            }
+            return page;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("unable to read page " + pid, e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        ColumnPageId pid = (ColumnPageId) page.getId();
+        long offset = (long) pid.getPageNumber() * pageSize;
+        channels[pid.getColumn()].write(offset, ByteBuffer.wrap(page.getPageData()));
+    }
+
+    // see DbFile.java for javadocs
+    public void writePages(List<Page> pages) throws IOException {
+        // 按列分组，每列的页面仍按页号有序
+        Map<Integer, List<Page>> byColumn = new TreeMap<>();
+        for (Page p : pages) {
+            byColumn.computeIfAbsent(((ColumnPageId) p.getId()).getColumn(), c -> new ArrayList<>()).add(p);
+        }
+        for (Map.Entry<Integer, List<Page>> e : byColumn.entrySet()) {
+            channels[e.getKey()].writePages(e.getValue(), p -> (long) p.getId().getPageNumber() * pageSize);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void sync() throws IOException {
+        freeSpaceMap.save();
+    }
+
+    // see DbFile.java for javadocs
+    public void close() {
+        for (DbFileChannel channel : channels) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Returns the number of pages in this file, over all columns.
+     */
+    public int numPages() {
+        int total = 0;
+        for (int i = 0; i < channels.length; i++) {
+            total += numPages(i);
+        }
+        return total;
+    }
+
+    /**
+     * Returns the number of pages of the given column.
+     */
+    public int numPages(int column) {
+        return (int) (getColumnFile(column).length() / pageSize);
+    }
+
+    /**
+     * Make sure the column file holds page pgNo, appending empty pages as
+     * needed.  Pages past the end of a column file are only ever handed out
+     * after this, so the appended pages cannot be in use yet.
+     */
+    private synchronized void extend(int column, int pgNo) throws IOException {
+        int numPages = numPages(column);
+        if (pgNo < numPages) return;
+        ByteBuffer empty = ByteBuffer.allocate((pgNo - numPages + 1) * pageSize); // 空页面全为0
+        channels[column].write((long) numPages * pageSize, empty);
+    }
+
+    private ColumnPage getPage(TransactionId tid, int column, int pgNo, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        PageId pid = new ColumnPageId(getId(), column, pgNo);
+        return (ColumnPage) Database.getBufferPool().getPage(tid, pid, perm);
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("tupleDesc is mismatch");
+        List<Page> pages = new ArrayList<>();
+
+        // 在第0列中找一个空slot，它决定了新行的行号
+        ColumnPage first = null;
+        int slot = -1;
+        int numPages = numPages(0);
+        int pgNo = freeSpaceMap.findPage(0, numPages);
+        while (slot == -1) {
+            if (pgNo == -1) {
+                // 没有空闲的页面，在第0列末尾追加一个空页面
+                pgNo = numPages;
+                extend(0, pgNo);
+                numPages = numPages(0);
+            }
+            first = getPage(tid, 0, pgNo, Permissions.READ_WRITE);
+            slot = first.findEmptySlot();
+            if (slot == -1) {
+                freeSpaceMap.update(pgNo, 0); // 空闲空间表过时了
+                pgNo = freeSpaceMap.findPage(pgNo + 1, numPages);
+            }
+        }
+        int row = pgNo * slotsPerPage[0] + slot;
+
+        first.setField(slot, t.getField(0));
+        pages.add(first);
+        for (int i = 1; i < channels.length; i++) {
+            int colPgNo = row / slotsPerPage[i];
+            extend(i, colPgNo);
+            ColumnPage page = getPage(tid, i, colPgNo, Permissions.READ_WRITE);
+            page.setField(row % slotsPerPage[i], t.getField(i));
+            pages.add(page);
+        }
+        t.setRecordId(new RecordId(first.getId(), slot));
+        return pages;
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !(rid.getPageId() instanceof ColumnPageId) || rid.getPageId().getTableId() != getId())
+            throw new DbException("tuple is not stored in this file");
+        ColumnPageId pid = (ColumnPageId) rid.getPageId();
+        int row = pid.getPageNumber() * slotsPerPage[pid.getColumn()] + rid.getTupleNumber();
+
+        List<Page> pages = new ArrayList<>();
+        for (int i = 0; i < channels.length; i++) {
+            ColumnPage page = getPage(tid, i, row / slotsPerPage[i], Permissions.READ_WRITE);
+            page.clearSlot(row % slotsPerPage[i]);
+            pages.add(page);
+        }
+        return pages;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        int[] all = new int[td.numFields()];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = i;
+        }
+        return iterator(tid, all);
+    }
+
+    /**
+     * Returns an iterator over the rows of this file that only reads the
+     * pages of the given columns.  The returned tuples have this file's
+     * TupleDesc; fields not in columns are null.  Rows are found through
+     * the header bits of the first of the columns (or of column 0 if
+     * columns is empty).
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] columns) {
+        final int[] cols = columns.length > 0 ? columns.clone() : new int[] {0};
+        final int driver = cols[0];
+
+        return new DbFileIterator() {
+            private BufferPool bufferPool;
+            private ReadAhead[] readAheads; // 每个被读取的列各自预读
+            private ScanRing[] rings;       // 每个被读取的列各自的页面环，小文件为null
+            private ColumnPage[] current;   // 每个被读取的列当前所在的页面，处于固定状态
+            private int pgNo;
+            private int slot;
+            private int pages; // 驱动列的页面数，扫到末尾时才重新读取文件长度
+            private boolean advanced;
+
+            private ColumnPage page(int k, int colPgNo) throws TransactionAbortedException, DbException {
+                if (current[k] == null || current[k].getId().getPageNumber() != colPgNo) {
+                    readAheads[k].access(colPgNo);
+                    PageId pid = new ColumnPageId(getId(), cols[k], colPgNo);
+                    unpin(k); // 先释放上一页：缓冲池很小时下一页可能正需要它的位置
+                    current[k] = (ColumnPage) bufferPool.pinPage(tid, pid, Permissions.READ_ONLY, rings[k]);
+                }
+                return current[k];
+            }
+
+            private void unpin(int k) {
+                if (current[k] != null) {
+                    bufferPool.unpinPage(tid, current[k].getId());
+                    current[k] = null;
+                }
+            }
+
+            private void unpinAll() {
+                if (current != null) {
+                    for (int k = 0; k < cols.length; k++) {
+                        unpin(k);
+                    }
+                }
+            }
+
+            @Override
+            public void open() throws DbException, TransactionAbortedException {
+                if (bufferPool == null) {
+                    bufferPool = Database.getBufferPool();
+                    readAheads = new ReadAhead[cols.length];
+                    rings = new ScanRing[cols.length];
+                    // 按所有被读取列的总页数决定是否使用环，各列平分环的大小
+                    int total = 0;
+                    for (int column : cols) {
+                        total += numPages(column);
+                    }
+                    ScanRing shared = ScanRing.forScan(bufferPool, total);
+                    for (int k = 0; k < cols.length; k++) {
+                        int column = cols[k];
+                        if (shared != null) {
+                            rings[k] = new ScanRing(Math.max(2, shared.size() / cols.length));
+                        }
+                        readAheads[k] = new ReadAhead(bufferPool, p -> new ColumnPageId(getId(), column, p),
+                                () -> numPages(column), rings[k]);
+                    }
+                    rewind();
+                }
+            }
+
+            @Override
+            public boolean hasNext() throws DbException, TransactionAbortedException {
+                if (bufferPool == null) return false;
+                if (advanced) return pgNo < pages;
+
+                slot++;
+                while (pgNo < pages || pgNo < (pages = numPages(driver))) {
+                    ColumnPage page = page(0, pgNo);
+                    while (slot < page.getNumSlots() && !page.isSlotUsed(slot)) {
+                        slot++;
+                    }
+                    if (slot < page.getNumSlots()) break;
+                    pgNo++;
+                    slot = 0;
+                }
+                advanced = true;
+                return pgNo < pages;
+            }
+
+            @Override
+            public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+                if (!hasNext()) throw new NoSuchElementException();
+                advanced = false;
+
+                int row = pgNo * slotsPerPage[driver] + slot;
+                Tuple t = new Tuple(td);
+                t.setField(driver, current[0].getField(slot));
+                for (int k = 1; k < cols.length; k++) {
+                    int column = cols[k];
+                    t.setField(column, page(k, row / slotsPerPage[column]).getField(row % slotsPerPage[column]));
+                }
+                t.setRecordId(new RecordId(current[0].getId(), slot));
+                return t;
+            }
+
+            @Override
+            public void rewind() throws DbException, TransactionAbortedException {
+                unpinAll();
+                current = new ColumnPage[cols.length];
+                pgNo = 0;
+                slot = -1;
+                pages = numPages(driver);
+                advanced = false;
+            }
+
+            @Override
+            public void close() {
+                if (bufferPool != null) unpinAll();
+                bufferPool = null;
+                current = null;
+            }
+        };
+    }
+}
@@ -0,0 +1,242 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.transaction.TransactionId;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Each instance of ColumnPage stores the values of one column for a range of
+ * rows of a ColumnFile.  The format mirrors HeapPage, with a single field
+ * per slot instead of a whole tuple: a header bitmap with one bit per slot,
+ * followed by the fixed size slots.  The number of slots is
+ * <p>
+ *          floor((page size*8) / (field size * 8 + 1))
+ * <p>
+ * Slot i of page p of a column holds the value of row p * numSlots + i, and
+ * its header bit tells whether that row exists; every column of a table
+ * keeps the same set of rows.
+ *
+ * @see ColumnFile
+ */
+public class ColumnPage implements Page {
+
+    final ColumnPageId pid;
+    final Type type;
+    final int numSlots;
+    final byte[] data;
+    final ByteBuffer buf;
+    private final int headerSize;
+
+    byte[] oldData; // 与data是同一个数组时表示页面自before image以来未被修改
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a ColumnPage from a set of bytes of data read from disk, in the
+     * format described above.  All zeroes is an empty page.  The page takes
+     * ownership of the array and modifies it in place, copying the before
+     * image out of it on the first modification.
+     */
+    public ColumnPage(ColumnPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.type = Database.getCatalog().getTupleDesc(id.getTableId()).getFieldType(id.getColumn());
+        int pageSize = Database.getCatalog().getPageSize(id.getTableId());
+        this.numSlots = getNumSlots(type, pageSize);
+        this.headerSize = (numSlots + 7) / 8;
+        if (data.length != pageSize) {
+            throw new IOException("column page " + id + " has " + data.length + " bytes");
+        }
+        this.data = data;
+        this.buf = ByteBuffer.wrap(data);
+        setBeforeImage();
+    }
+
+    /**
+     * Copy the before image out of the page data before the data is first
+     * modified; the page data is modified in place.
+     */
+    private void copyOnWrite() {
+        synchronized (oldDataLock) {
+            if (oldData == data) {
+                oldData = data.clone();
+            }
+        }
+    }
+
+    /**
+     * @return the number of values of the given type a page of the given
+     *   size holds
+     */
+    public static int getNumSlots(Type type, int pageSize) {
+        return pageSize * 8 / (type.getLen() * 8 + 1);
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public ColumnPage getBeforeImage() {
+        try {
+            byte[] oldDataRef;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new ColumnPage(pid, oldDataRef.clone());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = data; // 在下一次修改时才拷贝
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public ColumnPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     */
+    public synchronized byte[] getPageData() {
+        return data.clone();
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * ColumnPage.
+     */
+    public static byte[] createEmptyPageData() {
+        return createEmptyPageData(BufferPool.getPageSize());
+    }
+
+    /**
+     * Generate a byte array corresponding to an empty ColumnPage of the
+     * given size.
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize];
+    }
+
+    /** @return the number of slots on this page */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public synchronized boolean isSlotUsed(int i) {
+        return (data[i / 8] >> (i % 8) & 1) == 1;
+    }
+
+    /**
+     * Returns the number of empty slots on this page.
+     */
+    public synchronized int getNumEmptySlots() {
+        int used = 0;
+        for (int i = 0; i < headerSize; i++) {
+            used += Integer.bitCount(data[i] & 0xff);
+        }
+        return numSlots - used;
+    }
+
+    /** @return the first empty slot of this page, or -1 if the page is full */
+    public synchronized int findEmptySlot() {
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the value in the given slot, which must be in use
+     */
+    public Field getField(int slot) {
+        return type.parse(buf, headerSize + slot * type.getLen());
+    }
+
+    /**
+     * Store a value in the given slot and mark the slot used.
+     *
+     * @throws DbException if the field does not have the type of the column
+     */
+    public synchronized void setField(int slot, Field f) throws DbException {
+        if (f == null || f.getType() != type)
+            throw new DbException("field " + f + " does not match column type " + type);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(type.getLen());
+        try {
+            f.serialize(new DataOutputStream(baos));
+        } catch (IOException e) {
+            throw new DbException("unable to serialize " + f);
+        }
+        copyOnWrite();
+        System.arraycopy(baos.toByteArray(), 0, data, headerSize + slot * type.getLen(), type.getLen());
+        markSlotUsed(slot, true);
+    }
+
+    /**
+     * Clear the given slot.
+     *
+     * @throws DbException if the slot is already empty
+     */
+    public synchronized void clearSlot(int slot) throws DbException {
+        if (!isSlotUsed(slot))
+            throw new DbException("slot " + slot + " of " + pid + " is empty");
+        copyOnWrite();
+        markSlotUsed(slot, false);
+        // 清空旧值，删除的数据不留在页面里
+        int offset = headerSize + slot * type.getLen();
+        for (int i = 0; i < type.getLen(); i++) {
+            data[offset + i] = 0;
+        }
+    }
+
+    private void markSlotUsed(int i, boolean value) {
+        if (value)
+            data[i / 8] |= (byte) (1 << (i % 8));
+        else
+            data[i / 8] &= (byte) ~(1 << (i % 8));
+        updateFreeSpaceMap();
+    }
+
+    /**
+     * Report the current number of free slots of a page of the first column
+     * to the free space map of the ColumnFile, which places new rows.
+     */
+    private void updateFreeSpaceMap() {
+        if (pid.getColumn() != 0) return;
+        DbFile f = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        if (f instanceof ColumnFile) {
+            ((ColumnFile) f).getFreeSpaceMap().update(pid.getPageNumber(), getNumEmptySlots());
+        }
+    }
+
+    private volatile TransactionId dirtier = null;
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtier = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+}
@@ -0,0 +1,81 @@
+package simpledb.storage;
+
+/** Unique identifier for ColumnPage objects: a page of one column of a table. */
+public class ColumnPageId implements PageId {
+
+    private final int tableId;
+    private final int column;
+    private final int pgNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific column of a table.
+     *
+     * @param tableId The table that is being referenced
+     * @param column The index of the column in the table's TupleDesc
+     * @param pgNo The page number in that column.
+     */
+    public ColumnPageId(int tableId, int column, int pgNo) {
+        this.tableId = tableId;
+        this.column = column;
+        this.pgNo = pgNo;
+    }
+
+    /** @return the table associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /** @return the column of the table this page belongs to */
+    public int getColumn() {
+        return column;
+    }
+
+    /**
+     * @return the page number in the column getColumn() of the table
+     *   getTableId() associated with this PageId
+     */
+    public int getPageNumber() {
+        return pgNo;
+    }
+
+    public PageCategory getCategory() {
+        return PageCategory.COLUMN;
+    }
+
+    /**
+     * @return a hash code for this page, combining the table number, the
+     *   column and the page number
+     * @see BufferPool
+     */
+    public int hashCode() {
+        return (tableId * 31 + column) * 31 + pgNo;
+    }
+
+    /**
+     * Compares one PageId to another.
+     *
+     * @param o The object to compare against (must be a PageId)
+     * @return true if the objects are equal (same table, column and page
+     *   number)
+     */
+    public boolean equals(Object o) {
+        if (!(o instanceof ColumnPageId)) return false;
+        ColumnPageId that = (ColumnPageId) o;
+        return this.tableId == that.tableId && this.column == that.column && this.pgNo == that.pgNo;
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk.  Size of returned array must contain
+     *  number of integers that corresponds to number of args to one of the
+     *  constructors.
+     */
+    public int[] serialize() {
+        return new int[] {tableId, column, pgNo};
+    }
+
+    public String toString() {
+        return "ColumnPageId(" + tableId + ", " + column + ", " + pgNo + ")";
+    }
+}
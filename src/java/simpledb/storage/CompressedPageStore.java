@@ -0,0 +1,345 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * CompressedPageStore keeps the pages of a HeapFile deflate compressed on
+ * disk.  Compressed pages have different sizes, so a page no longer lives at
+ * pgNo * pageSize; instead a page translation map records, for every page,
+ * the extent (offset, capacity) of the data file that holds it and the
+ * compressed length.
+ * <p>
+ * Extents are multiples of {@link #ALIGN} bytes.  A page that still fits its
+ * extent after being rewritten is overwritten in place; otherwise it moves to
+ * a free extent (first fit) or to the end of the file, and its old extent is
+ * freed for reuse.
+ * <p>
+ * The translation map lives in a sidecar file (the data file name with
+ * ".ptm" appended) holding one fixed size entry per page, and an entry is
+ * written through as soon as a page moves.  Entries only become durable
+ * when the store is forced, so an extent a page moved away from is not
+ * reused until then: until the new entry is on disk, the map recovered
+ * after a crash still points at the old extent and its contents.
+ *
+ * @Threadsafe
+ */
+public class CompressedPageStore {
+
+    /** Extents are allocated in multiples of this many bytes */
+    public static final int ALIGN = 512;
+
+    // ptm entry: offset (8 bytes), compressed length (4), capacity (4)
+    private static final int ENTRY_SIZE = 16;
+
+    private final DbFileChannel data;
+    private final DbFileChannel ptm;
+    private volatile int level = Deflater.DEFAULT_COMPRESSION;
+
+    // 页面转换表，按页号索引，protected by this
+    private long[] offsets = new long[0];
+    private int[] lengths = new int[0];
+    private int[] capacities = new int[0];
+    private int numPages = 0;
+    private long end = 0; // 数据文件中已分配空间的末尾
+    private final TreeMap<Long, Integer> freeExtents = new TreeMap<>(); // offset -> size
+    private List<long[]> released = new ArrayList<>(); // 上次force之后释放的区间 {offset, size}
+    private boolean loaded = false;
+
+    // Deflater和Inflater不是线程安全的，每个线程各用一个
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    /**
+     * @param data the channel of the file holding the compressed pages
+     * @param ptmFile the file holding the page translation map
+     */
+    public CompressedPageStore(DbFileChannel data, File ptmFile) {
+        this.data = data;
+        this.ptm = new DbFileChannel(ptmFile);
+    }
+
+    /**
+     * Set the deflate level (0-9, or Deflater.DEFAULT_COMPRESSION) used for
+     * pages written from now on.
+     */
+    public void setLevel(int level) {
+        this.level = level;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    /** @return the number of pages in the store */
+    public synchronized int numPages() {
+        load();
+        return numPages;
+    }
+
+    /** @return the number of bytes of compressed page data in the store */
+    public synchronized long getCompressedBytes() {
+        load();
+        long total = 0;
+        for (int i = 0; i < numPages; i++) {
+            total += lengths[i];
+        }
+        return total;
+    }
+
+    /**
+     * Read and decompress a page.  A page the store has never written is
+     * returned as all zeroes, like a read past the end of a plain file.
+     *
+     * @param pgNo the page number
+     * @param pageSize the uncompressed page size
+     */
+    public byte[] read(int pgNo, int pageSize) throws IOException {
+        byte[] compressed;
+        synchronized (this) {
+            load();
+            if (pgNo >= numPages || lengths[pgNo] == 0) {
+                return new byte[pageSize];
+            }
+            compressed = new byte[lengths[pgNo]];
+            if (data.read(offsets[pgNo], ByteBuffer.wrap(compressed)) != compressed.length) {
+                throw new IOException("truncated compressed page " + pgNo);
+            }
+        }
+
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(compressed);
+        byte[] page = new byte[pageSize];
+        try {
+            int n = 0;
+            while (n < pageSize && !inflater.finished()) {
+                int k = inflater.inflate(page, n, pageSize - n);
+                if (k == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += k;
+            }
+            if (n != pageSize || !inflater.finished()) {
+                throw new IOException("corrupt compressed page " + pgNo);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt compressed page " + pgNo, e);
+        }
+        return page;
+    }
+
+    /**
+     * Compress and write a page, allocating a new extent for it if it no
+     * longer fits the old one.
+     */
+    public void write(int pgNo, byte[] page) throws IOException {
+        byte[] compressed = deflate(page, level);
+
+        synchronized (this) {
+            load();
+            ensureCapacity(pgNo + 1);
+            if (compressed.length > capacities[pgNo]) {
+                if (capacities[pgNo] > 0) {
+                    released.add(new long[]{offsets[pgNo], capacities[pgNo]}); // force之后才能复用
+                }
+                int size = (compressed.length + ALIGN - 1) / ALIGN * ALIGN;
+                offsets[pgNo] = allocate(size);
+                capacities[pgNo] = size;
+            }
+            data.write(offsets[pgNo], ByteBuffer.wrap(compressed));
+            // 长度或位置变了才需要更新页面转换表
+            if (lengths[pgNo] != compressed.length || pgNo >= numPages) {
+                lengths[pgNo] = compressed.length;
+                for (int i = numPages; i < pgNo; i++) {
+                    writeEntry(i); // 跳过的页面记为空
+                }
+                numPages = Math.max(numPages, pgNo + 1);
+                writeEntry(pgNo);
+            }
+        }
+    }
+
+    /**
+     * Deflate a page with the given level.
+     */
+    public static byte[] deflate(byte[] page, int level) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(page);
+            deflater.finish();
+            byte[] buf = new byte[page.length + page.length / 100 + 64];
+            int n = 0;
+            while (!deflater.finished()) {
+                if (n == buf.length) {
+                    buf = Arrays.copyOf(buf, buf.length * 2);
+                }
+                n += deflater.deflate(buf, n, buf.length - n);
+            }
+            return Arrays.copyOf(buf, n);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Flush the compressed pages and the page translation map to disk, and
+     * make the extents pages moved away from before the call reusable.
+     */
+    public void force() throws IOException {
+        List<long[]> extents;
+        synchronized (this) {
+            extents = released;
+            released = new ArrayList<>();
+        }
+        boolean forced = false;
+        try {
+            data.force();
+            ptm.force();
+            forced = true;
+        } finally {
+            synchronized (this) {
+                if (forced) {
+                    for (long[] e : extents) {
+                        free(e[0], (int) e[1]);
+                    }
+                } else {
+                    released.addAll(extents);
+                }
+            }
+        }
+    }
+
+    /** Close the underlying files; they are reopened on next use. */
+    public synchronized void close() {
+        ptm.close();
+    }
+
+    private void writeEntry(int pgNo) throws IOException {
+        ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+        entry.putLong(offsets[pgNo]).putInt(lengths[pgNo]).putInt(capacities[pgNo]).flip();
+        ptm.write((long) pgNo * ENTRY_SIZE, entry);
+    }
+
+    private long allocate(int size) {
+        for (Map.Entry<Long, Integer> e : freeExtents.entrySet()) {
+            int free = e.getValue();
+            if (free >= size) {
+                long offset = e.getKey();
+                freeExtents.remove(offset);
+                if (free > size) {
+                    freeExtents.put(offset + size, free - size);
+                }
+                return offset;
+            }
+        }
+        long offset = end;
+        end += size;
+        return offset;
+    }
+
+    private void free(long offset, int size) {
+        // 与相邻的空闲区间合并
+        Map.Entry<Long, Integer> next = freeExtents.ceilingEntry(offset);
+        if (next != null && next.getKey() == offset + size) {
+            freeExtents.remove(next.getKey());
+            size += next.getValue();
+        }
+        Map.Entry<Long, Integer> prev = freeExtents.floorEntry(offset);
+        if (prev != null && prev.getKey() + prev.getValue() == offset) {
+            offset = prev.getKey();
+            size += prev.getValue();
+        }
+        freeExtents.put(offset, size);
+    }
+
+    private void ensureCapacity(int n) {
+        if (n > offsets.length) {
+            int len = Math.max(n, offsets.length * 2);
+            offsets = Arrays.copyOf(offsets, len);
+            lengths = Arrays.copyOf(lengths, len);
+            capacities = Arrays.copyOf(capacities, len);
+        }
+    }
+
+    /** Read the page translation map the first time the store is used */
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        File file = ptm.getFile();
+        int n = (int) (file.length() / ENTRY_SIZE);
+        if (n == 0) {
+            return;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(n * ENTRY_SIZE);
+        try {
+            ptm.read(0, buf);
+        } catch (IOException e) {
+            throw new RuntimeException("unable to read page translation map " + file, e);
+        }
+        buf.flip();
+        ensureCapacity(n);
+        TreeMap<Long, Integer> used = new TreeMap<>();
+        for (int i = 0; i < n; i++) {
+            offsets[i] = buf.getLong();
+            lengths[i] = buf.getInt();
+            capacities[i] = buf.getInt();
+            if (capacities[i] > 0) {
+                used.put(offsets[i], capacities[i]);
+            }
+        }
+        numPages = n;
+
+        // 已分配区间之间的空隙就是空闲区间
+        long pos = 0;
+        for (Map.Entry<Long, Integer> e : used.entrySet()) {
+            if (e.getKey() > pos) {
+                freeExtents.put(pos, (int) (e.getKey() - pos));
+            }
+            pos = Math.max(pos, e.getKey() + e.getValue());
+        }
+        end = pos;
+    }
+
+    /**
+     * Write a compressed copy of a plain HeapFile data file.
+     *
+     * @param plain the plain table file, pages of pageSize bytes
+     * @param target the compressed table file to create; its page
+     *   translation map is written next to it
+     * @param pageSize the page size of the plain file
+     * @param level the deflate level
+     */
+    public static void compress(File plain, File target, int pageSize, int level) throws IOException {
+        if (plain.getCanonicalFile().equals(target.getCanonicalFile())) {
+            throw new IllegalArgumentException("cannot compress " + plain + " onto itself");
+        }
+        File ptmFile = new File(target.getPath() + ".ptm");
+        if (target.exists() && !target.delete() || ptmFile.exists() && !ptmFile.delete()) {
+            throw new IOException("unable to replace " + target);
+        }
+        DbFileChannel in = new DbFileChannel(plain);
+        DbFileChannel out = new DbFileChannel(target);
+        CompressedPageStore store = new CompressedPageStore(out, ptmFile);
+        store.setLevel(level);
+        try {
+            int pages = (int) (plain.length() / pageSize);
+            byte[] page = new byte[pageSize];
+            for (int i = 0; i < pages; i++) {
+                in.read((long) i * pageSize, ByteBuffer.wrap(page));
+                store.write(i, page);
+            }
+            store.force();
+        } finally {
+            in.close();
+            out.close();
+            store.close();
+        }
+    }
+}
@@ -8,6 +8,7 @@ import simpledb.transaction.TransactionId;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * The interface for database files on disk. Each table is represented by a
@@ -33,6 +34,20 @@ public interface DbFile {
      */
     void writePage(Page p) throws IOException;
 
+    /**
+     * Push several pages of this file to disk.  Implementations may merge
+     * pages that are adjacent on disk into a single write.
+     *
+     * @param pages The pages to write, all belonging to this file and sorted
+     *   by page number.
+     * @throws IOException if the write fails
+     */
+    default void writePages(List<Page> pages) throws IOException {
+        for (Page p : pages) {
+            writePage(p);
+        }
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -73,6 +88,18 @@ public interface DbFile {
      */
     DbFileIterator iterator(TransactionId tid);
 
+    /**
+     * Returns an iterator over the tuples stored in this DbFile that only
+     * needs to produce the given fields; the other fields of the returned
+     * tuples may be null.  Files that store whole rows together ignore the
+     * projection and return complete tuples.
+     *
+     * @param columns the indexes of the fields the caller reads
+     */
+    default DbFileIterator iterator(TransactionId tid, int[] columns) {
+        return iterator(tid);
+    }
+
     /**
      * Returns a unique ID used to identify this DbFile in the Catalog. This id
      * can be used to look up the table via {@link Catalog#getDatabaseFile} and
@@ -93,4 +120,33 @@ public interface DbFile {
      * @return TupleDesc of this DbFile.
      */
     TupleDesc getTupleDesc();
+
+    /**
+     * Returns the size of the pages of this DbFile, in bytes.  Every page
+     * class of the file lays out its pages for this size (see
+     * {@link Catalog#getPageSize}).
+     */
+    default int getPageSize() {
+        return BufferPool.getPageSize();
+    }
+
+    /**
+     * Returns the number of pages in this DbFile.
+     */
+    int numPages();
+
+    /**
+     * Write any metadata this DbFile keeps alongside its pages (e.g. free
+     * space information) to disk.  Called when the log is checkpointed.
+     */
+    default void sync() throws IOException {
+    }
+
+    /**
+     * Release any operating system resources (e.g. open file handles) held
+     * by this DbFile.  The file must remain usable afterwards; resources are
+     * simply reacquired on the next access.
+     */
+    default void close() {
+    }
 }
@@ -0,0 +1,245 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+
+/**
+ * DbFileChannel keeps one FileChannel open for the lifetime of a DbFile, so
+ * that reading or writing a page is a single positional read/write on an
+ * already open descriptor instead of an open/seek/read/close sequence.
+ * <p>
+ * The channel is opened lazily on first use and may be closed at any time
+ * (e.g. by {@link simpledb.common.Catalog#clear()}); the next access simply
+ * reopens it.  Positional reads and writes on a FileChannel do not touch the
+ * shared file position, so callers never need to synchronize around them.
+ * A read or write that finds the channel closed under it, by close() or by
+ * the interrupt of some thread using it (which closes a FileChannel for
+ * everyone), is retried on a reopened channel; an interrupted thread's
+ * interrupt status is restored once its operation is done.
+ * <p>
+ * The channel also counts the system calls it issues and the time spent in
+ * them, so that miss latency can be compared before and after a change.
+ *
+ * @Threadsafe
+ */
+public class DbFileChannel {
+
+    /** Size of the buffer into which writePages merges adjacent pages */
+    public static final int WRITE_BUFFER_BYTES = 256 * 1024;
+
+    private final File file;
+    private volatile FileChannel channel;
+    private final Object writeLock = new Object();
+    private ByteBuffer writeBuffer; // writePages的缓冲区，首次使用时分配，受writeLock保护
+
+    private final AtomicLong opens = new AtomicLong();
+    private final AtomicLong reads = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong readNanos = new AtomicLong();
+    private final AtomicLong writeNanos = new AtomicLong();
+
+    public DbFileChannel(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Returns the open channel for the backing file, opening it if needed.
+     */
+    public FileChannel getChannel() throws IOException {
+        FileChannel ch = channel;
+        if (ch == null || !ch.isOpen()) {
+            synchronized (this) {
+                ch = channel;
+                if (ch == null || !ch.isOpen()) {
+                    ch = FileChannel.open(file.toPath(),
+                            StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+                    channel = ch;
+                    opens.incrementAndGet();
+                }
+            }
+        }
+        return ch;
+    }
+
+    private interface ChannelOp<T> {
+        T apply(FileChannel ch) throws IOException;
+    }
+
+    /**
+     * Runs op on the open channel, reopening the channel and running op
+     * again if it was closed while op was running.  op must be a single
+     * call that transfers nothing when it fails, e.g. one positional read.
+     */
+    private <T> T retry(ChannelOp<T> op) throws IOException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                FileChannel ch = getChannel();
+                try {
+                    return op.apply(ch);
+                } catch (ClosedByInterruptException e) {
+                    // 本线程被中断，通道已关闭；清除中断状态才能在新通道上重试
+                    interrupted |= Thread.interrupted();
+                } catch (ClosedChannelException e) {
+                    // close()或其他线程的中断关闭了通道，重新打开后重试
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Reads bytes starting at the given file offset until dst is full or
+     * the end of file is reached.
+     *
+     * @return the number of bytes read, which is less than dst.remaining()
+     *   only if the end of the file was reached
+     */
+    public int read(long position, ByteBuffer dst) throws IOException {
+        long start = System.nanoTime();
+        int total = 0;
+        try {
+            while (dst.hasRemaining()) {
+                long at = position + total;
+                int n = retry(ch -> ch.read(dst, at));
+                reads.incrementAndGet();
+                if (n < 0) break;
+                total += n;
+            }
+        } finally {
+            readNanos.addAndGet(System.nanoTime() - start);
+        }
+        return total;
+    }
+
+    /**
+     * Writes all remaining bytes of src starting at the given file offset.
+     */
+    public void write(long position, ByteBuffer src) throws IOException {
+        long start = System.nanoTime();
+        try {
+            long pos = position;
+            while (src.hasRemaining()) {
+                long at = pos;
+                pos += retry(ch -> ch.write(src, at));
+                writes.incrementAndGet();
+            }
+        } finally {
+            writeNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Writes a batch of pages, merging pages that are adjacent in the file
+     * into a single write of up to {@link #WRITE_BUFFER_BYTES} bytes.  The
+     * pages are copied into one reusable direct buffer, which is written
+     * with a positional write: a gathering write would go through the
+     * channel's shared position, which positional writes of other threads
+     * do not respect.  Merging costs one copy of each page, but the JDK
+     * would copy a heap buffer into a direct one anyway.
+     *
+     * @param pages the pages to write, sorted by file offset
+     * @param offsetOf returns the file offset of a page
+     */
+    public void writePages(List<Page> pages, ToLongFunction<Page> offsetOf) throws IOException {
+        synchronized (writeLock) {
+            if (writeBuffer == null) {
+                writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES);
+            }
+            ByteBuffer buf = writeBuffer;
+            buf.clear();
+            long runStart = 0;
+            for (Page page : pages) {
+                long offset = offsetOf.applyAsLong(page);
+                byte[] data = page.getPageData();
+                // 与缓冲区中的页面不相邻，或缓冲区放不下时，先写出缓冲区
+                if (buf.position() > 0 && (offset != runStart + buf.position() || buf.remaining() < data.length)) {
+                    buf.flip();
+                    write(runStart, buf);
+                    buf.clear();
+                }
+                if (data.length > buf.capacity()) {
+                    write(offset, ByteBuffer.wrap(data)); // 比缓冲区还大的页面单独写
+                    continue;
+                }
+                if (buf.position() == 0) {
+                    runStart = offset;
+                }
+                buf.put(data);
+            }
+            if (buf.position() > 0) {
+                buf.flip();
+                write(runStart, buf);
+            }
+        }
+    }
+
+    /** Force any written data to the storage device. */
+    public void force() throws IOException {
+        retry(ch -> {
+            ch.force(false);
+            return null;
+        });
+    }
+
+    /** Close the underlying channel; it is reopened on next use. */
+    public synchronized void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            channel = null;
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /** @return number of times the backing file was opened */
+    public long getOpenCount() {
+        return opens.get();
+    }
+
+    /** @return number of read system calls issued */
+    public long getReadCount() {
+        return reads.get();
+    }
+
+    /** @return number of write system calls issued */
+    public long getWriteCount() {
+        return writes.get();
+    }
+
+    /** @return total nanoseconds spent in reads */
+    public long getReadNanos() {
+        return readNanos.get();
+    }
+
+    /** @return total nanoseconds spent in writes */
+    public long getWriteNanos() {
+        return writeNanos.get();
+    }
+
+    /** Reset all counters to zero. */
+    public void resetStats() {
+        opens.set(0);
+        reads.set(0);
+        writes.set(0);
+        readNanos.set(0);
+        writeNanos.set(0);
+    }
+}
@@ -0,0 +1,38 @@
+package simpledb.storage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A page whose data may be a view over a frame of the buffer pool's
+ * off-heap arena rather than an array of its own.
+ * <p>
+ * The buffer pool reads a page with {@link DbFile#readPage(PageId)} and then
+ * moves it into a frame with {@link #attach}; when the page leaves the pool
+ * it takes the frame back with {@link #detach}.  A page counts the threads
+ * reading its frame, and detach() waits for them, so a frame is never
+ * reused under a reader.
+ *
+ * @see simpledb.storage.cache.FrameArena
+ */
+public interface FramedPage extends Page {
+
+    /**
+     * Copy the page data into the given frame and make the page a view over
+     * it.  Must be called before the page is shared with other threads.
+     *
+     * @return false if the page cannot use the frame (e.g. it is already
+     *   a view over a frame, or the frame is not the size of the page), in
+     *   which case the frame is left alone
+     */
+    boolean attach(ByteBuffer frame);
+
+    /**
+     * Copy the page data out of the frame the page is a view over, so that
+     * the page (and anything still holding on to it) stays valid once the
+     * frame is reused.  Returns once no thread is reading the frame any more.
+     *
+     * @return the frame, which the page no longer uses, or null if the page
+     *   is not a view over a frame
+     */
+    ByteBuffer detach();
+}
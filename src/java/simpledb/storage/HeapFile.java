@@ -9,6 +9,9 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 /**
@@ -23,8 +26,39 @@ import java.util.*;
  */
 public class HeapFile implements DbFile {
 
+    /**
+     * How pages of a HeapFile are read from disk.
+     */
+    public enum StorageMode {
+        /** pages are read into a fresh byte array through the file channel */
+        PLAIN,
+        /**
+         * pages are decoded directly out of a read-only memory mapping of the
+         * file, so the OS page cache serves them without an extra copy; a
+         * page is copied to the heap only when it is first dirtied. Writes
+         * still go through the file channel, which keeps the mapping coherent.
+         * Intended for large, read-mostly tables.
+         */
+        MMAP,
+        /**
+         * pages are deflate compressed on disk and located through a page
+         * translation map (see CompressedPageStore).  Trades CPU for disk
+         * space and I/O bandwidth; intended for cold, archival tables.
+         */
+        COMPRESSED
+    }
+
+    /** Pages per mapped segment, keeps every mapping well below 2GB */
+    private static final int PAGES_PER_SEGMENT = 16384;
+
     private File file;
     private TupleDesc td; // 每个HeapFile（DbFile）存储一个table
+    private final DbFileChannel channel; // 常驻的文件句柄，避免每次读写页面都重新打开文件
+    private final StorageMode mode;
+    private final List<MappedByteBuffer> segments = new ArrayList<>(); // MMAP模式下的分段映射, protected by this
+    private final HeapFreeSpaceMap freeSpaceMap; // 记录每个页面的空闲slot数，插入时直接定位
+    private final CompressedPageStore compressedStore; // COMPRESSED模式下的页面存储，其他模式为null
+    private final int pageSize; // 本文件的页面大小
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -34,9 +68,60 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, StorageMode.PLAIN);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, reading pages
+     * with the given storage mode.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param mode
+     *            how pages are read from disk
+     */
+    public HeapFile(File f, TupleDesc td, StorageMode mode) {
+        this(f, td, mode, BufferPool.getPageSize());
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, with pages of the
+     * given size read with the given storage mode.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param mode
+     *            how pages are read from disk
+     * @param pageSize
+     *            the size of the pages of this file, in bytes
+     */
+    public HeapFile(File f, TupleDesc td, StorageMode mode, int pageSize) {
         // some code goes here
+        if (pageSize * 8 < td.getSize() * 8 + 1) {
+            throw new IllegalArgumentException("tuples of " + td + " do not fit on a page of " + pageSize + " bytes");
+        }
         this.file = f;
+        this.pageSize = pageSize;
         this.td = td;
+        this.channel = new DbFileChannel(f);
+        this.mode = mode;
+        this.freeSpaceMap = new HeapFreeSpaceMap(HeapFreeSpaceMap.sidecar(f), this::numPages);
+        this.compressedStore = mode == StorageMode.COMPRESSED
+                ? new CompressedPageStore(channel, new File(f.getPath() + ".ptm")) : null;
+    }
+
+    // see DbFile.java for javadocs
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Returns the storage mode of this HeapFile.
+     */
+    public StorageMode getStorageMode() {
+        return mode;
     }
 
     /**
@@ -49,6 +134,28 @@ public class HeapFile implements DbFile {
         return file;
     }
 
+    /**
+     * Returns the channel used for page I/O on this HeapFile.
+     */
+    public DbFileChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Returns the compressed page store of this HeapFile, or null unless the
+     * storage mode is COMPRESSED.
+     */
+    public CompressedPageStore getCompressedStore() {
+        return compressedStore;
+    }
+
+    /**
+     * Returns the free space map of this HeapFile.
+     */
+    public HeapFreeSpaceMap getFreeSpaceMap() {
+        return freeSpaceMap;
+    }
+
     /**
      * Returns an ID uniquely identifying this HeapFile. Implementation note:
      * you will need to generate this tableid somewhere to ensure that each
@@ -77,14 +184,21 @@ public class HeapFile implements DbFile {
     public Page readPage(PageId pid) {
         // some code goes here
         // 找到对应Page所在的偏移量，读取后生成HeapPage
-        int pageSize = BufferPool.getPageSize();
-        int offset = pid.getPageNumber() * pageSize;
-        byte[] data = new byte[pageSize];
+        long offset = (long) pid.getPageNumber() * pageSize;
         Page heapPage = null;
-        try (RandomAccessFile f = new RandomAccessFile(file, "r")) {
-            f.seek(offset);
-            f.read(data);
-            heapPage = new HeapPage((HeapPageId)pid, data);
+        try {
+            ByteBuffer mapped = mode == StorageMode.MMAP ? mappedPage(pid.getPageNumber()) : null;
+            if (mapped != null) {
+                heapPage = new HeapPage((HeapPageId)pid, mapped);
+            } else if (compressedStore != null) {
+                heapPage = new HeapPage((HeapPageId)pid, compressedStore.read(pid.getPageNumber(), pageSize));
+            } else {
+                byte[] data = new byte[pageSize];
+                channel.read(offset, ByteBuffer.wrap(data)); // 超出文件末尾的部分保持为0
+                heapPage = new HeapPage((HeapPageId)pid, data);
+            }
+            // 页面刚从磁盘读入，顺便校正空闲空间表；只是记下，不阻塞扫描
+            freeSpaceMap.noteRead(pid.getPageNumber(), ((HeapPage) heapPage).getNumEmptySlots());
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -92,19 +206,79 @@ public class HeapFile implements DbFile {
         return heapPage;
     }
 
+    /**
+     * Returns a read-only view of the given page inside the memory mapping of
+     * this file, mapping (or remapping, if the file has grown) the segment
+     * holding it as needed.
+     *
+     * @return the page, or null if the page lies past the end of the file
+     */
+    private ByteBuffer mappedPage(int pgNo) throws IOException {
+        int segNo = pgNo / PAGES_PER_SEGMENT;
+        long segStart = (long) segNo * PAGES_PER_SEGMENT * pageSize;
+        int pageOffset = (pgNo % PAGES_PER_SEGMENT) * pageSize;
+        ByteBuffer view;
+        synchronized (this) {
+            while (segments.size() <= segNo) {
+                segments.add(null);
+            }
+            MappedByteBuffer seg = segments.get(segNo);
+            if (seg == null || seg.capacity() < pageOffset + pageSize) {
+                FileChannel fc = channel.getChannel();
+                long len = Math.min(fc.size() - segStart, (long) PAGES_PER_SEGMENT * pageSize);
+                if (len < pageOffset + pageSize) {
+                    return null;
+                }
+                seg = fc.map(FileChannel.MapMode.READ_ONLY, segStart, len);
+                segments.set(segNo, seg);
+            }
+            view = seg.duplicate();
+        }
+        view.position(pageOffset);
+        view.limit(pageOffset + pageSize);
+        return view.slice();
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
-        int pageSize = BufferPool.getPageSize();
-        int offset = page.getId().getPageNumber() * pageSize;
-        byte[] data = page.getPageData();
-        try (RandomAccessFile f = new RandomAccessFile(file, "rw")) {
-            f.seek(offset);
-            f.write(data);
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (compressedStore != null) {
+            compressedStore.write(page.getId().getPageNumber(), page.getPageData());
+            return;
+        }
+        long offset = (long) page.getId().getPageNumber() * pageSize;
+        channel.write(offset, ByteBuffer.wrap(page.getPageData()));
+    }
+
+    // see DbFile.java for javadocs
+    public void writePages(List<Page> pages) throws IOException {
+        if (compressedStore != null) { // 压缩后的页面在文件中不相邻
+            for (Page page : pages) {
+                writePage(page);
+            }
+            return;
         }
+        channel.writePages(pages, p -> (long) p.getId().getPageNumber() * pageSize);
+    }
+
+    // see DbFile.java for javadocs
+    public void sync() throws IOException {
+        freeSpaceMap.save();
+        if (compressedStore != null) {
+            compressedStore.force();
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void close() {
+        synchronized (this) {
+            segments.clear(); // 映射在被回收时解除
+        }
+        if (compressedStore != null) {
+            compressedStore.close();
+        }
+        channel.close();
     }
 
     /**
@@ -112,8 +286,11 @@ public class HeapFile implements DbFile {
      */
     public int numPages() {
         // some code goes here
+        if (compressedStore != null) {
+            return compressedStore.numPages();
+        }
         // 文件大小除以PageSize
-        long numPages = file.length() / (long) BufferPool.getPageSize();
+        long numPages = file.length() / (long) pageSize;
         return (int) numPages;
     }
 
@@ -126,19 +303,23 @@ public class HeapFile implements DbFile {
         // some code goes here
         List<Page> pages = new ArrayList<>();
 
-        // 遍历所有的页面看是否有空闲
-        for(int i=0; i<numPages(); i++){
-            PageId pid = new HeapPageId(getId(), i);
+        // 根据空闲空间表直接定位可能有空闲的页面，只锁定候选页面
+        int numPages = numPages();
+        int pgNo = freeSpaceMap.findPage(0, numPages);
+        while(pgNo != -1){
+            PageId pid = new HeapPageId(getId(), pgNo);
             HeapPage heapPage = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
             if(heapPage.getNumEmptySlots() > 0){
                 heapPage.insertTuple(t);
                 pages.add(heapPage);
                 return pages;
             }
+            freeSpaceMap.update(pgNo, 0); // 空闲空间表过时了
+            pgNo = freeSpaceMap.findPage(pgNo + 1, numPages);
         }
         
         // 页面不够了，新建页面，写入文件
-        HeapPage newPage = new HeapPage(new HeapPageId(getId(), numPages()), HeapPage.createEmptyPageData());
+        HeapPage newPage = new HeapPage(new HeapPageId(getId(), numPages()), HeapPage.createEmptyPageData(pageSize));
         newPage.insertTuple(t);
         pages.add(newPage);
         writePage(newPage); // 因为测试里要计算numPages，所以在这里要写入文件
@@ -164,12 +345,18 @@ public class HeapFile implements DbFile {
         // some code goes here
         DbFileIterator dbFileIterator = new DbFileIterator() {
             private BufferPool bufferPool;
+            private ReadAhead readAhead; // 顺序扫描时后台预读后续页面
+            private ScanRing ring; // 大表扫描时使用的私有页面环，小表为null
+            private PageId pinned; // 正在读取元组的页面，读完或关闭时释放固定
             private int nextPageNo = 0;
             private Iterator<Tuple> currPageIter;
 
             private Iterator<Tuple> getPageIter(int pageNo) throws TransactionAbortedException, DbException{
                 HeapPageId pid = new HeapPageId(getId(), pageNo); 
-                Iterator<Tuple> iterator = ((HeapPage) bufferPool.getPage(tid, pid, Permissions.READ_ONLY)).iterator();
+                readAhead.access(pageNo);
+                unpin(); // 先释放上一页：缓冲池很小时下一页可能正需要它的位置
+                Iterator<Tuple> iterator = ((HeapPage) bufferPool.pinPage(tid, pid, Permissions.READ_ONLY, ring)).iterator();
+                pinned = pid;
                 return iterator;
             }
 
@@ -177,6 +364,9 @@ public class HeapFile implements DbFile {
             public void open() throws DbException, TransactionAbortedException {
                 if(bufferPool == null){
                     bufferPool = Database.getBufferPool();
+                    ring = ScanRing.forScan(bufferPool, numPages());
+                    readAhead = new ReadAhead(bufferPool, pgNo -> new HeapPageId(getId(), pgNo),
+                            HeapFile.this::numPages, ring);
                     currPageIter = getPageIter(nextPageNo);
                 }
             }
@@ -195,10 +385,18 @@ public class HeapFile implements DbFile {
                             return true;
                         nextPageNo ++; 
                     }
+                    unpin();
                     return false;              
                 }
             }
 
+            private void unpin(){
+                if(pinned != null){
+                    bufferPool.unpinPage(tid, pinned);
+                    pinned = null;
+                }
+            }
+
             @Override
             public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
                 if(!hasNext()) throw new NoSuchElementException();
@@ -213,6 +411,7 @@ public class HeapFile implements DbFile {
 
             @Override
             public void close() {
+                if(bufferPool != null) unpin();
                 bufferPool = null;
             }
             
@@ -108,6 +108,7 @@ public class HeapFileEncoder {
 
     BufferedReader br = new BufferedReader(new FileReader(inFile));
     FileOutputStream os = new FileOutputStream(outFile);
+    HeapFreeSpaceMap.deleteSidecar(outFile);
 
     // our numbers probably won't be much larger than 1024 digits
     char[] buf = new char[1024];
@@ -0,0 +1,227 @@
+package simpledb.storage;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntSupplier;
+
+/**
+ * HeapFreeSpaceMap records the approximate free space on each page of a
+ * HeapFile (in tuple slots) or SlottedHeapFile (in bytes), so that an insert
+ * can go straight to a page with room instead of locking every page from
+ * the start of the file.
+ * <p>
+ * The map is kept up to date by HeapPage.insertTuple/deleteTuple and
+ * refreshed whenever a page is read from disk.  Reads only note the free
+ * space of the page, without taking the map's monitor, so that scans that
+ * never insert do not serialize on it; the notes are applied by the next
+ * call that takes the monitor, before anything else.  It is only a hint: pages
+ * it knows nothing about are reported as {@link #UNKNOWN} and treated as
+ * candidates, and callers must check the page itself before using a slot.
+ * <p>
+ * The map is persisted in a sidecar file next to the table file (the
+ * table file name with ".fsm" appended), holding one short per page after
+ * a header with the number of pages the table had when it was saved.  A
+ * sidecar that claims more pages than the table has belongs to an older
+ * incarnation of the file and is ignored; whoever recreates a table file
+ * deletes its sidecar with {@link #deleteSidecar}.
+ *
+ * @Threadsafe
+ */
+public class HeapFreeSpaceMap {
+
+    /** Free slot count of a page the map has no information about */
+    public static final int UNKNOWN = -1;
+
+    private static final int MAGIC = 0x46534d31; // "FSM1"
+
+    private final File file;
+    private final IntSupplier numPages; // 表文件当前的页数
+    private short[] free = new short[0];
+    private int size = 0;           // number of pages with an entry
+    private int firstCandidate = 0; // no page below this one has room
+    private boolean loaded = false;
+    private boolean dirty = false;
+    // 读入页面时记下的空闲空间，尚未并入free；同一页面只保留最新的一次
+    private final ConcurrentHashMap<Integer, Short> readNotes = new ConcurrentHashMap<>();
+
+    /**
+     * @param file the sidecar file the map is stored in
+     * @param numPages returns the number of pages in the table file, which
+     *   the sidecar is checked against when it is loaded
+     */
+    public HeapFreeSpaceMap(File file, IntSupplier numPages) {
+        this.file = file;
+        this.numPages = numPages;
+    }
+
+    /**
+     * @return the sidecar file of the map of the given table file
+     */
+    public static File sidecar(File table) {
+        return new File(table.getPath() + ".fsm");
+    }
+
+    /**
+     * Delete the sidecar of a table file that is being created or deleted,
+     * so that the map of the old contents is never applied to the new.
+     */
+    public static void deleteSidecar(File table) {
+        sidecar(table).delete();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Note the free space on a page just read from disk.  Does not block:
+     * the note is applied by the next call that takes the map's monitor,
+     * which is always before any later update of the page, since a page is
+     * only changed after it has been read.
+     */
+    public void noteRead(int pgNo, int freeSlots) {
+        readNotes.put(pgNo, clamp(freeSlots));
+    }
+
+    private static short clamp(int freeSlots) {
+        return (short) Math.min(freeSlots, Short.MAX_VALUE);
+    }
+
+    /**
+     * Record the free space on a page.
+     */
+    public synchronized void update(int pgNo, int freeSlots) {
+        load();
+        set(pgNo, clamp(freeSlots));
+    }
+
+    private void set(int pgNo, short value) {
+        if (pgNo >= free.length) {
+            int oldLen = free.length;
+            free = Arrays.copyOf(free, Math.max(pgNo + 1, oldLen * 2));
+            Arrays.fill(free, oldLen, free.length, (short) UNKNOWN);
+        }
+        if (pgNo >= size) {
+            size = pgNo + 1;
+        } else if (free[pgNo] == value) {
+            return;
+        }
+        free[pgNo] = value;
+        dirty = true;
+        if (value != 0 && pgNo < firstCandidate) {
+            firstCandidate = pgNo;
+        }
+    }
+
+    /**
+     * @return the recorded number of free slots on a page, or UNKNOWN
+     */
+    public synchronized int getFreeSlots(int pgNo) {
+        load();
+        return pgNo < size ? free[pgNo] : UNKNOWN;
+    }
+
+    /**
+     * Find the first page at or after from that may have a free slot.
+     *
+     * @param from the first page to consider
+     * @param numPages the number of pages in the table file
+     * @return the page number, or -1 if no page before numPages has room
+     */
+    public synchronized int findPage(int from, int numPages) {
+        return findPage(from, numPages, 1);
+    }
+
+    /**
+     * Find the first page at or after from that may have at least minFree
+     * units of free space.
+     *
+     * @param from the first page to consider
+     * @param numPages the number of pages in the table file
+     * @param minFree the free space needed
+     * @return the page number, or -1 if no page before numPages has room
+     */
+    public synchronized int findPage(int from, int numPages, int minFree) {
+        load();
+        // 只有寻找任意空闲空间时才能推进firstCandidate
+        boolean moveHint = minFree <= 1 && from <= firstCandidate;
+        int start = Math.max(from, firstCandidate);
+        for (int i = start; i < numPages; i++) {
+            if (i >= size || free[i] == UNKNOWN || free[i] >= minFree) {
+                if (moveHint) {
+                    firstCandidate = i;
+                }
+                return i;
+            }
+        }
+        if (moveHint) {
+            firstCandidate = numPages;
+        }
+        return -1;
+    }
+
+    /**
+     * Write the map to its sidecar file if it changed since it was loaded.
+     */
+    public synchronized void save() throws IOException {
+        load();
+        if (!dirty) {
+            return;
+        }
+        try (DataOutputStream dos = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)))) {
+            dos.writeInt(MAGIC);
+            dos.writeInt(numPages.getAsInt());
+            dos.writeInt(size);
+            for (int i = 0; i < size; i++) {
+                dos.writeShort(free[i]);
+            }
+        }
+        dirty = false;
+    }
+
+    /**
+     * Read the sidecar file, if there is one, the first time the map is
+     * used, and apply the notes of the pages read since the last call.
+     */
+    private void load() {
+        if (!loaded) {
+            loaded = true;
+            loadSidecar();
+        }
+        if (!readNotes.isEmpty()) {
+            for (Integer pgNo : readNotes.keySet()) {
+                Short value = readNotes.remove(pgNo); // 取下的总是这个页面最新的记录
+                if (value != null) {
+                    set(pgNo, value);
+                }
+            }
+        }
+    }
+
+    private void loadSidecar() {
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream dis = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            // 表文件只会增长；页数比保存时少说明表文件被重建过
+            if (dis.readInt() != MAGIC || dis.readInt() > numPages.getAsInt()) {
+                return;
+            }
+            int n = dis.readInt();
+            short[] read = new short[n];
+            for (int i = 0; i < n; i++) {
+                read[i] = dis.readShort();
+            }
+            free = read;
+            size = n;
+        } catch (IOException e) {
+            // a damaged map only costs us some extra probing
+            e.printStackTrace();
+            free = new short[0];
+            size = 0;
+        }
+    }
+}
@@ -8,64 +8,127 @@ import simpledb.transaction.TransactionId;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
  *
+ * <p>
+ * A HeapPage is backed by an array of its own, by a view over a frame of
+ * the buffer pool's off-heap arena (see {@link #attach}), or, until it is
+ * first dirtied, by a view over a memory mapping of its file.  The page
+ * never writes to its data, so that the data doubles as its before image;
+ * changes are kept in the header and in the tuples inserted since the page
+ * was read.
+ *
  * @see HeapFile
  * @see BufferPool
  *
  */
-public class HeapPage implements Page {
+public class HeapPage implements FramedPage {
 
     final HeapPageId pid;
     final TupleDesc td;
     final byte[] header;
-    final Tuple[] tuples;
+    Tuple[] tuples; // 读入后插入的tuple，在第一次插入时才分配
     final int numSlots;
-
-    byte[] oldData;
-    private final Byte oldDataLock= (byte) 0;
+    final int pageSize;
+
+    // 从磁盘读入的原始页面数据，不会被修改；未被修改过的slot直接从中按偏移解码
+    volatile ByteBuffer buf;
+    // 页面数据所在的buffer pool帧，页面在堆上时为null
+    private volatile ByteBuffer frame;
+    // 是否曾经放入帧中，在页面被共享之前设置，之后不再改变
+    private boolean framed = false;
+    // buf是否是文件映射的一部分，写回页面会改变映射的内容，所以第一次变脏时换成堆上的副本
+    private volatile boolean mapped = false;
+    // 正在读取页面数据的线程数，detach要等读取帧的线程读完才交出帧
+    private final AtomicInteger readers = new AtomicInteger();
+
+    // 为null时帧或映射中的数据就是before image
+    final BeforeImage beforeImage;
+    // 换掉buf时持有，使before image为null时读到的总是帧或映射中的数据
+    private final Object oldDataLock = new Object();
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
      * The format of a HeapPage is a set of header bytes indicating
      * the slots of the page that are in use, some number of tuple slots.
      *  Specifically, the number of tuples is equal to: <p>
-     *          floor((BufferPool.getPageSize()*8) / (tuple size * 8 + 1))
+     *          floor((page size*8) / (tuple size * 8 + 1))
      * <p> where tuple size is the size of tuples in this
-     * database table, which can be determined via {@link Catalog#getTupleDesc}.
+     * database table, which can be determined via {@link Catalog#getTupleDesc},
+     * and page size is the page size of the table ({@link Catalog#getPageSize}).
      * The number of 8-bit header words is equal to:
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * <p>
+     * Tuples are not decoded here: the page keeps the bytes it was created
+     * from and decodes fields at fixed offsets only when they are asked for
+     * (see {@link #cursor()}).  The array must therefore not be modified
+     * after it has been handed to the page.  It also serves as the before
+     * image of the page until a transaction that dirtied the page commits.
+     *
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
-     * @see BufferPool#getPageSize()
+     * @see Catalog#getPageSize
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data), data); // data不会被修改，直接作为before image
+    }
+
+    /**
+     * Create a HeapPage over a slice of a memory mapping of its file, holding
+     * the page in the format described above from index 0 of the buffer.
+     * The page decodes its tuples straight out of the mapping instead of
+     * copying it; since writing the page to the file changes the mapping,
+     * the data is copied to the heap when the page is first marked dirty,
+     * before it can be written.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, fromStart(data), null);
+        mapped = true;
+    }
+
+    private static ByteBuffer fromStart(ByteBuffer data) {
+        ByteBuffer b = data.duplicate();
+        b.clear();
+        return b.slice();
+    }
+
+    private HeapPage(HeapPageId id, ByteBuffer data, byte[] oldData) {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.pageSize = Database.getCatalog().getPageSize(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.buf = data;
+        this.beforeImage = new BeforeImage(oldData);
 
         // allocate and read the header slots of this page
         header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
+        buf.duplicate().get(header);
+    }
 
-        setBeforeImage();
+    /**
+     * Replace the mapping the page data is read from with a copy on the heap,
+     * which then is also the before image of the page.
+     */
+    private void unmap() {
+        synchronized(oldDataLock)
+        {
+            if (!mapped) return;
+            byte[] copy = copyData();
+            buf = ByteBuffer.wrap(copy);
+            if (beforeImage.get() == null) {
+                beforeImage.set(copy);
+            }
+            mapped = false;
+        }
     }
 
     /** Retrieve the number of tuples on this page.
@@ -74,7 +137,7 @@ public class HeapPage implements Page {
     private int getNumTuples() {        
         // some code goes here
         // 每个页面可存储的元组数计算公式（大小单位是字节）：页面大小 * 8 / (元组大小 * 8 + 1)，向下取整
-        int numTuples = BufferPool.getPageSize()*8 / (td.getSize()*8+1);
+        int numTuples = pageSize*8 / (td.getSize()*8+1);
         return numTuples;
     }
 
@@ -97,7 +160,10 @@ public class HeapPage implements Page {
             byte[] oldDataRef = null;
             synchronized(oldDataLock)
             {
-                oldDataRef = oldData;
+                oldDataRef = beforeImage.get();
+                if (oldDataRef == null) {
+                    oldDataRef = copyData(); // 帧或映射中的数据就是before image
+                }
             }
             return new HeapPage(pid,oldDataRef);
         } catch (IOException e) {
@@ -111,8 +177,78 @@ public class HeapPage implements Page {
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+            beforeImage.update(this::getPageData);
+        }
+    }
+
+    /** @return a copy of the page data */
+    private byte[] copyData() {
+        byte[] copy = new byte[pageSize];
+        ByteBuffer b = acquire();
+        try {
+            b.duplicate().get(copy);
+        } finally {
+            release();
+        }
+        return copy;
+    }
+
+    /**
+     * Return the page data for a short read, which must be followed by
+     * {@link #release()}.  If the data is a frame, the frame is not handed
+     * back by {@link #detach()} before then.
+     */
+    private ByteBuffer acquire() {
+        if (framed) {
+            readers.incrementAndGet(); // 先登记再读buf，detach换掉buf后会等到登记撤销
+        }
+        return buf;
+    }
+
+    private void release() {
+        if (framed) {
+            readers.decrementAndGet();
+        }
+    }
+
+    // see FramedPage.java for javadocs
+    public boolean attach(ByteBuffer f) {
+        if (framed || f.capacity() != pageSize) {
+            return false;
+        }
+        ByteBuffer dst = f.duplicate();
+        dst.clear();
+        dst.put(buf.duplicate());
+        framed = true;
+        mapped = false;
+        beforeImage.set(null); // 帧中的数据就是before image
+        frame = f;
+        buf = f;
+        return true;
+    }
+
+    // see FramedPage.java for javadocs
+    public ByteBuffer detach() {
+        ByteBuffer f;
+        synchronized(oldDataLock)
+        {
+            f = frame;
+            if (f == null) {
+                return null;
+            }
+            byte[] copy = new byte[pageSize];
+            f.duplicate().get(copy);
+            if (beforeImage.get() == null) {
+                beforeImage.set(copy);
+            }
+            buf = ByteBuffer.wrap(copy);
+            frame = null;
+        }
+        // 之后的读取只会看到堆上的副本；等已经拿到帧的读取结束
+        while (readers.get() != 0) {
+            Thread.yield();
         }
+        return f;
     }
 
     /**
@@ -124,36 +260,37 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * @return the offset of the given slot in the page data
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
+    private int slotOffset(int slotId) {
+        return header.length + slotId * td.getSize();
+    }
+
+    /**
+     * Returns the tuple in the given slot, or null if the slot is empty.  A
+     * tuple that has not been modified since the page was read decodes its
+     * fields lazily out of the page data.
+     */
+    private Tuple readTuple(byte[] header, Tuple[] tuples, int slotId) {
+        // if associated bit is not set, return null.
+        if (!isSlotUsed(header, slotId)) {
             return null;
         }
+        if (tuples != null && tuples[slotId] != null) {
+            return tuples[slotId];
+        }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
+        Tuple t;
+        ByteBuffer b = acquire();
         try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
+            t = new Tuple(td, b, slotOffset(slotId));
+            if (framed || mapped) {
+                t.decodeAll(); // tuple可能在页面被换出后仍被使用，不能引用帧或文件映射
             }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+        } finally {
+            release();
         }
-
+        t.setRecordId(new RecordId(pid, slotId));
         return t;
     }
 
@@ -169,64 +306,48 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
+        byte[] pageData = new byte[pageSize];
+        System.arraycopy(header, 0, pageData, 0, header.length);
 
-        // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
+        ByteArrayOutputStream baos = null;
+        DataOutputStream dos = null;
+        int tupleSize = td.getSize();
+        ByteBuffer src = acquire().duplicate();
+        try {
+            for (int i=0; i<numSlots; i++) {
+                // empty slot: header对应位置是0的话，这个slot就用全部用0填充
+                if (!isSlotUsed(i)) {
+                    continue;
+                }
 
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
+                // 未修改过的tuple直接拷贝原始字节
+                if (tuples == null || tuples[i] == null) {
+                    src.position(slotOffset(i));
+                    src.get(pageData, slotOffset(i), tupleSize);
+                    continue;
+                }
 
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
+                // 修改过的slot要依次填上一个tuple的所有field(字段)
+                if (baos == null) {
+                    baos = new ByteArrayOutputStream(tupleSize);
+                    dos = new DataOutputStream(baos);
+                }
+                baos.reset();
+                for (int j=0; j<td.numFields(); j++) {
+                    Field f = tuples[i].getField(j);
                     try {
-                        dos.writeByte(0); // header对应位置是0的话，这个slot就用全部用0填充
+                        f.serialize(dos);
                     } catch (IOException e) {
                         e.printStackTrace();
                     }
-
-                }
-                continue;
-            }
-
-            // non-empty slot 不空的话，这个slot要依次填上一个tuple的所有field(字段)
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
                 }
+                System.arraycopy(baos.toByteArray(), 0, pageData, slotOffset(i), tupleSize);
             }
+        } finally {
+            release();
         }
 
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        return pageData;
     }
 
     /**
@@ -239,8 +360,15 @@ public class HeapPage implements Page {
      * @return The returned ByteArray.
      */
     public static byte[] createEmptyPageData() {
-        int len = BufferPool.getPageSize();
-        return new byte[len]; //all 0
+        return createEmptyPageData(BufferPool.getPageSize());
+    }
+
+    /**
+     * Generate a byte array corresponding to an empty HeapPage of a table
+     * whose pages have the given size.
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize]; //all 0
     }
 
     /**
@@ -257,8 +385,10 @@ public class HeapPage implements Page {
         int tupleNo = recordId.getTupleNumber();
         if(recordId.getPageId() != pid || !isSlotUsed(tupleNo)) 
             throw new DbException("no this tuple on this page"); 
-        tuples[tupleNo] = null;
+        if (tuples != null)
+            tuples[tupleNo] = null;
         markSlotUsed(tupleNo, false);
+        updateFreeSpaceMap();
     }
 
     /**
@@ -275,6 +405,8 @@ public class HeapPage implements Page {
             throw new DbException("this page is full");
         if(!td.equals(t.getTupleDesc()))
             throw new DbException("tupleDesc is mismatch");
+        if(tuples == null)
+            tuples = new Tuple[numSlots];
         for(int i=0; i<numSlots; i++){
             if(!isSlotUsed(i)){
                 t.setRecordId(new RecordId(pid, i));
@@ -283,6 +415,18 @@ public class HeapPage implements Page {
                 break;
             }
         }
+        updateFreeSpaceMap();
+    }
+
+    /**
+     * Report the current number of free slots to the free space map of the
+     * HeapFile this page belongs to.
+     */
+    private void updateFreeSpaceMap() {
+        DbFile f = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        if (f instanceof HeapFile) {
+            ((HeapFile) f).getFreeSpaceMap().update(pid.getPageNumber(), getNumEmptySlots());
+        }
     }
 
     private boolean dirty = false;
@@ -295,8 +439,10 @@ public class HeapPage implements Page {
     public void markDirty(boolean dirty, TransactionId tid) {
         // some code goes here
 	// not necessary for lab1
+        if (dirty) unmap(); // 页面写回前不能再读映射
         this.dirty = dirty;
         this.dirtier = tid;
+        if (dirty) beforeImage.modified();
     }
 
     /**
@@ -325,6 +471,10 @@ public class HeapPage implements Page {
      */
     public boolean isSlotUsed(int i) {
         // some code goes here
+        return isSlotUsed(header, i);
+    }
+
+    private static boolean isSlotUsed(byte[] header, int i) {
         byte slot = (byte) ((header[i/8] >> (i%8)) & 1); // 注意规定了从每个byte从右到左
         return slot == (byte)1 ? true : false;
     }
@@ -348,6 +498,7 @@ public class HeapPage implements Page {
             newByte <<= pos!=0?1:0; // 除了最后一位，填充后左移
         }
         header[i/8] = newByte;
+        beforeImage.modified();
     }
 
     /**
@@ -356,14 +507,98 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
-        List<Tuple> tupleList = new ArrayList<>();
-        for(Tuple tuple:tuples){
-            if(tuple != null){
-                tupleList.add(tuple);
+        Cursor cursor = cursor();
+        return new Iterator<Tuple>() {
+            private boolean advanced = false;
+            private boolean hasNext = false;
+
+            @Override
+            public boolean hasNext() {
+                if (!advanced) {
+                    hasNext = cursor.next();
+                    advanced = true;
+                }
+                return hasNext;
+            }
+
+            @Override
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                advanced = false;
+                return cursor.getTuple();
             }
+        };
+    }
+
+    /**
+     * @return a cursor over the tuples on this page as they are at the time
+     *   of the call; later inserts and deletes are not seen by the cursor
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * A Cursor walks the used slots of a page and decodes single fields
+     * straight out of the page data, so that a caller that looks at only a
+     * few columns (or discards most tuples) does not pay for building a
+     * Tuple and a Field object for every column of every slot.
+     */
+    public class Cursor {
+        private final byte[] header = HeapPage.this.header.clone();
+        private final Tuple[] tuples = HeapPage.this.tuples == null ? null : HeapPage.this.tuples.clone();
+        private int slot = -1;
+
+        /**
+         * Move to the next used slot.
+         * @return false if there are no more tuples on the page
+         */
+        public boolean next() {
+            while (++slot < numSlots) {
+                if (isSlotUsed(header, slot)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** @return the slot the cursor is on */
+        public int getSlot() {
+            return slot;
+        }
+
+        /** @return the value of the ith field, which must be an INT_TYPE field */
+        public int getInt(int i) {
+            if (tuples != null && tuples[slot] != null) {
+                return ((IntField) tuples[slot].getField(i)).getValue();
+            }
+            ByteBuffer b = acquire();
+            try {
+                return b.getInt(slotOffset(slot) + td.getFieldOffset(i));
+            } finally {
+                release();
+            }
+        }
+
+        /** @return the value of the ith field */
+        public Field getField(int i) {
+            if (tuples != null && tuples[slot] != null) {
+                return tuples[slot].getField(i);
+            }
+            ByteBuffer b = acquire();
+            try {
+                return td.getFieldType(i).parse(b, slotOffset(slot) + td.getFieldOffset(i));
+            } finally {
+                release();
+            }
+        }
+
+        /** @return the tuple the cursor is on */
+        public Tuple getTuple() {
+            return readTuple(header, tuples, slot);
         }
-        return tupleList.iterator();
     }
 
 }
-
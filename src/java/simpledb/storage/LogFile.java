@@ -6,7 +6,11 @@ import simpledb.transaction.TransactionId;
 import simpledb.common.Debug;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.lang.reflect.*;
 
 /*
@@ -76,7 +80,7 @@ for each active transaction.
 public class LogFile {
 
     final File logFile;
-    private RandomAccessFile raf;
+    private volatile RandomAccessFile raf; // logTruncate时替换，force不持有this时也会读取
     Boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
@@ -95,6 +99,32 @@ public class LogFile {
 
     final Map<Long,Long> tidToFirstLogRecord = new HashMap<>();
 
+    /*
+      Group commit.  Records are appended under this, but the log is forced
+      outside of it, by one thread at a time: while that thread is in
+      fsync, other committers append their COMMIT records and wait, and the
+      next force makes all of them durable at once.  Records are counted by
+      a sequence number that only grows, since file offsets change when the
+      log is truncated.
+    */
+    private final AtomicLong appended = new AtomicLong(); // 已追加的记录数
+    private volatile long written; // 已写入文件的记录数，受this保护，force不持有this时也会读取
+    private final Object forceLock = new Object();
+    private long durable; // 已经fsync的记录数，受forceLock保护
+    private boolean forcing; // 是否有线程正在fsync，受forceLock保护
+    private long forces; // fsync次数，受forceLock保护
+
+    /*
+      The tail of the log.  Records are serialized into a direct buffer and
+      written to the file in one call when the log is forced, when it is
+      read, or when the buffer is full, instead of one call per field.
+      currentOffset stays the offset in the file the next record starts at.
+    */
+    static final int TAIL_SIZE = 1 << 20;
+    private final ByteBuffer tail = ByteBuffer.allocateDirect(TAIL_SIZE); // 受this保护
+    private long tailStart; // tail的第一个字节在文件中的位置，受this保护
+    private final Map<String, byte[]> utf = new HashMap<>(); // 类名 -> writeUTF的编码，受this保护
+
     /** Constructor.
         Initialize and back the log file with the specified file.
         We're not sure yet whether the caller is creating a brand new DB,
@@ -134,7 +164,72 @@ public class LogFile {
             raf.writeLong(NO_CHECKPOINT_ID);
             raf.seek(raf.length());
             currentOffset = raf.getFilePointer();
+            tail.clear();
+            tailStart = currentOffset;
+        }
+    }
+
+    /**
+     * Return the buffer to serialize a record of size bytes into: the tail,
+     * written out first if the record does not fit in what is left of it,
+     * or a buffer of its own for a record larger than the whole tail.
+     */
+    private ByteBuffer reserve(int size) throws IOException {
+        if (tail.remaining() < size) {
+            writeTail();
+            if (size > tail.capacity()) {
+                return ByteBuffer.allocate(size);
+            }
+        }
+        return tail;
+    }
+
+    /** Finish a record serialized into a buffer returned by {@link #reserve} */
+    private long endRecord(ByteBuffer buf) throws IOException {
+        if (buf != tail) { // tail此时是空的，记录直接写到文件末尾
+            buf.flip();
+            tailStart = write(raf.getChannel(), buf, tailStart);
+        }
+        currentOffset = tailStart + tail.position();
+        return appended.incrementAndGet();
+    }
+
+    /** Write the records in the tail to the file (without forcing it) */
+    private void writeTail() throws IOException {
+        if (tail.position() > 0) {
+            tail.flip();
+            tailStart = write(raf.getChannel(), tail, tailStart);
+            tail.clear();
+        }
+        written = appended.get();
+    }
+
+    private static long write(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            position += channel.write(buf, position);
+        }
+        return position;
+    }
+
+    // writeUTF的编码：两个字节的长度加上修改过的UTF-8
+    private byte[] utf(String s) throws IOException {
+        byte[] bytes = utf.get(s);
+        if (bytes == null) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            new DataOutputStream(out).writeUTF(s);
+            bytes = out.toByteArray();
+            utf.put(s, bytes);
         }
+        return bytes;
+    }
+
+    /** Append an ABORT, COMMIT or BEGIN record, which carry nothing but the tid */
+    private long appendRecord(int type, TransactionId tid) throws IOException {
+        ByteBuffer buf = reserve(INT_SIZE + LONG_SIZE + LONG_SIZE);
+        buf.putInt(type);
+        buf.putLong(tid.getId());
+        buf.putLong(currentOffset);
+        return endRecord(buf);
     }
 
     public synchronized int getTotalRecords() {
@@ -160,10 +255,7 @@ public class LogFile {
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                appendRecord(ABORT_RECORD, tid);
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
             }
@@ -171,21 +263,25 @@ public class LogFile {
     }
 
     /** Write a commit record to disk for the specified tid,
-        and force the log to disk.
+        and force the log to disk.  The record is forced together with
+        those of the transactions committing at the same time, see
+        {@link #force}.
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
-
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    public void logCommit(TransactionId tid) throws IOException {
+        long seq;
+        synchronized (this) {
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            appendRecord(COMMIT_RECORD, tid);
+            writeTail(); // 一次写入这个事务还在日志尾部中的所有记录
+            seq = written;
+            tidToFirstLogRecord.remove(tid.getId());
+        }
+        forceUpTo(seq); // 不持有this，等待期间其他事务可以追加自己的COMMIT记录
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
@@ -199,7 +295,7 @@ public class LogFile {
     public  synchronized void logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
+        Debug.log("WRITE, offset = %d", currentOffset);
         preAppend();
         /* update record conists of
 
@@ -209,15 +305,37 @@ public class LogFile {
            after page data
            start offset
         */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
+        byte[] beforeData = before.getPageData();
+        byte[] afterData = after.getPageData();
+        ByteBuffer buf = reserve(INT_SIZE + LONG_SIZE + pageDataSize(before, beforeData)
+                + pageDataSize(after, afterData) + LONG_SIZE);
+        buf.putInt(UPDATE_RECORD);
+        buf.putLong(tid.getId());
+
+        writePageData(buf, before, beforeData);
+        writePageData(buf, after, afterData);
+        buf.putLong(currentOffset);
+        endRecord(buf);
+
+        Debug.log("WRITE OFFSET = %d", currentOffset);
+    }
 
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+    // 与writePageData(RandomAccessFile, Page)写出的格式相同
+    private int pageDataSize(Page p, byte[] pageData) throws IOException {
+        return utf(p.getClass().getName()).length + utf(p.getId().getClass().getName()).length
+                + INT_SIZE + INT_SIZE * p.getId().serialize().length + INT_SIZE + pageData.length;
+    }
 
-        Debug.log("WRITE OFFSET = " + currentOffset);
+    private void writePageData(ByteBuffer buf, Page p, byte[] pageData) throws IOException {
+        int[] pageInfo = p.getId().serialize();
+        buf.put(utf(p.getClass().getName()));
+        buf.put(utf(p.getId().getClass().getName()));
+        buf.putInt(pageInfo.length);
+        for (int j : pageInfo) {
+            buf.putInt(j);
+        }
+        buf.putInt(pageData.length);
+        buf.put(pageData);
     }
 
     void writePageData(RandomAccessFile raf, Page p) throws IOException{
@@ -267,7 +385,18 @@ public class LogFile {
             }
             pid = (PageId)idConsts[0].newInstance(idArgs);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
+            Constructor<?> pageConst = null;
+            for (Constructor<?> c : pageClass.getDeclaredConstructors()) {
+                // the Page(PageId id, byte[] data) constructor
+                Class<?>[] params = c.getParameterTypes();
+                if (params.length == 2 && params[1] == byte[].class) {
+                    pageConst = c;
+                    break;
+                }
+            }
+            if (pageConst == null) {
+                throw new IOException("no (PageId, byte[]) constructor in " + pageClassName);
+            }
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
@@ -277,7 +406,7 @@ public class LogFile {
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e){
@@ -300,13 +429,10 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
         tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        appendRecord(BEGIN_RECORD, tid);
 
-        Debug.log("BEGIN OFFSET = " + currentOffset);
+        Debug.log("BEGIN OFFSET = %d", currentOffset);
     }
 
     /** Checkpoint the log and write a checkpoint record. */
@@ -316,33 +442,35 @@ public class LogFile {
             synchronized (this) {
                 //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
                 preAppend();
-                long startCpOffset, endCpOffset;
+                long startCpOffset;
                 Set<Long> keys = tidToFirstLogRecord.keySet();
                 Iterator<Long> els = keys.iterator();
                 force();
                 Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
+                Database.getCatalog().sync();
+                startCpOffset = currentOffset;
+                ByteBuffer buf = reserve(INT_SIZE + LONG_SIZE + INT_SIZE
+                        + keys.size() * 2 * LONG_SIZE + LONG_SIZE);
+                buf.putInt(CHECKPOINT_RECORD);
+                buf.putLong(-1); //no tid , but leave space for convenience
 
                 //write list of outstanding transactions
-                raf.writeInt(keys.size());
+                buf.putInt(keys.size());
                 while (els.hasNext()) {
                     Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
+                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: %d", key);
+                    buf.putLong(key);
                     //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
+                    buf.putLong(tidToFirstLogRecord.get(key));
                 }
+                buf.putLong(currentOffset);
+                endRecord(buf);
 
                 //once the CP is written, make sure the CP location at the
                 // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
+                writeTail();
                 raf.seek(0);
                 raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
                 //Debug.log("CP OFFSET = " + currentOffset);
             }
         }
@@ -354,6 +482,7 @@ public class LogFile {
         consumption */
     public synchronized void logTruncate() throws IOException {
         preAppend();
+        writeTail();
         raf.seek(0);
         long cpLoc = raf.readLong();
 
@@ -435,6 +564,8 @@ public class LogFile {
 
         Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
 
+        logNew.getChannel().force(true); // 保留下来的记录换到新文件后仍然是持久的
+        logNew.close();
         raf.close();
         logFile.delete();
         newFile.renameTo(logFile);
@@ -443,6 +574,7 @@ public class LogFile {
         newFile.delete();
 
         currentOffset = raf.getFilePointer();
+        tailStart = currentOffset;
         //print();
     }
 
@@ -459,11 +591,14 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized(this) {
                 preAppend();
+                writeTail();
                 // some code goes here
                 // rollback的目的是从log file中找到指定事务的页面，并将它们恢复到磁盘
-                // 找到该事务在file中的第一个记录的偏移量
-                long offset = tidToFirstLogRecord.get(tid.getId());
-                raf.seek(offset);
+                // 找到该事务在file中的第一个记录的偏移量，没有BEGIN记录的事务（直接使用BufferPool的）从头找
+                Long offset = tidToFirstLogRecord.get(tid.getId());
+                raf.seek(offset != null ? offset : LONG_SIZE);
+                // 同一页面可能有多条记录（例如被STEAL写回后又被修改），以最早的before image为准
+                Map<PageId, Page> befores = new LinkedHashMap<>();
                 // 仿照logTruncate写
                 while (true) {
                     try {
@@ -474,8 +609,7 @@ public class LogFile {
                                 Page before = readPageData(raf);
                                 Page after = readPageData(raf);
                                 if(record_tid == tid.getId()){
-                                    Database.getBufferPool().discardPage(before.getId());
-                                    Database.getCatalog().getDatabaseFile(before.getId().getTableId()).writePage(before);
+                                    befores.putIfAbsent(before.getId(), before);
                                 }
                                 break;
                             case CHECKPOINT_RECORD:
@@ -492,6 +626,11 @@ public class LogFile {
                         break;
                     }
                 }
+                for(Page before : befores.values()){
+                    Database.getBufferPool().discardPage(before.getId());
+                    Database.getCatalog().getDatabaseFile(before.getId().getTableId()).writePage(before);
+                }
+                Database.getBufferPool().rolledBack(tid);
 
             }
         }
@@ -518,6 +657,10 @@ public class LogFile {
     public void recover() throws IOException {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
+                writeTail();
+                if (raf.length() == 0) {
+                    return; // 新建的日志，没有要恢复的，由第一次追加写入文件头
+                }
                 recoveryUndecided = false;
                 // some code goes here
 
@@ -525,32 +668,47 @@ public class LogFile {
                 /* redo就是写入afterimage，undo就是写入beforeimage */
 
                 Set<Long> commitedIds = new HashSet<>();
-                Map<Long, Long> activeTxns = new HashMap<>();
-                // 从检查点往后所有事务的集合
-                Map<Long, List<Page>> beforePages = new HashMap<>();
-                Map<Long, List<Page>> afterPages = new HashMap<>();
+                Map<Long, Long> activeTxns = new HashMap<>(); // 检查点时仍活跃的事务 -> 其第一条记录的位置
+                List<UpdateRecord> updates = new ArrayList<>(); // 按日志顺序
 
+                raf.seek(0);
                 long cpOffset = raf.readLong();  // 检查点位置
-                if(cpOffset != -1){
+                long start = raf.getFilePointer();
+                if(cpOffset != NO_CHECKPOINT_ID){
                     raf.seek(cpOffset);
+                    raf.readInt();
+                    raf.readLong();
+                    int numXactions = raf.readInt();
+                    while (numXactions-- > 0) {
+                        long xid = raf.readLong();
+                        long xoffset = raf.readLong();
+                        activeTxns.put(xid, xoffset);
+                    }
+                    // 检查点之前只需要看检查点时仍活跃的事务的记录
+                    start = cpOffset;
+                    for(long xoffset : activeTxns.values()){
+                        start = Math.min(start, xoffset);
+                    }
                 }
+                raf.seek(start);
                 while (true) {
                     try {
+                        long offset = raf.getFilePointer();
                         int type = raf.readInt();
                         long record_tid = raf.readLong();
                         switch (type) {
                             case UPDATE_RECORD:
                                 Page before = readPageData(raf);
                                 Page after = readPageData(raf);
-                                beforePages.computeIfAbsent(record_tid, k->new ArrayList<>()).add(before);
-                                afterPages.computeIfAbsent(record_tid, k->new ArrayList<>()).add(after);
+                                if(offset >= cpOffset || activeTxns.containsKey(record_tid)){
+                                    updates.add(new UpdateRecord(record_tid, before, after));
+                                }
                                 break;
                             case CHECKPOINT_RECORD:
                                 int numXactions = raf.readInt();
                                 while (numXactions-- > 0) {
-                                    long xid = raf.readLong();
-                                    long xoffset = raf.readLong();
-                                    activeTxns.put(xid, xoffset);
+                                    raf.readLong();
+                                    raf.readLong();
                                 }
                                 break;
                             case COMMIT_RECORD:
@@ -565,67 +723,48 @@ public class LogFile {
                 }
 
                 /* 注意undo和redo的顺序不能乱，否则redo被undo覆盖 */
+                /* 同一页面可能被多个事务先后修改，NO-FORCE模式下它们都可能还没写回，所以都按日志顺序重放 */
 
-                // undo未commit的
-                for(Long record_id : beforePages.keySet()){
-                    if(!commitedIds.contains(record_id)){
-                        List<Page> befores = beforePages.getOrDefault(record_id, new ArrayList<>());
-                        for(Page page : befores){
-                            Database.getCatalog().getDatabaseFile(page.getId().getTableId()).writePage(page);
-                        }
+                // 逆序undo未commit的，每个页面最终回到它最早的before image
+                for(int i = updates.size() - 1; i >= 0; i--){
+                    UpdateRecord u = updates.get(i);
+                    if(!commitedIds.contains(u.tid)){
+                        Database.getCatalog().getDatabaseFile(u.before.getId().getTableId()).writePage(u.before);
                     }
                 }
 
-                // redo已经commit的
-                for(Long record_tid : commitedIds){
-                    List<Page> afters = afterPages.getOrDefault(record_tid, new ArrayList<>());
-                    for(Page page : afters){
-                        Database.getCatalog().getDatabaseFile(page.getId().getTableId()).writePage(page);
+                // 顺序redo已经commit的，每个页面最终是最后一次提交的after image
+                for(UpdateRecord u : updates){
+                    if(commitedIds.contains(u.tid)){
+                        Database.getCatalog().getDatabaseFile(u.after.getId().getTableId()).writePage(u.after);
                     }
                 }
 
-                // 处理在checkpoint之前的事务（即crash前的activeTxn)
-                for(Map.Entry<Long,Long> entry : activeTxns.entrySet()){
-                    long active_id = entry.getKey();
-                    long active_offset = entry.getValue();
-                    boolean commited = commitedIds.contains(active_id);
-                    raf.seek(active_offset);
-                    while (true) {
-                        try {
-                            int type = raf.readInt();
-                            long record_tid = raf.readLong();
-                            switch (type) {
-                                case UPDATE_RECORD:
-                                    Page before = readPageData(raf);
-                                    Page after = readPageData(raf);
-                                    if(commited){
-                                        // redo
-                                        Database.getCatalog().getDatabaseFile(after.getId().getTableId()).writePage(after);
-                                    }else{
-                                        // undo
-                                        Database.getCatalog().getDatabaseFile(before.getId().getTableId()).writePage(before);
-                                    }
-                                    break;
-                                case CHECKPOINT_RECORD:
-                                    int numXactions = raf.readInt();
-                                    while (numXactions-- > 0) {
-                                        long xid = raf.readLong();
-                                        long xoffset = raf.readLong();
-                                    }
-                                    break;
-                            }
-                            raf.readLong();
-                        } catch (EOFException e) {
-                            break;
-                        }
-                    }
-                }
+                // 之后的记录追加在恢复过的日志后面
+                currentOffset = raf.length();
+                tailStart = currentOffset;
             }
          }
     }
 
+    /** An UPDATE record read back by {@link #recover} */
+    private static class UpdateRecord {
+        final long tid;
+        final Page before;
+        final Page after;
+
+        UpdateRecord(long tid, Page before, Page after) {
+            this.tid = tid;
+            this.before = before;
+            this.after = after;
+        }
+    }
+
     /** Print out a human readable represenation of the log */
     public void print() throws IOException {
+        synchronized (this) {
+            writeTail();
+        }
         long curOffset = raf.getFilePointer();
 
         raf.seek(0);
@@ -700,8 +839,70 @@ public class LogFile {
         raf.seek(curOffset);
     }
 
-    public  synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+    /** Force every record appended so far to disk. */
+    public void force() throws IOException {
+        long seq;
+        synchronized (this) {
+            writeTail();
+            seq = written;
+        }
+        forceUpTo(seq);
+    }
+
+    /**
+     * Wait until the first seq records appended, which have been written to
+     * the file, are on disk.  If no thread
+     * is forcing the log, the caller forces it, covering every record
+     * appended by then; otherwise it waits for that force and, if its
+     * records came too late for it, takes the next one, which covers
+     * everyone who arrived in the meantime.
+     */
+    private void forceUpTo(long seq) throws IOException {
+        while (true) {
+            long target;
+            synchronized (forceLock) {
+                while (forcing && durable < seq) {
+                    try {
+                        forceLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("interrupted while waiting for the log to be forced");
+                    }
+                }
+                if (durable >= seq) {
+                    return;
+                }
+                forcing = true;
+                target = written;
+            }
+            RandomAccessFile file = raf;
+            boolean forced = false;
+            try {
+                file.getChannel().force(true);
+                forced = true;
+            } catch (ClosedChannelException e) {
+                if (file == raf) {
+                    throw e;
+                }
+                // logTruncate换了文件，重新对新文件fsync
+            } finally {
+                synchronized (forceLock) {
+                    forcing = false;
+                    if (forced) {
+                        durable = Math.max(durable, target);
+                        forces++;
+                    }
+                    forceLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    /** @return the number of times the log has been forced to disk */
+    public long getForceCount() {
+        synchronized (forceLock) {
+            return forces;
+        }
     }
 
 }
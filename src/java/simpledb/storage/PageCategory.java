@@ -0,0 +1,25 @@
+package simpledb.storage;
+
+/**
+ * The kinds of page the BufferPool keeps statistics apart for, see
+ * {@link PageId#getCategory()}.
+ */
+public enum PageCategory {
+    HEAP("heap"),
+    COLUMN("column"),
+    BTREE_ROOT_PTR("btree root ptr"),
+    BTREE_INTERNAL("btree internal"),
+    BTREE_LEAF("btree leaf"),
+    BTREE_HEADER("btree header");
+
+    private final String label;
+
+    PageCategory(String label) {
+        this.label = label;
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+}
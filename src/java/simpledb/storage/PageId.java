@@ -32,5 +32,10 @@ public interface PageId {
     boolean equals(Object o);
 
     int getPageNumber();
+
+    /** @return the kind of page this id names, for the BufferPool's statistics */
+    default PageCategory getCategory() {
+        return PageCategory.HEAP;
+    }
 }
 
@@ -0,0 +1,155 @@
+package simpledb.storage;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+import java.util.function.IntSupplier;
+
+/**
+ * ReadAhead watches the pages requested by a single scan of a heap
+ * organised file (or of one column of a ColumnFile) and, once the scan
+ * looks sequential, asks the BufferPool to prefetch the next pages in the
+ * background so that the scan does not stall on a synchronous read for
+ * every page.
+ * <p>
+ * The read-ahead window adapts to how useful the prefetched pages turn out
+ * to be: it doubles after a full window of prefetched pages was found in
+ * the buffer pool, and halves whenever a prefetched page had already been
+ * evicted again by the time the scan reached it.  A prefetch that has not
+ * finished yet does not shrink the window, since that only means the scan
+ * is outrunning the disk.
+ * <p>
+ * A ReadAhead belongs to one scan and is not thread safe.
+ */
+public class ReadAhead {
+
+    /** Number of consecutive sequential accesses before prefetching starts */
+    private static final int TRIGGER = 2;
+
+    private static volatile int minWindow = 4;
+    private static volatile int maxWindow = 32;
+
+    private final BufferPool bufferPool;
+    private final IntFunction<PageId> pageId;
+    private final IntSupplier numPages;
+    private final ScanRing ring; // 扫描使用的环，可为null
+
+    private int lastPage = -1;
+    private int run = 0;
+    private int window;
+    private int prefetchedUpTo = -1;
+    private int hits = 0;
+    private final Map<Integer, Future<?>> inFlight = new HashMap<>();
+
+    /**
+     * @param bufferPool the buffer pool to prefetch into
+     * @param tableId the table whose pages (HeapPageIds) are scanned
+     * @param numPages supplies the current number of pages in the table
+     */
+    public ReadAhead(BufferPool bufferPool, int tableId, IntSupplier numPages) {
+        this(bufferPool, pgNo -> new HeapPageId(tableId, pgNo), numPages);
+    }
+
+    /**
+     * @param bufferPool the buffer pool to prefetch into
+     * @param pageId maps a page number of the scanned page sequence to its PageId
+     * @param numPages supplies the current number of pages in the sequence
+     */
+    public ReadAhead(BufferPool bufferPool, IntFunction<PageId> pageId, IntSupplier numPages) {
+        this(bufferPool, pageId, numPages, null);
+    }
+
+    /**
+     * @param bufferPool the buffer pool to prefetch into
+     * @param pageId maps a page number of the scanned page sequence to its PageId
+     * @param numPages supplies the current number of pages in the sequence
+     * @param ring the ring the scan reads its pages through, or null; the
+     *             window is then kept to half of the ring, so that prefetched
+     *             pages are not recycled before the scan gets to them
+     */
+    public ReadAhead(BufferPool bufferPool, IntFunction<PageId> pageId, IntSupplier numPages, ScanRing ring) {
+        this.bufferPool = bufferPool;
+        this.pageId = pageId;
+        this.numPages = numPages;
+        this.ring = ring;
+        this.window = minWindow;
+    }
+
+    /**
+     * Set the bounds of the read-ahead window, in pages.  A maximum of 0
+     * turns read-ahead off.
+     */
+    public static void setWindow(int min, int max) {
+        minWindow = Math.max(1, Math.min(min, max));
+        maxWindow = Math.max(0, max);
+    }
+
+    public static int getMinWindow() {
+        return minWindow;
+    }
+
+    public static int getMaxWindow() {
+        return maxWindow;
+    }
+
+    /** @return the current read-ahead window of this scan, in pages */
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * Tell the read-ahead that the scan is about to fetch the given page.
+     * Must be called before the page is requested from the buffer pool.
+     */
+    public void access(int pgNo) {
+        int max = Math.min(maxWindow, bufferPool.getNumPages() / 4);
+        if (ring != null) {
+            max = Math.min(max, ring.size() / 2);
+        }
+        if (max <= 0) {
+            return;
+        }
+
+        Future<?> prefetch = inFlight.remove(pgNo);
+        if (prefetch != null) {
+            if (bufferPool.isCached(pageId.apply(pgNo))) {
+                if (++hits >= window) {
+                    window = Math.min(window * 2, max);
+                    hits = 0;
+                }
+            } else if (prefetch.isDone()) {
+                // prefetched, but evicted before we got to it
+                window = Math.max(window / 2, Math.min(minWindow, max));
+                hits = 0;
+            }
+        }
+
+        if (pgNo == lastPage + 1) {
+            run++;
+        } else {
+            run = 0;
+            prefetchedUpTo = pgNo;
+            inFlight.clear();
+        }
+        lastPage = pgNo;
+        window = Math.min(window, max);
+
+        if (run >= TRIGGER && prefetchedUpTo < pgNo + window) {
+            int last = Math.min(pgNo + window, numPages.getAsInt() - 1);
+            for (int p = Math.max(prefetchedUpTo + 1, pgNo + 1); p <= last; p++) {
+                inFlight.put(p, bufferPool.prefetchPage(pageId.apply(p), ring));
+            }
+            prefetchedUpTo = Math.max(prefetchedUpTo, last);
+        }
+
+        // forget prefetches the scan has already passed
+        Iterator<Integer> it = inFlight.keySet().iterator();
+        while (it.hasNext()) {
+            if (it.next() < pgNo) {
+                it.remove();
+            }
+        }
+    }
+}
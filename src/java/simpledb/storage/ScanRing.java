@@ -0,0 +1,66 @@
+package simpledb.storage;
+
+import java.util.ArrayDeque;
+
+/**
+ * A small private ring of buffer pool frames for one large sequential scan,
+ * in the spirit of PostgreSQL's buffer access strategies.
+ * <p>
+ * Pages a scan reads through {@link BufferPool#getPage(simpledb.transaction.TransactionId,
+ * PageId, simpledb.common.Permissions, ScanRing)} are not promoted in the
+ * replacement policy, and each page the scan brings into the pool is
+ * remembered in its ring.  Once the ring is full, the oldest page in it is
+ * dropped from the pool, if it is still clean, to make room for the next
+ * one, so the scan recycles its own frames instead of evicting the working
+ * set of other transactions.  Pages that were already cached when the scan
+ * reached them are left alone.
+ * <p>
+ * A ring is used by one scan, and by the read-ahead working for it.
+ */
+public class ScanRing {
+
+    /** Largest ring, in pages: 256KB of pages of the default size */
+    public static final int MAX_SIZE = 64;
+
+    private final int size;
+    private final ArrayDeque<PageId> pages; // protected by this
+
+    /**
+     * Creates a ring of size pages.
+     */
+    public ScanRing(int size) {
+        this.size = size;
+        this.pages = new ArrayDeque<>(size);
+    }
+
+    /**
+     * Returns a ring for a scan of a file of numPages pages through
+     * bufferPool, or null if the file is small enough to be cached
+     * normally, that is, if it takes no more than a quarter of the pool.
+     * The ring takes at most a quarter of the pool, and at most
+     * {@link #MAX_SIZE} pages.
+     */
+    public static ScanRing forScan(BufferPool bufferPool, int numPages) {
+        int size = Math.min(MAX_SIZE, bufferPool.getNumPages() / 4);
+        if (numPages <= bufferPool.getNumPages() / 4 || size < 2) {
+            return null;
+        }
+        return new ScanRing(size);
+    }
+
+    /** @return the number of pages in a full ring */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Remembers a page the scan brought into the pool.
+     *
+     * @return the page that fell out of the full ring, to be dropped from
+     *         the pool, or null
+     */
+    synchronized PageId add(PageId pid) {
+        pages.addLast(pid);
+        return pages.size() > size ? pages.pollFirst() : null;
+    }
+}
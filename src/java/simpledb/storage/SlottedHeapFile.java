@@ -0,0 +1,257 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * SlottedHeapFile is a heap organised DbFile, like HeapFile, whose pages
+ * store variable-length records (see SlottedPage).  A table with short
+ * STRING_TYPE values therefore takes far fewer pages than the same table in
+ * a HeapFile, where every string occupies Type.STRING_LEN bytes.
+ * <p>
+ * Pages are addressed with HeapPageIds and tuples with the usual RecordIds,
+ * so operators and the BufferPool treat a SlottedHeapFile exactly like a
+ * HeapFile.
+ *
+ * @see SlottedPage
+ */
+public class SlottedHeapFile implements DbFile {
+
+    private final File file;
+    private final TupleDesc td;
+    private final DbFileChannel channel;
+    private final HeapFreeSpaceMap freeSpaceMap; // 记录每个页面的空闲字节数
+    private final int pageSize;
+
+    /**
+     * Constructs a slotted heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this
+     *            file.
+     */
+    public SlottedHeapFile(File f, TupleDesc td) {
+        this(f, td, BufferPool.getPageSize());
+    }
+
+    /**
+     * Constructs a slotted heap file with pages of the given size.  Offsets
+     * inside a SlottedPage are 2 bytes, so pages are at most 64KB.
+     *
+     * @param pageSize
+     *            the size of the pages of this file, in bytes
+     */
+    public SlottedHeapFile(File f, TupleDesc td, int pageSize) {
+        if (pageSize > SlottedPage.MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("slotted pages are at most " + SlottedPage.MAX_PAGE_SIZE + " bytes");
+        }
+        this.file = f;
+        this.td = td;
+        this.pageSize = pageSize;
+        this.channel = new DbFileChannel(f);
+        this.freeSpaceMap = new HeapFreeSpaceMap(HeapFreeSpaceMap.sidecar(f), this::numPages);
+        if (SlottedPage.HEADER_SIZE + SlottedPage.SLOT_SIZE + SlottedPage.getMaxRecordSize(td)
+                > pageSize) {
+            throw new IllegalArgumentException("tuples of " + td + " do not fit on a page");
+        }
+    }
+
+    /**
+     * Returns the File backing this SlottedHeapFile on disk.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    // see DbFile.java for javadocs
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Returns the channel used for page I/O on this file.
+     */
+    public DbFileChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Returns the free space map of this file, in bytes per page.
+     */
+    public HeapFreeSpaceMap getFreeSpaceMap() {
+        return freeSpaceMap;
+    }
+
+    // see DbFile.java for javadocs
+    public int getId() {
+        return file.getAbsolutePath().hashCode();
+    }
+
+    // see DbFile.java for javadocs
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        byte[] data = new byte[pageSize];
+        try {
+            channel.read((long) pid.getPageNumber() * pageSize, ByteBuffer.wrap(data)); // 超出文件末尾的部分保持为0
+            SlottedPage page = new SlottedPage((HeapPageId) pid, data);
+            freeSpaceMap.noteRead(pid.getPageNumber(), page.getFreeSpace());
+            return page;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("unable to read page " + pid.getPageNumber(), e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        long offset = (long) page.getId().getPageNumber() * pageSize;
+        channel.write(offset, ByteBuffer.wrap(page.getPageData()));
+    }
+
+    // see DbFile.java for javadocs
+    public void writePages(List<Page> pages) throws IOException {
+        channel.writePages(pages, p -> (long) p.getId().getPageNumber() * pageSize);
+    }
+
+    // see DbFile.java for javadocs
+    public void sync() throws IOException {
+        freeSpaceMap.save();
+    }
+
+    // see DbFile.java for javadocs
+    public void close() {
+        channel.close();
+    }
+
+    /**
+     * Returns the number of pages in this file.
+     */
+    public int numPages() {
+        return (int) (file.length() / pageSize);
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        List<Page> pages = new ArrayList<>();
+        int needed = SlottedPage.getRecordSize(t) + SlottedPage.SLOT_SIZE;
+
+        // 根据空闲空间表定位空闲字节足够的页面
+        int numPages = numPages();
+        int pgNo = freeSpaceMap.findPage(0, numPages, needed);
+        while (pgNo != -1) {
+            PageId pid = new HeapPageId(getId(), pgNo);
+            SlottedPage page = (SlottedPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+            if (page.getSpaceNeeded(t) <= page.getFreeSpace()) {
+                page.insertTuple(t);
+                pages.add(page);
+                return pages;
+            }
+            freeSpaceMap.update(pgNo, page.getFreeSpace()); // 空闲空间表过时了
+            pgNo = freeSpaceMap.findPage(pgNo + 1, numPages, needed);
+        }
+
+        // 没有足够空间的页面，新建页面，写入文件
+        SlottedPage newPage = new SlottedPage(new HeapPageId(getId(), numPages()), SlottedPage.createEmptyPageData(pageSize));
+        newPage.insertTuple(t);
+        pages.add(newPage);
+        writePage(newPage);
+        return pages;
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        List<Page> pages = new ArrayList<>();
+        PageId pid = t.getRecordId().getPageId();
+        SlottedPage page = (SlottedPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        pages.add(page);
+        return pages;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new DbFileIterator() {
+            private BufferPool bufferPool;
+            private ReadAhead readAhead; // 顺序扫描时后台预读后续页面
+            private ScanRing ring; // 大表扫描时使用的私有页面环，小表为null
+            private PageId pinned; // 正在读取元组的页面，读完或关闭时释放固定
+            private int nextPageNo = 0;
+            private Iterator<Tuple> currPageIter;
+
+            private Iterator<Tuple> getPageIter(int pageNo) throws TransactionAbortedException, DbException {
+                HeapPageId pid = new HeapPageId(getId(), pageNo);
+                readAhead.access(pageNo);
+                unpin(); // 先释放上一页：缓冲池很小时下一页可能正需要它的位置
+                Iterator<Tuple> iterator = ((SlottedPage) bufferPool.pinPage(tid, pid, Permissions.READ_ONLY, ring)).iterator();
+                pinned = pid;
+                return iterator;
+            }
+
+            @Override
+            public void open() throws DbException, TransactionAbortedException {
+                if (bufferPool == null) {
+                    bufferPool = Database.getBufferPool();
+                    ring = ScanRing.forScan(bufferPool, numPages());
+                    readAhead = new ReadAhead(bufferPool, pgNo -> new HeapPageId(getId(), pgNo),
+                            SlottedHeapFile.this::numPages, ring);
+                    currPageIter = nextPageNo < numPages() ? getPageIter(nextPageNo) : Collections.emptyIterator();
+                }
+            }
+
+            @Override
+            public boolean hasNext() throws DbException, TransactionAbortedException {
+                if (bufferPool == null) return false;
+
+                if (currPageIter.hasNext()) {
+                    return true;
+                }
+                nextPageNo++;
+                while (nextPageNo < numPages()) { // 跳过中间的空页面
+                    currPageIter = getPageIter(nextPageNo);
+                    if (currPageIter.hasNext())
+                        return true;
+                    nextPageNo++;
+                }
+                unpin();
+                return false;
+            }
+
+            private void unpin() {
+                if (pinned != null) {
+                    bufferPool.unpinPage(tid, pinned);
+                    pinned = null;
+                }
+            }
+
+            @Override
+            public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+                if (!hasNext()) throw new NoSuchElementException();
+                return currPageIter.next();
+            }
+
+            @Override
+            public void rewind() throws DbException, TransactionAbortedException {
+                nextPageNo = 0;
+                currPageIter = numPages() > 0 ? getPageIter(nextPageNo) : Collections.emptyIterator();
+            }
+
+            @Override
+            public void close() {
+                if (bufferPool != null) unpin();
+                bufferPool = null;
+            }
+        };
+    }
+}
@@ -0,0 +1,325 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.transaction.TransactionId;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Each instance of SlottedPage stores data for one page of a SlottedHeapFile.
+ * Unlike a HeapPage, whose slots all have the fixed size of the table's
+ * TupleDesc, a SlottedPage stores variable-length records: a STRING_TYPE
+ * field takes only as many bytes as the string is long.
+ * <p>
+ * The page format is
+ * <pre>
+ *   numSlots (2 bytes) | slot directory: numSlots x (offset, length), 2 bytes each
+ *   | free space | records, packed towards the end of the page
+ * </pre>
+ * A slot with offset 0 is empty.  Records are addressed through the slot
+ * directory, so a tuple keeps its RecordId (page, slot) while the records
+ * are moved around inside the page; records are packed afresh every time
+ * the page is serialized, which keeps the free space in one piece.
+ * <p>
+ * An INT_TYPE field is stored in 4 bytes, a STRING_TYPE field as a 2 byte
+ * length followed by the string bytes.
+ *
+ * @see SlottedHeapFile
+ */
+public class SlottedPage implements Page {
+
+    /** Size of the numSlots field at the start of the page */
+    static final int HEADER_SIZE = 2;
+    /** Size of one slot directory entry */
+    static final int SLOT_SIZE = 4;
+    /** Largest page size the 2 byte offsets can address */
+    static final int MAX_PAGE_SIZE = 65536;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    final int pageSize;
+    // 每个slot对应一条编码后的记录，null表示空slot
+    final List<byte[]> records;
+    private int recordBytes = 0;
+
+    final BeforeImage beforeImage;
+
+    /**
+     * Create a SlottedPage from a set of bytes of data read from disk, in the
+     * format described above.  All zeroes is an empty page.  The page keeps
+     * the array as its before image, so it must not be modified afterwards.
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.pageSize = Database.getCatalog().getPageSize(id.getTableId());
+
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        int numSlots = Short.toUnsignedInt(buf.getShort(0));
+        if (HEADER_SIZE + numSlots * SLOT_SIZE > data.length) {
+            throw new IOException("corrupt slotted page " + id.getPageNumber());
+        }
+        records = new ArrayList<>(numSlots);
+        for (int i = 0; i < numSlots; i++) {
+            int offset = Short.toUnsignedInt(buf.getShort(HEADER_SIZE + i * SLOT_SIZE));
+            int length = Short.toUnsignedInt(buf.getShort(HEADER_SIZE + i * SLOT_SIZE + 2));
+            if (offset == 0) {
+                records.add(null);
+            } else {
+                records.add(Arrays.copyOfRange(data, offset, offset + length));
+                recordBytes += length;
+            }
+        }
+
+        beforeImage = new BeforeImage(data);
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public SlottedPage getBeforeImage() {
+        try {
+            return new SlottedPage(pid, beforeImage.get());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        beforeImage.update(this::getPageData);
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Used to serialize this page to disk.  Passing the result to the
+     * SlottedPage constructor produces an identical page.
+     */
+    public byte[] getPageData() {
+        byte[] data = new byte[pageSize];
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        buf.putShort(0, (short) records.size());
+        int end = data.length;
+        for (int i = 0; i < records.size(); i++) {
+            byte[] record = records.get(i);
+            if (record == null) {
+                continue; // 空slot的偏移为0
+            }
+            end -= record.length;
+            System.arraycopy(record, 0, data, end, record.length);
+            buf.putShort(HEADER_SIZE + i * SLOT_SIZE, (short) end);
+            buf.putShort(HEADER_SIZE + i * SLOT_SIZE + 2, (short) record.length);
+        }
+        return data;
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * SlottedPage.
+     */
+    public static byte[] createEmptyPageData() {
+        return createEmptyPageData(BufferPool.getPageSize());
+    }
+
+    /**
+     * Generate a byte array corresponding to an empty SlottedPage of the
+     * given size.
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize]; //all 0
+    }
+
+    /**
+     * @return the number of bytes the given tuple takes on a SlottedPage
+     */
+    public static int getRecordSize(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.STRING_TYPE) {
+                size += 2 + ((StringField) t.getField(i)).getValue().getBytes().length;
+            } else {
+                size += td.getFieldType(i).getLen();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return the size of the largest tuple with the given TupleDesc
+     */
+    public static int getMaxRecordSize(TupleDesc td) {
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            size += td.getFieldType(i) == Type.STRING_TYPE ? 2 + Type.STRING_LEN : td.getFieldType(i).getLen();
+        }
+        return size;
+    }
+
+    private byte[] encode(Tuple t) {
+        ByteBuffer buf = ByteBuffer.allocate(getRecordSize(t));
+        for (int i = 0; i < td.numFields(); i++) {
+            Field f = t.getField(i);
+            if (td.getFieldType(i) == Type.STRING_TYPE) {
+                byte[] s = ((StringField) f).getValue().getBytes();
+                buf.putShort((short) s.length);
+                buf.put(s);
+            } else {
+                buf.putInt(((IntField) f).getValue());
+            }
+        }
+        return buf.array();
+    }
+
+    private Tuple decode(int slot) {
+        byte[] record = records.get(slot);
+        ByteBuffer buf = ByteBuffer.wrap(record);
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.STRING_TYPE) {
+                byte[] s = new byte[Short.toUnsignedInt(buf.getShort())];
+                buf.get(s);
+                t.setField(i, new StringField(new String(s), Type.STRING_LEN));
+            } else {
+                t.setField(i, new IntField(buf.getInt()));
+            }
+        }
+        t.setRecordId(new RecordId(pid, slot));
+        return t;
+    }
+
+    /**
+     * Returns the number of bytes still available for records and their slot
+     * directory entries on this page.
+     */
+    public int getFreeSpace() {
+        return pageSize - HEADER_SIZE - records.size() * SLOT_SIZE - recordBytes;
+    }
+
+    /**
+     * Returns the number of bytes inserting the given tuple would take,
+     * including a new slot directory entry if no empty slot can be reused.
+     */
+    public int getSpaceNeeded(Tuple t) {
+        return getRecordSize(t) + (records.contains(null) ? 0 : SLOT_SIZE);
+    }
+
+    /**
+     * Returns the number of tuples on this page.
+     */
+    public int getNumTuples() {
+        return records.size() - Collections.frequency(records, null);
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < records.size() && records.get(i) != null;
+    }
+
+    /**
+     * Delete the specified tuple from the page.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId recordId = t.getRecordId();
+        if (recordId == null || !pid.equals(recordId.getPageId()) || !isSlotUsed(recordId.getTupleNumber()))
+            throw new DbException("no this tuple on this page");
+        int slot = recordId.getTupleNumber();
+        recordBytes -= records.get(slot).length;
+        records.set(slot, null);
+        // 末尾的空slot可以直接回收目录空间
+        while (!records.isEmpty() && records.get(records.size() - 1) == null) {
+            records.remove(records.size() - 1);
+        }
+        beforeImage.modified();
+        updateFreeSpaceMap();
+    }
+
+    /**
+     * Adds the specified tuple to the page;  the tuple is updated to reflect
+     * that it is now stored on this page.
+     * @throws DbException if the page does not have enough free space or
+     *         tupledesc is mismatch.
+     * @param t The tuple to add.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("tupleDesc is mismatch");
+        if (getSpaceNeeded(t) > getFreeSpace())
+            throw new DbException("not enough space on this page");
+        byte[] record = encode(t);
+        int slot = records.indexOf(null);
+        if (slot == -1) {
+            slot = records.size();
+            records.add(record);
+        } else {
+            records.set(slot, record);
+        }
+        recordBytes += record.length;
+        t.setRecordId(new RecordId(pid, slot));
+        beforeImage.modified();
+        updateFreeSpaceMap();
+    }
+
+    /**
+     * Report the current free space to the free space map of the
+     * SlottedHeapFile this page belongs to.
+     */
+    private void updateFreeSpaceMap() {
+        DbFile f = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        if (f instanceof SlottedHeapFile) {
+            ((SlottedHeapFile) f).getFreeSpaceMap().update(pid.getPageNumber(), getFreeSpace());
+        }
+    }
+
+    private boolean dirty = false;
+    private TransactionId dirtier = null;
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.dirtier = tid;
+        if (dirty) beforeImage.modified();
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirty ? dirtier : null;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page as they are at the
+     * time of the call (calling remove on this iterator throws an
+     * UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        List<Tuple> tupleList = new ArrayList<>();
+        for (int i = 0; i < records.size(); i++) {
+            if (records.get(i) != null) {
+                tupleList.add(decode(i));
+            }
+        }
+        return Collections.unmodifiableList(tupleList).iterator();
+    }
+}
@@ -1,6 +1,9 @@
 package simpledb.storage;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -19,6 +22,11 @@ public class Tuple implements Serializable {
     private RecordId recordId;
     private Field[] fields;
 
+    // 延迟解码：字段在第一次被访问时才从页面数据中解析
+    private transient TupleDesc sourceDesc;
+    private transient ByteBuffer source;
+    private transient int sourceOffset;
+
     /**
      * Create a new tuple with the specified schema (type).
      *
@@ -32,6 +40,25 @@ public class Tuple implements Serializable {
         this.fields = new Field[td.numFields()];
     }
 
+    /**
+     * Create a tuple whose fields are decoded on demand from a serialized
+     * tuple in the given buffer.  The bytes must not change for as long as
+     * the tuple is in use.
+     *
+     * @param td
+     *            the schema the tuple was serialized with
+     * @param source
+     *            the buffer holding the serialized tuple
+     * @param offset
+     *            the index of the first byte of the tuple in source
+     */
+    Tuple(TupleDesc td, ByteBuffer source, int offset) {
+        this(td);
+        this.sourceDesc = td;
+        this.source = source;
+        this.sourceOffset = offset;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -74,14 +101,36 @@ public class Tuple implements Serializable {
     }
 
     /**
-     * @return the value of the ith field, or null if it has not been set.
+     * @return the value of the ith field, or null if it has not been set
+     *         (or was not read by a projected scan, see
+     *         {@link simpledb.execution.SeqScan#SeqScan(simpledb.transaction.TransactionId, int, String, int[])}).
      *
      * @param i
      *            field index to return. Must be a valid index.
      */
     public Field getField(int i) {
         // some code goes here
-        return fields[i];
+        Field f = fields[i];
+        if(f == null && source != null){
+            f = sourceDesc.getFieldType(i).parse(source, sourceOffset + sourceDesc.getFieldOffset(i));
+            fields[i] = f;
+        }
+        return f;
+    }
+
+    /** Decode every field that has not been decoded yet, and drop the reference to the source buffer */
+    void decodeAll() {
+        if(source != null){
+            for(int i=0; i<fields.length; i++){
+                getField(i);
+            }
+            source = null;
+        }
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        decodeAll();
+        out.defaultWriteObject();
     }
 
     /**
@@ -90,7 +139,8 @@ public class Tuple implements Serializable {
      *
      * column1\tcolumn2\tcolumn3\t...\tcolumnN
      *
-     * where \t is any whitespace (except a newline)
+     * where \t is any whitespace (except a newline).  Fields that are not
+     * set are printed as "null".
      */
     public String toString() {
         // some code goes here
@@ -98,18 +148,20 @@ public class Tuple implements Serializable {
         Iterator<Field> fIterator = fields();
         while(fIterator.hasNext()){
             sb.append("\t");
-            sb.append(fIterator.next().toString());
+            sb.append(fIterator.next()); // 投影扫描没有读取的字段是null
         }
         return sb.toString();
     }
 
     /**
      * @return
-     *        An iterator which iterates over all the fields of this tuple
+     *        An iterator which iterates over all the fields of this tuple,
+     *        including those that are not set, as null
      * */
     public Iterator<Field> fields()
     {
         // some code goes here
+        decodeAll();
         return Arrays.stream(fields).iterator();
     }
 
@@ -39,6 +39,9 @@ public class TupleDesc implements Serializable {
 
     private List<TDItem> tdItems;
 
+    // 每个字段在元组中的字节偏移，第一次使用时计算
+    private transient int[] fieldOffsets;
+
     /**
      * @return
      *        An iterator which iterates over all the field TDItems
@@ -155,6 +158,26 @@ public class TupleDesc implements Serializable {
         return size;
     }
 
+    /**
+     * @return The offset (in bytes) of the ith field from the start of a
+     *         tuple corresponding to this TupleDesc.
+     * @param i
+     *            index of the field. It must be a valid index.
+     */
+    public int getFieldOffset(int i) {
+        int[] offsets = fieldOffsets;
+        if(offsets == null){
+            offsets = new int[tdItems.size()];
+            int offset = 0;
+            for(int j = 0; j < offsets.length; j++){
+                offsets[j] = offset;
+                offset += tdItems.get(j).fieldType.getLen();
+            }
+            fieldOffsets = offsets;
+        }
+        return offsets[i];
+    }
+
     /**
      * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
      * with the first td1.numFields coming from td1 and the remaining from td2.
@@ -0,0 +1,232 @@
+package simpledb.storage.cache;
+
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * The bookkeeping shared by the PageCache policies: the map from page ids
+ * to entries, the weights and the capacity, and the pins and dirty state
+ * that keep a page from being chosen as the victim.
+ * <p>
+ * A policy only keeps its clean, unpinned pages among the victim
+ * candidates, so that victim selection never has to pass the others.  The
+ * dirty flag of an entry records whether the policy has taken it out of
+ * the candidates, and {@link #refile} moves an entry whose state no longer
+ * matches the flag.  A page made dirty without {@link #dirtyChanged} is
+ * taken out when victim selection comes across it, but a page only becomes
+ * a candidate again through dirtyChanged or the release of its last pin.
+ * <p>
+ * Victim selection therefore passes each page at most once per time it is
+ * dirtied unannounced: a selection right after a burst of such markDirty
+ * calls may take as many steps as the burst, under the lock of the policy
+ * (of one stripe for StripedPageCache), but the cost over a run is bounded
+ * by the number of those calls, not by the number of dirty pages.  The
+ * BufferPool announces the pages it dirties in insertTuple and deleteTuple
+ * through putPage, so only pages dirtied directly, such as the B+ tree
+ * pages of a split before they are returned to the pool, are left to the
+ * walk.
+ * <p>
+ * The helpers on entries must be called under the lock that guards the
+ * entry in the policy.
+ */
+abstract class AbstractPageCache<E extends AbstractPageCache.Entry> implements PageCache {
+
+    static class Entry {
+        final int weight;
+        volatile Page page;
+        int pins; // 固定计数
+        boolean dirty; // 已移出牺牲页候选：脏页或被固定的页面
+
+        Entry(Page page, int weight) {
+            this.page = page;
+            this.weight = weight;
+        }
+    }
+
+    /** 双向链表结点 */
+    static class Node extends Entry {
+        volatile long stamp; // 最近一次访问时的时钟值
+        Node pre;
+        Node next;
+
+        Node(Page page, int weight) {
+            super(page, weight);
+        }
+    }
+
+    /** 带哨兵结点的双向链表，头部是最近使用的页面 */
+    static class NodeList {
+        final Node head = new Node(null, 0);
+        final Node tail = new Node(null, 0);
+
+        NodeList() {
+            head.next = tail;
+            tail.pre = head;
+        }
+
+        boolean isEmpty() {
+            return head.next == tail;
+        }
+
+        void addToHead(Node node) {
+            node.next = head.next;
+            node.pre = head;
+            head.next.pre = node;
+            head.next = node;
+        }
+
+        void unlink(Node node) {
+            node.pre.next = node.next;
+            node.next.pre = node.pre;
+        }
+    }
+
+    /** 干净页和脏页分别在两个LRU链表中，干净链表的尾部就是牺牲页 */
+    static class LruLists<N extends Node> {
+        final NodeList clean = new NodeList();
+        final NodeList dirty = new NodeList();
+
+        // 按页面当前的状态放入干净或脏页链表的头部
+        void addToHead(N node) {
+            node.dirty = held(node);
+            (node.dirty ? dirty : clean).addToHead(node);
+        }
+
+        void unlink(N node) {
+            (node.dirty ? dirty : clean).unlink(node);
+        }
+
+        void moveToHead(N node) {
+            unlink(node);
+            addToHead(node);
+        }
+
+        /** @return the clean node nearest the tail, or null if all pages are dirty or pinned */
+        @SuppressWarnings("unchecked")
+        N oldestClean() {
+            // 未经dirtyChanged变脏的页面移入脏页链表，每次变脏最多移动一次
+            while (!clean.isEmpty() && held(clean.tail.pre)) {
+                moveToHead((N) clean.tail.pre);
+            }
+            return clean.isEmpty() ? null : (N) clean.tail.pre;
+        }
+    }
+
+    volatile long capacity;
+    final ToIntFunction<PageId> sizer;
+    final Consumer<Page> onRemove;
+    final Map<PageId, E> map = new ConcurrentHashMap<>();
+
+    AbstractPageCache(long capacity, ToIntFunction<PageId> sizer, Consumer<Page> onRemove) {
+        this.capacity = capacity;
+        this.sizer = sizer;
+        this.onRemove = onRemove;
+    }
+
+    // 不可置换：脏页或被固定的页面
+    static boolean held(Entry e) {
+        return e.pins > 0 || e.page.isDirty() != null;
+    }
+
+    /**
+     * Puts e among the victim candidates or takes it out of them according
+     * to its current state, and sets its dirty flag accordingly.
+     */
+    abstract void refile(E e);
+
+    /** Called when the last pin of e is released; refiles e by default */
+    void unpinned(E e) {
+        refile(e);
+    }
+
+    // 状态改变的页面重新归档：变干净的页面刚被提交的事务使用过
+    void refileIfChanged(E e) {
+        if (e != null && e.dirty != held(e)) {
+            refile(e);
+        }
+    }
+
+    Page pinEntry(E e) {
+        if (e == null) {
+            return null;
+        }
+        if (e.pins++ == 0 && !e.dirty) {
+            refile(e);
+        }
+        return e.page;
+    }
+
+    void unpinEntry(E e) {
+        if (e != null && e.pins > 0 && --e.pins == 0) {
+            unpinned(e);
+        }
+    }
+
+    static boolean pinned(Entry e) {
+        return e != null && e.pins > 0;
+    }
+
+    // BufferPool内部访问Page
+    @Override
+    public Page getPage(PageId pid) {
+        E e = map.get(pid);
+        return e == null ? null : e.page;
+    }
+
+    @Override
+    public boolean isFull() {
+        return getUsed() >= capacity;
+    }
+
+    @Override
+    public long getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public void setCapacity(long capacity) {
+        this.capacity = capacity;
+    }
+
+    // 缓存为空时总能放入，即使单个页面超过了容量
+    @Override
+    public boolean hasRoomFor(PageId pid) {
+        return map.isEmpty() || getUsed() + sizer.applyAsInt(pid) <= capacity;
+    }
+
+    /** @return the ids of the cached pages, hottest first in the given order */
+    List<PageId> hottestFirst(Comparator<? super E> hottestFirst) {
+        List<E> entries = new ArrayList<>(map.values());
+        entries.sort(hottestFirst);
+        List<PageId> pids = new ArrayList<>(entries.size());
+        for (E e : entries) {
+            pids.add(e.page.getId());
+        }
+        return pids;
+    }
+
+    @Override
+    public Iterator<Page> iterator() {
+        Iterator<E> entries = map.values().iterator();
+        return new Iterator<Page>() {
+            @Override
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+
+            @Override
+            public Page next() {
+                return entries.next().page;
+            }
+        };
+    }
+}
@@ -0,0 +1,67 @@
+package simpledb.storage.cache;
+
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * The page replacement policies a BufferPool can be configured with.  Each
+ * creates a PageCache holding pages up to a total weight of capacity, where
+ * sizer gives the weight of a page, that passes every page leaving the cache
+ * to onRemove.
+ */
+public enum CachePolicy {
+    /** exact LRU under one lock, see {@link LRUBasedCache} */
+    LRU {
+        @Override
+        public PageCache create(long capacity, ToIntFunction<PageId> sizer, Consumer<Page> onRemove) {
+            return new LRUBasedCache(capacity, sizer, onRemove);
+        }
+    },
+    /** approximate LRU in lock stripes, see {@link StripedPageCache} */
+    STRIPED {
+        @Override
+        public PageCache create(long capacity, ToIntFunction<PageId> sizer, Consumer<Page> onRemove) {
+            return new StripedPageCache(capacity, sizer, onRemove);
+        }
+    },
+    /** CLOCK sweep over reference bits, see {@link ClockCache} */
+    CLOCK {
+        @Override
+        public PageCache create(long capacity, ToIntFunction<PageId> sizer, Consumer<Page> onRemove) {
+            return new ClockCache(capacity, sizer, onRemove);
+        }
+    },
+    /** 2Q, scan resistant, see {@link TwoQueueCache} */
+    TWO_Q {
+        @Override
+        public PageCache create(long capacity, ToIntFunction<PageId> sizer, Consumer<Page> onRemove) {
+            return new TwoQueueCache(capacity, sizer, onRemove);
+        }
+    },
+    /** LRU-2, scan resistant, see {@link LRUKCache} */
+    LRU_K {
+        @Override
+        public PageCache create(long capacity, ToIntFunction<PageId> sizer, Consumer<Page> onRemove) {
+            return new LRUKCache(capacity, sizer, onRemove);
+        }
+    };
+
+    public abstract PageCache create(long capacity, ToIntFunction<PageId> sizer, Consumer<Page> onRemove);
+
+    /**
+     * Looks a policy up by name, ignoring case and accepting '-' for '_'
+     * and "2q" for TWO_Q, e.g. "clock", "2q" or "lru-k".
+     *
+     * @throws IllegalArgumentException if there is no such policy
+     */
+    public static CachePolicy forName(String name) {
+        String n = name.trim().toUpperCase().replace('-', '_');
+        if (n.equals("2Q")) {
+            return TWO_Q;
+        }
+        return valueOf(n);
+    }
+}
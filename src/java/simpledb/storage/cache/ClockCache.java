@@ -0,0 +1,245 @@
+package simpledb.storage.cache;
+
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * A PageCache using CLOCK-sweep replacement, as in PostgreSQL: the pages
+ * sit on a ring swept by a clock hand, and each page has a usage count that
+ * a hit raises (up to {@link #MAX_USAGE}) and the passing hand lowers.  The
+ * hand evicts the first clean page whose count is zero.
+ * <p>
+ * A hit only bumps the count, without taking a lock.  A page read once by a
+ * scan enters with a count of zero and is the first to go once the hand
+ * reaches it, while a page hit a few times survives that many sweeps, which
+ * makes CLOCK-sweep somewhat resistant to scans.
+ * <p>
+ * Only clean pages are on the ring, so the hand never has to pass dirty
+ * pages and the sweep takes the same time whatever the number of them.
+ * Pinned pages are taken off the ring too until their last pin is released.
+ */
+public class ClockCache extends AbstractPageCache<ClockCache.Entry> {
+
+    /** Highest usage count, i.e. the number of sweeps a hot page survives unused */
+    public static final int MAX_USAGE = 5;
+
+    static class Entry extends AbstractPageCache.Entry {
+        volatile int usage; // 命中时增加，不加锁，偶尔丢失一次增加无妨
+        Entry pre; // 受ClockCache的锁保护，脏页和被固定的页面不在环上，为null
+        Entry next;
+
+        Entry(Page page, int weight) {
+            super(page, weight);
+        }
+    }
+
+    private volatile long used; // 缓存中所有页面的总权重
+    private Entry hand; // 时钟指针，缓存为空时为null
+
+    /**
+     * Creates a cache holding up to capacity pages.
+     */
+    public ClockCache(int capacity) {
+        this(capacity, pid -> 1, page -> {});
+    }
+
+    /**
+     * Creates a cache holding pages up to a total weight of capacity, where
+     * sizer gives the weight of a page, that passes every page leaving the
+     * cache to onRemove.
+     */
+    public ClockCache(long capacity, ToIntFunction<PageId> sizer, Consumer<Page> onRemove) {
+        super(capacity, sizer, onRemove);
+    }
+
+    private void insert(Page page) {
+        Entry e = new Entry(page, sizer.applyAsInt(page.getId()));
+        map.put(page.getId(), e);
+        used += e.weight;
+        refile(e);
+    }
+
+    // 干净页插在指针之后的最远处，即指针前面，一圈之后才会被检查
+    private void link(Entry e) {
+        if (hand == null) {
+            e.pre = e.next = e;
+            hand = e;
+        } else {
+            e.next = hand;
+            e.pre = hand.pre;
+            hand.pre.next = e;
+            hand.pre = e;
+        }
+    }
+
+    private void unlink(Entry e) {
+        if (e.next == e) {
+            hand = null;
+        } else {
+            e.pre.next = e.next;
+            e.next.pre = e.pre;
+            if (hand == e) {
+                hand = e.next;
+            }
+        }
+        e.pre = e.next = null;
+        e.dirty = true;
+    }
+
+    // 按页面当前的状态放上或取下时钟环
+    @Override
+    void refile(Entry e) {
+        boolean onRing = e.next != null;
+        boolean clean = !held(e);
+        if (clean && !onRing) {
+            link(e);
+        } else if (!clean && onRing) {
+            unlink(e);
+        }
+        e.dirty = !clean;
+    }
+
+    // 最后一次固定释放后放回环上，计数加一：它刚被使用过
+    @Override
+    void unpinned(Entry e) {
+        touch(e);
+        refile(e);
+    }
+
+    private static void touch(Entry e) {
+        int usage = e.usage;
+        if (usage < MAX_USAGE) {
+            e.usage = usage + 1;
+        }
+    }
+
+    @Override
+    public synchronized void putPage(Page page) {
+        Entry e = map.get(page.getId());
+        if (e == null) {
+            insert(page);
+            return;
+        }
+        Page old = e.page;
+        e.page = page;
+        touch(e);
+        refile(e);
+        if (old != page) {
+            onRemove.accept(old);
+        }
+    }
+
+    // 若页面已在缓存中则返回缓存中的页面，否则放入并返回null
+    @Override
+    public synchronized Page putPageIfAbsent(Page page) {
+        Entry e = map.get(page.getId());
+        if (e != null) {
+            touch(e);
+            refile(e);
+            return e.page;
+        }
+        insert(page);
+        return null;
+    }
+
+    // BufferPool外部访问Page，不加锁
+    @Override
+    public Page accessPage(PageId pid) {
+        Entry e = map.get(pid);
+        if (e == null) {
+            return null;
+        }
+        touch(e);
+        return e.page;
+    }
+
+    @Override
+    public synchronized void removePage(PageId pid) {
+        if (pid == null) {
+            return;
+        }
+        Entry e = map.remove(pid);
+        if (e == null) {
+            return;
+        }
+        if (e.next != null) {
+            unlink(e);
+        }
+        used -= e.weight;
+        onRemove.accept(e.page);
+    }
+
+    @Override
+    public long getUsed() {
+        return used;
+    }
+
+    /**
+     * Sweeps the hand to the next victim, lowering the usage counts on the
+     * way, and leaves it pointing at the victim.
+     */
+    @Override
+    public synchronized PageId pidToBeEvicted() {
+        // 每圈把环上所有页面的计数减一，最多MAX_USAGE+1圈后必然找到
+        while (true) {
+            if (hand == null) {
+                return null; // 返回null代表全都是脏页或被固定
+            }
+            if (hand.page.isDirty() != null) {
+                unlink(hand); // 未经dirtyChanged变脏的页面取下时钟环，每次变脏最多一次
+                continue;
+            }
+            if (hand.usage == 0) {
+                return hand.page.getId();
+            }
+            hand.usage--;
+            hand = hand.next;
+        }
+    }
+
+    @Override
+    public synchronized void dirtyChanged(PageId pid) {
+        refileIfChanged(map.get(pid));
+    }
+
+    @Override
+    public synchronized Page pin(PageId pid) {
+        return pinEntry(map.get(pid));
+    }
+
+    @Override
+    public synchronized void unpin(PageId pid) {
+        unpinEntry(map.get(pid));
+    }
+
+    @Override
+    public synchronized boolean isPinned(PageId pid) {
+        return pinned(map.get(pid));
+    }
+
+    @Override
+    public synchronized void evictPage() {
+        removePage(pidToBeEvicted());
+    }
+
+    @Override
+    public synchronized boolean evictPage(PageId pid) {
+        Entry e = map.get(pid);
+        if (e == null || held(e)) {
+            return false;
+        }
+        removePage(pid);
+        return true;
+    }
+
+    // 按使用计数排序；计数相同的页面先后不分
+    @Override
+    public List<PageId> hottestFirst() {
+        return hottestFirst(Comparator.comparingInt((Entry e) -> e.usage).reversed());
+    }
+}
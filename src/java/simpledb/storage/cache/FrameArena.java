@@ -0,0 +1,108 @@
+package simpledb.storage.cache;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * A preallocated off-heap arena of fixed size page frames, made of direct
+ * ByteBuffers, from which the BufferPool reads pages when it runs off-heap.
+ * The arena is allocated once and its memory is never seen by the garbage
+ * collector, so the size of the buffer pool no longer shows up in GC pauses.
+ * <p>
+ * Frames are handed out with {@link #allocate()} and returned with
+ * {@link #free(ByteBuffer)}.  Freed frames are reused in FIFO order, so a
+ * frame is reused as late as possible.
+ * <p>
+ * The arena can be grown and shrunk with {@link #setNumFrames(int)}.  Growing
+ * allocates new chunks; shrinking drops free frames, and frames in use as
+ * they are freed, until the arena is down to the new size.  The memory of a
+ * chunk is released by the garbage collector once none of its frames is
+ * referenced any more.
+ */
+public class FrameArena {
+
+    /** Largest direct buffer allocated at once */
+    private static final int MAX_CHUNK_BYTES = 1 << 30;
+
+    private final int frameSize;
+    private int numFrames; // protected by this
+    private int excess; // 缩小后还需要丢弃的帧数, protected by this
+    private final ArrayDeque<ByteBuffer> free; // protected by this
+
+    /**
+     * Allocates an arena of numFrames frames of frameSize bytes each.
+     */
+    public FrameArena(int frameSize, int numFrames) {
+        this.frameSize = frameSize;
+        this.free = new ArrayDeque<>(numFrames);
+        addFrames(numFrames);
+        this.numFrames = numFrames;
+    }
+
+    private void addFrames(int numFrames) {
+        int framesPerChunk = Math.max(1, MAX_CHUNK_BYTES / frameSize);
+        for (int i = 0; i < numFrames; i += framesPerChunk) {
+            int n = Math.min(framesPerChunk, numFrames - i);
+            ByteBuffer chunk = ByteBuffer.allocateDirect(n * frameSize);
+            for (int j = 0; j < n; j++) {
+                chunk.clear();
+                chunk.position(j * frameSize);
+                chunk.limit((j + 1) * frameSize);
+                free.add(chunk.slice());
+            }
+        }
+    }
+
+    /** @return the size of a frame, in bytes */
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    /** @return the number of frames in the arena, once a shrink has completed */
+    public synchronized int getNumFrames() {
+        return numFrames;
+    }
+
+    /**
+     * Grow or shrink the arena to numFrames frames.  Frames in use when the
+     * arena shrinks are dropped as they are freed.
+     */
+    public synchronized void setNumFrames(int numFrames) {
+        int delta = numFrames - this.numFrames;
+        this.numFrames = numFrames;
+        if (delta < 0) {
+            excess -= delta;
+        } else {
+            int reclaimed = Math.min(delta, excess); // 还没丢弃的帧直接留用
+            excess -= reclaimed;
+            addFrames(delta - reclaimed);
+        }
+        while (excess > 0 && !free.isEmpty()) {
+            free.poll();
+            excess--;
+        }
+    }
+
+    /** @return the number of frames that are not in use */
+    public synchronized int getNumFree() {
+        return free.size();
+    }
+
+    /**
+     * @return an unused frame, or null if all frames are in use
+     */
+    public synchronized ByteBuffer allocate() {
+        return free.poll();
+    }
+
+    /**
+     * Return a frame obtained from {@link #allocate()} to the arena.
+     */
+    public synchronized void free(ByteBuffer frame) {
+        if (excess > 0) {
+            excess--; // 丢弃，不再复用
+            return;
+        }
+        free.add(frame);
+    }
+}
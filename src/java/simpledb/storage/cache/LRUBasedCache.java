@@ -3,79 +3,100 @@ package simpledb.storage.cache;
 import simpledb.storage.Page;
 import simpledb.storage.PageId;
 
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
 
 /**
  * 自定义的PageCache结构
  * 实现LRU置换算法
  * GET/PUT操作时间复杂度O(1)
+ * <p>
+ * The capacity is a total weight rather than a number of pages: each page
+ * weighs what the sizer given to the constructor says (its size in bytes
+ * for the BufferPool), so tables with larger pages take up more of the
+ * cache.  An optional listener is told about every page that leaves the
+ * cache, whether it is evicted, removed or replaced by another page object.
+ * <p>
+ * Clean and dirty pages are kept in two LRU lists, so that the victim, the
+ * tail of the clean list, is found in constant time however many pages are
+ * dirty.  Pinned pages are kept with the dirty ones until their last pin
+ * is released.
  */
-public class LRUBasedCache implements PageCache{
+public class LRUBasedCache extends AbstractPageCache<AbstractPageCache.Node>{
+
+    private volatile long used; // 缓存中所有页面的总权重
+    private long clock; // 逻辑时钟，每次放到链表头部加一
+    private final LruLists<Node> lists = new LruLists<Node>(){
+        @Override
+        void addToHead(Node node){
+            node.stamp = ++clock;
+            super.addToHead(node);
+        }
+    };
+
     /**
-     * 双向链表结点
+     * Creates a cache holding up to capacity pages.
      */
-    private static class Node{
-        Page page;
-        Node pre;
-        Node next;
-        public Node(Page page){
-            this.page = page;
-        }
+    public LRUBasedCache(int capacity){
+        this(capacity, pid -> 1);
     }
 
-
-    private final int capacity;
-    private Map<PageId, Node> map;
-    private Node head;
-    private Node tail;
-
-    public LRUBasedCache(int capacity){
-        this.capacity = capacity;
-        map = new ConcurrentHashMap<>(capacity);
-        // 创建两个哨兵节点
-        this.head = new Node(null);
-        this.tail = new Node(null);
-        head.next = tail;
-        tail.pre = head;
+    /**
+     * Creates a cache holding pages up to a total weight of capacity, where
+     * sizer gives the weight of a page.
+     */
+    public LRUBasedCache(long capacity, ToIntFunction<PageId> sizer){
+        this(capacity, sizer, page -> {});
     }
 
-    private void addToHead(Node node){
-        node.next = head.next;
-        node.pre = head;
-        head.next.pre = node;
-        head.next = node;
+    /**
+     * Creates a cache holding pages up to a total weight of capacity, where
+     * sizer gives the weight of a page, that passes every page leaving the
+     * cache to onRemove.
+     */
+    public LRUBasedCache(long capacity, ToIntFunction<PageId> sizer, Consumer<Page> onRemove){
+        super(capacity, sizer, onRemove);
     }
 
-    private void moveToHead(Node node){
-        node.pre.next = node.next;
-        node.next.pre = node.pre;
-        addToHead(node);
+    @Override
+    void refile(Node node){
+        lists.moveToHead(node);
     }
 
     @Override
     public synchronized void putPage(Page page) {
         Node node = map.get(page.getId());
         if(node == null){
-            node = new Node(page);
-            map.put(page.getId(), node);
-            addToHead(node);
+            insert(page);
         }else {
+            Page old = node.page;
             node.page = page;
-            moveToHead(node);
+            lists.moveToHead(node);
+            if(old != page){
+                onRemove.accept(old);
+            }
         }
     }
 
-    // BufferPool内部访问Page
+    // 若页面已在缓存中则返回缓存中的页面，否则放入并返回null
     @Override
-    public Page getPage(PageId pid) {
-        Node node = map.get(pid);
-        if(node == null){
-            return null;
+    public synchronized Page putPageIfAbsent(Page page) {
+        Node node = map.get(page.getId());
+        if(node != null){
+            lists.moveToHead(node);
+            return node.page;
         }
-        return node.page;
+        insert(page);
+        return null;
+    }
+
+    private void insert(Page page){
+        Node node = new Node(page, sizer.applyAsInt(page.getId()));
+        used += node.weight;
+        map.put(page.getId(), node);
+        lists.addToHead(node);
     }
 
     // BufferPool外部访问Page
@@ -85,58 +106,75 @@ public class LRUBasedCache implements PageCache{
         if(node == null){
             return null;
         }
-        moveToHead(node); // LRU算法 - 向链表头部移动
+        lists.moveToHead(node); // LRU算法 - 向链表头部移动
         return node.page;
     }
 
     @Override
     public synchronized void removePage(PageId pid) {
+        if(pid == null){
+            return;
+        }
         Node node = map.get(pid);
         if(node == null){
             return;
         }
-        node.pre.next = node.next;
-        node.next.pre = node.pre;
+        lists.unlink(node);
         map.remove(pid);
+        used -= node.weight;
+        onRemove.accept(node.page);
+    }
+
+    @Override
+    public long getUsed() {
+        return used;
     }
 
     @Override
-    public boolean isFull() {
-        return map.size() >= capacity;
+    public synchronized void dirtyChanged(PageId pid) {
+        refileIfChanged(map.get(pid));
+    }
+
+    @Override
+    public synchronized Page pin(PageId pid) {
+        return pinEntry(map.get(pid));
+    }
+
+    // 最后一次固定释放后按脏页状态放回，放在链表头部：它刚被使用过
+    @Override
+    public synchronized void unpin(PageId pid) {
+        unpinEntry(map.get(pid));
+    }
+
+    @Override
+    public synchronized boolean isPinned(PageId pid) {
+        return pinned(map.get(pid));
     }
 
     @Override
     public synchronized PageId pidToBeEvicted() {
-        Node n = tail.pre;
-        while(n != head){
-            if(n.page.isDirty() != null){ // 确保不是脏页
-                n = n.pre;
-                continue;
-            }
-            break;
-        }
-        return n==head?null:n.page.getId(); // 返回null代表全都是脏页
+        Node node = lists.oldestClean();
+        return node == null ? null : node.page.getId(); // 返回null代表全都是脏页或被固定
     }
 
     @Override
     public synchronized void evictPage() {
-        removePage(pidToBeEvicted()); // 移除掉链表尾部结点
+        removePage(pidToBeEvicted()); // 移除掉干净链表尾部结点
     }
 
     @Override
-    public Iterator<Page> iterator() {
-        return new Iterator<Page>() {
-            Node curr = head;
-            @Override
-            public boolean hasNext() {
-                return curr.next != tail;
-            }
+    public synchronized boolean evictPage(PageId pid) {
+        Node node = map.get(pid);
+        if(node == null || held(node)){
+            return false;
+        }
+        removePage(pid);
+        return true;
+    }
 
-            @Override
-            public Page next() {
-                curr = curr.next;
-                return curr.page;
-            }
-        };
+    // 按最近放到链表头部的先后排序，两个链表合并考虑
+    @Override
+    public synchronized List<PageId> hottestFirst() {
+        return hottestFirst(Comparator.comparingLong((Node n) -> n.stamp).reversed());
     }
 }
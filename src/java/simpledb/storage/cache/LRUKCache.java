@@ -0,0 +1,283 @@
+package simpledb.storage.cache;
+
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * A PageCache using LRU-K replacement (O'Neil, O'Neil and Weikum), with K=2
+ * by default.
+ * <p>
+ * Each page keeps the times of its last K accesses on a logical clock, and
+ * the victim is the page whose K-th most recent access is the oldest.  A
+ * page accessed fewer than K times counts as infinitely old, so the pages
+ * of a scan, read once, go before any page used twice, and among them the
+ * least recently used goes first.  The histories of evicted pages are
+ * retained for a while, up to the capacity of the cache in weight, so that
+ * a page coming back soon is not treated as new.
+ * <p>
+ * Only clean pages are kept ordered, so the victim is the first of them,
+ * found in logarithmic time whatever the number of dirty pages.  Pinned
+ * pages are left out of the order too until their last pin is released.
+ */
+public class LRUKCache extends AbstractPageCache<LRUKCache.Entry> {
+
+    public static final int DEFAULT_K = 2;
+
+    static class Entry extends AbstractPageCache.Entry {
+        final long[] history; // history[0]是最近一次访问的时间，0表示没有访问
+
+        Entry(Page page, int weight, long[] history) {
+            super(page, weight);
+            this.history = history;
+        }
+    }
+
+    private static class Retained {
+        final int weight;
+        final long[] history;
+
+        Retained(int weight, long[] history) {
+            this.weight = weight;
+            this.history = history;
+        }
+    }
+
+    private final int k;
+    private volatile long used; // 缓存中所有页面的总权重
+    private long clock; // 逻辑时钟，每次访问加一
+    // 干净页按第K次最近访问时间排序，相同时（都不足K次）按最近一次访问排序；最近一次访问的时间各不相同
+    private final TreeSet<Entry> order;
+    private final LinkedHashMap<PageId, Retained> retained = new LinkedHashMap<>(); // 已换出页面的访问历史
+    private long retainedUsed;
+
+    /**
+     * Creates a cache holding up to capacity pages.
+     */
+    public LRUKCache(int capacity) {
+        this(capacity, pid -> 1, page -> {});
+    }
+
+    /**
+     * Creates an LRU-2 cache holding pages up to a total weight of
+     * capacity, where sizer gives the weight of a page, that passes every
+     * page leaving the cache to onRemove.
+     */
+    public LRUKCache(long capacity, ToIntFunction<PageId> sizer, Consumer<Page> onRemove) {
+        this(capacity, sizer, onRemove, DEFAULT_K);
+    }
+
+    /**
+     * Creates a cache as above that evicts by the k-th most recent access.
+     */
+    public LRUKCache(long capacity, ToIntFunction<PageId> sizer, Consumer<Page> onRemove, int k) {
+        super(capacity, sizer, onRemove);
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be at least 1: " + k);
+        }
+        this.k = k;
+        this.order = new TreeSet<>(Comparator.<Entry>comparingLong(e -> e.history[k - 1])
+                .thenComparingLong(e -> e.history[0]));
+    }
+
+    private void record(long[] history) {
+        System.arraycopy(history, 0, history, 1, k - 1);
+        history[0] = ++clock;
+    }
+
+    private void insert(Page page) {
+        Retained r = retained.remove(page.getId());
+        long[] history;
+        if (r != null) {
+            retainedUsed -= r.weight;
+            history = r.history;
+        } else {
+            history = new long[k];
+        }
+        record(history);
+        Entry e = new Entry(page, sizer.applyAsInt(page.getId()), history);
+        map.put(page.getId(), e);
+        file(e);
+        used += e.weight;
+    }
+
+    // 按页面当前的状态决定是否放入order
+    private void file(Entry e) {
+        e.dirty = held(e);
+        if (!e.dirty) {
+            order.add(e);
+        }
+    }
+
+    // 脏页和被固定的页面不在order中
+    @Override
+    void refile(Entry e) {
+        if (!e.dirty) {
+            order.remove(e);
+        }
+        file(e);
+    }
+
+    // 固定期间的访问已记入历史，释放时不再记一次
+    @Override
+    void unpinned(Entry e) {
+        file(e);
+    }
+
+    private void touch(Entry e) {
+        if (!e.dirty) {
+            order.remove(e);
+        }
+        record(e.history);
+        file(e);
+    }
+
+    @Override
+    public synchronized void putPage(Page page) {
+        Entry e = map.get(page.getId());
+        if (e == null) {
+            insert(page);
+            return;
+        }
+        Page old = e.page;
+        e.page = page;
+        touch(e);
+        if (old != page) {
+            onRemove.accept(old);
+        }
+    }
+
+    // 若页面已在缓存中则返回缓存中的页面，否则放入并返回null
+    @Override
+    public synchronized Page putPageIfAbsent(Page page) {
+        Entry e = map.get(page.getId());
+        if (e != null) {
+            touch(e);
+            return e.page;
+        }
+        insert(page);
+        return null;
+    }
+
+    // BufferPool外部访问Page
+    @Override
+    public synchronized Page accessPage(PageId pid) {
+        Entry e = map.get(pid);
+        if (e == null) {
+            return null;
+        }
+        touch(e);
+        return e.page;
+    }
+
+    private Entry unlink(PageId pid) {
+        Entry e = map.remove(pid);
+        if (e != null) {
+            if (!e.dirty) {
+                order.remove(e);
+            }
+            used -= e.weight;
+        }
+        return e;
+    }
+
+    @Override
+    public synchronized void removePage(PageId pid) {
+        if (pid == null) {
+            return;
+        }
+        Entry e = unlink(pid);
+        if (e != null) {
+            onRemove.accept(e.page);
+        }
+    }
+
+    // 保留的访问历史在下一次换出时按新的容量截断
+    @Override
+    public void setCapacity(long capacity) {
+        this.capacity = capacity;
+    }
+
+    @Override
+    public long getUsed() {
+        return used;
+    }
+
+    @Override
+    public synchronized void dirtyChanged(PageId pid) {
+        refileIfChanged(map.get(pid));
+    }
+
+    @Override
+    public synchronized Page pin(PageId pid) {
+        return pinEntry(map.get(pid));
+    }
+
+    @Override
+    public synchronized void unpin(PageId pid) {
+        unpinEntry(map.get(pid));
+    }
+
+    @Override
+    public synchronized boolean isPinned(PageId pid) {
+        return pinned(map.get(pid));
+    }
+
+    private Entry victim() {
+        // 未经dirtyChanged变脏的页面移出order，每次变脏最多移出一次
+        while (!order.isEmpty() && held(order.first())) {
+            order.pollFirst().dirty = true;
+        }
+        return order.isEmpty() ? null : order.first();
+    }
+
+    @Override
+    public synchronized PageId pidToBeEvicted() {
+        Entry e = victim();
+        return e == null ? null : e.page.getId(); // 返回null代表全都是脏页或被固定
+    }
+
+    @Override
+    public synchronized void evictPage() {
+        Entry e = victim();
+        if (e != null) {
+            evict(e);
+        }
+    }
+
+    @Override
+    public synchronized boolean evictPage(PageId pid) {
+        Entry e = map.get(pid);
+        if (e == null || held(e)) {
+            return false;
+        }
+        evict(e);
+        return true;
+    }
+
+    private void evict(Entry e) {
+        PageId pid = e.page.getId();
+        unlink(pid);
+        retained.put(pid, new Retained(e.weight, e.history));
+        retainedUsed += e.weight;
+        Iterator<Retained> it = retained.values().iterator();
+        while (retainedUsed > capacity && it.hasNext()) {
+            retainedUsed -= it.next().weight;
+            it.remove();
+        }
+        onRemove.accept(e.page);
+    }
+
+    // 与order相反的顺序：第K次最近访问越晚越热，包括脏页和被固定的页面
+    @Override
+    public synchronized List<PageId> hottestFirst() {
+        return hottestFirst(order.comparator().reversed());
+    }
+}
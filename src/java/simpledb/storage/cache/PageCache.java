@@ -4,14 +4,33 @@ import simpledb.storage.Page;
 import simpledb.storage.PageId;
 
 import java.util.Iterator;
+import java.util.List;
 
 public interface PageCache {
     void putPage(Page page);
+    Page putPageIfAbsent(Page page);
     Page getPage(PageId pid);
     Page accessPage(PageId pid);
     void removePage(PageId pid);
     boolean isFull();
+    long getCapacity();
+    // 运行中调整容量；缩小时不换出页面，由调用者逐个evictPage直到getUsed()不超过容量
+    void setCapacity(long capacity);
+    long getUsed();
+    boolean hasRoomFor(PageId pid);
     PageId pidToBeEvicted();
     void evictPage();
+    // 换出指定的页面，即此前pidToBeEvicted选出的牺牲页；若它已不在缓存中，或此后被固定或变脏，则不换出并返回false
+    boolean evictPage(PageId pid);
+    // 页面被标记为脏页或干净页后调用，使置换算法选择牺牲页时不必逐个跳过脏页；
+    // 变干净的页面只有经此调用（或unpin）才会重新成为牺牲页的候选；未经此调用变脏的页面在选择牺牲页时才被移出候选，每次变脏最多移动一次
+    void dirtyChanged(PageId pid);
+    // 固定页面，引用计数加一，并返回被固定的页面；被固定的页面和脏页一样不会被选为牺牲页。页面不在缓存中时返回null
+    Page pin(PageId pid);
+    // 引用计数减一，减到零后页面重新可以被置换
+    void unpin(PageId pid);
+    boolean isPinned(PageId pid);
+    // 缓存中的页面按置换算法眼中的热度排序，最热的在前，用于保存预热快照
+    List<PageId> hottestFirst();
     Iterator<Page> iterator();
 }
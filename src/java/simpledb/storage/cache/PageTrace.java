@@ -0,0 +1,94 @@
+package simpledb.storage.cache;
+
+import simpledb.storage.PageId;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A recording of the pages requested from a BufferPool, for replaying
+ * against the cache policies offline.  The trace is a text file with one
+ * "tableId pageNo" line per request, appended to if it already exists.
+ */
+public class PageTrace implements Closeable {
+
+    private BufferedWriter out; // 写入失败后为null，不再记录
+
+    /**
+     * Opens a trace, appending to the file if it exists.
+     */
+    public PageTrace(File file) throws IOException {
+        this.out = new BufferedWriter(new FileWriter(file, true));
+    }
+
+    /** Records a request for a page */
+    public synchronized void record(PageId pid) {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.write(pid.getTableId() + " " + pid.getPageNumber());
+            out.newLine();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /** Writes the buffered requests to the file */
+    public synchronized void flush() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.flush();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    // 记录只是辅助手段，失败时不影响BufferPool本身
+    private void fail(IOException e) {
+        e.printStackTrace();
+        try {
+            out.close();
+        } catch (IOException ignored) {
+        }
+        out = null;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    /**
+     * Reads a trace.
+     *
+     * @return the requests, each as {tableId, pageNo}
+     */
+    public static List<int[]> read(File file) throws IOException {
+        List<int[]> requests = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] parts = line.split("\\s+");
+                requests.add(new int[] {Integer.parseInt(parts[0]), Integer.parseInt(parts[1])});
+            }
+        }
+        return requests;
+    }
+}
@@ -0,0 +1,301 @@
+package simpledb.storage.cache;
+
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * A PageCache split into lock stripes, so that hits from different threads
+ * do not serialize on one monitor the way they do in {@link LRUBasedCache}.
+ * <p>
+ * Pages are found through one ConcurrentHashMap, without locking.  Each page
+ * belongs to a stripe, chosen by the hash of its id, that keeps its pages in
+ * its own LRU list under its own lock; every insertion, removal and
+ * reordering of a page happens under the lock of its stripe.  A hit
+ * stamps the page with a logical clock, which only advances when a page is
+ * put into the cache so that hits never write to shared state, and moves
+ * it to the head of its list if the stripe lock is free, skipping the move
+ * rather than waiting for it otherwise.  A page hit again before the next
+ * insertion is not moved at all.
+ * <p>
+ * Each stripe keeps its clean and its dirty pages in separate lists, as
+ * LRUBasedCache does, and the victim is the least recently stamped among
+ * the tails of the clean lists, found in time proportional to the number
+ * of stripes whatever the number of dirty pages; pinned pages are kept
+ * with the dirty ones until their last pin is released.  This is the clean
+ * LRU page up to the order of hits between two insertions, which does not
+ * matter to eviction, and up to skipped moves under contention.  Capacity
+ * is a total weight, as in LRUBasedCache.
+ */
+public class StripedPageCache extends AbstractPageCache<AbstractPageCache.Node> {
+
+    /** 一个锁分段：独立的干净页和脏页LRU链表，结点的固定计数和所在链表受lock保护 */
+    private static class Segment extends LruLists<Node> {
+        final ReentrantLock lock = new ReentrantLock();
+    }
+
+    private final AtomicLong used = new AtomicLong(); // 缓存中所有页面的总权重
+    private final AtomicLong clock = new AtomicLong(); // 逻辑时钟，每放入一个页面加一
+    private final Segment[] segments;
+
+    /**
+     * Creates a cache holding up to capacity pages, with a number of
+     * stripes suited to the number of processors.
+     */
+    public StripedPageCache(int capacity) {
+        this(capacity, pid -> 1, page -> {});
+    }
+
+    /**
+     * Creates a cache holding pages up to a total weight of capacity, where
+     * sizer gives the weight of a page, that passes every page leaving the
+     * cache to onRemove, with a number of stripes suited to the number of
+     * processors.
+     */
+    public StripedPageCache(long capacity, ToIntFunction<PageId> sizer, Consumer<Page> onRemove) {
+        this(capacity, sizer, onRemove, defaultStripes());
+    }
+
+    /**
+     * Creates a cache as above with the given number of stripes, rounded up
+     * to a power of two.
+     */
+    public StripedPageCache(long capacity, ToIntFunction<PageId> sizer, Consumer<Page> onRemove, int stripes) {
+        super(capacity, sizer, onRemove);
+        this.segments = new Segment[stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    // 分段数取处理器数的4倍，减少哈希冲突导致的争用
+    private static int defaultStripes() {
+        return 4 * Runtime.getRuntime().availableProcessors();
+    }
+
+    /** @return the number of lock stripes */
+    public int getNumStripes() {
+        return segments.length;
+    }
+
+    private Segment segmentFor(PageId pid) {
+        int h = pid.hashCode();
+        h ^= h >>> 16;
+        return segments[h & (segments.length - 1)];
+    }
+
+    private Node newNode(Segment segment, Page page) {
+        Node node = new Node(page, sizer.applyAsInt(page.getId()));
+        node.stamp = clock.incrementAndGet();
+        used.addAndGet(node.weight);
+        map.put(page.getId(), node);
+        segment.addToHead(node);
+        return node;
+    }
+
+    @Override
+    public void putPage(Page page) {
+        Segment segment = segmentFor(page.getId());
+        Page old = null;
+        segment.lock.lock();
+        try {
+            Node node = map.get(page.getId());
+            if (node == null) {
+                newNode(segment, page);
+            } else {
+                old = node.page;
+                node.page = page;
+                node.stamp = clock.get();
+                segment.moveToHead(node);
+            }
+        } finally {
+            segment.lock.unlock();
+        }
+        if (old != null && old != page) {
+            onRemove.accept(old);
+        }
+    }
+
+    // 若页面已在缓存中则返回缓存中的页面，否则放入并返回null
+    @Override
+    public Page putPageIfAbsent(Page page) {
+        Segment segment = segmentFor(page.getId());
+        segment.lock.lock();
+        try {
+            Node node = map.get(page.getId());
+            if (node != null) {
+                node.stamp = clock.get();
+                segment.moveToHead(node);
+                return node.page;
+            }
+            newNode(segment, page);
+            return null;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    // BufferPool外部访问Page
+    @Override
+    public Page accessPage(PageId pid) {
+        Node node = map.get(pid);
+        if (node == null) {
+            return null;
+        }
+        long now = clock.get();
+        if (node.stamp == now) {
+            return node.page; // 上次放入页面后已访问过：链表中排在它前面的页面时间戳都与它相同，无需移动
+        }
+        node.stamp = now;
+        Segment segment = segmentFor(pid);
+        if (segment.lock.tryLock()) { // 分段锁被占用时不等待，只更新时间戳
+            try {
+                if (node.next != null) { // 可能已被并发移除
+                    segment.moveToHead(node);
+                }
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return node.page;
+    }
+
+    @Override
+    public void removePage(PageId pid) {
+        if (pid == null) {
+            return;
+        }
+        Segment segment = segmentFor(pid);
+        Node node;
+        segment.lock.lock();
+        try {
+            node = map.remove(pid);
+            if (node == null) {
+                return;
+            }
+            segment.unlink(node);
+            node.pre = node.next = null;
+            used.addAndGet(-node.weight);
+        } finally {
+            segment.lock.unlock();
+        }
+        onRemove.accept(node.page);
+    }
+
+    @Override
+    public long getUsed() {
+        return used.get();
+    }
+
+    // 以下几个方法须持有结点所在分段的锁
+    @Override
+    void refile(Node node) {
+        segmentFor(node.page.getId()).moveToHead(node);
+    }
+
+    // 最后一次固定释放后按脏页状态放回，放在链表头部：它刚被使用过
+    @Override
+    void unpinned(Node node) {
+        node.stamp = clock.get();
+        refile(node);
+    }
+
+    @Override
+    public void dirtyChanged(PageId pid) {
+        Segment segment = segmentFor(pid);
+        segment.lock.lock();
+        try {
+            refileIfChanged(map.get(pid));
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    @Override
+    public Page pin(PageId pid) {
+        Segment segment = segmentFor(pid);
+        segment.lock.lock();
+        try {
+            return pinEntry(map.get(pid));
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    @Override
+    public void unpin(PageId pid) {
+        Segment segment = segmentFor(pid);
+        segment.lock.lock();
+        try {
+            unpinEntry(map.get(pid));
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isPinned(PageId pid) {
+        Segment segment = segmentFor(pid);
+        segment.lock.lock();
+        try {
+            return pinned(map.get(pid));
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    @Override
+    public PageId pidToBeEvicted() {
+        Node victim = null;
+        for (Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                Node n = segment.oldestClean();
+                if (n != null && (victim == null || n.stamp < victim.stamp)) {
+                    victim = n;
+                }
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return victim == null ? null : victim.page.getId(); // 返回null代表全都是脏页或被固定
+    }
+
+    @Override
+    public void evictPage() {
+        removePage(pidToBeEvicted());
+    }
+
+    @Override
+    public boolean evictPage(PageId pid) {
+        Segment segment = segmentFor(pid);
+        Node node;
+        segment.lock.lock();
+        try {
+            node = map.get(pid);
+            if (node == null || held(node)) {
+                return false;
+            }
+            map.remove(pid);
+            segment.unlink(node);
+            node.pre = node.next = null;
+            used.addAndGet(-node.weight);
+        } finally {
+            segment.lock.unlock();
+        }
+        onRemove.accept(node.page);
+        return true;
+    }
+
+    // 按时间戳排序；两次放入之间命中的页面时间戳相同，先后不分
+    @Override
+    public List<PageId> hottestFirst() {
+        return hottestFirst(Comparator.comparingLong((Node n) -> n.stamp).reversed());
+    }
+}
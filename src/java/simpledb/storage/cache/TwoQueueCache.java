@@ -0,0 +1,258 @@
+package simpledb.storage.cache;
+
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * A PageCache using the full 2Q replacement policy (Johnson and Shasha).
+ * <p>
+ * A page seen for the first time enters A1in, a FIFO queue taking about a
+ * quarter of the capacity, and hits there do not promote it.  When a page
+ * leaves A1in its id is remembered in A1out, a queue of ids only, and a
+ * page read again while its id is in A1out is taken to be hot and enters
+ * Am, the LRU queue holding the rest of the cache.  A scan therefore only
+ * cycles through A1in and cannot flush the working set held in Am.
+ * <p>
+ * Each queue keeps its clean and its dirty pages in separate lists, as
+ * LRUBasedCache does, so the victim is found in constant time.  Pinned
+ * pages are kept with the dirty ones until their last pin is released.
+ */
+public class TwoQueueCache extends AbstractPageCache<TwoQueueCache.Node> {
+
+    /** Share of the capacity for A1in */
+    private static final double IN_SHARE = 0.25;
+    /** Weight of the pages remembered in A1out, as a share of the capacity */
+    private static final double OUT_SHARE = 0.5;
+
+    static class Node extends AbstractPageCache.Node {
+        boolean hot; // 在Am中为true，在A1in中为false
+
+        Node(Page page, int weight) {
+            super(page, weight);
+        }
+    }
+
+    /** 一个队列（A1in或Am），干净页和脏页分别在两个链表中 */
+    private static class Queue extends LruLists<Node> {
+        long used; // 队列中页面的总权重
+        long clock; // 逻辑时钟，每次放到队列头部加一
+
+        @Override
+        void addToHead(Node node) {
+            node.stamp = ++clock;
+            super.addToHead(node);
+            used += node.weight;
+        }
+
+        @Override
+        void unlink(Node node) {
+            super.unlink(node);
+            used -= node.weight;
+        }
+    }
+
+    private long inCapacity; // 以下两个字段受this保护
+    private long outCapacity;
+    private final Queue in = new Queue();
+    private final Queue main = new Queue();
+    private final LinkedHashMap<PageId, Integer> out = new LinkedHashMap<>(); // A1out: 页面ID -> 权重，按插入顺序
+    private long outUsed;
+
+    /**
+     * Creates a cache holding up to capacity pages.
+     */
+    public TwoQueueCache(int capacity) {
+        this(capacity, pid -> 1, page -> {});
+    }
+
+    /**
+     * Creates a cache holding pages up to a total weight of capacity, where
+     * sizer gives the weight of a page, that passes every page leaving the
+     * cache to onRemove.
+     */
+    public TwoQueueCache(long capacity, ToIntFunction<PageId> sizer, Consumer<Page> onRemove) {
+        super(capacity, sizer, onRemove);
+        setCapacity(capacity);
+    }
+
+    private void insert(Page page) {
+        Node node = new Node(page, sizer.applyAsInt(page.getId()));
+        Integer ghost = out.remove(page.getId());
+        if (ghost != null) { // 不久前刚离开A1in，是热页面
+            outUsed -= ghost;
+            node.hot = true;
+            main.addToHead(node);
+        } else {
+            in.addToHead(node);
+        }
+        map.put(page.getId(), node);
+    }
+
+    private Queue queueOf(Node node) {
+        return node.hot ? main : in;
+    }
+
+    // 页面换到另一个链表的头部
+    @Override
+    void refile(Node node) {
+        queueOf(node).moveToHead(node);
+    }
+
+    private void touch(Node node) {
+        if (node.hot) {
+            main.moveToHead(node);
+        } else if (node.dirty != held(node)) { // A1in中的命中只在状态改变时换链表
+            in.moveToHead(node);
+        }
+    }
+
+    @Override
+    public synchronized void putPage(Page page) {
+        Node node = map.get(page.getId());
+        if (node == null) {
+            insert(page);
+            return;
+        }
+        Page old = node.page;
+        node.page = page;
+        touch(node);
+        if (old != page) {
+            onRemove.accept(old);
+        }
+    }
+
+    // 若页面已在缓存中则返回缓存中的页面，否则放入并返回null
+    @Override
+    public synchronized Page putPageIfAbsent(Page page) {
+        Node node = map.get(page.getId());
+        if (node != null) {
+            touch(node);
+            return node.page;
+        }
+        insert(page);
+        return null;
+    }
+
+    // BufferPool外部访问Page
+    @Override
+    public synchronized Page accessPage(PageId pid) {
+        Node node = map.get(pid);
+        if (node == null) {
+            return null;
+        }
+        touch(node);
+        return node.page;
+    }
+
+    private Node unlink(PageId pid) {
+        Node node = map.remove(pid);
+        if (node != null) {
+            queueOf(node).unlink(node);
+        }
+        return node;
+    }
+
+    @Override
+    public synchronized void removePage(PageId pid) {
+        if (pid == null) {
+            return;
+        }
+        Node node = unlink(pid);
+        if (node != null) {
+            onRemove.accept(node.page);
+        }
+    }
+
+    // 各队列的份额随容量调整，A1out超出的部分在下一次换出时截断
+    @Override
+    public synchronized void setCapacity(long capacity) {
+        this.capacity = capacity;
+        this.inCapacity = Math.max(1, (long) (capacity * IN_SHARE));
+        this.outCapacity = Math.max(1, (long) (capacity * OUT_SHARE));
+    }
+
+    @Override
+    public synchronized long getUsed() {
+        return in.used + main.used;
+    }
+
+    @Override
+    public synchronized void dirtyChanged(PageId pid) {
+        refileIfChanged(map.get(pid));
+    }
+
+    @Override
+    public synchronized Page pin(PageId pid) {
+        return pinEntry(map.get(pid));
+    }
+
+    // 最后一次固定释放后按脏页状态放回：Am中放在头部，A1in中同touch一样只换链表
+    @Override
+    public synchronized void unpin(PageId pid) {
+        unpinEntry(map.get(pid));
+    }
+
+    @Override
+    public synchronized boolean isPinned(PageId pid) {
+        return pinned(map.get(pid));
+    }
+
+    // A1in超出份额时从A1in淘汰，否则从Am淘汰；首选队列全是脏页或被固定时退而求其次
+    private Node victim() {
+        boolean fromIn = in.used > inCapacity || main.used == 0;
+        Node n = (fromIn ? in : main).oldestClean();
+        return n != null ? n : (fromIn ? main : in).oldestClean();
+    }
+
+    @Override
+    public synchronized PageId pidToBeEvicted() {
+        Node n = victim();
+        return n == null ? null : n.page.getId(); // 返回null代表全都是脏页或被固定
+    }
+
+    @Override
+    public synchronized void evictPage() {
+        Node n = victim();
+        if (n != null) {
+            evict(n);
+        }
+    }
+
+    @Override
+    public synchronized boolean evictPage(PageId pid) {
+        Node n = map.get(pid);
+        if (n == null || held(n)) {
+            return false;
+        }
+        evict(n);
+        return true;
+    }
+
+    private void evict(Node n) {
+        unlink(n.page.getId());
+        if (!n.hot) { // 记住离开A1in的页面
+            out.put(n.page.getId(), n.weight);
+            outUsed += n.weight;
+            Iterator<Map.Entry<PageId, Integer>> it = out.entrySet().iterator();
+            while (outUsed > outCapacity && it.hasNext()) {
+                outUsed -= it.next().getValue();
+                it.remove();
+            }
+        }
+        onRemove.accept(n.page);
+    }
+
+    // Am中的页面在前，A1in中的在后，各自按最近放到队列头部的先后排序
+    @Override
+    public synchronized List<PageId> hottestFirst() {
+        return hottestFirst(Comparator.comparing((Node n) -> !n.hot).thenComparingLong(n -> -n.stamp));
+    }
+}
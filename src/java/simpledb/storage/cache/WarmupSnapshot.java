@@ -0,0 +1,102 @@
+package simpledb.storage.cache;
+
+import simpledb.storage.PageId;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The pages resident in a BufferPool, saved so that a restarted pool can
+ * read them back before it is asked for them.  The snapshot is a text file
+ * with one line per page, hottest first as ranked by the cache policy, made
+ * of the class name of the page id followed by the ints of
+ * {@link PageId#serialize()}, from which the id is rebuilt the way
+ * LogFile rebuilds the ids of logged pages.
+ */
+public class WarmupSnapshot {
+
+    private WarmupSnapshot() {
+    }
+
+    /**
+     * Writes a snapshot, replacing the file only once it is complete so
+     * that a crash while writing leaves the previous snapshot in place.
+     *
+     * @param pids the resident pages, hottest first
+     */
+    public static void write(File file, List<PageId> pids) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(tmp))) {
+            for (PageId pid : pids) {
+                StringBuilder line = new StringBuilder(pid.getClass().getName());
+                for (int i : pid.serialize()) {
+                    line.append(' ').append(i);
+                }
+                out.write(line.toString());
+                out.newLine();
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a snapshot.  Lines that do not make a page id, e.g. of a class
+     * that no longer exists, are skipped.
+     *
+     * @return the pages, hottest first
+     */
+    public static List<PageId> read(File file) throws IOException {
+        List<PageId> pids = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                PageId pid = parse(line.split("\\s+"));
+                if (pid != null) {
+                    pids.add(pid);
+                }
+            }
+        }
+        return pids;
+    }
+
+    // 通过参数个数与serialize()相同、参数都是int的构造函数重建页面id
+    private static PageId parse(String[] parts) {
+        try {
+            Class<?> idClass = Class.forName(parts[0]);
+            Object[] args = new Object[parts.length - 1];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = Integer.parseInt(parts[i + 1]);
+            }
+            for (Constructor<?> c : idClass.getDeclaredConstructors()) {
+                if (c.getParameterCount() == args.length && allInts(c.getParameterTypes())) {
+                    return (PageId) c.newInstance(args);
+                }
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // 快照只是提示，坏的一行跳过
+        }
+        return null;
+    }
+
+    private static boolean allInts(Class<?>[] types) {
+        for (Class<?> t : types) {
+            if (t != int.class) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,29 @@
+package simpledb.storage.stats;
+
+import java.util.List;
+
+/**
+ * The statistics of the database's BufferPool, registered with the
+ * platform MBean server as {@link BufferPoolMonitor#OBJECT_NAME} by
+ * Database.startMonitoring.  Times are in microseconds.
+ */
+public interface BufferPoolMXBean {
+    long getHits();
+    long getMisses();
+    double getHitRatio();
+    double getMeanHitMicros();
+    double getMeanMissMicros();
+    long getEvictions();
+    long getPageReads();
+    double getMeanReadMicros();
+    double getP99ReadMicros();
+    long getPageWrites();
+    double getMeanWriteMicros();
+    long getFlushes();
+    double getMeanFlushMicros();
+    int getResidentPages();
+    double getDirtyPageRatio();
+    // 按表和页面类别分开的统计
+    List<CategoryStats> getBreakdown();
+    void resetStats();
+}
@@ -0,0 +1,142 @@
+package simpledb.storage.stats;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.function.Supplier;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The MBean of the database's BufferPool.  It reads the statistics of
+ * whichever pool the supplier returns when it is asked, so that it goes on
+ * describing the database's pool after that pool is replaced.
+ */
+public class BufferPoolMonitor implements BufferPoolMXBean {
+
+    public static final String OBJECT_NAME = "simpledb:type=BufferPool";
+
+    private final Supplier<BufferPoolStats> stats;
+
+    public BufferPoolMonitor(Supplier<BufferPoolStats> stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Registers a monitor of the supplied statistics with the platform MBean
+     * server, unless one is registered already.
+     */
+    public static void register(Supplier<BufferPoolStats> stats) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.registerMBean(new BufferPoolMonitor(stats), new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException e) {
+            // 同一个JVM中已经注册过
+        } catch (JMException e) {
+            e.printStackTrace(); // 监控只是辅助手段，注册失败时照常运行
+        }
+    }
+
+    /**
+     * Unregisters the monitor from the platform MBean server, if one is
+     * registered.
+     */
+    public static void unregister() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(new ObjectName(OBJECT_NAME));
+        } catch (InstanceNotFoundException e) {
+            // 没有注册过
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public long getHits() {
+        return stats.get().total().getHits();
+    }
+
+    @Override
+    public long getMisses() {
+        return stats.get().total().getMisses();
+    }
+
+    @Override
+    public double getHitRatio() {
+        return stats.get().total().getHitRatio();
+    }
+
+    @Override
+    public double getMeanHitMicros() {
+        return stats.get().total().getHitTime().getMeanMicros();
+    }
+
+    @Override
+    public double getMeanMissMicros() {
+        return stats.get().total().getMissTime().getMeanMicros();
+    }
+
+    @Override
+    public long getEvictions() {
+        return stats.get().total().getEvictions();
+    }
+
+    @Override
+    public long getPageReads() {
+        return stats.get().total().getReads();
+    }
+
+    @Override
+    public double getMeanReadMicros() {
+        return stats.get().total().getReadTime().getMeanMicros();
+    }
+
+    @Override
+    public double getP99ReadMicros() {
+        return stats.get().total().getReadTime().getPercentileMicros(0.99);
+    }
+
+    @Override
+    public long getPageWrites() {
+        return stats.get().total().getWrites();
+    }
+
+    @Override
+    public double getMeanWriteMicros() {
+        return stats.get().total().getWriteTime().getMeanMicros();
+    }
+
+    @Override
+    public long getFlushes() {
+        return stats.get().getFlushTime().getCount();
+    }
+
+    @Override
+    public double getMeanFlushMicros() {
+        return stats.get().getFlushTime().getMeanMicros();
+    }
+
+    @Override
+    public int getResidentPages() {
+        return stats.get().getResidentPages();
+    }
+
+    @Override
+    public double getDirtyPageRatio() {
+        return stats.get().getDirtyPageRatio();
+    }
+
+    @Override
+    public List<CategoryStats> getBreakdown() {
+        return stats.get().getBreakdown();
+    }
+
+    @Override
+    public void resetStats() {
+        stats.get().reset();
+    }
+}
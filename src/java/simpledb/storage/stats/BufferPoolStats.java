@@ -0,0 +1,195 @@
+package simpledb.storage.stats;
+
+import simpledb.common.Database;
+import simpledb.storage.Page;
+import simpledb.storage.PageCategory;
+import simpledb.storage.PageId;
+import simpledb.storage.cache.PageCache;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The statistics of one BufferPool, kept per table and per page category
+ * (see {@link PageId#getCategory()}).  Recording a page request costs a
+ * lookup in a ConcurrentHashMap, which does not lock, and an increment of
+ * a few LongAdders, which spread concurrent increments over separate
+ * cells; nothing on the path of a hit synchronizes.  The totals are summed
+ * when they are read.  Only one hit in {@link #HIT_SAMPLE} is timed, since
+ * reading the clock twice costs about as much as the rest of a hit; every
+ * hit is counted.
+ */
+public class BufferPoolStats {
+
+    /** One hit in this many is timed */
+    public static final int HIT_SAMPLE = 16;
+
+    private static final PageCategory[] CATEGORIES = PageCategory.values();
+
+    private final PageCache cache;
+    private final Map<Integer, PageStats[]> tables = new ConcurrentHashMap<>(); // 表id -> 按类别序号排列的统计
+    private final LatencyHistogram flushTime = new LatencyHistogram();
+
+    /**
+     * @param cache the page cache of the pool, looked at for the dirty-page
+     *              ratio when it is read
+     */
+    public BufferPoolStats(PageCache cache) {
+        this.cache = cache;
+    }
+
+    /** @return the statistics of the table and category of the page */
+    public PageStats of(PageId pid) {
+        PageStats[] byCategory = tables.get(pid.getTableId());
+        if (byCategory == null) {
+            byCategory = tables.computeIfAbsent(pid.getTableId(), id -> newStats());
+        }
+        return byCategory[pid.getCategory().ordinal()];
+    }
+
+    private static PageStats[] newStats() {
+        PageStats[] byCategory = new PageStats[CATEGORIES.length];
+        for (int i = 0; i < byCategory.length; i++) {
+            byCategory[i] = new PageStats();
+        }
+        return byCategory;
+    }
+
+    /** @return whether to time the next hit of the calling thread */
+    public boolean sampleHit() {
+        return ThreadLocalRandom.current().nextInt(HIT_SAMPLE) == 0;
+    }
+
+    /**
+     * Records a page request served from the cache, that took nanos, or
+     * that was not timed if nanos is negative
+     */
+    public void hit(PageId pid, long nanos) {
+        of(pid).hit(nanos);
+    }
+
+    /** Records a page request served from disk */
+    public void miss(PageId pid, long nanos) {
+        of(pid).miss(nanos);
+    }
+
+    /** Records a page read from its file */
+    public void read(PageId pid, long nanos) {
+        of(pid).read(nanos);
+    }
+
+    /** Records a page written to its file */
+    public void write(PageId pid, long nanos) {
+        of(pid).write(nanos);
+    }
+
+    /** Records a page evicted to make room for another */
+    public void evicted(PageId pid) {
+        of(pid).evicted();
+    }
+
+    /** Records a flush of dirty pages, e.g. of a committing transaction */
+    public void flushed(long nanos) {
+        flushTime.record(nanos);
+    }
+
+    /** @return the statistics of all tables and categories together */
+    public PageStats total() {
+        PageStats total = new PageStats();
+        for (PageStats[] byCategory : tables.values()) {
+            for (PageStats s : byCategory) {
+                total.add(s);
+            }
+        }
+        return total;
+    }
+
+    /** @return the time flushes of dirty pages took */
+    public LatencyHistogram getFlushTime() {
+        return flushTime;
+    }
+
+    /** @return the number of pages in the pool */
+    public int getResidentPages() {
+        int n = 0;
+        for (Iterator<Page> it = cache.iterator(); it.hasNext(); it.next()) {
+            n++;
+        }
+        return n;
+    }
+
+    /** @return the share of the pages in the pool that are dirty, 0 if it is empty */
+    public double getDirtyPageRatio() {
+        int n = 0;
+        int dirty = 0;
+        for (Iterator<Page> it = cache.iterator(); it.hasNext(); ) {
+            n++;
+            if (it.next().isDirty() != null) {
+                dirty++;
+            }
+        }
+        return n == 0 ? 0 : (double) dirty / n;
+    }
+
+    /** @return a snapshot of every table and category the pool has seen a page of */
+    public List<CategoryStats> getBreakdown() {
+        List<CategoryStats> rows = new ArrayList<>();
+        for (Map.Entry<Integer, PageStats[]> e : tables.entrySet()) {
+            String table = tableName(e.getKey());
+            for (PageCategory c : CATEGORIES) {
+                PageStats s = e.getValue()[c.ordinal()];
+                if (s.getHits() + s.getMisses() + s.getReads() + s.getWrites() > 0) {
+                    rows.add(new CategoryStats(table, c.toString(), s));
+                }
+            }
+        }
+        rows.sort((a, b) -> a.getTable().equals(b.getTable())
+                ? a.getCategory().compareTo(b.getCategory()) : a.getTable().compareTo(b.getTable()));
+        return rows;
+    }
+
+    private static String tableName(int tableId) {
+        try {
+            return Database.getCatalog().getTableName(tableId);
+        } catch (RuntimeException e) {
+            return String.valueOf(tableId); // 已不在目录中的表
+        }
+    }
+
+    /** Forgets everything recorded so far */
+    public void reset() {
+        for (PageStats[] byCategory : tables.values()) {
+            for (PageStats s : byCategory) {
+                s.reset();
+            }
+        }
+        flushTime.reset();
+    }
+
+    private static final String ROW = "%-20s %-15s %10d %10d %6.1f %9d %9d %9.1f %9.1f %9d %9.1f%n";
+
+    /** @return the statistics as a table, one row per table and category and one for the totals */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-20s %-15s %10s %10s %6s %9s %9s %9s %9s %9s %9s%n",
+                "table", "category", "hits", "misses", "hit%", "evictions",
+                "reads", "read us", "p99 us", "writes", "write us"));
+        for (CategoryStats r : getBreakdown()) {
+            sb.append(String.format(ROW, r.getTable(), r.getCategory(), r.getHits(), r.getMisses(),
+                    100 * r.getHitRatio(), r.getEvictions(), r.getReads(), r.getMeanReadMicros(),
+                    r.getP99ReadMicros(), r.getWrites(), r.getMeanWriteMicros()));
+        }
+        CategoryStats t = new CategoryStats("total", "", total());
+        sb.append(String.format(ROW, t.getTable(), t.getCategory(), t.getHits(), t.getMisses(),
+                100 * t.getHitRatio(), t.getEvictions(), t.getReads(), t.getMeanReadMicros(),
+                t.getP99ReadMicros(), t.getWrites(), t.getMeanWriteMicros()));
+        sb.append(String.format("%d pages resident, %.1f%% dirty; %d flushes, %.1f us mean, %.1f us p99%n",
+                getResidentPages(), 100 * getDirtyPageRatio(), flushTime.getCount(),
+                flushTime.getMeanMicros(), flushTime.getPercentileMicros(0.99)));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,92 @@
+package simpledb.storage.stats;
+
+/**
+ * A snapshot of the {@link PageStats} of one category of one table, as
+ * shown in the breakdown of {@link BufferPoolMXBean} and by the console's
+ * stats command.
+ */
+public class CategoryStats {
+
+    private final String table;
+    private final String category;
+    private final long hits;
+    private final long misses;
+    private final double hitRatio;
+    private final double meanHitMicros;
+    private final double meanMissMicros;
+    private final long evictions;
+    private final long reads;
+    private final double meanReadMicros;
+    private final double p99ReadMicros;
+    private final long writes;
+    private final double meanWriteMicros;
+
+    CategoryStats(String table, String category, PageStats s) {
+        this.table = table;
+        this.category = category;
+        this.hits = s.getHits();
+        this.misses = s.getMisses();
+        this.hitRatio = s.getHitRatio();
+        this.meanHitMicros = s.getHitTime().getMeanMicros();
+        this.meanMissMicros = s.getMissTime().getMeanMicros();
+        this.evictions = s.getEvictions();
+        this.reads = s.getReads();
+        this.meanReadMicros = s.getReadTime().getMeanMicros();
+        this.p99ReadMicros = s.getReadTime().getPercentileMicros(0.99);
+        this.writes = s.getWrites();
+        this.meanWriteMicros = s.getWriteTime().getMeanMicros();
+    }
+
+    /** @return the name of the table, or its id if it is not in the catalog */
+    public String getTable() {
+        return table;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public double getHitRatio() {
+        return hitRatio;
+    }
+
+    public double getMeanHitMicros() {
+        return meanHitMicros;
+    }
+
+    public double getMeanMissMicros() {
+        return meanMissMicros;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public long getReads() {
+        return reads;
+    }
+
+    public double getMeanReadMicros() {
+        return meanReadMicros;
+    }
+
+    public double getP99ReadMicros() {
+        return p99ReadMicros;
+    }
+
+    public long getWrites() {
+        return writes;
+    }
+
+    public double getMeanWriteMicros() {
+        return meanWriteMicros;
+    }
+}
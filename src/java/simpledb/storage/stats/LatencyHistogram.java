@@ -0,0 +1,91 @@
+package simpledb.storage.stats;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations with one bucket per power of two of nanoseconds.
+ * Every bucket and the running total are LongAdders, so threads recording
+ * at the same time update different cells instead of contending for one
+ * counter; reading the histogram sums the cells.  Percentiles are given as
+ * the upper bound of the bucket they fall in, i.e. to within a factor of
+ * two.
+ */
+public class LatencyHistogram {
+
+    /** Bucket b counts durations in [2^(b-1), 2^b) nanoseconds, the last one everything longer */
+    private static final int BUCKETS = 40;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder totalNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /** Records one duration */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0; // nanoTime在个别平台上可能回退
+        }
+        buckets[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos))].increment();
+        totalNanos.add(nanos);
+    }
+
+    /** Adds the durations recorded in other to this histogram */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i].add(other.buckets[i].sum());
+        }
+        totalNanos.add(other.totalNanos.sum());
+    }
+
+    /** @return the number of durations recorded */
+    public long getCount() {
+        long n = 0;
+        for (LongAdder b : buckets) {
+            n += b.sum();
+        }
+        return n;
+    }
+
+    /** @return the mean duration in microseconds, 0 if there is none */
+    public double getMeanMicros() {
+        long n = getCount();
+        return n == 0 ? 0 : totalNanos.sum() / 1e3 / n;
+    }
+
+    /**
+     * @param p the fraction of durations, e.g. 0.99
+     * @return the duration in microseconds that fraction of the durations
+     *         does not exceed, rounded up to a power of two of nanoseconds;
+     *         0 if there is none
+     */
+    public double getPercentileMicros(double p) {
+        long[] counts = new long[BUCKETS];
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            n += counts[i];
+        }
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(p * n));
+        long seen = 0;
+        int b = 0;
+        while (b < BUCKETS - 1 && (seen += counts[b]) < rank) {
+            b++;
+        }
+        return (b == 0 ? 0 : 1L << b) / 1e3;
+    }
+
+    /** Forgets every duration recorded so far */
+    public void reset() {
+        for (LongAdder b : buckets) {
+            b.reset();
+        }
+        totalNanos.reset();
+    }
+}
@@ -0,0 +1,110 @@
+package simpledb.storage.stats;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What a BufferPool did with the pages of one category of one table: page
+ * requests served from the cache (hits) and from disk (misses), with the
+ * time each took apart from waiting for locks, pages read and written with
+ * the time each took, and pages evicted.  Only a sample of the hits is
+ * timed, see {@link BufferPoolStats#sampleHit()}.
+ */
+public class PageStats {
+
+    private final LongAdder hits = new LongAdder();
+    private final LatencyHistogram hitTime = new LatencyHistogram(); // 只记录抽样计时的命中
+    private final LatencyHistogram missTime = new LatencyHistogram();
+    private final LatencyHistogram readTime = new LatencyHistogram();
+    private final LatencyHistogram writeTime = new LatencyHistogram();
+    private final LongAdder evictions = new LongAdder();
+
+    // nanos小于0表示这次命中没有计时
+    void hit(long nanos) {
+        hits.increment();
+        if (nanos >= 0) {
+            hitTime.record(nanos);
+        }
+    }
+
+    void miss(long nanos) {
+        missTime.record(nanos);
+    }
+
+    void read(long nanos) {
+        readTime.record(nanos);
+    }
+
+    void write(long nanos) {
+        writeTime.record(nanos);
+    }
+
+    void evicted() {
+        evictions.increment();
+    }
+
+    /** Adds what other counted to these statistics */
+    void add(PageStats other) {
+        hits.add(other.hits.sum());
+        hitTime.add(other.hitTime);
+        missTime.add(other.missTime);
+        readTime.add(other.readTime);
+        writeTime.add(other.writeTime);
+        evictions.add(other.evictions.sum());
+    }
+
+    void reset() {
+        hits.reset();
+        hitTime.reset();
+        missTime.reset();
+        readTime.reset();
+        writeTime.reset();
+        evictions.reset();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return missTime.getCount();
+    }
+
+    /** @return the share of page requests that were hits, 0 if there was none */
+    public double getHitRatio() {
+        long hits = getHits();
+        long total = hits + getMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getReads() {
+        return readTime.getCount();
+    }
+
+    public long getWrites() {
+        return writeTime.getCount();
+    }
+
+    /** @return the time page requests served from the cache took, for the sample of them that was timed */
+    public LatencyHistogram getHitTime() {
+        return hitTime;
+    }
+
+    /** @return the time page requests served from disk took */
+    public LatencyHistogram getMissTime() {
+        return missTime;
+    }
+
+    /** @return the time reading a page from its file took, for requests and prefetches alike */
+    public LatencyHistogram getReadTime() {
+        return readTime;
+    }
+
+    /** @return the time writing a page to its file took, a share of the batch for batched writes */
+    public LatencyHistogram getWriteTime() {
+        return writeTime;
+    }
+}
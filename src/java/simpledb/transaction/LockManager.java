@@ -27,12 +27,8 @@ public class LockManager {
     }
 
     private PageLock getPageLock(PageId pid){
-        PageLock pageLock = pageLocks.get(pid);
-        if(pageLock == null){
-            pageLock = new PageLock(pid);
-            pageLocks.put(pid, pageLock);
-        }
-        return pageLock;
+        // 原子地创建，否则同时首次访问同一页面的事务会各自拿到一把锁
+        return pageLocks.computeIfAbsent(pid, PageLock::new);
     }
 
     private void addToLookups(TransactionId tid, PageId pid){
@@ -115,12 +111,65 @@ public class LockManager {
         }
     }
 
+    /**
+     * 不阻塞地尝试获取共享锁
+     * @return true if the lock was granted (or tid already holds a lock on pid)
+     */
+    public boolean tryAcquireSharedLock(TransactionId tid, PageId pid){
+        PageLock pageLock = getPageLock(pid);
+        synchronized (pageLock){
+            if(pageLock.holds.contains(tid)){
+                return true; // 已持有共享锁或排他锁
+            }
+            if(pageLock.getLockState() == -1){
+                return false;
+            }
+            pageLock.stateIncrement(1);
+            pageLock.holds.add(tid);
+            addToLookups(tid, pid);
+            return true;
+        }
+    }
+
+    /**
+     * 不阻塞地尝试获取排他锁（包括锁升级）
+     * @return true if the lock was granted (or tid already holds it)
+     */
+    public boolean tryAcquireExclusiveLock(TransactionId tid, PageId pid){
+        PageLock pageLock = getPageLock(pid);
+        synchronized (pageLock){
+            int state = pageLock.getLockState();
+            if(state == -1 && pageLock.holds.get(0).equals(tid)){
+                return true;
+            }
+            if(state == 1 && pageLock.holds.get(0).equals(tid)){
+                pageLock.stateIncrement(-2);
+                return true;
+            }
+            if(state != 0){
+                return false;
+            }
+            pageLock.stateIncrement(-1);
+            pageLock.holds.add(tid);
+            addToLookups(tid, pid);
+            return true;
+        }
+    }
+
     // 事务是否对某一页面持有锁
     public boolean holdsLock(TransactionId tid, PageId pid){
         PageLock pageLock = getPageLock(pid);
         return pageLock.holds.contains(tid);
     }
 
+    // 事务是否对某一页面持有排他锁
+    public boolean holdsExclusiveLock(TransactionId tid, PageId pid){
+        PageLock pageLock = getPageLock(pid);
+        synchronized (pageLock){
+            return pageLock.getLockState() == -1 && pageLock.holds.contains(tid);
+        }
+    }
+
     // 释放锁
     public void releaseLock(TransactionId tid, PageId pid){
         PageLock pageLock = getPageLock(pid);
@@ -50,13 +50,9 @@ public class Transaction {
                 Database.getLogFile().logAbort(tid); //does rollback too
             } 
 
-            // Release locks and flush pages if needed
-            Database.getBufferPool().transactionComplete(tid, !abort); // release locks
-
-            // write commit log record
-            if (!abort) {
-            	Database.getLogFile().logCommit(tid);
-            }
+            // Release locks and flush pages if needed; a commit writes the
+            // commit log record before the locks are released
+            Database.getBufferPool().transactionComplete(tid, !abort, true);
 
             //setting this here means we could possibly write multiple abort records -- OK?
             started = false;
@@ -0,0 +1,94 @@
+package simpledb;
+
+import java.io.File;
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class BeforeImageTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+    private HeapPageId pid;
+
+    @Before public void createFile() throws Exception {
+        hf = SystemTestUtil.createRandomHeapFile(2, 100, null, null);
+        pid = new HeapPageId(hf.getId(), 0);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /**
+     * A page that is only read keeps the bytes read from disk as its before
+     * image, also after the reading transaction commits
+     */
+    @Test public void readOnlyPage() throws Exception {
+        byte[] onDisk = hf.readPage(pid).getPageData();
+        TransactionId tid = new TransactionId();
+        Page page = Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+        Page before = page.getBeforeImage();
+        assertArrayEquals(onDisk, before.getPageData());
+        Database.getBufferPool().transactionComplete(tid);
+        assertArrayEquals(onDisk, page.getBeforeImage().getPageData());
+    }
+
+    /**
+     * The before image of a dirtied page is the committed state until the
+     * transaction that dirtied it commits
+     */
+    @Test public void dirtiedPage() throws Exception {
+        byte[] onDisk = hf.readPage(pid).getPageData();
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] {1, 2}));
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+        assertNotNull(page.isDirty());
+        assertArrayEquals(onDisk, page.getBeforeImage().getPageData());
+        assertFalse(Arrays.equals(onDisk, page.getPageData()));
+
+        Database.getBufferPool().transactionComplete(tid);
+        assertArrayEquals(page.getPageData(), page.getBeforeImage().getPageData());
+    }
+
+    /**
+     * A ColumnPage, which is modified in place, copies its before image on
+     * the first modification
+     */
+    @Test public void columnPageCopyOnWrite() throws Exception {
+        TupleDesc td = Utility.getTupleDesc(1);
+        File f = File.createTempFile("beforeimage", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        ColumnFile cf = new ColumnFile(f, td);
+        cf.getColumnFile(0).deleteOnExit();
+        Database.getCatalog().addTable(cf, SystemTestUtil.getUUID());
+
+        ColumnPage page = new ColumnPage(new ColumnPageId(cf.getId(), 0, 0), ColumnPage.createEmptyPageData());
+        page.setField(0, new IntField(7));
+        page.markDirty(true, new TransactionId());
+        assertFalse(page.getBeforeImage().isSlotUsed(0));
+
+        page.setBeforeImage();
+        assertTrue(page.getBeforeImage().isSlotUsed(0));
+        page.clearSlot(0);
+        assertTrue(page.getBeforeImage().isSlotUsed(0));
+        assertEquals(new IntField(7), page.getBeforeImage().getField(0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BeforeImageTest.class);
+    }
+}
@@ -0,0 +1,146 @@
+package simpledb;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.*;
+import simpledb.storage.stats.BufferPoolMonitor;
+import simpledb.storage.stats.BufferPoolStats;
+import simpledb.storage.stats.LatencyHistogram;
+import simpledb.storage.stats.PageStats;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolStatsTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+
+    @Before public void createFile() throws Exception {
+        // 2 int columns -> 504 tuples per page, 10 pages
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * 10, null, null);
+    }
+
+    private HeapPageId pid(int pgNo) {
+        return new HeapPageId(hf.getId(), pgNo);
+    }
+
+    private void read(BufferPool bp, TransactionId tid, int from, int to) throws Exception {
+        for (int i = from; i < to; i++)
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+    }
+
+    /**
+     * Hits, misses, reads and evictions are counted per table and category
+     */
+    @Test public void hitsAndMisses() throws Exception {
+        BufferPool bp = Database.resetBufferPool(5);
+        TransactionId tid = new TransactionId();
+        read(bp, tid, 0, 10);
+        read(bp, tid, 5, 10);
+        bp.transactionComplete(tid);
+        PageStats s = bp.getStats().of(pid(0));
+        assertEquals(5, s.getHits());
+        assertEquals(10, s.getMisses());
+        assertEquals(10, s.getReads());
+        assertEquals(5, s.getEvictions());
+        assertEquals(1.0 / 3, s.getHitRatio(), 1e-9);
+        assertEquals(s.getHits(), bp.getStats().total().getHits());
+
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 5000, null, null, 0);
+        bp = Database.getBufferPool(); // 创建B+树文件时换了新的BufferPool
+        DbFileIterator it = bf.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            it.next();
+        it.close();
+        BufferPoolStats stats = bp.getStats();
+        assertTrue(stats.of(new BTreePageId(bf.getId(), 0, BTreePageId.LEAF)).getMisses() > 1);
+        assertEquals(1, stats.of(new BTreePageId(bf.getId(), 0, BTreePageId.ROOT_PTR)).getMisses());
+        assertEquals(stats.total().getMisses(), stats.getBreakdown().stream().mapToLong(r -> r.getMisses()).sum());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Pages written back when a transaction commits are counted as writes
+     * and as one flush
+     */
+    @Test public void writesAndFlushes() throws Exception {
+        BufferPool bp = Database.resetBufferPool(10);
+        bp.setNoForce(false); // 提交时写回，与运行测试时选择的模式无关
+        TransactionId tid = new TransactionId();
+        read(bp, tid, 0, 4);
+        for (int i = 0; i < 2; i++)
+            bp.getPage(tid, pid(i), Permissions.READ_WRITE).markDirty(true, tid);
+        assertEquals(0.5, bp.getStats().getDirtyPageRatio(), 1e-9);
+        bp.transactionComplete(tid);
+        assertEquals(2, bp.getStats().of(pid(0)).getWrites());
+        assertEquals(1, bp.getStats().getFlushTime().getCount());
+        assertEquals(0, bp.getStats().getDirtyPageRatio(), 1e-9);
+        assertTrue(bp.getStats().report().contains("total"));
+    }
+
+    /**
+     * The MBean describes the pool the database currently uses
+     */
+    @Test public void mbean() throws Exception {
+        BufferPool bp = Database.resetBufferPool(5);
+        TransactionId tid = new TransactionId();
+        read(bp, tid, 0, 3);
+        read(bp, tid, 0, 3);
+        bp.transactionComplete(tid);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(BufferPoolMonitor.OBJECT_NAME);
+        assertFalse(server.isRegistered(name));
+        Database.startMonitoring();
+        try {
+            assertEquals(3L, server.getAttribute(name, "Hits"));
+            assertEquals(3L, server.getAttribute(name, "Misses"));
+            CompositeData[] rows = (CompositeData[]) server.getAttribute(name, "Breakdown");
+            assertEquals(1, rows.length);
+            assertEquals("heap", rows[0].get("category"));
+            server.invoke(name, "resetStats", null, null);
+            assertEquals(0L, server.getAttribute(name, "Hits"));
+        } finally {
+            Database.stopMonitoring();
+        }
+        assertFalse(server.isRegistered(name));
+    }
+
+    /**
+     * Percentiles are read to within a factor of two
+     */
+    @Test public void histogram() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 0; i < 99; i++)
+            h.record(1000);
+        h.record(1000000);
+        assertEquals(100, h.getCount());
+        assertEquals(10.99, h.getMeanMicros(), 1e-9);
+        assertEquals(1.024, h.getPercentileMicros(0.5), 1e-9);
+        assertEquals(1.024, h.getPercentileMicros(0.99), 1e-9);
+        assertEquals(1048.576, h.getPercentileMicros(1), 1e-9);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolStatsTest.class);
+    }
+}
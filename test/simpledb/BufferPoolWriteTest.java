@@ -5,6 +5,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import org.junit.After;
@@ -19,6 +20,7 @@ import simpledb.storage.*;
 import simpledb.systemtest.SystemTestUtil;
 import static org.junit.Assert.*;
 import junit.framework.JUnit4TestAdapter;
+import simpledb.transaction.Transaction;
 import simpledb.transaction.TransactionId;
 
 public class BufferPoolWriteTest extends TestUtil.CreateHeapFile {
@@ -140,6 +142,77 @@ public class BufferPoolWriteTest extends TestUtil.CreateHeapFile {
     	assertEquals(10, count);
     }
 
+    /**
+     * flushPages() writes runs of adjacent dirty pages with a single write
+     */
+    @Test public void flushPagesCoalescesWrites() throws Exception {
+    	HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504*10, null, null);
+    	DbFileIterator it = hf.iterator(tid);
+    	it.open();
+    	List<Tuple> tuples = new ArrayList<>();
+    	while(it.hasNext()) {
+    		tuples.add(it.next());
+    	}
+    	it.close();
+
+    	// dirty pages 0-3 and 6-9, leaving a gap at pages 4 and 5
+    	for (int pgNo = 9; pgNo >= 0; pgNo--) {
+    		if (pgNo == 4 || pgNo == 5)
+    			continue;
+    		Database.getBufferPool().deleteTuple(tid, tuples.get(pgNo * 504));
+    	}
+
+    	hf.getChannel().resetStats();
+    	Database.getBufferPool().flushPages(tid);
+    	assertEquals(2, hf.getChannel().getWriteCount());
+
+    	for (int pgNo = 0; pgNo < 10; pgNo++) {
+    		HeapPage p = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), pgNo));
+    		assertEquals(pgNo == 4 || pgNo == 5 ? 0 : 1, p.getNumEmptySlots());
+    	}
+    }
+
+    /**
+     * Transactions committing at once, each writing back a run of adjacent
+     * pages of the same file, lose none of their updates
+     */
+    @Test public void concurrentCommitsOfPageRuns() throws Exception {
+        final int threads = 4, run = 4, rounds = 10;
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * threads * run, null, null);
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> workers = new ArrayList<>();
+        for (int w = 0; w < threads; w++) {
+            final int first = w * run; // 每个线程修改自己的一段相邻页面
+            Thread worker = new Thread(() -> {
+                try {
+                    for (int r = 0; r < rounds; r++) {
+                        Transaction t = new Transaction();
+                        t.start();
+                        for (int pgNo = first; pgNo < first + run; pgNo++) {
+                            HeapPage p = (HeapPage) Database.getBufferPool().getPage(t.getId(),
+                                    new HeapPageId(hf.getId(), pgNo), Permissions.READ_WRITE);
+                            Database.getBufferPool().deleteTuple(t.getId(), p.iterator().next());
+                        }
+                        t.commit();
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers)
+            worker.join();
+        assertEquals(Collections.emptyList(), errors);
+
+        Database.getBufferPool().flushAllPages(); // NO-FORCE模式下提交只写日志
+        for (int pgNo = 0; pgNo < threads * run; pgNo++) {
+            HeapPage p = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), pgNo));
+            assertEquals(rounds, p.getNumEmptySlots());
+        }
+    }
+
     /**
      * JUnit suite target
      */
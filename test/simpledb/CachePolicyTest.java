@@ -0,0 +1,233 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.storage.cache.CachePolicy;
+import simpledb.storage.cache.PageCache;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class CachePolicyTest extends SimpleDbTestBase {
+
+    private int tableId;
+
+    @Before public void createTable() throws Exception {
+        tableId = SystemTestUtil.createRandomHeapFile(2, 0, null, null).getId();
+    }
+
+    private HeapPageId pid(int pgNo) {
+        return new HeapPageId(tableId, pgNo);
+    }
+
+    private void access(PageCache cache, int pgNo) throws Exception {
+        if (cache.accessPage(pid(pgNo)) != null)
+            return;
+        while (!cache.hasRoomFor(pid(pgNo)))
+            cache.evictPage();
+        cache.putPageIfAbsent(new HeapPage(pid(pgNo), HeapPage.createEmptyPageData()));
+    }
+
+    /**
+     * Every policy keeps to its capacity, never evicts a dirty page and
+     * reports the pages leaving it
+     */
+    @Test public void contract() throws Exception {
+        for (CachePolicy policy : CachePolicy.values()) {
+            List<Page> removed = new ArrayList<>();
+            PageCache cache = policy.create(4, pid -> 1, removed::add);
+            for (int i = 0; i < 4; i++)
+                access(cache, i);
+            assertTrue(policy.toString(), cache.isFull());
+            cache.getPage(pid(0)).markDirty(true, new TransactionId());
+            for (int i = 4; i < 20; i++) {
+                access(cache, i);
+                assertNotNull(policy.toString(), cache.getPage(pid(0)));
+            }
+            assertEquals(policy.toString(), 16, removed.size());
+
+            for (int i = 1; i < 20; i++)
+                cache.removePage(pid(i));
+            assertNull(policy.toString(), cache.pidToBeEvicted());
+            cache.removePage(pid(0));
+            assertFalse(policy.toString(), cache.iterator().hasNext());
+            assertEquals(policy.toString(), 20, removed.size());
+        }
+    }
+
+    /**
+     * Pages marked dirty are not evicted, whether or not the cache was told,
+     * and pages marked clean again are once the cache is told of the change
+     */
+    @Test public void dirtyTracking() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (CachePolicy policy : CachePolicy.values()) {
+            PageCache cache = policy.create(4, pid -> 1, page -> {});
+            for (int i = 0; i < 4; i++)
+                access(cache, i);
+            for (int i = 0; i < 4; i++) { // BufferPool.insertTuple的做法
+                Page page = cache.getPage(pid(i));
+                page.markDirty(true, tid);
+                cache.putPage(page);
+            }
+            assertNull(policy.toString(), cache.pidToBeEvicted());
+
+            cache.getPage(pid(2)).markDirty(false, null);
+            cache.dirtyChanged(pid(2));
+            assertEquals(policy.toString(), pid(2), cache.pidToBeEvicted());
+
+            cache.getPage(pid(2)).markDirty(true, tid); // 未通知缓存
+            cache.getPage(pid(3)).markDirty(false, null);
+            assertNull(policy.toString(), cache.pidToBeEvicted()); // 不扫描脏页找回未通知的干净页
+            cache.dirtyChanged(pid(3));
+            assertEquals(policy.toString(), pid(3), cache.pidToBeEvicted());
+            cache.evictPage();
+            assertNull(policy.toString(), cache.getPage(pid(3)));
+            assertNull(policy.toString(), cache.pidToBeEvicted());
+        }
+    }
+
+    /**
+     * Pinned pages are not evicted until their last pin is released
+     */
+    @Test public void pinning() throws Exception {
+        for (CachePolicy policy : CachePolicy.values()) {
+            PageCache cache = policy.create(4, pid -> 1, page -> {});
+            for (int i = 0; i < 4; i++)
+                access(cache, i);
+            assertNotNull(policy.toString(), cache.pin(pid(0)));
+            assertNotNull(policy.toString(), cache.pin(pid(0)));
+            assertNull(policy.toString(), cache.pin(pid(100)));
+            for (int i = 4; i < 20; i++) {
+                access(cache, i);
+                assertNotNull(policy.toString(), cache.getPage(pid(0)));
+            }
+            cache.unpin(pid(0));
+            assertTrue(policy.toString(), cache.isPinned(pid(0)));
+            access(cache, 20);
+            assertNotNull(policy.toString(), cache.getPage(pid(0)));
+
+            // 固定的页面变脏再变干净，释放固定后可被置换
+            cache.getPage(pid(0)).markDirty(true, new TransactionId());
+            cache.dirtyChanged(pid(0));
+            cache.getPage(pid(0)).markDirty(false, null);
+            cache.dirtyChanged(pid(0));
+            assertTrue(policy.toString(), cache.isPinned(pid(0)));
+            cache.unpin(pid(0));
+            assertFalse(policy.toString(), cache.isPinned(pid(0)));
+            for (int i = 21; i < 40; i++)
+                access(cache, i);
+            assertNull(policy.toString(), cache.getPage(pid(0)));
+
+            for (int i = 36; i < 40; i++)
+                cache.pin(pid(i));
+            assertNull(policy.toString(), cache.pidToBeEvicted());
+        }
+    }
+
+    /**
+     * Pages used repeatedly, among pages used once, survive a scan of twice
+     * the capacity under 2Q and LRU-K, but not under LRU or CLOCK
+     */
+    @Test public void scanResistance() throws Exception {
+        for (CachePolicy policy : CachePolicy.values()) {
+            PageCache cache = policy.create(10, pid -> 1, page -> {});
+            for (int round = 0; round < 6; round++) { // 热页面之间夹杂着只用一次的页面
+                for (int i = 0; i < 4; i++)
+                    access(cache, i);
+                for (int i = 0; i < 3; i++)
+                    access(cache, 1000 + round * 3 + i);
+            }
+            for (int i = 100; i < 120; i++)
+                access(cache, i);
+            boolean survived = true;
+            for (int i = 0; i < 4; i++)
+                survived &= cache.getPage(pid(i)) != null;
+            // CLOCK只能挡住比缓存短的扫描
+            if (policy == CachePolicy.TWO_Q || policy == CachePolicy.LRU_K)
+                assertTrue(policy.toString(), survived);
+            else
+                assertFalse(policy.toString(), survived);
+        }
+    }
+
+    /**
+     * Under CLOCK, pages used repeatedly survive a scan as long as the cache
+     * while under LRU they do not
+     */
+    @Test public void clockShortScan() throws Exception {
+        for (CachePolicy policy : new CachePolicy[] {CachePolicy.LRU, CachePolicy.CLOCK}) {
+            PageCache cache = policy.create(10, pid -> 1, page -> {});
+            for (int round = 0; round < 3; round++)
+                for (int i = 0; i < 4; i++)
+                    access(cache, i);
+            for (int i = 100; i < 110; i++)
+                access(cache, i);
+            boolean survived = true;
+            for (int i = 0; i < 4; i++)
+                survived &= cache.getPage(pid(i)) != null;
+            assertEquals(policy.toString(), policy == CachePolicy.CLOCK, survived);
+        }
+    }
+
+    /**
+     * Every policy ranks the pages used repeatedly and last above the pages
+     * used once before them, dirty pages included
+     */
+    @Test public void hottestFirst() throws Exception {
+        for (CachePolicy policy : CachePolicy.values()) {
+            PageCache cache = policy.create(10, pid -> 1, page -> {});
+            for (int i = 4; i < 8; i++)
+                access(cache, i);
+            cache.getPage(pid(4)).markDirty(true, new TransactionId());
+            for (int round = 0; round < 3; round++)
+                for (int i = 0; i < 4; i++)
+                    access(cache, i);
+            List<PageId> hottest = cache.hottestFirst();
+            assertEquals(policy.toString(), 8, hottest.size());
+            for (int i = 0; i < 4; i++)
+                assertTrue(policy.toString(), hottest.subList(0, 4).contains(pid(i)));
+            assertTrue(policy.toString(), hottest.contains(pid(4)));
+        }
+    }
+
+    /**
+     * The BufferPool uses the policy it is created with
+     */
+    @Test public void bufferPoolPolicy() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 6, null, null);
+        assertEquals(CachePolicy.TWO_Q, CachePolicy.forName("2q"));
+        assertEquals(CachePolicy.LRU_K, CachePolicy.forName("lru-k"));
+        for (CachePolicy policy : CachePolicy.values()) {
+            BufferPool bp = Database.resetBufferPool(3, policy);
+            assertEquals(policy, bp.getCachePolicy());
+            TransactionId tid = new TransactionId();
+            for (int i = 0; i < 6; i++)
+                bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+            int cached = 0;
+            for (int i = 0; i < 6; i++)
+                if (bp.isCached(new HeapPageId(hf.getId(), i)))
+                    cached++;
+            assertEquals(policy.toString(), 3, cached);
+            bp.transactionComplete(tid);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CachePolicyTest.class);
+    }
+}
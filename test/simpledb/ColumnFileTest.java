@@ -0,0 +1,179 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.Insert;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class ColumnFileTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] {Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE}, new String[] {"id", "name", "value"});
+
+    private ColumnFile file;
+    private TransactionId tid;
+
+    @Before public void createFile() throws Exception {
+        File f = File.createTempFile("columnar", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        file = new ColumnFile(f, TD);
+        for (int i = 0; i < TD.numFields(); i++)
+            file.getColumnFile(i).deleteOnExit();
+        Database.getCatalog().addTable(file, SystemTestUtil.getUUID());
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static Tuple tuple(int id) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField("name" + id, Type.STRING_LEN));
+        t.setField(2, new IntField(id * 10));
+        return t;
+    }
+
+    /**
+     * A page survives a round trip through getPageData
+     */
+    @Test public void pageRoundTrip() throws Exception {
+        ColumnPageId pid = new ColumnPageId(file.getId(), 1, 0);
+        ColumnPage page = new ColumnPage(pid, ColumnPage.createEmptyPageData());
+        int slots = page.getNumSlots();
+        assertEquals(BufferPool.getPageSize() * 8 / (Type.STRING_TYPE.getLen() * 8 + 1), slots);
+        page.setField(0, new StringField("a", Type.STRING_LEN));
+        page.setField(slots - 1, new StringField("z", Type.STRING_LEN));
+        page.setField(1, new StringField("b", Type.STRING_LEN));
+        page.clearSlot(1);
+
+        ColumnPage copy = new ColumnPage(pid, page.getPageData());
+        assertEquals(slots - 2, copy.getNumEmptySlots());
+        assertEquals(1, copy.findEmptySlot());
+        assertEquals(new StringField("z", Type.STRING_LEN), copy.getField(slots - 1));
+        assertEquals(new StringField("a", Type.STRING_LEN), copy.getField(0));
+    }
+
+    /**
+     * Rows are spread over the columns and deleted rows are reused
+     */
+    @Test public void insertScanDelete() throws Exception {
+        int n = 900;
+        for (int i = 0; i < n; i++)
+            Database.getBufferPool().insertTuple(tid, file.getId(), tuple(i));
+
+        // int columns hold 992 values a page, string columns 31
+        assertEquals(1, file.numPages(0));
+        assertEquals((n + 30) / 31, file.numPages(1));
+        assertEquals(1, file.numPages(2));
+
+        DbFileIterator it = file.iterator(tid);
+        it.open();
+        List<Tuple> tuples = new ArrayList<>();
+        while (it.hasNext())
+            tuples.add(it.next());
+        it.close();
+        assertEquals(n, tuples.size());
+        assertEquals(new StringField("name899", Type.STRING_LEN), tuples.get(n - 1).getField(1));
+        assertEquals(new IntField(8990), tuples.get(n - 1).getField(2));
+
+        int pages = file.numPages();
+        for (int i = 0; i < 100; i++)
+            Database.getBufferPool().deleteTuple(tid, tuples.get(i));
+        for (int i = n; i < n + 100; i++)
+            Database.getBufferPool().insertTuple(tid, file.getId(), tuple(i));
+        assertEquals(pages, file.numPages());
+
+        it = file.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(((IntField) t.getField(0)).getValue() * 10, ((IntField) t.getField(2)).getValue());
+            count++;
+        }
+        it.close();
+        assertEquals(n, count);
+    }
+
+    /**
+     * A scan of some of the columns reads none of the pages of the others
+     */
+    @Test public void projectedScan() throws Exception {
+        int n = 500;
+        for (int i = 0; i < n; i++)
+            Database.getBufferPool().insertTuple(tid, file.getId(), tuple(i));
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages(); // NO-FORCE模式下提交只写日志
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+
+        SeqScan scan = new SeqScan(tid, file.getId(), "t", new int[] {2});
+        scan.open();
+        int sum = 0;
+        int count = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertNull(t.getField(1));
+            sum += ((IntField) t.getField(2)).getValue();
+            count++;
+        }
+        scan.close();
+        assertEquals(n, count);
+        assertEquals(10 * n * (n - 1) / 2, sum);
+
+        BufferPool bp = Database.getBufferPool();
+        assertTrue(bp.isCached(new ColumnPageId(file.getId(), 2, 0)));
+        for (int pgNo = 0; pgNo < file.numPages(1); pgNo++)
+            assertFalse(bp.isCached(new ColumnPageId(file.getId(), 1, pgNo)));
+        assertFalse(bp.isCached(new ColumnPageId(file.getId(), 0, 0)));
+    }
+
+    /**
+     * Tuples of a projected scan print their unread fields as null, and
+     * inserting them fails instead of storing nulls
+     */
+    @Test public void projectedTuplesGuarded() throws Exception {
+        Database.getBufferPool().insertTuple(tid, file.getId(), tuple(7));
+
+        SeqScan scan = new SeqScan(tid, file.getId(), "t", new int[] {2});
+        scan.open();
+        assertEquals("\tnull\tnull\t70", scan.next().toString());
+        scan.close();
+
+        Insert insert = new Insert(tid, new SeqScan(tid, file.getId(), "t", new int[] {2}), file.getId());
+        insert.open();
+        try {
+            insert.next();
+            fail("inserted a tuple with unread fields");
+        } catch (DbException expected) {
+        }
+        insert.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnFileTest.class);
+    }
+}
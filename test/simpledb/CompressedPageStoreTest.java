@@ -0,0 +1,138 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class CompressedPageStoreTest extends SimpleDbTestBase {
+
+    private static final int PAGE_SIZE = BufferPool.getPageSize();
+
+    private File dataFile;
+    private File ptmFile;
+
+    @Before public void createFiles() throws Exception {
+        dataFile = File.createTempFile("compressed", ".dat");
+        dataFile.deleteOnExit();
+        ptmFile = new File(dataFile.getPath() + ".ptm");
+        ptmFile.deleteOnExit();
+    }
+
+    private static byte[] page(int seed, boolean compressible) {
+        byte[] data = new byte[PAGE_SIZE];
+        Random r = new Random(seed);
+        int n = compressible ? 64 : PAGE_SIZE;
+        for (int i = 0; i < n; i++)
+            data[i] = (byte) r.nextInt();
+        return data;
+    }
+
+    /**
+     * Pages read back as written, also after reopening the store
+     */
+    @Test public void readWrite() throws Exception {
+        DbFileChannel channel = new DbFileChannel(dataFile);
+        CompressedPageStore store = new CompressedPageStore(channel, ptmFile);
+        for (int i = 0; i < 10; i++)
+            store.write(i, page(i, i % 3 != 0));
+        assertEquals(10, store.numPages());
+        assertTrue(dataFile.length() < 10L * PAGE_SIZE);
+
+        // pages that were never written read as zeroes
+        assertArrayEquals(new byte[PAGE_SIZE], store.read(10, PAGE_SIZE));
+
+        store.close();
+        channel.close();
+        store = new CompressedPageStore(new DbFileChannel(dataFile), ptmFile);
+        assertEquals(10, store.numPages());
+        for (int i = 0; i < 10; i++)
+            assertArrayEquals(page(i, i % 3 != 0), store.read(i, PAGE_SIZE));
+    }
+
+    /**
+     * A page that outgrows its extent moves, and its old extent is reused
+     * once the page translation map that no longer points at it is forced
+     */
+    @Test public void relocate() throws Exception {
+        CompressedPageStore store = new CompressedPageStore(new DbFileChannel(dataFile), ptmFile);
+        store.write(0, page(0, true));
+        store.write(1, page(1, true));
+        long small = dataFile.length();
+
+        store.write(0, page(2, false)); // no longer fits, moves to the end
+        long grown = dataFile.length();
+        assertTrue(grown > small);
+
+        // the durable map may still point at the old extent
+        store.write(2, page(3, true));
+        assertTrue(dataFile.length() > grown);
+        grown = dataFile.length();
+
+        store.force();
+        store.write(3, page(4, true)); // takes the extent page 0 left behind
+        assertEquals(grown, dataFile.length());
+
+        assertArrayEquals(page(2, false), store.read(0, PAGE_SIZE));
+        assertArrayEquals(page(1, true), store.read(1, PAGE_SIZE));
+        assertArrayEquals(page(3, true), store.read(2, PAGE_SIZE));
+        assertArrayEquals(page(4, true), store.read(3, PAGE_SIZE));
+
+        // a free extent is found again after reopening
+        store.write(1, page(5, false));
+        grown = dataFile.length();
+        store = new CompressedPageStore(new DbFileChannel(dataFile), ptmFile);
+        store.write(4, page(6, true));
+        assertEquals(grown, dataFile.length());
+        assertArrayEquals(page(5, false), store.read(1, PAGE_SIZE));
+        assertArrayEquals(page(6, true), store.read(4, PAGE_SIZE));
+    }
+
+    /**
+     * A HeapFile in COMPRESSED mode reads a converted table and writes
+     * committed pages back compressed
+     */
+    @Test public void heapFileCompressed() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile plain = SystemTestUtil.createRandomHeapFile(2, 2000, 100, null, tuples);
+        CompressedPageStore.compress(plain.getFile(), dataFile, PAGE_SIZE, 6);
+
+        HeapFile compressed = new HeapFile(dataFile, plain.getTupleDesc(), HeapFile.StorageMode.COMPRESSED);
+        Database.getCatalog().addTable(compressed, SystemTestUtil.getUUID());
+        assertEquals(plain.numPages(), compressed.numPages());
+        assertTrue(dataFile.length() < plain.getFile().length() / 2);
+        SystemTestUtil.matchTuples(compressed, tuples);
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 600; i++) {
+            Database.getBufferPool().insertTuple(tid, compressed.getId(), Utility.getHeapTuple(i, 2));
+            tuples.add(SystemTestUtil.tupleToList(Utility.getHeapTuple(i, 2)));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages(); // NO-FORCE模式下提交只写日志
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals((2600 + 503) / 504, compressed.numPages());
+        SystemTestUtil.matchTuples(compressed, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedPageStoreTest.class);
+    }
+}
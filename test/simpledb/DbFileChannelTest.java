@@ -0,0 +1,129 @@
+package simpledb;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.storage.DbFileChannel;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import static org.junit.Assert.*;
+
+public class DbFileChannelTest extends SimpleDbTestBase {
+
+    private File file;
+    private DbFileChannel channel;
+
+    @Before public void createChannel() throws Exception {
+        file = File.createTempFile("channel", ".dat");
+        file.deleteOnExit();
+        channel = new DbFileChannel(file);
+    }
+
+    @After public void closeChannel() {
+        channel.close();
+    }
+
+    /**
+     * Unit test for DbFileChannel.write() and read() at arbitrary offsets
+     */
+    @Test public void positionalReadWrite() throws Exception {
+        channel.write(100, ByteBuffer.wrap(new byte[]{1, 2, 3, 4}));
+        channel.write(0, ByteBuffer.wrap(new byte[]{9}));
+        assertEquals(104, file.length());
+
+        byte[] data = new byte[4];
+        assertEquals(4, channel.read(100, ByteBuffer.wrap(data)));
+        assertArrayEquals(new byte[]{1, 2, 3, 4}, data);
+
+        // reading past the end of the file stops early and leaves the rest untouched
+        data = new byte[8];
+        assertEquals(2, channel.read(102, ByteBuffer.wrap(data)));
+        assertArrayEquals(new byte[]{3, 4, 0, 0, 0, 0, 0, 0}, data);
+    }
+
+    /**
+     * The file is opened once and reopened transparently after close()
+     */
+    @Test public void openOnceAndReopen() throws Exception {
+        for (int i = 0; i < 10; i++)
+            channel.write(i, ByteBuffer.wrap(new byte[]{(byte) i}));
+        assertEquals(1, channel.getOpenCount());
+        assertTrue(channel.getWriteCount() >= 10);
+
+        channel.close();
+        byte[] data = new byte[10];
+        assertEquals(10, channel.read(0, ByteBuffer.wrap(data)));
+        assertEquals(2, channel.getOpenCount());
+        assertEquals(9, data[9]);
+    }
+
+    /**
+     * An interrupted thread still reads and writes, keeps its interrupt
+     * status, and does not leave the channel closed for other threads
+     */
+    @Test public void interruptedThread() throws Exception {
+        channel.write(0, ByteBuffer.wrap(new byte[]{1, 2, 3, 4}));
+        Thread.currentThread().interrupt();
+        byte[] data = new byte[4];
+        try {
+            assertEquals(4, channel.read(0, ByteBuffer.wrap(data)));
+            channel.write(4, ByteBuffer.wrap(new byte[]{5}));
+        } finally {
+            assertTrue(Thread.interrupted());
+        }
+        assertArrayEquals(new byte[]{1, 2, 3, 4}, data);
+        assertEquals(5, file.length());
+        assertEquals(1, channel.read(4, ByteBuffer.wrap(new byte[1])));
+    }
+
+    /**
+     * Reads in flight when the channel is closed are retried, not failed
+     */
+    @Test public void closeDuringReads() throws Exception {
+        byte[] contents = new byte[4096];
+        for (int i = 0; i < contents.length; i++)
+            contents[i] = (byte) i;
+        channel.write(0, ByteBuffer.wrap(contents));
+
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> readers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread reader = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 2000; i++) {
+                        byte[] data = new byte[contents.length];
+                        channel.read(0, ByteBuffer.wrap(data));
+                        assertArrayEquals(contents, data);
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            });
+            readers.add(reader);
+            reader.start();
+        }
+        for (Thread reader : readers) {
+            while (reader.isAlive()) {
+                channel.close();
+                Thread.yield();
+            }
+        }
+        assertEquals(Collections.emptyList(), errors);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DbFileChannelTest.class);
+    }
+}
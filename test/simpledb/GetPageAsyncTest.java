@@ -0,0 +1,93 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class GetPageAsyncTest extends TestUtil.CreatePagedHeapFile {
+
+    private BufferPool bp;
+
+    @Before public void createFile() throws Exception {
+        createHeapFile(20);
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /**
+     * Several reads in flight at once; each page is locked and cached
+     */
+    @Test public void readsInFlight() throws Exception {
+        TransactionId tid = new TransactionId();
+        List<CompletableFuture<Page>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+            futures.add(bp.getPageAsync(tid, pid(i), Permissions.READ_ONLY));
+        for (int i = 0; i < 10; i++) {
+            Page page = futures.get(i).get(10, TimeUnit.SECONDS);
+            assertEquals(pid(i), page.getId());
+            assertTrue(bp.holdsLock(tid, pid(i)));
+            assertSame(page, bp.getPage(tid, pid(i), Permissions.READ_ONLY));
+        }
+
+        // a cached page whose lock is free comes back at once
+        assertTrue(bp.getPageAsync(tid, pid(0), Permissions.READ_WRITE).isDone());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * A conflicting lock is waited for without blocking the caller
+     */
+    @Test public void waitsForLock() throws Exception {
+        TransactionId writer = new TransactionId();
+        TransactionId reader = new TransactionId();
+        bp.getPage(writer, pid(1), Permissions.READ_WRITE);
+
+        CompletableFuture<Page> future = bp.getPageAsync(reader, pid(1), Permissions.READ_ONLY);
+        try {
+            future.get(200, TimeUnit.MILLISECONDS);
+            fail("the read lock should not be granted while the page is write locked");
+        } catch (TimeoutException expected) {
+        }
+        assertFalse(bp.holdsLock(reader, pid(1)));
+
+        bp.transactionComplete(writer);
+        assertEquals(pid(1), future.get(10, TimeUnit.SECONDS).getId());
+        assertTrue(bp.holdsLock(reader, pid(1)));
+        bp.transactionComplete(reader);
+    }
+
+    /**
+     * A failed read completes the future exceptionally
+     */
+    @Test public void readFails() throws Exception {
+        TransactionId tid = new TransactionId();
+        CompletableFuture<Page> future = bp.getPageAsync(tid, new HeapPageId(-1, 0), Permissions.READ_ONLY);
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail("reading a page of an unknown table should fail");
+        } catch (ExecutionException expected) {
+        }
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GetPageAsyncTest.class);
+    }
+}
@@ -0,0 +1,94 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.Transaction;
+
+import static org.junit.Assert.*;
+
+public class GroupCommitTest extends SimpleDbTestBase {
+
+    private static final int CLIENTS = 4;
+    private static final int COMMITS = 25;
+
+    private static int count(HeapFile hf) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        DbFileIterator it = hf.iterator(t.getId());
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        t.commit();
+        return n;
+    }
+
+    /**
+     * Transactions committing at once from several threads are all durable
+     * when their commits return, with no more forces of the log than commits
+     */
+    @Test public void concurrentCommitsAreDurable() throws Exception {
+        Database.getBufferPool().setNoForce(true); // 提交后页面只在日志中
+        List<File> files = new ArrayList<>();
+        List<HeapFile> tables = new ArrayList<>();
+        for (int i = 0; i < CLIENTS; i++) {
+            File f = File.createTempFile("group", ".dat");
+            f.deleteOnExit();
+            files.add(f);
+            tables.add(Utility.createEmptyHeapFile(f.getAbsolutePath(), 2));
+        }
+        long forcesBefore = Database.getLogFile().getForceCount();
+
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        for (HeapFile hf : tables) {
+            Thread thread = new Thread(() -> {
+                try {
+                    for (int i = 0; i < COMMITS; i++) {
+                        Transaction t = new Transaction();
+                        t.start();
+                        Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(i, 2));
+                        t.commit();
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        assertEquals(Collections.emptyList(), errors);
+        assertTrue(Database.getLogFile().getForceCount() - forcesBefore <= CLIENTS * COMMITS);
+
+        Database.reset(); // 模拟崩溃
+        List<HeapFile> reopened = new ArrayList<>();
+        for (File f : files)
+            reopened.add(Utility.openHeapFile(2, f));
+        Database.getLogFile().recover();
+        for (HeapFile hf : reopened)
+            assertEquals(COMMITS, count(hf));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GroupCommitTest.class);
+    }
+}
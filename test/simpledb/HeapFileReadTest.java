@@ -125,6 +125,61 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * Unit test for HeapFile.readPage() in MMAP storage mode: pages decoded
+     * from the mapping match pages read through the file channel, and pages
+     * written later are visible through the mapping.
+     */
+    @Test
+    public void readPageMapped() throws Exception {
+        HeapFile plain = SystemTestUtil.createRandomHeapFile(2, 1000, null, null);
+        HeapFile mapped = new HeapFile(plain.getFile(), plain.getTupleDesc(), HeapFile.StorageMode.MMAP);
+        Database.getCatalog().addTable(mapped, SystemTestUtil.getUUID());
+        assertEquals(2, mapped.numPages());
+
+        for (int i = 0; i < mapped.numPages(); i++) {
+            HeapPageId pid = new HeapPageId(mapped.getId(), i);
+            assertArrayEquals(plain.readPage(pid).getPageData(), mapped.readPage(pid).getPageData());
+        }
+
+        // grow the file through the normal write path and read it back mapped
+        HeapPage page = new HeapPage(new HeapPageId(mapped.getId(), 2), HeapPage.createEmptyPageData());
+        page.insertTuple(Utility.getHeapTuple(7, 2));
+        mapped.writePage(page);
+        HeapPage read = (HeapPage) mapped.readPage(page.getId());
+        assertEquals(page.getNumEmptySlots(), read.getNumEmptySlots());
+        assertEquals(Utility.getHeapTuple(7, 2).getField(0), read.iterator().next().getField(0));
+
+        // pages past the end of the file read as empty pages
+        assertEquals(504, ((HeapPage) mapped.readPage(new HeapPageId(mapped.getId(), 5))).getNumEmptySlots());
+    }
+
+    /**
+     * A mapped page that is dirtied keeps its before image and its unmodified
+     * tuples when the page is then written to the file under the mapping.
+     */
+    @Test
+    public void mappedPageCopiedWhenDirtied() throws Exception {
+        HeapFile plain = SystemTestUtil.createRandomHeapFile(2, 504, null, null);
+        HeapFile mapped = new HeapFile(plain.getFile(), plain.getTupleDesc(), HeapFile.StorageMode.MMAP);
+        Database.getCatalog().addTable(mapped, SystemTestUtil.getUUID());
+        HeapPageId pid = new HeapPageId(mapped.getId(), 0);
+        byte[] before = plain.readPage(pid).getPageData();
+        HeapPage expected = (HeapPage) plain.readPage(pid);
+        expected.deleteTuple(expected.iterator().next());
+
+        HeapPage page = (HeapPage) mapped.readPage(pid);
+        Tuple first = page.iterator().next();
+        Field kept = first.getField(0);
+        page.deleteTuple(first);
+        page.markDirty(true, new TransactionId());
+        mapped.writePage(new HeapPage(pid, HeapPage.createEmptyPageData()));
+
+        assertArrayEquals(before, page.getBeforeImage().getPageData());
+        assertArrayEquals(expected.getPageData(), page.getPageData());
+        assertEquals(kept, first.getField(0));
+    }
+
     /**
      * JUnit suite target
      */
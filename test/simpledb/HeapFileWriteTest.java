@@ -12,6 +12,7 @@ import simpledb.storage.*;
 import simpledb.systemtest.SystemTestUtil;
 import simpledb.transaction.TransactionId;
 
+import java.io.RandomAccessFile;
 import java.util.Arrays;
 
 public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
@@ -90,6 +91,85 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         it.close();
     }
 
+    /**
+     * Unit test for HeapFile.insertTuple() using the free space map: the insert
+     * goes straight to the page with a free slot without locking full pages.
+     */
+    @Test public void insertUsesFreeSpaceMap() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, null);
+
+        // read every page once (refreshing the map) and free a slot on page 2
+        TransactionId reader = new TransactionId();
+        DbFileIterator it = hf.iterator(reader);
+        it.open();
+        Tuple victim = null;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (t.getRecordId().getPageId().getPageNumber() == 2)
+                victim = t;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(reader);
+        assertEquals(0, hf.getFreeSpaceMap().getFreeSlots(0));
+
+        Database.getBufferPool().deleteTuple(tid, victim);
+        assertEquals(1, hf.getFreeSpaceMap().getFreeSlots(2));
+
+        Tuple t = Utility.getHeapTuple(1, 2);
+        hf.insertTuple(tid, t);
+        assertEquals(2, t.getRecordId().getPageId().getPageNumber());
+        assertEquals(3, hf.numPages());
+        assertEquals(0, hf.getFreeSpaceMap().getFreeSlots(2));
+        assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(hf.getId(), 0)));
+        assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(hf.getId(), 1)));
+    }
+
+    /**
+     * Unit test for HeapFreeSpaceMap.save(): the map survives a reload
+     */
+    @Test public void freeSpaceMapPersists() throws Exception {
+        HeapFreeSpaceMap fsm = empty.getFreeSpaceMap();
+        fsm.getFile().deleteOnExit();
+        fsm.update(0, 0);
+        fsm.update(1, 17);
+        fsm.update(3, 0);
+        empty.sync();
+
+        HeapFreeSpaceMap reloaded = new HeapFreeSpaceMap(fsm.getFile(), empty::numPages);
+        assertEquals(0, reloaded.getFreeSlots(0));
+        assertEquals(17, reloaded.getFreeSlots(1));
+        assertEquals(HeapFreeSpaceMap.UNKNOWN, reloaded.getFreeSlots(2));
+        assertEquals(HeapFreeSpaceMap.UNKNOWN, reloaded.getFreeSlots(7));
+        assertEquals(1, reloaded.findPage(0, 4));
+        assertEquals(2, reloaded.findPage(2, 4));
+        assertEquals(-1, reloaded.findPage(3, 4));
+    }
+
+    /**
+     * A sidecar saved when the table file had more pages is ignored, and
+     * recreating the table file deletes its sidecar
+     */
+    @Test public void staleFreeSpaceMapIgnored() throws Exception {
+        for (int i = 1; i < 4; i++)
+            empty.writePage(new HeapPage(new HeapPageId(empty.getId(), i), HeapPage.createEmptyPageData()));
+        HeapFreeSpaceMap fsm = empty.getFreeSpaceMap();
+        fsm.getFile().deleteOnExit();
+        for (int i = 0; i < 4; i++)
+            fsm.update(i, 0);
+        empty.sync();
+
+        try (RandomAccessFile raf = new RandomAccessFile(empty.getFile(), "rw")) {
+            raf.setLength(BufferPool.getPageSize());
+        }
+        HeapFreeSpaceMap reloaded = new HeapFreeSpaceMap(fsm.getFile(), empty::numPages);
+        assertEquals(HeapFreeSpaceMap.UNKNOWN, reloaded.getFreeSlots(0));
+        assertEquals(0, reloaded.findPage(0, empty.numPages()));
+
+        assertTrue(fsm.getFile().exists());
+        Utility.createEmptyHeapFile(empty.getFile().getPath(), 2);
+        assertFalse(fsm.getFile().exists());
+    }
+
     /**
      * JUnit suite target
      */
@@ -102,6 +102,37 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.cursor()
+     */
+    @Test public void testCursor() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        HeapPage.Cursor cursor = page.cursor();
+
+        // tuples inserted after the cursor was created are not seen by it
+        page.insertTuple(Utility.getHeapTuple(new int[] {1, 2}));
+
+        int row = 0;
+        while (cursor.next()) {
+            assertEquals(row, cursor.getSlot());
+            assertEquals(EXAMPLE_VALUES[row][0], cursor.getInt(0));
+            assertEquals(new IntField(EXAMPLE_VALUES[row][1]), cursor.getField(1));
+            assertEquals(EXAMPLE_VALUES[row][1], ((IntField) cursor.getTuple().getField(1)).getValue());
+            row++;
+        }
+        assertEquals(EXAMPLE_VALUES.length, row);
+
+        // a round trip through getPageData keeps both the old and the new tuples
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        assertEquals(483, copy.getNumEmptySlots());
+        cursor = copy.cursor();
+        for (int i = 0; i <= EXAMPLE_VALUES.length; i++)
+            assertTrue(cursor.next());
+        assertEquals(1, cursor.getInt(0));
+        assertEquals(2, cursor.getInt(1));
+        assertFalse(cursor.next());
+    }
+
     /**
      * Unit test for HeapPage.getNumEmptySlots()
      */
@@ -0,0 +1,148 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class NoForceTest extends TestUtil.CreatePagedHeapFile {
+
+    private BufferPool bp;
+
+    @Before public void createFile() throws Exception {
+        createHeapFile(4);
+        bp = Database.resetBufferPool(3);
+        bp.setNoForce(true);
+    }
+
+    private int emptySlotsOnDisk(int pgNo) {
+        return ((HeapPage) hf.readPage(pid(pgNo))).getNumEmptySlots();
+    }
+
+    // 在一个事务中删除第pgNo页的第一个元组
+    private Transaction deleteFirst(int pgNo) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        HeapPage page = (HeapPage) bp.getPage(t.getId(), pid(pgNo), Permissions.READ_WRITE);
+        bp.deleteTuple(t.getId(), page.iterator().next());
+        return t;
+    }
+
+    private void read(int from, int to) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        read(bp, t.getId(), from, to);
+        t.commit();
+    }
+
+    /**
+     * A commit writes nothing but the log; a checkpoint writes the page
+     */
+    @Test public void commitOnlyLogs() throws Exception {
+        deleteFirst(0).commit();
+        assertTrue(bp.isUnwritten(pid(0)));
+        assertEquals(0, emptySlotsOnDisk(0));
+        assertEquals(0, bp.getStats().total().getWrites());
+
+        Database.getLogFile().logCheckpoint();
+        assertFalse(bp.isUnwritten(pid(0)));
+        assertEquals(1, emptySlotsOnDisk(0));
+    }
+
+    /**
+     * A committed page is written when it is evicted
+     */
+    @Test public void evictionWrites() throws Exception {
+        deleteFirst(0).commit();
+        for (int i = 0; i < 10 && bp.isCached(pid(0)); i++)
+            read(1, 4); // 各置换策略换出它所需的访问次数不同
+        assertFalse(bp.isCached(pid(0)));
+        assertFalse(bp.isUnwritten(pid(0)));
+        assertEquals(1, emptySlotsOnDisk(0));
+        read(0, 1);
+        assertEquals(1, ((HeapPage) bp.getPage(new Transaction().getId(), pid(0), Permissions.READ_ONLY))
+                .getNumEmptySlots());
+    }
+
+    /**
+     * An abort goes back to the committed version of a page that has not
+     * been written yet, not to the version on disk
+     */
+    @Test public void abortKeepsCommitted() throws Exception {
+        deleteFirst(0).commit();
+        deleteFirst(0).abort();
+        assertTrue(bp.isUnwritten(pid(0)));
+        HeapPage page = (HeapPage) bp.getPage(new Transaction().getId(), pid(0), Permissions.READ_ONLY);
+        assertEquals(1, page.getNumEmptySlots());
+        assertNull(page.isDirty());
+    }
+
+    /**
+     * Recovery redoes the commits that were only in the log, in the order
+     * they were made
+     */
+    @Test public void recoverRedoes() throws Exception {
+        deleteFirst(0).commit();
+        deleteFirst(0).commit();
+        deleteFirst(1).commit();
+        assertEquals(0, emptySlotsOnDisk(0));
+
+        File file = hf.getFile();
+        Database.reset(); // 模拟崩溃，缓存中的页面全部丢失
+        hf = Utility.openHeapFile(2, file);
+        Database.getLogFile().recover();
+        assertEquals(2, emptySlotsOnDisk(0));
+        assertEquals(1, emptySlotsOnDisk(1));
+    }
+
+    /**
+     * The COMMIT record is on disk before the locks of the transaction are
+     * released, so a crash as soon as another transaction takes over its
+     * page does not undo the commit
+     */
+    @Test public void commitDurableBeforeUnlock() throws Exception {
+        File log = new File("log"); // Database的日志文件
+        Transaction t = deleteFirst(0);
+        byte[][] onDisk = new byte[1][];
+        Thread other = new Thread(() -> {
+            try {
+                bp.getPage(new TransactionId(), pid(0), Permissions.READ_WRITE); // 等到t释放锁
+                onDisk[0] = Files.readAllBytes(log.toPath()); // 此刻崩溃时磁盘上的日志
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        other.start();
+        t.commit();
+        other.join();
+
+        try (FileOutputStream out = new FileOutputStream(log)) {
+            out.write(onDisk[0]); // 丢掉崩溃之后才写入的记录
+        }
+        File file = hf.getFile();
+        Database.reset(); // 模拟崩溃
+        hf = Utility.openHeapFile(2, file);
+        Database.getLogFile().recover();
+        assertEquals(1, emptySlotsOnDisk(0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(NoForceTest.class);
+    }
+}
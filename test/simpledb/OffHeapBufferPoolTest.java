@@ -0,0 +1,149 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.storage.cache.FrameArena;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class OffHeapBufferPoolTest extends TestUtil.CreatePagedHeapFile {
+
+    private static final int POOL_PAGES = 3;
+
+    private BufferPool bp;
+    private TransactionId tid;
+
+    @Before public void createFile() throws Exception {
+        createHeapFile(6);
+        bp = Database.resetBufferPool(POOL_PAGES, true);
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() {
+        bp.transactionComplete(tid);
+    }
+
+    private static List<List<Integer>> tuples(Page page) {
+        List<List<Integer>> tuples = new ArrayList<>();
+        Iterator<Tuple> it = ((HeapPage) page).iterator();
+        while (it.hasNext())
+            tuples.add(SystemTestUtil.tupleToList(it.next()));
+        return tuples;
+    }
+
+    /**
+     * Cached pages are read into frames of the arena
+     */
+    @Test public void pagesLiveInFrames() throws Exception {
+        FrameArena arena = bp.getArena();
+        assertNotNull(arena);
+        int frames = arena.getNumFrames();
+        assertEquals(frames, arena.getNumFree());
+
+        Page page = bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        assertEquals(frames - 1, arena.getNumFree());
+        assertArrayEquals(hf.readPage(pid(0)).getPageData(), page.getPageData());
+        assertEquals(tuples(hf.readPage(pid(0))), tuples(page));
+
+        bp.discardPage(pid(0));
+        assertEquals(frames, arena.getNumFree());
+    }
+
+    /**
+     * A page that is still referenced after it was evicted keeps its
+     * contents although its frame has been reused
+     */
+    @Test public void evictedPageIsDetached() throws Exception {
+        Page first = bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        Tuple t = ((HeapPage) first).iterator().next();
+        List<Integer> firstTuple = SystemTestUtil.tupleToList(t);
+        for (int i = 1; i < 6; i++)
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        assertFalse(bp.isCached(pid(0)));
+        // every cached page is in a frame
+        assertEquals(bp.getArena().getNumFrames() - POOL_PAGES, bp.getArena().getNumFree());
+
+        assertArrayEquals(hf.readPage(pid(0)).getPageData(), first.getPageData());
+        assertEquals(tuples(hf.readPage(pid(0))), tuples(first));
+        assertEquals(firstTuple, SystemTestUtil.tupleToList(t));
+        assertArrayEquals(first.getPageData(), first.getBeforeImage().getPageData());
+    }
+
+    /**
+     * Updates to pages kept off-heap are written back on commit
+     */
+    @Test public void updatesAreWrittenBack() throws Exception {
+        bp.setNoForce(false); // 提交时写回，与运行测试时选择的模式无关
+        for (int i = 0; i < 10; i++)
+            bp.insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] {i, i}));
+        bp.transactionComplete(tid);
+
+        bp = Database.resetBufferPool(POOL_PAGES, true);
+        tid = new TransactionId();
+        int count = 0;
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(TUPLES_PER_PAGE * 6 + 10, count);
+    }
+
+    /**
+     * Pages read while other threads evict them, and reuse their frames,
+     * always show their own contents
+     */
+    @Test public void readersDuringEviction() throws Exception {
+        List<List<List<Integer>>> expected = new ArrayList<>();
+        for (int i = 0; i < 6; i++)
+            expected.add(tuples(hf.readPage(pid(i))));
+
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < 4; r++) {
+            final int seed = r;
+            Thread reader = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 100; i++) {
+                        int pgNo = (seed + i * 5) % 6;
+                        TransactionId t = new TransactionId();
+                        Page page = bp.getPage(t, pid(pgNo), Permissions.READ_ONLY);
+                        assertEquals(expected.get(pgNo), tuples(page));
+                        bp.transactionComplete(t);
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            });
+            readers.add(reader);
+            reader.start();
+        }
+        for (Thread reader : readers)
+            reader.join();
+        assertEquals(Collections.emptyList(), errors);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OffHeapBufferPoolTest.class);
+    }
+}
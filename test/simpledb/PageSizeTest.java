@@ -0,0 +1,125 @@
+package simpledb;
+
+import java.io.File;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class PageSizeTest extends SimpleDbTestBase {
+
+    private static final int LARGE = 65536;
+
+    private HeapFile small;
+    private HeapFile large;
+
+    private static HeapFile createFile(int pageSize) throws Exception {
+        File f = File.createTempFile("pagesize", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2), HeapFile.StorageMode.PLAIN, pageSize);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        return hf;
+    }
+
+    @Before public void createFiles() throws Exception {
+        small = createFile(BufferPool.getPageSize());
+        large = createFile(LARGE);
+    }
+
+    private static void insert(HeapFile hf, TransactionId tid, int n) throws Exception {
+        for (int i = 0; i < n; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] {i, -i}));
+        }
+    }
+
+    private static int count(HeapFile hf, TransactionId tid) throws Exception {
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(-((IntField) t.getField(0)).getValue(), ((IntField) t.getField(1)).getValue());
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * Tables with different page sizes live side by side
+     */
+    @Test public void mixedPageSizes() throws Exception {
+        assertEquals(LARGE, large.getPageSize());
+        assertEquals(LARGE, Database.getCatalog().getPageSize(large.getId()));
+        assertEquals(BufferPool.getPageSize(), Database.getCatalog().getPageSize(small.getId()));
+
+        TransactionId tid = new TransactionId();
+        insert(small, tid, 2000);
+        insert(large, tid, 2000);
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages(); // NO-FORCE模式下提交只写日志
+
+        // 2 int columns -> 504 tuples on a 4KB page, 8065 on a 64KB page
+        assertEquals(4, small.numPages());
+        assertEquals(1, large.numPages());
+        assertEquals(LARGE, large.getFile().length());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        assertEquals(2000, count(small, tid));
+        assertEquals(2000, count(large, tid));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The buffer pool limits the bytes it caches, not the number of pages
+     */
+    @Test public void bufferPoolCountsBytes() throws Exception {
+        TransactionId tid = new TransactionId();
+        insert(large, tid, 8065 * 3);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(3, large.numPages());
+
+        // room for two 64KB pages
+        BufferPool bp = Database.resetBufferPool(2 * LARGE / BufferPool.getPageSize());
+        tid = new TransactionId();
+        for (int i = 0; i < 3; i++) {
+            bp.getPage(tid, new HeapPageId(large.getId(), i), Permissions.READ_ONLY);
+        }
+        assertFalse(bp.isCached(new HeapPageId(large.getId(), 0)));
+        assertTrue(bp.isCached(new HeapPageId(large.getId(), 1)));
+        assertTrue(bp.isCached(new HeapPageId(large.getId(), 2)));
+
+        // with a 4KB page cached there is no room left for two 64KB pages
+        insert(small, tid, 1);
+        bp.transactionComplete(tid);
+        bp = Database.resetBufferPool(2 * LARGE / BufferPool.getPageSize());
+        tid = new TransactionId();
+        bp.getPage(tid, new HeapPageId(large.getId(), 0), Permissions.READ_ONLY);
+        bp.getPage(tid, new HeapPageId(small.getId(), 0), Permissions.READ_ONLY);
+        bp.getPage(tid, new HeapPageId(large.getId(), 1), Permissions.READ_ONLY);
+        assertFalse(bp.isCached(new HeapPageId(large.getId(), 0)));
+        assertTrue(bp.isCached(new HeapPageId(small.getId(), 0)));
+        assertTrue(bp.isCached(new HeapPageId(large.getId(), 1)));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageSizeTest.class);
+    }
+}
@@ -0,0 +1,150 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class PinPageTest extends TestUtil.CreatePagedHeapFile {
+
+    private BufferPool bp;
+
+    @Before public void createFile() throws Exception {
+        createHeapFile(20);
+        bp = Database.resetBufferPool(4);
+    }
+
+    private int pinned(DbFile f, int numPages) {
+        int n = 0;
+        for (int i = 0; i < numPages; i++)
+            if (bp.isPinned(new HeapPageId(f.getId(), i)))
+                n++;
+        return n;
+    }
+
+    /**
+     * A pinned page stays in the pool until it is unpinned as many times as
+     * it was pinned
+     */
+    @Test public void pinUnpin() throws Exception {
+        TransactionId tid = new TransactionId();
+        Page page = bp.pinPage(tid, pid(0), Permissions.READ_ONLY);
+        assertSame(page, bp.pinPage(tid, pid(0), Permissions.READ_ONLY));
+        for (int i = 1; i < 20; i++) {
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+            assertTrue(bp.isCached(pid(0)));
+        }
+        bp.unpinPage(tid, pid(0));
+        assertTrue(bp.isPinned(pid(0)));
+        bp.unpinPage(tid, pid(0));
+        bp.unpinPage(tid, pid(0)); // 多余的释放不影响其他事务的固定
+        assertFalse(bp.isPinned(pid(0)));
+        for (int i = 1; i < 20; i++)
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        assertFalse(bp.isCached(pid(0)));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Pins a transaction still holds are released when it completes
+     */
+    @Test public void releasedOnCompletion() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 4; i++)
+            bp.pinPage(tid, pid(i), Permissions.READ_ONLY);
+        try {
+            bp.getPage(tid, pid(4), Permissions.READ_ONLY);
+            fail("all pages are pinned");
+        } catch (DbException expected) {
+        }
+        bp.transactionComplete(tid);
+        assertEquals(0, pinned(hf, 20));
+        bp.getPage(new TransactionId(), pid(4), Permissions.READ_ONLY);
+    }
+
+    /**
+     * An aborting transaction only drops the pages it could have modified,
+     * not a page it read that another transaction has pinned
+     */
+    @Test public void abortKeepsPinnedReads() throws Exception {
+        TransactionId reader = new TransactionId();
+        Page page = bp.pinPage(reader, pid(0), Permissions.READ_ONLY);
+        TransactionId aborted = new TransactionId();
+        bp.getPage(aborted, pid(0), Permissions.READ_ONLY);
+        bp.getPage(aborted, pid(1), Permissions.READ_WRITE);
+        bp.transactionComplete(aborted, false);
+        assertTrue(bp.isPinned(pid(0)));
+        assertSame(page, bp.pinPage(reader, pid(0), Permissions.READ_ONLY));
+        assertFalse(bp.isCached(pid(1)));
+        bp.transactionComplete(reader);
+        assertFalse(bp.isPinned(pid(0)));
+    }
+
+    /**
+     * Pins on a discarded page go with it, and do not release the pins of
+     * the version read in again afterwards
+     */
+    @Test public void discardDropsPins() throws Exception {
+        TransactionId first = new TransactionId();
+        bp.pinPage(first, pid(0), Permissions.READ_ONLY);
+        bp.discardPage(pid(0));
+        assertFalse(bp.isPinned(pid(0)));
+        TransactionId second = new TransactionId();
+        assertNotNull(bp.pinPage(second, pid(0), Permissions.READ_ONLY));
+        bp.unpinPage(first, pid(0));
+        assertTrue(bp.isPinned(pid(0)));
+        bp.transactionComplete(first);
+        assertTrue(bp.isPinned(pid(0)));
+        bp.unpinPage(second, pid(0));
+        assertFalse(bp.isPinned(pid(0)));
+        bp.transactionComplete(second);
+    }
+
+    /**
+     * A scan pins only the page it is reading tuples from, and nothing once
+     * it is closed
+     */
+    @Test public void iteratorPins() throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        for (int i = 0; i < TUPLES_PER_PAGE * 3 + 1; i++)
+            it.next();
+        assertEquals(1, pinned(hf, 20));
+        assertTrue(bp.isPinned(pid(3)));
+        it.close();
+        assertEquals(0, pinned(hf, 20));
+
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 2000, null, null, 0);
+        bp = Database.getBufferPool(); // 创建B+树文件时换了新的BufferPool
+        DbFileIterator bit = bf.iterator(tid);
+        bit.open();
+        bit.next();
+        int leaves = 0;
+        for (Page p : (Iterable<Page>) () -> bp.getPageCache().iterator())
+            if (bp.isPinned(p.getId()))
+                leaves++;
+        assertEquals(1, leaves);
+        bit.close();
+        for (Page p : (Iterable<Page>) () -> bp.getPageCache().iterator())
+            assertFalse(bp.isPinned(p.getId()));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PinPageTest.class);
+    }
+}
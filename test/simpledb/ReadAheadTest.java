@@ -0,0 +1,87 @@
+package simpledb;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.storage.BufferPool;
+import simpledb.storage.ReadAhead;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class ReadAheadTest extends TestUtil.CreatePagedHeapFile {
+
+    private BufferPool bp;
+
+    @Before public void createFile() throws Exception {
+        createHeapFile(40);
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        ReadAhead.setWindow(4, 32);
+    }
+
+    @After public void restoreWindow() {
+        ReadAhead.setWindow(4, 32);
+    }
+
+    /**
+     * Unit test for BufferPool.prefetchPage(): the page is cached but not locked
+     */
+    @Test public void prefetchPage() throws Exception {
+        assertFalse(bp.isCached(pid(3)));
+        bp.prefetchPage(pid(3)).get(10, TimeUnit.SECONDS);
+        assertTrue(bp.isCached(pid(3)));
+        assertFalse(bp.holdsLock(new TransactionId(), pid(3)));
+    }
+
+    /**
+     * Sequential access prefetches the next window of pages
+     */
+    @Test public void sequentialAccess() throws Exception {
+        ReadAhead ra = new ReadAhead(bp, hf.getId(), hf::numPages);
+        for (int i = 0; i <= 2; i++)
+            ra.access(i);
+        int window = ra.getWindow();
+        for (int i = 3; i <= 2 + window; i++)
+            bp.prefetchPage(pid(i)).get(10, TimeUnit.SECONDS); // queued behind the read-ahead
+        for (int i = 3; i <= 2 + window; i++)
+            assertTrue("page " + i + " should be prefetched", bp.isCached(pid(i)));
+        assertFalse(bp.isCached(pid(3 + window)));
+
+        // consuming a whole window of prefetched pages grows the window
+        for (int i = 3; i <= 2 + window; i++)
+            ra.access(i);
+        assertEquals(window * 2, ra.getWindow());
+    }
+
+    /**
+     * Random access never prefetches, nor does a zero maximum window
+     */
+    @Test public void noReadAhead() throws Exception {
+        ReadAhead ra = new ReadAhead(bp, hf.getId(), hf::numPages);
+        int[] pages = {5, 1, 30, 2, 17, 9};
+        for (int p : pages)
+            ra.access(p);
+
+        ReadAhead.setWindow(4, 0);
+        ReadAhead off = new ReadAhead(bp, hf.getId(), hf::numPages);
+        for (int i = 20; i < 25; i++)
+            off.access(i);
+
+        bp.prefetchPage(pid(39)).get(10, TimeUnit.SECONDS);
+        for (int i = 0; i < 39; i++)
+            assertFalse(bp.isCached(pid(i)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
@@ -0,0 +1,106 @@
+package simpledb;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class ResizeBufferPoolTest extends TestUtil.CreatePagedHeapFile {
+
+
+    @Before public void createFile() throws Exception {
+        createHeapFile(30);
+    }
+
+    private int cached(BufferPool bp) {
+        int n = 0;
+        for (int i = 0; i < 30; i++)
+            if (bp.isCached(pid(i)))
+                n++;
+        return n;
+    }
+
+    /**
+     * Growing keeps the cached pages and takes effect at once
+     */
+    @Test public void grow() throws Exception {
+        BufferPool bp = Database.resetBufferPool(10);
+        TransactionId tid = new TransactionId();
+        read(bp, tid, 0, 10);
+        assertTrue(bp.resize(20).isDone());
+        assertEquals(20, bp.getNumPages());
+        read(bp, tid, 10, 20);
+        assertEquals(20, cached(bp));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Shrinking evicts in the background down to the new size and keeps the
+     * most recently used pages
+     */
+    @Test public void shrink() throws Exception {
+        BufferPool bp = Database.resetBufferPool(20);
+        TransactionId tid = new TransactionId();
+        read(bp, tid, 0, 20);
+        bp.resize(5).get(10, TimeUnit.SECONDS);
+        assertEquals(5, bp.getNumPages());
+        assertEquals(5, cached(bp));
+        assertTrue(bp.isCached(pid(19)));
+        read(bp, tid, 20, 30);
+        assertEquals(5, cached(bp));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Dirty pages over the new size are waited for, not written out
+     */
+    @Test public void shrinkWaitsForDirtyPages() throws Exception {
+        BufferPool bp = Database.resetBufferPool(20);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 8; i++)
+            bp.getPage(tid, pid(i), Permissions.READ_WRITE).markDirty(true, tid);
+        read(bp, tid, 8, 20);
+        CompletableFuture<Void> done = bp.resize(2);
+        Thread.sleep(200);
+        assertFalse(done.isDone());
+        assertEquals(8, cached(bp));
+        bp.transactionComplete(tid, false);
+        done.get(10, TimeUnit.SECONDS);
+        assertTrue(cached(bp) <= 2);
+    }
+
+    /**
+     * An off-heap pool resizes its arena along with it
+     */
+    @Test public void offHeapArena() throws Exception {
+        BufferPool bp = Database.resetBufferPool(10, true);
+        int extra = bp.getArena().getNumFrames() - 10;
+        TransactionId tid = new TransactionId();
+        read(bp, tid, 0, 10);
+        bp.resize(20).get(10, TimeUnit.SECONDS);
+        assertEquals(20 + extra, bp.getArena().getNumFrames());
+        read(bp, tid, 10, 20);
+        assertEquals(extra, bp.getArena().getNumFree());
+        bp.resize(5).get(10, TimeUnit.SECONDS);
+        assertEquals(5 + extra, bp.getArena().getNumFrames());
+        assertEquals(extra, bp.getArena().getNumFree());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ResizeBufferPoolTest.class);
+    }
+}
@@ -0,0 +1,121 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class ScanRingTest extends SimpleDbTestBase {
+
+    private HeapFile hot;
+    private HeapFile big;
+    private BufferPool bp;
+
+    @Before public void createFiles() throws Exception {
+        // 2 int columns -> 504 tuples per page
+        hot = SystemTestUtil.createRandomHeapFile(2, 504 * 10, null, null);
+        big = SystemTestUtil.createRandomHeapFile(2, 504 * 200, null, null);
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    @After public void restoreWindow() {
+        ReadAhead.setWindow(4, 32);
+    }
+
+    private void readHot(TransactionId tid) throws Exception {
+        for (int i = 0; i < 10; i++)
+            bp.getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+    }
+
+    private int cached(HeapFile f) {
+        int n = 0;
+        for (int i = 0; i < f.numPages(); i++)
+            if (bp.isCached(new HeapPageId(f.getId(), i)))
+                n++;
+        return n;
+    }
+
+    private int scan(TransactionId tid, HeapFile f) throws Exception {
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * Only files larger than a quarter of the pool get a ring, of at most a
+     * quarter of the pool
+     */
+    @Test public void forScan() {
+        assertNull(ScanRing.forScan(bp, 10));
+        assertEquals(12, ScanRing.forScan(bp, 200).size());
+        assertEquals(ScanRing.MAX_SIZE, ScanRing.forScan(new BufferPool(1000), 2000).size());
+        assertNull(ScanRing.forScan(new BufferPool(4), 2000));
+    }
+
+    /**
+     * A large scan keeps to its ring and leaves the pages of other
+     * transactions in the pool
+     */
+    @Test public void hotPagesSurvive() throws Exception {
+        TransactionId tid = new TransactionId();
+        readHot(tid);
+        assertEquals(504 * 200, scan(tid, big));
+        assertEquals(10, cached(hot));
+        assertTrue(cached(big) <= ScanRing.forScan(bp, big.numPages()).size());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Without a ring the same scan flushes the pool
+     */
+    @Test public void withoutRing() throws Exception {
+        ReadAhead.setWindow(4, 0);
+        TransactionId tid = new TransactionId();
+        readHot(tid);
+        for (int i = 0; i < big.numPages(); i++)
+            bp.getPage(tid, new HeapPageId(big.getId(), i), Permissions.READ_ONLY);
+        assertEquals(0, cached(hot));
+        assertEquals(BufferPool.DEFAULT_PAGES, cached(big));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * A page the scan dirtied stays when it falls out of the ring, and is
+     * left to the replacement policy
+     */
+    @Test public void dirtyPageStays() throws Exception {
+        ReadAhead.setWindow(4, 0);
+        TransactionId tid = new TransactionId();
+        ScanRing ring = ScanRing.forScan(bp, big.numPages());
+        HeapPageId first = new HeapPageId(big.getId(), 0);
+        bp.getPage(tid, first, Permissions.READ_WRITE, ring).markDirty(true, tid);
+        for (int i = 1; i <= ring.size() * 2; i++)
+            bp.getPage(tid, new HeapPageId(big.getId(), i), Permissions.READ_ONLY, ring);
+        assertTrue(bp.isCached(first));
+        assertEquals(ring.size() + 1, cached(big));
+        bp.transactionComplete(tid, false);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ScanRingTest.class);
+    }
+}
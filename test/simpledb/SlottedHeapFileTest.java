@@ -0,0 +1,145 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class SlottedHeapFileTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] {Type.INT_TYPE, Type.STRING_TYPE}, new String[] {"id", "name"});
+
+    private SlottedHeapFile file;
+    private TransactionId tid;
+
+    @Before public void createFile() throws Exception {
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        file = new SlottedHeapFile(f, TD);
+        Database.getCatalog().addTable(file, SystemTestUtil.getUUID());
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static Tuple tuple(int id, String name) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(name, Type.STRING_LEN));
+        return t;
+    }
+
+    /**
+     * A page survives a round trip through getPageData, keeping slot numbers
+     */
+    @Test public void pageRoundTrip() throws Exception {
+        HeapPageId pid = new HeapPageId(file.getId(), 0);
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        Tuple a = tuple(1, "a");
+        Tuple b = tuple(2, "a somewhat longer name");
+        Tuple c = tuple(3, "");
+        page.insertTuple(a);
+        page.insertTuple(b);
+        page.insertTuple(c);
+        page.deleteTuple(b);
+        assertEquals(2, c.getRecordId().getTupleNumber());
+
+        SlottedPage copy = new SlottedPage(pid, page.getPageData());
+        assertEquals(page.getFreeSpace(), copy.getFreeSpace());
+        assertFalse(copy.isSlotUsed(1));
+        Iterator<Tuple> it = copy.iterator();
+        Tuple t = it.next();
+        assertEquals(new RecordId(pid, 0), t.getRecordId());
+        assertEquals(new StringField("a", Type.STRING_LEN), t.getField(1));
+        t = it.next();
+        assertEquals(new RecordId(pid, 2), t.getRecordId());
+        assertEquals(new IntField(3), t.getField(0));
+        assertFalse(it.hasNext());
+
+        // the free slot is reused
+        Tuple d = tuple(4, "d");
+        copy.insertTuple(d);
+        assertEquals(1, d.getRecordId().getTupleNumber());
+    }
+
+    /**
+     * insertTuple() fails once the page runs out of bytes
+     */
+    @Test(expected = DbException.class) public void pageFull() throws Exception {
+        SlottedPage page = new SlottedPage(new HeapPageId(file.getId(), 0), SlottedPage.createEmptyPageData());
+        for (int i = 0; i < BufferPool.getPageSize(); i++)
+            page.insertTuple(tuple(i, "some name"));
+    }
+
+    /**
+     * Short strings take a fraction of the space they take in a HeapFile
+     */
+    @Test public void insertAndScan() throws Exception {
+        int n = 1000;
+        for (int i = 0; i < n; i++)
+            file.insertTuple(tid, tuple(i, "name" + i));
+
+        // 4+4+128 bytes per tuple in a HeapFile: 30 tuples per page
+        int heapPages = (int) Math.ceil(n / (double) (BufferPool.getPageSize() * 8 / (TD.getSize() * 8 + 1)));
+        assertTrue(file.numPages() * 5 <= heapPages);
+
+        DbFileIterator it = file.iterator(tid);
+        it.open();
+        List<Tuple> tuples = new ArrayList<>();
+        while (it.hasNext())
+            tuples.add(it.next());
+        it.close();
+        assertEquals(n, tuples.size());
+        assertEquals(new StringField("name999", Type.STRING_LEN), tuples.get(n - 1).getField(1));
+
+        // deleted space is found again through the free space map
+        int pages = file.numPages();
+        for (int i = 0; i < 100; i++)
+            Database.getBufferPool().deleteTuple(tid, tuples.get(i));
+        for (int i = 0; i < 100; i++)
+            file.insertTuple(tid, tuple(i, "name" + i));
+        assertEquals(pages, file.numPages());
+    }
+
+    /**
+     * Committed pages are written to disk and read back
+     */
+    @Test public void writeAndRead() throws Exception {
+        Database.getBufferPool().setNoForce(false); // 提交时写回，与运行测试时选择的模式无关
+        Database.getBufferPool().insertTuple(tid, file.getId(), tuple(7, "seven"));
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        SlottedPage page = (SlottedPage) file.readPage(new HeapPageId(file.getId(), 0));
+        assertEquals(1, page.getNumTuples());
+        assertEquals(new StringField("seven", Type.STRING_LEN), page.iterator().next().getField(1));
+        tid = new TransactionId();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,138 @@
+package simpledb;
+
+import java.io.File;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class StealTest extends TestUtil.CreatePagedHeapFile {
+
+    private static final int PAGES = 10;
+
+    private BufferPool bp;
+
+    @Before public void createFile() throws Exception {
+        createHeapFile(PAGES);
+        bp = Database.resetBufferPool(3);
+        bp.setSteal(true);
+    }
+
+    private int emptySlotsOnDisk(int pgNo) {
+        return ((HeapPage) hf.readPage(pid(pgNo))).getNumEmptySlots();
+    }
+
+    // 删除每一页的第一个元组，涉及的页面比缓存能容纳的多
+    private void deleteFirstOfEach(TransactionId tid) throws Exception {
+        for (int i = 0; i < PAGES; i++) {
+            HeapPage page = (HeapPage) bp.getPage(tid, pid(i), Permissions.READ_WRITE);
+            bp.deleteTuple(tid, page.iterator().next());
+        }
+    }
+
+    /**
+     * Without STEAL a transaction cannot dirty more pages than the pool holds
+     */
+    @Test(expected = DbException.class) public void noSteal() throws Exception {
+        bp.setSteal(false);
+        bp.setNoForce(false);
+        assertFalse(bp.needsRecovery()); // FORCE和NO STEAL下磁盘上只有已提交的页面
+        deleteFirstOfEach(new TransactionId());
+    }
+
+    /**
+     * With STEAL it can, and its commit installs every page
+     */
+    @Test public void commit() throws Exception {
+        bp.setNoForce(false); // 提交时写回，与运行测试时选择的模式无关
+        Transaction t = new Transaction();
+        t.start();
+        deleteFirstOfEach(t.getId());
+        t.commit();
+        for (int i = 0; i < PAGES; i++)
+            assertEquals(1, emptySlotsOnDisk(i));
+    }
+
+    /**
+     * An abort undoes the pages that were written before it, whether the
+     * transaction or only the pool is told
+     */
+    @Test public void abort() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        deleteFirstOfEach(t.getId());
+        assertTrue(emptySlotsOnDisk(0) > 0);
+        t.abort();
+        for (int i = 0; i < PAGES; i++)
+            assertEquals(0, emptySlotsOnDisk(i));
+
+        TransactionId tid = new TransactionId();
+        deleteFirstOfEach(tid);
+        bp.transactionComplete(tid, false);
+        for (int i = 0; i < PAGES; i++)
+            assertEquals(0, emptySlotsOnDisk(i));
+    }
+
+    /**
+     * STEAL alone, with commits still forcing their pages, needs recovery
+     * at startup: it undoes the written pages of a transaction that did not
+     * commit
+     */
+    @Test public void recoverUndoes() throws Exception {
+        bp.setNoForce(false);
+        assertTrue(bp.needsRecovery());
+        Transaction t = new Transaction();
+        t.start();
+        deleteFirstOfEach(t.getId());
+        assertTrue(emptySlotsOnDisk(0) > 0);
+
+        File file = hf.getFile();
+        Database.reset(); // 模拟崩溃
+        hf = Utility.openHeapFile(2, file);
+        bp = Database.getBufferPool();
+        bp.setNoForce(false); // 重启时的配置与崩溃前相同
+        bp.setSteal(true);
+        assertTrue(bp.needsRecovery());
+        Database.getLogFile().recover();
+        for (int i = 0; i < PAGES; i++)
+            assertEquals(0, emptySlotsOnDisk(i));
+    }
+
+    /**
+     * With NO-FORCE too, recovery redoes both the pages written before the
+     * commit and those only logged by it
+     */
+    @Test public void recoverRedoesNoForce() throws Exception {
+        bp.setNoForce(true);
+        Transaction t = new Transaction();
+        t.start();
+        deleteFirstOfEach(t.getId());
+        t.commit();
+        assertTrue(bp.isUnwritten(pid(PAGES - 1)));
+
+        File file = hf.getFile();
+        Database.reset(); // 模拟崩溃
+        hf = Utility.openHeapFile(2, file);
+        Database.getLogFile().recover();
+        for (int i = 0; i < PAGES; i++)
+            assertEquals(1, emptySlotsOnDisk(i));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(StealTest.class);
+    }
+}
@@ -0,0 +1,139 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.storage.*;
+import simpledb.storage.cache.StripedPageCache;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class StripedPageCacheTest extends SimpleDbTestBase {
+
+    private int tableId;
+
+    @Before public void createTable() throws Exception {
+        tableId = SystemTestUtil.createRandomHeapFile(2, 0, null, null).getId();
+    }
+
+    private HeapPage page(int pgNo) throws Exception {
+        return new HeapPage(new HeapPageId(tableId, pgNo), HeapPage.createEmptyPageData());
+    }
+
+    /**
+     * The victim is the least recently used clean page across all stripes
+     */
+    @Test public void evictsLeastRecentlyUsed() throws Exception {
+        StripedPageCache cache = new StripedPageCache(8, pid -> 1, page -> {}, 4);
+        for (int i = 0; i < 8; i++)
+            cache.putPage(page(i));
+        assertTrue(cache.isFull());
+        cache.accessPage(new HeapPageId(tableId, 0));
+        cache.accessPage(new HeapPageId(tableId, 1));
+        assertEquals(new HeapPageId(tableId, 2), cache.pidToBeEvicted());
+
+        cache.getPage(new HeapPageId(tableId, 2)).markDirty(true, new TransactionId());
+        assertEquals(new HeapPageId(tableId, 3), cache.pidToBeEvicted());
+        cache.evictPage();
+        assertNull(cache.getPage(new HeapPageId(tableId, 3)));
+        assertFalse(cache.isFull());
+    }
+
+    /**
+     * Pages leaving the cache are passed to the listener
+     */
+    @Test public void removedPagesAreReported() throws Exception {
+        List<Page> removed = new ArrayList<>();
+        StripedPageCache cache = new StripedPageCache(4, pid -> 1, removed::add, 2);
+        HeapPage p0 = page(0);
+        cache.putPage(p0);
+        assertNull(cache.putPageIfAbsent(page(1)));
+        assertNotNull(cache.putPageIfAbsent(page(1)));
+        assertTrue(removed.isEmpty());
+
+        HeapPage p0b = page(0);
+        cache.putPage(p0b);
+        assertSame(p0b, cache.getPage(p0.getId()));
+        assertEquals(1, removed.size());
+        assertSame(p0, removed.get(0));
+
+        cache.removePage(p0.getId());
+        assertSame(p0b, removed.get(1));
+        Iterator<Page> it = cache.iterator();
+        assertTrue(it.hasNext());
+        assertEquals(new HeapPageId(tableId, 1), it.next().getId());
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Concurrent hits, insertions and evictions leave the cache consistent
+     */
+    @Test public void concurrentAccess() throws Exception {
+        int capacity = 64;
+        AtomicInteger removed = new AtomicInteger();
+        StripedPageCache cache = new StripedPageCache(capacity, pid -> 1, page -> removed.incrementAndGet(), 8);
+        List<HeapPage> pages = new ArrayList<>();
+        for (int i = 0; i < 256; i++)
+            pages.add(page(i));
+        AtomicInteger inserted = new AtomicInteger();
+        List<Throwable> errors = new ArrayList<>();
+
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int seed = t;
+            threads[t] = new Thread(() -> {
+                Random r = new Random(seed);
+                try {
+                    for (int i = 0; i < 20000; i++) {
+                        HeapPage p = pages.get(r.nextInt(pages.size()));
+                        if (cache.accessPage(p.getId()) != null)
+                            continue;
+                        synchronized (cache) { // BufferPool驱逐时持有自身的锁
+                            while (!cache.hasRoomFor(p.getId()))
+                                cache.evictPage();
+                            if (cache.putPageIfAbsent(p) == null)
+                                inserted.incrementAndGet();
+                        }
+                    }
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        assertTrue(errors.toString(), errors.isEmpty());
+
+        Set<PageId> cached = new HashSet<>();
+        Iterator<Page> it = cache.iterator();
+        while (it.hasNext())
+            assertTrue(cached.add(it.next().getId()));
+        assertTrue(cached.size() <= capacity);
+        assertEquals(inserted.get() - removed.get(), cached.size());
+        for (PageId pid : cached)
+            assertNotNull(cache.getPage(pid));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(StripedPageCacheTest.class);
+    }
+}
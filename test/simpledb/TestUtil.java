@@ -3,6 +3,8 @@ package simpledb;
 import simpledb.common.*;
 import simpledb.execution.OpIterator;
 import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -392,4 +394,31 @@ public class TestUtil {
         protected HeapFile empty;
         private final File emptyFile;
     }
+
+    /**
+     * A base class for tests that work on the pages of a HeapFile of random
+     * tuples with 2 int columns, every page of which is full.
+     */
+    public static abstract class CreatePagedHeapFile extends SimpleDbTestBase {
+        /** Tuples on a full page of a HeapFile with 2 int columns */
+        public static final int TUPLES_PER_PAGE = 504;
+
+        protected HeapFile hf;
+
+        /** Create hf with the given number of full pages */
+        protected void createHeapFile(int pages) throws IOException {
+            hf = SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE * pages, null, null);
+        }
+
+        /** @return the id of the given page of hf */
+        protected HeapPageId pid(int pgNo) {
+            return new HeapPageId(hf.getId(), pgNo);
+        }
+
+        /** Read pages from (inclusive) to to (exclusive) of hf through bp */
+        protected void read(BufferPool bp, TransactionId tid, int from, int to) throws Exception {
+            for (int i = from; i < to; i++)
+                bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        }
+    }
 }
@@ -73,6 +73,7 @@ public class TransactionTest extends TestUtil.CreateHeapFile {
    * that abort reverts pages to their previous on-disk state.
    */
   public void testTransactionComplete(boolean commit) throws Exception {
+    bp.setNoForce(false); // 提交时写回，与运行测试时选择的模式无关
     HeapPage p = (HeapPage) bp.getPage(tid1, p2, Permissions.READ_WRITE);
 
     Tuple t = Utility.getHeapTuple(new int[] { 6, 830 });
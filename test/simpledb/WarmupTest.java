@@ -0,0 +1,81 @@
+package simpledb;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.index.BTreePageId;
+import simpledb.storage.*;
+import simpledb.storage.cache.CachePolicy;
+import simpledb.storage.cache.WarmupSnapshot;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class WarmupTest extends TestUtil.CreatePagedHeapFile {
+
+    private File snapshot;
+
+    @Before public void createFile() throws Exception {
+        createHeapFile(30);
+        snapshot = File.createTempFile("warmup", ".snap");
+        snapshot.deleteOnExit();
+    }
+
+    /**
+     * Page ids of every kind come back from a snapshot in the order saved
+     */
+    @Test public void roundTrip() throws Exception {
+        List<PageId> pids = Arrays.asList(pid(3),
+                new BTreePageId(hf.getId(), 7, BTreePageId.LEAF),
+                new ColumnPageId(hf.getId(), 1, 2), pid(0));
+        WarmupSnapshot.write(snapshot, pids);
+        assertEquals(pids, WarmupSnapshot.read(snapshot));
+    }
+
+    /**
+     * A restarted pool reads back the hottest pages it can hold, and no more
+     */
+    @Test public void hottestPagesComeBack() throws Exception {
+        BufferPool bp = Database.resetBufferPool(10, CachePolicy.LRU);
+        TransactionId tid = new TransactionId();
+        read(bp, tid, 0, 10);
+        read(bp, tid, 5, 10); // 5..9最近使用过
+        bp.transactionComplete(tid);
+        bp.saveSnapshot(snapshot);
+
+        bp = Database.resetBufferPool(5, CachePolicy.LRU);
+        assertEquals(5, (int) bp.warmUp(snapshot).get(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 10; i++)
+            assertEquals(i >= 5, bp.isCached(pid(i)));
+    }
+
+    /**
+     * Pages of tables no longer in the catalog or past the end of their file
+     * are skipped, and pages already cached are left alone
+     */
+    @Test public void skipsStalePages() throws Exception {
+        WarmupSnapshot.write(snapshot, Arrays.asList(pid(1), new HeapPageId(hf.getId() + 1, 0), pid(30), pid(2)));
+        BufferPool bp = Database.resetBufferPool(10);
+        TransactionId tid = new TransactionId();
+        read(bp, tid, 1, 2);
+        bp.transactionComplete(tid);
+        assertEquals(1, (int) bp.warmUp(snapshot).get(10, TimeUnit.SECONDS));
+        assertTrue(bp.isCached(pid(2)));
+        assertFalse(bp.isCached(pid(30)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(WarmupTest.class);
+    }
+}
@@ -0,0 +1,70 @@
+package simpledb.benchmark;
+
+import java.lang.management.ManagementFactory;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Measures the time and the bytes allocated per page for read-only
+ * transactions that read every page of a table from a cold buffer pool and
+ * commit: as the pages are now, keeping the bytes read from disk as their
+ * before image, and with the before image serialized eagerly when the page
+ * is read and again at commit, as the pages used to.
+ * <p>
+ * Usage: ant benchmark -Dbench=BeforeImageBenchmark [-Dargs="pages rounds"]
+ */
+public class BeforeImageBenchmark {
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static long sink;
+
+    public static void main(String[] args) throws Exception {
+        int pages = Bench.intArg(args, 0, 500);
+        int rounds = Bench.intArg(args, 1, 20);
+
+        HeapFile hf = Bench.heapFile(pages);
+
+        System.out.printf("pages=%d rounds=%d, read-only transaction over every page, cold buffer pool%n",
+                pages, rounds);
+        for (int warmup = 0; warmup < 2; warmup++) {
+            readAll(hf, pages, false);
+            readAll(hf, pages, true);
+        }
+        report("eager before image", hf, pages, rounds, true);
+        report("lazy before image", hf, pages, rounds, false);
+    }
+
+    private static void report(String name, HeapFile hf, int pages, int rounds, boolean eager) throws Exception {
+        long bytes = 0;
+        long nanos = 0;
+        for (int r = 0; r < rounds; r++) {
+            Database.resetBufferPool(pages);
+            long b = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+            nanos += Bench.time(() -> readAll(hf, pages, eager));
+            bytes += THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) - b;
+        }
+        System.out.printf("%-19s: %8.2f us/page, %8d bytes allocated/page%n",
+                name, nanos / 1e3 / rounds / pages, bytes / rounds / pages);
+    }
+
+    private static void readAll(HeapFile hf, int pages, boolean eager) throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        for (int pgNo = 0; pgNo < pages; pgNo++) {
+            Page page = bp.getPage(tid, new HeapPageId(hf.getId(), pgNo), Permissions.READ_ONLY);
+            if (eager)
+                sink += page.getPageData().clone().length; // 原来的构造函数中的setBeforeImage
+        }
+        if (eager) {
+            for (int pgNo = 0; pgNo < pages; pgNo++) // 原来提交时对每个页面的setBeforeImage
+                sink += bp.getPage(tid, new HeapPageId(hf.getId(), pgNo), Permissions.READ_ONLY)
+                        .getPageData().clone().length;
+        }
+        bp.transactionComplete(tid);
+    }
+}
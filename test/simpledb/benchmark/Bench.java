@@ -0,0 +1,63 @@
+package simpledb.benchmark;
+
+import java.io.IOException;
+
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * The setup and timing shared by the benchmarks.  Each benchmark is a main
+ * run with ant benchmark -Dbench=Name [-Dargs="..."].
+ */
+final class Bench {
+
+    /** Tuples of two int columns in a page of the default size */
+    static final int TUPLES_PER_PAGE = 504;
+
+    /** Work to be timed */
+    interface Run {
+        void run() throws Exception;
+    }
+
+    private Bench() {
+    }
+
+    /** @return the i-th command line argument, or def if there are fewer arguments */
+    static int intArg(String[] args, int i, int def) {
+        return args.length > i ? Integer.parseInt(args[i]) : def;
+    }
+
+    /** @return the i-th command line argument, or def if there are fewer arguments */
+    static double doubleArg(String[] args, int i, double def) {
+        return args.length > i ? Double.parseDouble(args[i]) : def;
+    }
+
+    /**
+     * @return a HeapFile in the catalog of the given number of pages, full
+     *         of random tuples of two int columns
+     */
+    static HeapFile heapFile(int pages) throws IOException {
+        return SystemTestUtil.createRandomHeapFile(2, pages * TUPLES_PER_PAGE, null, null);
+    }
+
+    /** @return the nanoseconds run took */
+    static long time(Run run) throws Exception {
+        long start = System.nanoTime();
+        run.run();
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Runs run warmups times untimed, to warm up the JIT, and then runs times.
+     *
+     * @return the nanoseconds the timed runs took in total
+     */
+    static long time(int warmups, int runs, Run run) throws Exception {
+        for (int i = 0; i < warmups; i++)
+            run.run();
+        long nanos = 0;
+        for (int i = 0; i < runs; i++)
+            nanos += time(run);
+        return nanos;
+    }
+}
@@ -0,0 +1,117 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+import simpledb.storage.cache.CachePolicy;
+import simpledb.storage.cache.PageCache;
+import simpledb.storage.cache.PageTrace;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Replays a stream of page requests against every cache policy and reports
+ * the hit ratio of each, with one page of weight 1 per request and misses
+ * handled as the BufferPool handles them.
+ * <p>
+ * The stream is a trace recorded with
+ * -Dsimpledb.storage.BufferPool.trace=file (see {@link PageTrace}) or, if no
+ * trace is given, a synthetic one: OLTP requests, 90% of them on a hot 30%
+ * of a table, with a large sequential scan of another table interleaved
+ * now and then.  For the synthetic trace the hit ratio of the OLTP requests
+ * alone is reported too.
+ * <p>
+ * Usage: ant benchmark -Dbench=CacheSimulator [-Dargs="capacity [trace]"]
+ */
+public class CacheSimulator {
+
+    private static final int OLTP_TABLE = 1;
+    private static final int SCAN_TABLE = 2;
+
+    /** Just an id, which is all a PageCache needs of a clean page */
+    private static class SimPage implements Page {
+        private final PageId pid;
+
+        SimPage(PageId pid) {
+            this.pid = pid;
+        }
+
+        @Override public PageId getId() { return pid; }
+        @Override public TransactionId isDirty() { return null; }
+        @Override public void markDirty(boolean dirty, TransactionId tid) { throw new UnsupportedOperationException(); }
+        @Override public byte[] getPageData() { throw new UnsupportedOperationException(); }
+        @Override public Page getBeforeImage() { throw new UnsupportedOperationException(); }
+        @Override public void setBeforeImage() { throw new UnsupportedOperationException(); }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int capacity = Bench.intArg(args, 0, BufferPool.DEFAULT_PAGES * 10);
+        List<PageId> requests = new ArrayList<>();
+        if (args.length > 1) {
+            for (int[] r : PageTrace.read(new File(args[1])))
+                requests.add(new HeapPageId(r[0], r[1]));
+            System.out.printf("trace %s: %d requests, capacity=%d pages%n", args[1], requests.size(), capacity);
+        } else {
+            requests = synthetic(capacity);
+            System.out.printf("synthetic trace: %d requests, capacity=%d pages, "
+                    + "OLTP over %d pages (90%% on %d) with scans of %d pages%n",
+                    requests.size(), capacity, 2 * capacity, 3 * capacity / 5, 4 * capacity);
+        }
+
+        for (CachePolicy policy : CachePolicy.values()) {
+            PageCache cache = policy.create(capacity, pid -> 1, page -> {});
+            long hits = 0;
+            long oltp = 0;
+            long oltpHits = 0;
+            for (PageId pid : requests) {
+                boolean hit = cache.accessPage(pid) != null;
+                if (!hit) {
+                    while (!cache.hasRoomFor(pid))
+                        cache.evictPage();
+                    cache.putPageIfAbsent(new SimPage(pid));
+                }
+                if (hit)
+                    hits++;
+                if (pid.getTableId() == OLTP_TABLE) {
+                    oltp++;
+                    if (hit)
+                        oltpHits++;
+                }
+            }
+            if (args.length > 1)
+                System.out.printf("%-8s: hit ratio %5.1f%%%n", policy, 100.0 * hits / requests.size());
+            else
+                System.out.printf("%-8s: hit ratio %5.1f%%, OLTP hit ratio %5.1f%%%n", policy,
+                        100.0 * hits / requests.size(), 100.0 * oltpHits / oltp);
+        }
+    }
+
+    // OLTP表有2*capacity个页面，90%的请求落在其中3/5*capacity个热页面上；
+    // 每隔一段时间穿插一次4*capacity个页面的顺序扫描，扫描与OLTP请求交替进行
+    private static List<PageId> synthetic(int capacity) {
+        Random r = new Random(42);
+        int oltpPages = 2 * capacity;
+        int hotPages = 3 * capacity / 5;
+        int scanPages = 4 * capacity;
+        List<PageId> requests = new ArrayList<>();
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 20 * capacity; i++)
+                requests.add(oltp(r, oltpPages, hotPages));
+            for (int p = 0; p < scanPages; p++) {
+                requests.add(new HeapPageId(SCAN_TABLE, p));
+                requests.add(oltp(r, oltpPages, hotPages));
+            }
+        }
+        return requests;
+    }
+
+    private static PageId oltp(Random r, int pages, int hot) {
+        int p = r.nextInt(10) < 9 ? r.nextInt(hot) : hot + r.nextInt(pages - hot);
+        return new HeapPageId(OLTP_TABLE, p);
+    }
+}
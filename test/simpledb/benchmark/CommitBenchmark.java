@@ -0,0 +1,119 @@
+package simpledb.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LogFile;
+import simpledb.storage.Page;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Measures commit latency of a transaction that dirties many pages of a
+ * HeapFile, comparing the old one-page-at-a-time write-back (log, force,
+ * write for every page) against the batched BufferPool.flushPages, and
+ * whole commits of a Transaction with a FORCE and a NO-FORCE pool (see
+ * BufferPool.setNoForce), the latter writing only the log.
+ * <p>
+ * Usage: ant benchmark -Dbench=CommitBenchmark [-Dargs="pages rounds"]
+ */
+public class CommitBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int pages = Bench.intArg(args, 0, 300);
+        int rounds = Bench.intArg(args, 1, 5);
+
+        Database.resetBufferPool(pages + 50);
+        HeapFile hf = Bench.heapFile(pages);
+
+        // warm up the JIT on both paths
+        perPage(hf, pages);
+        batched(hf, pages);
+        commit(hf, pages, false);
+        commit(hf, pages, true);
+
+        long perPageNanos = 0, batchedNanos = 0, forceNanos = 0, noForceNanos = 0;
+        long perPageWrites = 0, batchedWrites = 0, forceWrites = 0, noForceWrites = 0;
+        for (int r = 0; r < rounds; r++) {
+            hf.getChannel().resetStats();
+            perPageNanos += perPage(hf, pages);
+            perPageWrites += hf.getChannel().getWriteCount();
+
+            hf.getChannel().resetStats();
+            batchedNanos += batched(hf, pages);
+            batchedWrites += hf.getChannel().getWriteCount();
+
+            hf.getChannel().resetStats();
+            forceNanos += commit(hf, pages, false);
+            forceWrites += hf.getChannel().getWriteCount();
+
+            hf.getChannel().resetStats();
+            noForceNanos += commit(hf, pages, true);
+            noForceWrites += hf.getChannel().getWriteCount();
+        }
+
+        System.out.printf("pages=%d rounds=%d%n", pages, rounds);
+        System.out.printf("per page write-back : %8.2f ms/commit, %d writes/commit%n",
+                perPageNanos / 1e6 / rounds, perPageWrites / rounds);
+        System.out.printf("batched write-back  : %8.2f ms/commit, %d writes/commit%n",
+                batchedNanos / 1e6 / rounds, batchedWrites / rounds);
+        System.out.printf("FORCE commit        : %8.2f ms/commit, %d writes/commit%n",
+                forceNanos / 1e6 / rounds, forceWrites / rounds);
+        System.out.printf("NO-FORCE commit     : %8.2f ms/commit, %d writes/commit%n",
+                noForceNanos / 1e6 / rounds, noForceWrites / rounds);
+    }
+
+    /** Dirty every page of the file on behalf of a new transaction. */
+    private static List<Page> dirtyAll(HeapFile hf, TransactionId tid, int pages) throws Exception {
+        List<Page> dirty = new ArrayList<>();
+        for (int pgNo = 0; pgNo < pages; pgNo++) {
+            Page p = Database.getBufferPool().getPage(tid, new HeapPageId(hf.getId(), pgNo),
+                    Permissions.READ_WRITE);
+            p.markDirty(true, tid);
+            dirty.add(p);
+        }
+        return dirty;
+    }
+
+    /** The write-back done by flushPages before batching. */
+    private static long perPage(HeapFile hf, int pages) throws Exception {
+        TransactionId tid = new TransactionId();
+        List<Page> dirty = dirtyAll(hf, tid, pages);
+        LogFile log = Database.getLogFile();
+        long elapsed = Bench.time(() -> {
+            for (Page p : dirty) {
+                log.logWrite(tid, p.getBeforeImage(), p);
+                log.force();
+                hf.writePage(p);
+                p.markDirty(false, null);
+                ((HeapPage) p).setBeforeImage();
+            }
+        });
+        Database.getBufferPool().transactionComplete(tid);
+        return elapsed;
+    }
+
+    private static long batched(HeapFile hf, int pages) throws Exception {
+        TransactionId tid = new TransactionId();
+        dirtyAll(hf, tid, pages);
+        long elapsed = Bench.time(() -> Database.getBufferPool().flushPages(tid));
+        Database.getBufferPool().transactionComplete(tid);
+        return elapsed;
+    }
+
+    /** A whole commit of a Transaction, including the COMMIT record. */
+    private static long commit(HeapFile hf, int pages, boolean noForce) throws Exception {
+        Database.getBufferPool().setNoForce(noForce);
+        Transaction t = new Transaction();
+        t.start();
+        dirtyAll(hf, t.getId(), pages);
+        long elapsed = Bench.time(t::commit);
+        Database.getBufferPool().setNoForce(false);
+        return elapsed;
+    }
+}
@@ -0,0 +1,91 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntFunction;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.storage.*;
+
+/**
+ * Reports the trade-off between compression ratio and CPU cost of the
+ * COMPRESSED HeapFile storage mode for a few data shapes and deflate
+ * levels: bytes on disk relative to plain pages, and the time to compress
+ * (writePage) and decompress (readPage) a page.
+ * <p>
+ * Usage: ant benchmark -Dbench=CompressionBenchmark [-Dargs="pages"]
+ */
+public class CompressionBenchmark {
+
+    private static final int[] LEVELS = {1, 6, 9};
+
+    public static void main(String[] args) throws Exception {
+        int pages = Bench.intArg(args, 0, 500);
+        Random r = new Random(42);
+
+        System.out.printf("pages=%d page size=%d%n", pages, BufferPool.getPageSize());
+        System.out.printf("%-26s %5s %8s %12s %12s%n", "data", "level", "ratio", "comp us/pg", "decomp us/pg");
+        run("random ints", pages, new Type[] {Type.INT_TYPE, Type.INT_TYPE},
+                i -> new int[] {r.nextInt(), r.nextInt()});
+        run("ints in [0, 100)", pages, new Type[] {Type.INT_TYPE, Type.INT_TYPE},
+                i -> new int[] {r.nextInt(100), r.nextInt(100)});
+        run("sequential id + small int", pages, new Type[] {Type.INT_TYPE, Type.INT_TYPE},
+                i -> new int[] {i, r.nextInt(10)});
+        run("id + short string", pages, new Type[] {Type.INT_TYPE, Type.STRING_TYPE},
+                i -> new int[] {i, r.nextInt(1000)});
+    }
+
+    /**
+     * Fill pages with tuples whose int values come from gen; string fields
+     * hold "name" followed by the generated value.
+     */
+    private static void run(String name, int pages, Type[] types, IntFunction<int[]> gen) throws Exception {
+        TupleDesc td = new TupleDesc(types);
+        File plainFile = File.createTempFile("plain", ".dat");
+        plainFile.deleteOnExit();
+        HeapFile plain = new HeapFile(plainFile, td);
+        Database.getCatalog().addTable(plain, "plain_" + name);
+
+        List<byte[]> data = new ArrayList<>();
+        int row = 0;
+        for (int pgNo = 0; pgNo < pages; pgNo++) {
+            HeapPage page = new HeapPage(new HeapPageId(plain.getId(), pgNo), HeapPage.createEmptyPageData());
+            while (page.getNumEmptySlots() > 0) {
+                int[] values = gen.apply(row++);
+                Tuple t = new Tuple(td);
+                for (int i = 0; i < types.length; i++) {
+                    t.setField(i, types[i] == Type.INT_TYPE ? new IntField(values[i])
+                            : new StringField("name" + values[i], Type.STRING_LEN));
+                }
+                page.insertTuple(t);
+            }
+            data.add(page.getPageData());
+        }
+
+        for (int level : LEVELS) {
+            File f = File.createTempFile("compressed", ".dat");
+            f.deleteOnExit();
+            new File(f.getPath() + ".ptm").deleteOnExit();
+            CompressedPageStore store = new CompressedPageStore(new DbFileChannel(f), new File(f.getPath() + ".ptm"));
+            store.setLevel(level);
+
+            // 预热后在原处覆盖写同样的页面
+            long compNanos = Bench.time(1, 1, () -> {
+                for (int i = 0; i < data.size(); i++)
+                    store.write(i, data.get(i));
+            });
+            long decompNanos = Bench.time(1, 1, () -> {
+                for (int i = 0; i < data.size(); i++)
+                    store.read(i, BufferPool.getPageSize());
+            });
+
+            double ratio = (double) pages * BufferPool.getPageSize() / store.getCompressedBytes();
+            System.out.printf("%-26s %5d %7.2fx %12.2f %12.2f%n", name, level, ratio,
+                    compNanos / 1000.0 / pages, decompNanos / 1000.0 / pages);
+            store.close();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package simpledb.benchmark;
+
+import simpledb.storage.*;
+import simpledb.storage.cache.CachePolicy;
+import simpledb.storage.cache.PageCache;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Fills a cache of every policy with pages of which a given fraction is
+ * dirty, as under NO STEAL with write-heavy transactions, then measures how
+ * many evictions per second it sustains, each followed by the insertion of
+ * a new clean page as on a buffer pool miss.
+ * <p>
+ * Usage: ant benchmark -Dbench=EvictionBenchmark [-Dargs="capacity evictions"]
+ */
+public class EvictionBenchmark {
+
+    private static final double[] DIRTY_FRACTIONS = {0, 0.5, 0.9, 0.99};
+
+    public static void main(String[] args) throws Exception {
+        int capacity = Bench.intArg(args, 0, 10000);
+        int evictions = Bench.intArg(args, 1, 20000);
+
+        int tableId = Bench.heapFile(0).getId();
+        byte[] empty = HeapPage.createEmptyPageData();
+        // 页面对象在各轮之间复用，只改变脏页标记
+        HeapPage[] pages = new HeapPage[capacity + evictions];
+        for (int i = 0; i < pages.length; i++)
+            pages[i] = new HeapPage(new HeapPageId(tableId, i), empty);
+        TransactionId tid = new TransactionId();
+
+        System.out.printf("capacity=%d pages, %d evictions%n", capacity, evictions);
+        System.out.printf("%-8s", "dirty");
+        for (double d : DIRTY_FRACTIONS)
+            System.out.printf(" %13.0f%%", d * 100);
+        System.out.println();
+        for (CachePolicy policy : CachePolicy.values()) {
+            run(policy, pages, capacity, evictions, 0, tid); // 预热
+            System.out.printf("%-8s", policy);
+            for (double d : DIRTY_FRACTIONS) {
+                long nanos = run(policy, pages, capacity, evictions, d, tid);
+                System.out.printf(" %10.0f ev/s", evictions / (nanos / 1e9));
+            }
+            System.out.println();
+        }
+    }
+
+    private static long run(CachePolicy policy, HeapPage[] pages, int capacity, int evictions, double dirty,
+            TransactionId tid) throws Exception {
+        PageCache cache = policy.create(capacity, pid -> 1, page -> {});
+        int dirtyPages = (int) (capacity * dirty);
+        for (int i = 0; i < capacity; i++) {
+            pages[i].markDirty(false, null);
+            cache.putPage(pages[i]);
+        }
+        // 最早放入的页面变脏，正是LRU链表尾部需要跳过的那些
+        for (int i = 0; i < dirtyPages; i++) {
+            pages[i].markDirty(true, tid);
+            cache.putPage(pages[i]);
+        }
+        long nanos = Bench.time(() -> {
+            for (int i = 0; i < evictions; i++) {
+                cache.evictPage();
+                HeapPage p = pages[capacity + i];
+                p.markDirty(false, null);
+                cache.putPageIfAbsent(p);
+            }
+        });
+        for (int i = 0; i < dirtyPages; i++)
+            pages[i].markDirty(false, null);
+        return nanos;
+    }
+}
@@ -0,0 +1,66 @@
+package simpledb.benchmark;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.common.Database;
+import simpledb.storage.LogFile;
+import simpledb.transaction.Transaction;
+
+/**
+ * Measures how many transactions per second commit when several clients
+ * commit at once, and how many commits each force of the log covers.  The
+ * transactions are empty, so that the time of a commit is the time of
+ * appending and forcing its BEGIN and COMMIT records.
+ * <p>
+ * Usage: ant benchmark -Dbench=GroupCommitBenchmark [-Dargs="seconds clients..."]
+ */
+public class GroupCommitBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        double seconds = Bench.doubleArg(args, 0, 3);
+        int[] clients = {1, 4, 32};
+        if (args.length > 1) {
+            clients = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++)
+                clients[i - 1] = Integer.parseInt(args[i]);
+        }
+
+        run(1, 0.5); // 预热JIT
+        for (int n : clients)
+            run(n, seconds);
+    }
+
+    private static void run(int clients, double seconds) throws Exception {
+        LogFile log = Database.getLogFile();
+        AtomicLong commits = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        long stopAt = System.nanoTime() + (long) (seconds * 1e9);
+        Thread[] threads = new Thread[clients];
+        for (int i = 0; i < clients; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    start.await();
+                    while (System.nanoTime() < stopAt) {
+                        Transaction t = new Transaction();
+                        t.start();
+                        t.commit();
+                        commits.incrementAndGet();
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            threads[i].start();
+        }
+        long forcesBefore = log.getForceCount();
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread t : threads)
+            t.join();
+        double elapsed = (System.nanoTime() - begin) / 1e9;
+        long forces = log.getForceCount() - forcesBefore;
+        System.out.printf("%2d clients: %8.0f commits/s, %7.0f forces/s, %5.1f commits/force%n",
+                clients, commits.get() / elapsed, forces / elapsed, (double) commits.get() / Math.max(1, forces));
+    }
+}
@@ -0,0 +1,57 @@
+package simpledb.benchmark;
+
+import java.io.File;
+
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LogFile;
+import simpledb.storage.Page;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Measures how fast LogFile appends records: UPDATE records carrying the
+ * before and after images of HeapFile pages, in MB of log per second, and
+ * BEGIN records, in records per second.  The log is forced once at the end
+ * of each run, so that the time is that of appending rather than of fsync.
+ * <p>
+ * Usage: ant benchmark -Dbench=LogBenchmark [-Dargs="updates begins rounds"]
+ */
+public class LogBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int updates = Bench.intArg(args, 0, 5000);
+        int begins = Bench.intArg(args, 1, 50000);
+        int rounds = Bench.intArg(args, 2, 3);
+
+        HeapFile hf = Bench.heapFile(16);
+        Page[] pages = new Page[16];
+        for (int i = 0; i < pages.length; i++)
+            pages[i] = hf.readPage(new HeapPageId(hf.getId(), i));
+
+        File f = File.createTempFile("logbench", ".log");
+        f.deleteOnExit();
+        for (int r = 0; r <= rounds; r++) { // 第0轮预热JIT
+            LogFile log = new LogFile(f);
+            long start = System.nanoTime();
+            TransactionId tid = new TransactionId();
+            for (int i = 0; i < updates; i++) {
+                Page p = pages[i % pages.length];
+                log.logWrite(tid, p, p);
+            }
+            log.force();
+            double updateSeconds = (System.nanoTime() - start) / 1e9;
+            long bytes = f.length();
+
+            log = new LogFile(f);
+            start = System.nanoTime();
+            for (int i = 0; i < begins; i++)
+                log.logXactionBegin(new TransactionId());
+            log.force();
+            double beginSeconds = (System.nanoTime() - start) / 1e9;
+
+            if (r > 0)
+                System.out.printf("updates: %7.1f MB/s (%d records, %.1f MB)   begins: %9.0f records/s%n",
+                        bytes / 1e6 / updateSeconds, updates, bytes / 1e6, begins / beginSeconds);
+        }
+    }
+}
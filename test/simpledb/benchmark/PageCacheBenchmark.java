@@ -0,0 +1,96 @@
+package simpledb.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.storage.*;
+import simpledb.storage.cache.LRUBasedCache;
+import simpledb.storage.cache.PageCache;
+import simpledb.storage.cache.StripedPageCache;
+
+/**
+ * Runs the same skewed page lookups from a growing number of threads
+ * against LRUBasedCache and StripedPageCache, inserting (and evicting) on
+ * every miss as the BufferPool does, and reports throughput and hit rate.
+ * <p>
+ * Usage: ant benchmark -Dbench=PageCacheBenchmark [-Dargs="capacity pages lookups maxthreads"]
+ */
+public class PageCacheBenchmark {
+
+    private static long sink;
+
+    public static void main(String[] args) throws Exception {
+        int capacity = Bench.intArg(args, 0, 1000);
+        int numPages = Bench.intArg(args, 1, 2000);
+        int lookups = Bench.intArg(args, 2, 2000000);
+        int maxThreads = Bench.intArg(args, 3, Math.max(4, Runtime.getRuntime().availableProcessors()));
+
+        int tableId = Bench.heapFile(0).getId();
+        HeapPage[] pages = new HeapPage[numPages];
+        for (int i = 0; i < numPages; i++)
+            pages[i] = new HeapPage(new HeapPageId(tableId, i), HeapPage.createEmptyPageData());
+
+        System.out.printf("capacity=%d pages=%d lookups/thread=%d, 80%% of lookups on 20%% of pages, %d cpus%n",
+                capacity, numPages, lookups, Runtime.getRuntime().availableProcessors());
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            for (int warmup = 0; warmup < 2 && threads <= 2; warmup++) {
+                run(new LRUBasedCache(capacity), pages, lookups, threads);
+                run(new StripedPageCache(capacity), pages, lookups, threads);
+            }
+            report("LRUBasedCache", new LRUBasedCache(capacity), pages, lookups, threads);
+            report("StripedPageCache", new StripedPageCache(capacity), pages, lookups, threads);
+        }
+    }
+
+    private static void report(String name, PageCache cache, HeapPage[] pages, int lookups, int threads)
+            throws Exception {
+        long[] result = run(cache, pages, lookups, threads);
+        long total = (long) lookups * threads;
+        System.out.printf("%-16s %2d threads: %7.2f M lookups/s, hit rate %5.1f%%%n", name, threads,
+                total / (result[0] / 1e9) / 1e6, 100.0 * result[1] / total);
+    }
+
+    /** @return the elapsed nanoseconds and the number of hits */
+    private static long[] run(PageCache cache, HeapPage[] pages, int lookups, int threads) throws Exception {
+        AtomicLong hits = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int seed = t;
+            workers[t] = new Thread(() -> {
+                Random r = new Random(seed);
+                int hot = pages.length / 5;
+                long h = 0;
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < lookups; i++) {
+                    HeapPage p = r.nextInt(10) < 8 ? pages[r.nextInt(hot)]
+                            : pages[hot + r.nextInt(pages.length - hot)];
+                    Page cached = cache.accessPage(p.getId());
+                    if (cached != null) {
+                        h++;
+                        continue;
+                    }
+                    synchronized (cache) { // BufferPool.evictPage同样在一个全局锁下
+                        while (!cache.hasRoomFor(p.getId()))
+                            cache.evictPage();
+                        cache.putPageIfAbsent(p);
+                    }
+                }
+                hits.addAndGet(h);
+            });
+            workers[t].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread t : workers)
+            t.join();
+        long nanos = System.nanoTime() - begin;
+        sink += hits.get();
+        return new long[] {nanos, hits.get()};
+    }
+}
@@ -0,0 +1,68 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileChannel;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+
+/**
+ * Measures buffer pool miss latency for random page reads of a HeapFile,
+ * comparing the old open/seek/read/close sequence against the persistent
+ * DbFileChannel used by HeapFile.readPage.
+ * <p>
+ * Usage: ant benchmark -Dbench=PageReadBenchmark [-Dargs="pages reads"]
+ */
+public class PageReadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int pages = Bench.intArg(args, 0, 2000);
+        int reads = Bench.intArg(args, 1, 20000);
+
+        HeapFile hf = Bench.heapFile(pages);
+        int[] order = new int[reads];
+        Random r = new Random(42);
+        for (int i = 0; i < reads; i++)
+            order[i] = r.nextInt(hf.numPages());
+
+        long reopenNanos = Bench.time(1, 1, () -> reopenEachTime(hf, order));
+        DbFileChannel ch = hf.getChannel();
+        channelReads(hf, order); // 预热JIT
+        ch.resetStats();
+        long channelNanos = Bench.time(() -> channelReads(hf, order));
+
+        System.out.printf("pages=%d reads=%d%n", hf.numPages(), reads);
+        System.out.printf("open per read : %8.2f us/miss, ~%d syscalls/miss (open, seek, read, close)%n",
+                reopenNanos / 1000.0 / reads, 4);
+        System.out.printf("DbFileChannel : %8.2f us/miss, %.2f syscalls/miss (%d opens, %d reads)%n",
+                channelNanos / 1000.0 / reads,
+                (double) (ch.getOpenCount() + ch.getReadCount()) / reads,
+                ch.getOpenCount(), ch.getReadCount());
+    }
+
+    /** The page read path used before DbFileChannel. */
+    private static void reopenEachTime(HeapFile hf, int[] order) throws IOException {
+        File f = hf.getFile();
+        int pageSize = BufferPool.getPageSize();
+        for (int pgNo : order) {
+            byte[] data = new byte[pageSize];
+            try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+                raf.seek((long) pgNo * pageSize);
+                raf.read(data);
+            }
+            new HeapPage(new HeapPageId(hf.getId(), pgNo), data);
+        }
+    }
+
+    /** The work done by BufferPool.getPage on a miss. */
+    private static void channelReads(HeapFile hf, int[] order) {
+        for (int pgNo : order) {
+            hf.readPage(new HeapPageId(hf.getId(), pgNo));
+        }
+    }
+}
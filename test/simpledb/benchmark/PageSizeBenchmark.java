@@ -0,0 +1,81 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Scans the same table stored with pages of the default size and with
+ * larger pages, starting from an empty buffer pool each time, and reports
+ * the number of pages read and the scan throughput.
+ * <p>
+ * Usage: ant benchmark -Dbench=PageSizeBenchmark [-Dargs="tuples pagesize"]
+ */
+public class PageSizeBenchmark {
+
+    private static final int COLUMNS = 4;
+
+    public static void main(String[] args) throws Exception {
+        int tuples = Bench.intArg(args, 0, 500000);
+        int largePageSize = Bench.intArg(args, 1, 65536);
+
+        List<List<Integer>> rows = new ArrayList<>(tuples);
+        Random r = new Random(42);
+        for (int i = 0; i < tuples; i++) {
+            List<Integer> row = new ArrayList<>(COLUMNS);
+            for (int j = 0; j < COLUMNS; j++)
+                row.add(r.nextInt());
+            rows.add(row);
+        }
+        HeapFile small = create(rows, BufferPool.getPageSize());
+        HeapFile large = create(rows, largePageSize);
+
+        // warm up the JIT, then time each scan from a cold buffer pool
+        scan(small, tuples);
+        scan(large, tuples);
+        long smallNanos = scan(small, tuples);
+        long largeNanos = scan(large, tuples);
+
+        long bytes = small.getFile().length();
+        System.out.printf("tuples=%d columns=%d, full scan, buffer pool of %d default pages%n",
+                tuples, COLUMNS, BufferPool.DEFAULT_PAGES);
+        System.out.printf("%6d byte pages : %6d pages, %8.2f ms, %7.1f MB/s%n", small.getPageSize(),
+                small.numPages(), smallNanos / 1e6, bytes / (smallNanos / 1e9) / (1 << 20));
+        System.out.printf("%6d byte pages : %6d pages, %8.2f ms, %7.1f MB/s%n", large.getPageSize(),
+                large.numPages(), largeNanos / 1e6, bytes / (largeNanos / 1e9) / (1 << 20));
+    }
+
+    private static HeapFile create(List<List<Integer>> rows, int pageSize) throws Exception {
+        File f = File.createTempFile("pagesize" + pageSize, ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        HeapFileEncoder.convert(rows, f, pageSize, COLUMNS);
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(COLUMNS), HeapFile.StorageMode.PLAIN, pageSize);
+        Database.getCatalog().addTable(hf, "t" + pageSize);
+        return hf;
+    }
+
+    private static long scan(HeapFile hf, int tuples) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        int[] n = {0};
+        long nanos = Bench.time(() -> {
+            DbFileIterator it = hf.iterator(tid);
+            it.open();
+            while (it.hasNext()) {
+                it.next();
+                n[0]++;
+            }
+            it.close();
+        });
+        Database.getBufferPool().transactionComplete(tid);
+        if (n[0] != tuples) throw new AssertionError("scanned " + n[0] + " of " + tuples + " tuples");
+        return nanos;
+    }
+}
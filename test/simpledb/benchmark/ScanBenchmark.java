@@ -0,0 +1,51 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.ReadAhead;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Measures SeqScan throughput over a table that is not in the buffer pool,
+ * with and without sequential read-ahead.
+ * <p>
+ * Usage: ant benchmark -Dbench=ScanBenchmark [-Dargs="pages poolPages runs"]
+ */
+public class ScanBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int pages = Bench.intArg(args, 0, 2000);
+        int poolPages = Bench.intArg(args, 1, 500);
+        int runs = Bench.intArg(args, 2, 5);
+
+        HeapFile hf = Bench.heapFile(pages);
+        System.out.printf("pages=%d pool=%d runs=%d%n", hf.numPages(), poolPages, runs);
+
+        // the first two rounds only warm up the JIT
+        int round = 0;
+        for (int[] window : new int[][]{{4, 0}, {4, 32}, {4, 0}, {4, 32}}) {
+            ReadAhead.setWindow(window[0], window[1]);
+            long nanos = 0;
+            long tuples = 0;
+            for (int i = 0; i < runs; i++) {
+                Database.resetBufferPool(poolPages); // start cold
+                TransactionId tid = new TransactionId();
+                SeqScan scan = new SeqScan(tid, hf.getId());
+                long start = System.nanoTime();
+                scan.open();
+                while (scan.hasNext()) {
+                    scan.next();
+                    tuples++;
+                }
+                scan.close();
+                nanos += System.nanoTime() - start;
+                Database.getBufferPool().transactionComplete(tid);
+            }
+            if (round++ < 2)
+                continue;
+            System.out.printf("read-ahead max window %2d: %8.1f pages/s, %10.0f tuples/s%n",
+                    window[1], (double) hf.numPages() * runs / (nanos / 1e9), tuples / (nanos / 1e9));
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package simpledb.systemtest;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+
+import simpledb.storage.BufferPool;
+
+/**
+ * Runs the logging, abort and recovery tests with pools that commit
+ * without writing the pages of the transaction.
+ */
+public class NoForceLogTest extends LogTest {
+
+    @BeforeClass public static void noForce() {
+        System.setProperty(BufferPool.NO_FORCE_PROPERTY, "true");
+    }
+
+    @AfterClass public static void force() {
+        System.clearProperty(BufferPool.NO_FORCE_PROPERTY);
+    }
+
+    /** Make this test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(NoForceLogTest.class);
+    }
+}
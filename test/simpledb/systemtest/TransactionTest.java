@@ -238,7 +238,7 @@ public class TransactionTest extends SimpleDbTestBase {
             throws IOException, DbException, TransactionAbortedException {
         // Allocate a file with ~10 pages of data
         HeapFile f = SystemTestUtil.createRandomHeapFile(2, 512*10, null, null);
-        Database.resetBufferPool(1);
+        Database.resetBufferPool(1).setSteal(false); // 无论运行测试时是否选择了STEAL
 
         // BEGIN TRANSACTION
         Transaction t = new Transaction();
@@ -255,6 +255,31 @@ public class TransactionTest extends SimpleDbTestBase {
         t.commit();
     }
 
+    @Test public void testAllDirtyStealsAndAborts()
+            throws IOException, DbException, TransactionAbortedException {
+        // Allocate a file with ~10 pages of data
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 512*10, null, null);
+        Database.resetBufferPool(1).setSteal(true);
+
+        // BEGIN TRANSACTION
+        Transaction t = new Transaction();
+        t.start();
+
+        // Insert a new row
+        AbortEvictionTest.insertRow(f, t);
+
+        // With STEAL the scan writes the dirty page back to make room, and
+        // still sees the row when it reads the page again
+        assertTrue(AbortEvictionTest.findMagicTuple(f, t));
+        t.abort();
+
+        // The abort undoes the page that was written back
+        Transaction t2 = new Transaction();
+        t2.start();
+        assertFalse(AbortEvictionTest.findMagicTuple(f, t2));
+        t2.commit();
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(TransactionTest.class);